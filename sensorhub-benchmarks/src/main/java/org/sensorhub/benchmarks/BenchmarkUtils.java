@@ -0,0 +1,106 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.Quantity;
+import net.opengis.swe.v20.Time;
+import org.sensorhub.impl.persistence.perst.BasicStorageConfig;
+import org.vast.data.DataRecordImpl;
+import org.vast.data.QuantityImpl;
+import org.vast.data.TimeImpl;
+import org.vast.swe.SWEConstants;
+
+
+/**
+ * <p>
+ * Helper methods shared by storage benchmarks
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+class BenchmarkUtils
+{
+    
+    private BenchmarkUtils()
+    {        
+    }
+    
+    
+    /*
+     * Creates a record structure similar to the one produced by FakeSensorData
+     */
+    static DataComponent createWeatherRecord(String name)
+    {
+        DataComponent rec = new DataRecordImpl(4);
+        rec.setName(name);
+        rec.setDefinition("urn:osh:bench:weatherData");
+        
+        Time time = new TimeImpl();
+        time.setDefinition(SWEConstants.DEF_SAMPLING_TIME);
+        time.getUom().setHref(Time.ISO_TIME_UNIT);
+        rec.addComponent("time", time);
+        
+        Quantity temp = new QuantityImpl();
+        temp.setDefinition("urn:osh:bench:temperature");
+        temp.getUom().setCode("Cel");
+        rec.addComponent("temp", temp);
+        
+        Quantity wind = new QuantityImpl();
+        wind.setDefinition("urn:osh:bench:windSpeed");
+        wind.getUom().setCode("m/s");
+        rec.addComponent("windSpeed", wind);
+        
+        Quantity press = new QuantityImpl();
+        press.setDefinition("urn:osh:bench:pressure");
+        press.getUom().setCode("hPa");
+        rec.addComponent("press", press);
+        
+        return rec;
+    }
+    
+    
+    static DataBlock createWeatherData(DataComponent rec, double time)
+    {
+        DataBlock data = rec.createDataBlock();
+        data.setDoubleValue(0, time);
+        data.setDoubleValue(1, 20.0 + (time % 10));
+        data.setDoubleValue(2, 5.0 + (time % 3));
+        data.setDoubleValue(3, 1013.0 + (time % 7));
+        return data;
+    }
+    
+    
+    static BasicStorageConfig createPerstConfig(File dbFile)
+    {
+        BasicStorageConfig config = new BasicStorageConfig();
+        config.autoStart = true;
+        config.memoryCacheSize = 1024;
+        config.storagePath = dbFile.getAbsolutePath();
+        return config;
+    }
+    
+    
+    static File createTempDbFile() throws IOException
+    {
+        File dbFile = File.createTempFile("oshbench", ".dat");
+        dbFile.deleteOnExit();
+        return dbFile;
+    }
+}
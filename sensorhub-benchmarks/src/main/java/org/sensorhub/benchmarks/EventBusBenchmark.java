@@ -0,0 +1,138 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sensorhub.api.common.Event;
+import org.sensorhub.api.common.IEventHandler;
+import org.sensorhub.api.common.IEventListener;
+import org.sensorhub.impl.common.EventBus;
+import org.sensorhub.impl.common.EventBusConfig;
+import org.sensorhub.impl.common.EventBusConfig.DispatchMode;
+import org.sensorhub.impl.common.QueueOverflowPolicy;
+
+
+/**
+ * <p>
+ * Measures the throughput of event publication on the event bus with 1, 10
+ * and 100 listeners registered on the same topic, using the different
+ * dispatch modes.<br/>
+ * Listener queues use the BLOCK overflow policy so the measured rate is the
+ * sustained delivery rate, not only the cost of enqueuing events.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventBusBenchmark
+{
+    static final String MODULE_ID = "urn:osh:bench:producer";
+    static final String TOPIC = "data";
+    
+    
+    enum BenchEventType {DATA}
+    
+    static class BenchEvent extends Event<BenchEventType>
+    {
+        BenchEvent(Object source)
+        {
+            // use real time so dispatch delay checks don't flood the logs
+            this.timeStamp = System.currentTimeMillis();
+            this.type = BenchEventType.DATA;
+            this.source = source;
+        }
+    }
+    
+    
+    @Param({"1", "10", "100"})
+    int numListeners;
+    
+    @Param({"CACHED_POOL", "FIXED_POOL", "SYNCHRONOUS"})
+    DispatchMode dispatchMode;
+    
+    EventBus eventBus;
+    List<IEventListener> listeners; // strong references since the bus only keeps weak ones
+    IEventHandler eventHandler;
+    AtomicLong receivedCount;
+    long publishedCount;
+    
+    
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        EventBusConfig config = new EventBusConfig();
+        config.dispatchMode = dispatchMode;
+        config.overflowPolicy = QueueOverflowPolicy.BLOCK;
+        eventBus = new EventBus(config);
+        receivedCount = new AtomicLong();
+        listeners = new ArrayList<>();
+        
+        // use distinct listener instances since listeners are registered by identity
+        for (int i = 0; i < numListeners; i++)
+        {
+            IEventListener listener = new IEventListener() {
+                @Override
+                public void handleEvent(Event<?> e)
+                {
+                    receivedCount.incrementAndGet();
+                }
+            };
+            listeners.add(listener);
+            eventBus.registerListener(MODULE_ID, TOPIC, listener);
+        }
+        
+        eventHandler = eventBus.registerProducer(MODULE_ID, TOPIC);
+    }
+    
+    
+    @Benchmark
+    public void publish()
+    {
+        eventHandler.publishEvent(new BenchEvent(this));
+        publishedCount++;
+    }
+    
+    
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        System.out.println();
+        System.out.println("Dispatch stats: " + eventBus.getDispatchStats());
+        System.out.println("Events delivered: " + receivedCount.get() + "/" + publishedCount * numListeners);
+        eventBus.shutdown();
+    }
+}
@@ -0,0 +1,193 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sensorhub.api.sensor.ISensorDataInterface;
+import org.sensorhub.api.sensor.SensorConfig;
+import org.sensorhub.impl.SensorHub;
+import org.sensorhub.impl.module.ModuleRegistry;
+import org.sensorhub.test.sensor.FakeSensorData;
+import org.sensorhub.test.service.sos.FakeSensorData2;
+import org.sensorhub.test.service.sos.FakeSensorNetWithFoi;
+import org.vast.cdm.common.DataStreamWriter;
+import org.vast.swe.AbstractDataWriter;
+import org.vast.swe.FilteredWriter;
+import org.vast.swe.SWEConstants;
+import org.vast.swe.SWEHelper;
+import org.vast.swe.fast.DataBlockProcessor;
+import org.vast.swe.fast.FilterByDefinition;
+
+
+/**
+ * <p>
+ * Measures the cost of encoding result records the same way the SOS
+ * GetResult operation does, for the scalar text output of FakeSensorData
+ * and the binary image output of FakeSensorData2.<br/>
+ * Encoded data is written to a sink that discards it, so only the writer
+ * and flush overhead is measured.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetResultEncodingBenchmark
+{
+    static final int NUM_RECORDS = 1000;
+    
+    
+    /*
+     * Output stream discarding all data
+     */
+    static class NullOutputStream extends OutputStream
+    {
+        long byteCount;
+        
+        @Override
+        public void write(int b) throws IOException
+        {
+            byteCount++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            byteCount += len;
+        }
+    }
+    
+    
+    @Param({"weather", "image"})
+    String output;
+    
+    @Param({"true", "false"})
+    boolean flushEachRecord;
+    
+    ModuleRegistry registry;
+    DataComponent resultStructure;
+    DataEncoding resultEncoding;
+    Set<String> observables;
+    List<DataBlock> records;
+    NullOutputStream os;
+    
+    
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        registry = SensorHub.getInstance().getModuleRegistry();
+        
+        SensorConfig sensorCfg = new SensorConfig();
+        sensorCfg.autoStart = false;
+        sensorCfg.moduleClass = FakeSensorNetWithFoi.class.getCanonicalName();
+        sensorCfg.name = "BenchSensor";
+        FakeSensorNetWithFoi sensor = (FakeSensorNetWithFoi)registry.loadModule(sensorCfg);
+        
+        // outputs are only used to provide record structure and encoding
+        ISensorDataInterface sensorOutput;
+        if ("image".equals(output))
+            sensorOutput = new FakeSensorData2(sensor, output, 1000.0, 0);
+        else
+            sensorOutput = new FakeSensorData(sensor, output, 1, 1000.0, 0);
+        resultStructure = sensorOutput.getRecordDescription();
+        resultEncoding = sensorOutput.getRecommendedEncoding();
+        
+        // request all observables like a GetResult without filter
+        observables = new LinkedHashSet<>();
+        observables.add(SWEConstants.DEF_SAMPLING_TIME);
+        observables.add(resultStructure.getDefinition());
+        for (int i = 0; i < resultStructure.getComponentCount(); i++)
+            observables.add(resultStructure.getComponent(i).getDefinition());
+        
+        // generate records
+        int numRecords = "image".equals(output) ? NUM_RECORDS / 100 : NUM_RECORDS;
+        records = new ArrayList<>(numRecords);
+        for (int i = 0; i < numRecords; i++)
+        {
+            DataBlock data = resultStructure.createDataBlock();
+            if ("image".equals(output))
+            {
+                for (int j = 0; j < data.getAtomCount(); j++)
+                    data.setByteValue(j, (byte)((i+j)%255));
+            }
+            else
+                data = BenchmarkUtils.createWeatherData(resultStructure, i * 0.1);
+            records.add(data);
+        }
+        
+        os = new NullOutputStream();
+    }
+    
+    
+    @Benchmark
+    public long encodeResult() throws IOException
+    {
+        // same writer setup as in SOSServlet.handleRequest(GetResultRequest)
+        DataStreamWriter writer = SWEHelper.createDataWriter(resultEncoding);
+        if (writer instanceof AbstractDataWriter)
+            writer = new FilteredWriter((AbstractDataWriter)writer, observables);
+        else
+            ((DataBlockProcessor)writer).setDataComponentFilter(new FilterByDefinition(observables));
+        writer.setDataComponents(resultStructure);
+        writer.setOutput(os);
+        
+        writer.startStream(true);
+        for (DataBlock data: records)
+        {
+            writer.write(data);
+            if (flushEachRecord)
+                writer.flush();
+        }
+        writer.endStream();
+        writer.flush();
+        
+        return os.byteCount;
+    }
+    
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        registry.shutdown(false, false);
+        SensorHub.clearInstance();
+    }
+}
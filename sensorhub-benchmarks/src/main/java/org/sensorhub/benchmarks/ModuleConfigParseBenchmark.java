@@ -0,0 +1,157 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.benchmarks;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sensorhub.api.module.ModuleConfig;
+import org.sensorhub.api.sensor.SensorConfig;
+import org.sensorhub.impl.module.ModuleConfigJsonFile;
+import org.sensorhub.impl.persistence.GenericStreamStorage;
+import org.sensorhub.impl.persistence.StreamStorageConfig;
+import org.sensorhub.impl.persistence.perst.BasicStorageConfig;
+import org.sensorhub.impl.persistence.perst.ObsStorageImpl;
+import org.sensorhub.impl.service.sos.SOSServiceConfig;
+import org.sensorhub.impl.service.sos.SensorDataProviderConfig;
+import org.sensorhub.test.sensor.FakeSensor;
+
+
+/**
+ * <p>
+ * Measures the time needed to read the module configuration file at hub
+ * startup, with a config made of sensors, each with a stream storage, and
+ * one SOS service exposing all sensors.<br/>
+ * The cold start benchmark only parses the file once per JVM, which is what
+ * happens when a hub boots. Config classes are already loaded at that point
+ * since the file is generated during setup.<br/>
+ * Run it on successive revisions of sensorhub-core to compare config parsing
+ * performance, e.g. with -PjmhInclude=ModuleConfigParseBenchmark
+ * </p>
+ *
+ * @since Oct 16, 2026
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ModuleConfigParseBenchmark
+{
+
+    /*
+     * Total number of modules in config file
+     */
+    @Param({"100", "1200"})
+    int numModules;
+
+    File configFile;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        configFile = File.createTempFile("oshbench-config", ".json");
+        configFile.deleteOnExit();
+        try (Writer writer = new FileWriter(configFile))
+        {
+            writer.write("[]");
+        }
+
+        ModuleConfigJsonFile configDb = new ModuleConfigJsonFile(configFile.getAbsolutePath(), false);
+        SOSServiceConfig sosConfig = new SOSServiceConfig();
+        sosConfig.id = "SOS";
+        sosConfig.name = "BenchSOS";
+
+        int numSensors = (numModules - 1) / 2;
+        for (int i = 0; i < numSensors; i++)
+        {
+            SensorConfig sensorCfg = new SensorConfig();
+            sensorCfg.id = "SENSOR" + i;
+            sensorCfg.moduleClass = FakeSensor.class.getCanonicalName();
+            sensorCfg.name = "BenchSensor" + i;
+            sensorCfg.autoStart = true;
+
+            BasicStorageConfig perstConfig = BenchmarkUtils.createPerstConfig(new File("db" + i + ".dat"));
+            perstConfig.moduleClass = ObsStorageImpl.class.getCanonicalName();
+
+            StreamStorageConfig storageCfg = new StreamStorageConfig();
+            storageCfg.id = "STORAGE" + i;
+            storageCfg.moduleClass = GenericStreamStorage.class.getCanonicalName();
+            storageCfg.name = "BenchStorage" + i;
+            storageCfg.autoStart = true;
+            storageCfg.dataSourceID = sensorCfg.id;
+            storageCfg.storageConfig = perstConfig;
+
+            SensorDataProviderConfig providerCfg = new SensorDataProviderConfig();
+            providerCfg.sensorID = sensorCfg.id;
+            providerCfg.storageID = storageCfg.id;
+            providerCfg.offeringID = "urn:osh:bench:offering" + i;
+            providerCfg.name = "BenchOffering" + i;
+            providerCfg.enabled = true;
+            sosConfig.dataProviders.add(providerCfg);
+
+            configDb.add(sensorCfg, storageCfg);
+        }
+
+        configDb.add(sosConfig);
+        configDb.commit();
+        configDb.close();
+
+        System.out.println();
+        System.out.println("Config file size: " + configFile.length()/1024 + "KB");
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public List<ModuleConfig> parseConfig()
+    {
+        return new ModuleConfigJsonFile(configFile.getAbsolutePath(), false).getAllModulesConfigurations();
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public List<ModuleConfig> parseConfigColdStart()
+    {
+        return new ModuleConfigJsonFile(configFile.getAbsolutePath(), false).getAllModulesConfigurations();
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        configFile.delete();
+    }
+}
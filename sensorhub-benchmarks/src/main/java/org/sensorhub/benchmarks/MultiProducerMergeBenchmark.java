@@ -0,0 +1,144 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.benchmarks;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sensorhub.api.persistence.ObsFilter;
+import org.sensorhub.api.persistence.ObsKey;
+import org.sensorhub.impl.persistence.perst.MultiEntityStorageImpl;
+import org.vast.data.TextEncodingImpl;
+
+
+/**
+ * <p>
+ * Measures the cost of the time-sorted merge of records from several
+ * producers in a PERST multi-entity storage, for an increasing number of
+ * producers and a fixed total number of records.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultiProducerMergeBenchmark
+{
+    static final String RECORD_TYPE = "weather";
+    static final String PRODUCER_ID_PREFIX = "urn:osh:bench:sensor:";
+    static final int TOTAL_RECORDS = 50000;
+    
+    @Param({"2", "10", "100"})
+    int numProducers;
+    
+    MultiEntityStorageImpl storage;
+    File dbFile;
+    Set<String> producerIDs;
+    
+    
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        dbFile = BenchmarkUtils.createTempDbFile();
+        storage = new MultiEntityStorageImpl();
+        storage.init(BenchmarkUtils.createPerstConfig(dbFile));
+        storage.start();
+        
+        producerIDs = new LinkedHashSet<>();
+        for (int p = 0; p < numProducers; p++)
+        {
+            String producerID = PRODUCER_ID_PREFIX + p;
+            storage.addDataStore(producerID);
+            producerIDs.add(producerID);
+        }
+        
+        DataComponent recordStruct = BenchmarkUtils.createWeatherRecord(RECORD_TYPE);
+        storage.addRecordStore(RECORD_TYPE, recordStruct, new TextEncodingImpl());
+        
+        // interleave time stamps of all producers so the merge has to switch
+        // between producers at almost every step
+        int recordsPerProducer = TOTAL_RECORDS / numProducers;
+        int p = 0;
+        for (String producerID: producerIDs)
+        {
+            for (int i = 0; i < recordsPerProducer; i++)
+            {
+                double time = i + (double)p / numProducers;
+                ObsKey key = new ObsKey(RECORD_TYPE, producerID, null, time);
+                storage.storeRecord(key, BenchmarkUtils.createWeatherData(recordStruct, time));
+            }
+            p++;
+        }
+        
+        // reopen DB so records are read back from file
+        storage.commit();
+        storage.stop();
+        storage.start();
+    }
+    
+    
+    @Benchmark
+    public int mergeAllProducers(Blackhole bh)
+    {
+        ObsFilter filter = new ObsFilter(RECORD_TYPE) {
+            @Override
+            public Set<String> getProducerIDs()
+            {
+                return producerIDs;
+            }
+        };
+        
+        int count = 0;
+        Iterator<DataBlock> it = storage.getDataBlockIterator(filter);
+        while (it.hasNext())
+        {
+            bh.consume(it.next());
+            count++;
+        }
+        
+        return count;
+    }
+    
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        storage.stop();
+        dbFile.delete();
+    }
+}
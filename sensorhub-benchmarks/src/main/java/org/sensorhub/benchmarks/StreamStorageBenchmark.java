@@ -0,0 +1,157 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import net.opengis.swe.v20.DataBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sensorhub.api.sensor.ISensorModule;
+import org.sensorhub.api.sensor.SensorConfig;
+import org.sensorhub.api.sensor.SensorDataEvent;
+import org.sensorhub.impl.SensorHub;
+import org.sensorhub.impl.module.ModuleRegistry;
+import org.sensorhub.impl.persistence.GenericStreamStorage;
+import org.sensorhub.impl.persistence.StreamStorageConfig;
+import org.sensorhub.impl.persistence.perst.BasicStorageConfig;
+import org.sensorhub.impl.persistence.perst.ObsStorageImpl;
+import org.sensorhub.test.sensor.FakeSensor;
+import org.sensorhub.test.sensor.FakeSensorData;
+
+
+/**
+ * <p>
+ * Measures the ingestion rate of {@link GenericStreamStorage} backed by a
+ * PERST observation storage, from reception of a sensor data event to
+ * storage of the record and periodic commit.<br/>
+ * Events are injected directly in the storage listener so the measurement
+ * doesn't include event bus dispatch.<br/>
+ * With asynchronous writes, the write queue is flushed at the end of each
+ * iteration so that the score counts stored records and not only queued ones.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamStorageBenchmark
+{
+    static final String OUTPUT_NAME = "weather";
+    
+    /*
+     * Minimum period between commits in ms (0 means commit after each record)
+     */
+    @Param({"0", "1000", "10000"})
+    int minCommitPeriod;
+    
+    /*
+     * Write records in the event thread or in the storage write queue thread
+     */
+    @Param({"false", "true"})
+    boolean asyncWrites;
+    
+    ModuleRegistry registry;
+    FakeSensorData fakeSensorData;
+    GenericStreamStorage storage;
+    File dbFile;
+    double sampleTime;
+    
+    
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        registry = SensorHub.getInstance().getModuleRegistry();
+        
+        // create fake sensor that never produces data by itself
+        SensorConfig sensorCfg = new SensorConfig();
+        sensorCfg.autoStart = false;
+        sensorCfg.moduleClass = FakeSensor.class.getCanonicalName();
+        sensorCfg.name = "BenchSensor";
+        ISensorModule<?> sensor = (ISensorModule<?>)registry.loadModule(sensorCfg);
+        fakeSensorData = new FakeSensorData((FakeSensor)sensor, OUTPUT_NAME, 1, 1000.0, 0);
+        ((FakeSensor)sensor).setDataInterfaces(fakeSensorData);
+        registry.startModule(sensor.getLocalID());
+        
+        // create stream storage backed by PERST
+        dbFile = BenchmarkUtils.createTempDbFile();
+        BasicStorageConfig perstConfig = BenchmarkUtils.createPerstConfig(dbFile);
+        perstConfig.moduleClass = ObsStorageImpl.class.getCanonicalName();
+        
+        StreamStorageConfig streamStorageConfig = new StreamStorageConfig();
+        streamStorageConfig.moduleClass = GenericStreamStorage.class.getCanonicalName();
+        streamStorageConfig.name = "BenchStorage";
+        streamStorageConfig.autoStart = true;
+        streamStorageConfig.dataSourceID = sensor.getLocalID();
+        streamStorageConfig.minCommitPeriod = minCommitPeriod;
+        streamStorageConfig.asyncWrites = asyncWrites;
+        streamStorageConfig.storageConfig = perstConfig;
+        storage = (GenericStreamStorage)registry.loadModule(streamStorageConfig);
+        
+        // wait until storage is connected to sensor
+        long t0 = System.currentTimeMillis();
+        while (!storage.isStarted())
+        {
+            if (System.currentTimeMillis() - t0 > 10000)
+                throw new IllegalStateException("Storage was not connected to data source");
+            Thread.sleep(10);
+        }
+    }
+    
+    
+    @Benchmark
+    public void storeRecord()
+    {
+        DataBlock data = BenchmarkUtils.createWeatherData(fakeSensorData.getRecordDescription(), sampleTime);
+        storage.handleEvent(new SensorDataEvent(System.currentTimeMillis(), fakeSensorData, data));
+        sampleTime += 0.1;
+    }
+    
+    
+    @TearDown(Level.Iteration)
+    public void flush()
+    {
+        // wait for queued records to be written and committed
+        storage.commit();
+    }
+    
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        System.out.println();
+        System.out.println("Records stored: " + storage.getNumRecords(OUTPUT_NAME));
+        System.out.println("DB file size: " + dbFile.length()/1024 + "KB");
+        registry.shutdown(false, false);
+        SensorHub.clearInstance();
+        dbFile.delete();
+    }
+}
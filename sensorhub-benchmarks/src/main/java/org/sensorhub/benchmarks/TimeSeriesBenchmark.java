@@ -0,0 +1,129 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.benchmarks;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sensorhub.api.persistence.DataFilter;
+import org.sensorhub.api.persistence.DataKey;
+import org.sensorhub.impl.persistence.perst.BasicStorageImpl;
+import org.vast.data.TextEncodingImpl;
+
+
+/**
+ * <p>
+ * Measures the time needed to iterate over a time range of records in a
+ * single PERST time series, for different range sizes.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimeSeriesBenchmark
+{
+    static final String RECORD_TYPE = "weather";
+    static final int NUM_RECORDS = 100000;
+    static final double TIME_STEP = 1.0;
+    
+    @Param({"10", "1000", "100000"})
+    int rangeSize;
+    
+    BasicStorageImpl storage;
+    File dbFile;
+    int rangeStart;
+    
+    
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        dbFile = BenchmarkUtils.createTempDbFile();
+        storage = new BasicStorageImpl();
+        storage.init(BenchmarkUtils.createPerstConfig(dbFile));
+        storage.start();
+        
+        DataComponent recordStruct = BenchmarkUtils.createWeatherRecord(RECORD_TYPE);
+        storage.addRecordStore(RECORD_TYPE, recordStruct, new TextEncodingImpl());
+        
+        for (int i = 0; i < NUM_RECORDS; i++)
+        {
+            double time = i * TIME_STEP;
+            storage.storeRecord(new DataKey(RECORD_TYPE, time), BenchmarkUtils.createWeatherData(recordStruct, time));
+        }
+        
+        // reopen DB so records are read back from file
+        storage.commit();
+        storage.stop();
+        storage.start();
+    }
+    
+    
+    @Benchmark
+    public int iterateRange(Blackhole bh)
+    {
+        // move range at each invocation to avoid always reading the same cached pages
+        final double begin = rangeStart * TIME_STEP;
+        final double end = (rangeStart + rangeSize - 1) * TIME_STEP;
+        rangeStart = (rangeStart + rangeSize) % (NUM_RECORDS - rangeSize + 1);
+        
+        DataFilter filter = new DataFilter(RECORD_TYPE) {
+            @Override
+            public double[] getTimeStampRange()
+            {
+                return new double[] {begin, end};
+            }
+        };
+        
+        int count = 0;
+        Iterator<DataBlock> it = storage.getDataBlockIterator(filter);
+        while (it.hasNext())
+        {
+            bh.consume(it.next());
+            count++;
+        }
+        
+        return count;
+    }
+    
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        storage.stop();
+        dbFile.delete();
+    }
+}
@@ -0,0 +1,41 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.api.common;
+
+import java.util.List;
+
+
+/**
+ * <p>
+ * Interface for listeners that can process several events at once.<br/>
+ * Asynchronous event handlers deliver all events drained from the listener
+ * queue in a single call to {@link #handleEvents(List)} instead of calling
+ * {@link #handleEvent(Event)} for each one.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public interface IBatchEventListener extends IEventListener
+{
+
+    /**
+     * Handles a batch of events, in the order they were published.<br/>
+     * The list is reused by the caller and must not be kept after this
+     * method returns.
+     * @param events list of events to process
+     */
+    public void handleEvents(List<Event<?>> events);
+}
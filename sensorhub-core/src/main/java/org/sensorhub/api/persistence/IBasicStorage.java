@@ -185,6 +185,30 @@ public interface IBasicStorage
     public int getNumMatchingRecords(IDataFilter filter, long maxCount);
     
     
+    /**
+     * Checks if more than maxCount records match the given filter.<br/>
+     * This is meant for admission control before records are actually read,
+     * so implementations should answer without scanning all matching records,
+     * using index or summary statistics whenever possible, and stop as soon
+     * as the threshold is exceeded otherwise.<br/>
+     * As for {@link #getNumMatchingRecords(IDataFilter, long)}, the result is
+     * only an indication since records can be added or removed concurrently.<br/>
+     * The default implementation relies on {@link #getNumMatchingRecords(IDataFilter, long)}
+     * so existing storage implementations keep working, but they should override
+     * it if they can answer more efficiently.
+     * @param filter filtering parameters
+     * @param maxCount threshold number of records
+     * @return true if the number of matching records is greater than maxCount
+     */
+    public default boolean hasMoreMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        // count is an int so it can never exceed larger thresholds
+        if (maxCount >= Integer.MAX_VALUE)
+            return false;
+        return getNumMatchingRecords(filter, maxCount + 1) > maxCount;
+    }
+    
+    
     /**
      * Persists data block in storage
      * @param key key object to associate to record
@@ -14,6 +14,7 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 
 package org.sensorhub.impl;
 
+import java.io.File;
 import org.sensorhub.api.comm.INetworkManager;
 import org.sensorhub.api.config.IGlobalConfig;
 import org.sensorhub.api.module.IModuleConfigRepository;
@@ -70,9 +71,12 @@ public class SensorHub
     {
         if (instance == null)
         {
-            EventBus eventBus = new EventBus();
+            EventBus eventBus = createEventBus(config);
+            long t0 = System.currentTimeMillis();
             IModuleConfigRepository configDB = new ModuleConfigJsonFile(config.getModuleConfigPath(), true);
-            ModuleRegistry registry = new ModuleRegistry(configDB, eventBus);
+            long t1 = System.currentTimeMillis();
+            ModuleRegistry registry = createModuleRegistry(config, configDB, eventBus);
+            registry.getStartupTimeline().addPhase("Read module configurations", t0, t1);
             instance = new SensorHub(config, registry, eventBus);
         }
         
@@ -80,6 +84,24 @@ public class SensorHub
     }
     
     
+    private static ModuleRegistry createModuleRegistry(IGlobalConfig config, IModuleConfigRepository configDB, EventBus eventBus)
+    {
+        if (config instanceof SensorHubConfig)
+            return new ModuleRegistry(configDB, eventBus, ((SensorHubConfig)config).getModuleRegistryConfig());
+        else
+            return new ModuleRegistry(configDB, eventBus);
+    }
+    
+    
+    private static EventBus createEventBus(IGlobalConfig config)
+    {
+        if (config instanceof SensorHubConfig)
+            return new EventBus(((SensorHubConfig)config).getEventBusConfig());
+        else
+            return new EventBus();
+    }
+    
+    
     /**
      * Creates the singleton instance with the given config, registry and event bus
      * @param config
@@ -247,7 +269,7 @@ public class SensorHub
         {
             // print usage
             System.out.println("SensorHub v1.1");
-            System.out.println("Command syntax: sensorhub [module_config_path] [base_storage_path]");
+            System.out.println("Command syntax: sensorhub [module_config_path] [base_storage_path] ([hub_options_path])");
             System.exit(1);
         }
         
@@ -256,6 +278,8 @@ public class SensorHub
         try
         {
             SensorHubConfig config = new SensorHubConfig(args[0], args[1]);
+            if (args.length > 2)
+                config.loadOptions(new File(args[2]));
             instance = SensorHub.createInstance(config);
                         
             // register shutdown hook for a clean stop 
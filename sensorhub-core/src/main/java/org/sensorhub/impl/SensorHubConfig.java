@@ -15,7 +15,19 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 package org.sensorhub.impl;
 
 import java.io.File;
-import org.sensorhub.api.config.IGlobalConfig;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import org.sensorhub.api.config.IGlobalConfig;
+import org.sensorhub.impl.common.EventBusConfig;
+import org.sensorhub.impl.module.ModuleRegistryConfig;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 
 
 /**
@@ -31,6 +43,8 @@ public class SensorHubConfig implements IGlobalConfig
     private String moduleConfigPath;
     private String moduleDataPath;
     private String baseStoragePath;
+    private EventBusConfig eventBusConfig = new EventBusConfig();
+    private ModuleRegistryConfig moduleRegistryConfig = new ModuleRegistryConfig();
     
     
     public SensorHubConfig()
@@ -74,5 +88,82 @@ public class SensorHubConfig implements IGlobalConfig
     public String getModuleDataPath()
     {
         return moduleDataPath;
-    }
+    }
+
+
+    /**
+     * @return the threading and queuing options of the event bus
+     */
+    public EventBusConfig getEventBusConfig()
+    {
+        return eventBusConfig;
+    }
+
+
+    public void setEventBusConfig(EventBusConfig eventBusConfig)
+    {
+        this.eventBusConfig = eventBusConfig;
+    }
+
+
+    /**
+     * @return the module startup options
+     */
+    public ModuleRegistryConfig getModuleRegistryConfig()
+    {
+        return moduleRegistryConfig;
+    }
+
+
+    public void setModuleRegistryConfig(ModuleRegistryConfig moduleRegistryConfig)
+    {
+        this.moduleRegistryConfig = moduleRegistryConfig;
+    }
+    
+    
+    /**
+     * Reads hub options from a JSON file such as:<br/>
+     * <code>{ "eventBusConfig": { "dispatchMode": "FIXED_POOL", "maxThreads": 8 },
+     * "moduleRegistryConfig": { "dependencyAwareStartup": true } }</code><br/>
+     * Options missing from the file keep their current values.
+     * @param file JSON file containing the options
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public void loadOptions(File file) throws IOException
+    {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))
+        {
+            GsonBuilder builder = new GsonBuilder();
+            builder.setLenient();
+            Gson gson = builder.create();
+            JsonElement root = gson.fromJson(reader, JsonElement.class);
+            if (root == null || root.isJsonNull())
+                return;
+            if (!root.isJsonObject())
+                throw new IOException("Hub options file " + file + " must contain a JSON object");
+            JsonObject options = root.getAsJsonObject();
+            
+            // only override sections that are present in the file
+            EventBusConfig eventBusOptions = readSection(gson, options, "eventBusConfig", EventBusConfig.class);
+            if (eventBusOptions != null)
+                this.eventBusConfig = eventBusOptions;
+            
+            ModuleRegistryConfig registryOptions = readSection(gson, options, "moduleRegistryConfig", ModuleRegistryConfig.class);
+            if (registryOptions != null)
+                this.moduleRegistryConfig = registryOptions;
+        }
+        catch (JsonParseException e)
+        {
+            throw new IOException("Invalid hub options file " + file, e);
+        }
+    }
+    
+    
+    private static <T> T readSection(Gson gson, JsonObject options, String name, Class<T> configClass)
+    {
+        JsonElement section = options.get(name);
+        if (section == null || section.isJsonNull())
+            return null;
+        return gson.fromJson(section, configClass);
+    }
 }
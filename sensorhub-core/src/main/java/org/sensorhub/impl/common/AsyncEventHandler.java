@@ -14,12 +14,14 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 
 package org.sensorhub.impl.common;
 
-import java.util.Map;
-import java.util.Queue;
-import java.util.WeakHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.sensorhub.api.common.Event;
+import org.sensorhub.api.common.IBatchEventListener;
 import org.sensorhub.api.common.IEventHandler;
 import org.sensorhub.api.common.IEventListener;
 import org.slf4j.Logger;
@@ -33,6 +35,26 @@ import org.slf4j.LoggerFactory;
  * events to other listeners in case one listener has a higher processing time.
  * It also ensures that events are delivered to each listener in the order they
  * were received.
+ * </p><p>
+ * Each listener queue is a bounded ring buffer so that a slow listener cannot
+ * exhaust the heap. The {@link QueueOverflowPolicy} decides what happens when
+ * a listener queue is full, and queue depth and drop counts can be retrieved
+ * for each listener. The default policy drops the oldest queued event so that
+ * a stalled listener never slows down the producer (and thus other listeners).
+ * </p><p>
+ * Each dispatch task drains up to {@code maxBatchSize} events from a listener
+ * queue and delivers them in a single loop, or in a single call if the listener
+ * implements {@link IBatchEventListener}, so that a new task is not submitted
+ * to the thread pool for every event.
+ * </p><p>
+ * Listener queues are kept in a copy-on-write list so that publishing an
+ * event never requires a lock, even when listeners are being registered
+ * or unregistered concurrently.
+ * </p><p>
+ * As with {@link BasicEventHandler}, listeners are only weakly referenced to
+ * prevent memory leaks in cases where they forget to unregister themselves.
+ * The queue of a listener that has been garbage collected is discarded the
+ * next time an event is published or dispatched.
  * </p>
  *
  * @author Alex Robin <alex.robin@sensiasoftware.com>
@@ -41,101 +63,182 @@ import org.slf4j.LoggerFactory;
 public class AsyncEventHandler implements IEventHandler
 {
     private static final Logger log = LoggerFactory.getLogger(AsyncEventHandler.class);
-    private Map<IEventListener, ListenerQueue> listeners;
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+    public static final QueueOverflowPolicy DEFAULT_OVERFLOW_POLICY = QueueOverflowPolicy.DROP_OLDEST;
+    public static final long DEFAULT_MAX_BLOCK_TIME = 1000L;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    
+    private List<ListenerQueue> listeners;
     private ExecutorService threadPool;
+    private int queueSize;
+    private QueueOverflowPolicy overflowPolicy;
+    private long maxBlockTime;
+    private int maxBatchSize;
     
     
     // helper class to use one queue per listener so they don't slow down each other
-    class ListenerQueue
+    class ListenerQueue implements Runnable
     {
-        IEventListener listener;
-        Queue<Event<?>> eventQueue = new ConcurrentLinkedQueue<>();
-        volatile boolean dispatching = false;
+        WeakReference<IEventListener> listenerRef;
+        BoundedEventQueue eventQueue;
+        List<Event<?>> batch = new ArrayList<>(); // only accessed by the current dispatch task
+        AtomicBoolean dispatching = new AtomicBoolean();
         volatile Thread dispatchThread;
+        volatile boolean cancelled;
+        volatile long lastDropWarningTime = Long.MIN_VALUE;
         
         ListenerQueue(IEventListener listener)
         {
-            this.listener = listener;
+            this.listenerRef = new WeakReference<>(listener);
+            this.eventQueue = new BoundedEventQueue(queueSize, overflowPolicy, maxBlockTime);
         }
         
-        synchronized void dispatchNextEvent()
+        void scheduleDispatch()
         {
-            // dispatch next event from queue
-            final Event<?> e = eventQueue.poll();
-            if (e != null)
+            // submit dispatch task only if one is not already pending
+            if (!cancelled && !eventQueue.isEmpty() && dispatching.compareAndSet(false, true))
             {
-                dispatching = true;
-                
                 try
                 {
-                    threadPool.execute(new Runnable() {
-                        @Override
-                        public void run()
-                        {
-                            try
-                            {
-                                dispatchThread = Thread.currentThread();
-                                
-                                long dispatchDelay = System.currentTimeMillis() - e.getTimeStamp();
-                                if (dispatchDelay > 100)
-                                {
-                                    String srcName = e.getSource().getClass().getSimpleName();
-                                    String destName = listener.getClass().getSimpleName();
-                                    log.warn("{} Event from {} to {} @ {}, dispatch delay={}, queue size={}", e.getType(), srcName, destName, e.getTimeStamp(), dispatchDelay, eventQueue.size());
-                                }                            
-                                
-                                //String srcName = e.getSource().getClass().getSimpleName();
-                                //String destName = listener.getClass().getSimpleName();
-                                //log.debug("Thread {}: Dispatching {} event from {} to {} @ {}, dispatch delay={}, queue size={}", Thread.currentThread().getId(), e.getType(), srcName, destName, e.getTimeStamp(), dispatchDelay, eventQueue.size());
-                                
-                                listener.handleEvent(e);
-                            }
-                            catch (Throwable ex)
-                            {
-                                String srcName = e.getSource().getClass().getSimpleName();
-                                String destName = listener.getClass().getSimpleName();
-                                log.error("Uncaught exception while dispatching event from {} to {}", srcName, destName, ex);
-                            }   
-                            finally
-                            {
-                                dispatchNextEvent();                                
-                            }
-                        }                        
-                    });
+                    threadPool.execute(this);
                 }
                 catch (Exception ex)
                 {
                     log.error("Cannot use event dispatch thread pool", ex);
-                    dispatching = false;
+                    dispatching.set(false);
                 }
             }
-            else
+        }
+        
+        @Override
+        public void run()
+        {
+            try
             {
-                dispatching = false;
+                dispatchThread = Thread.currentThread();
+                
+                // discard queue if listener was garbage collected
+                IEventListener listener = listenerRef.get();
+                if (listener == null)
+                {
+                    removeCollectedListener(this);
+                    return;
+                }
+                
+                // drain up to maxBatchSize events from queue and dispatch them in one loop
+                eventQueue.drainTo(batch, maxBatchSize);
+                if (!batch.isEmpty() && !cancelled)
+                {
+                    checkDispatchDelay(listener, batch.get(0));
+                    if (listener instanceof IBatchEventListener)
+                        dispatchBatch((IBatchEventListener)listener);
+                    else
+                    {
+                        for (Event<?> e: batch)
+                        {
+                            if (cancelled)
+                                break;
+                            dispatchEvent(listener, e);
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                batch.clear();
+                dispatchThread = null;
+                dispatching.set(false);
+                synchronized (this)
+                {
+                    notifyAll();
+                }
+                
+                // reschedule if more events were queued in the meantime
+                scheduleDispatch();
+            }
+        }
+        
+        void checkDispatchDelay(final IEventListener listener, final Event<?> e)
+        {
+            long dispatchDelay = System.currentTimeMillis() - e.getTimeStamp();
+            if (dispatchDelay > 100)
+            {
+                String srcName = e.getSource().getClass().getSimpleName();
+                String destName = listener.getClass().getSimpleName();
+                log.warn("{} Event from {} to {} @ {}, dispatch delay={}, queue size={}", e.getType(), srcName, destName, e.getTimeStamp(), dispatchDelay, eventQueue.size() + batch.size());
             }
             
-            notifyAll();
+            //String srcName = e.getSource().getClass().getSimpleName();
+            //String destName = listener.getClass().getSimpleName();
+            //log.debug("Thread {}: Dispatching {} event from {} to {} @ {}, dispatch delay={}, queue size={}", Thread.currentThread().getId(), e.getType(), srcName, destName, e.getTimeStamp(), dispatchDelay, eventQueue.size());
         }
         
-        synchronized void pushEvent(final Event<?> e)
+        void dispatchEvent(final IEventListener listener, final Event<?> e)
         {
-            if (eventQueue.offer(e))
-            {            
-                // start dispatching if needed
-                if (!dispatching)
-                    dispatchNextEvent();
+            try
+            {
+                listener.handleEvent(e);
             }
-            else
+            catch (Throwable ex)
             {
                 String srcName = e.getSource().getClass().getSimpleName();
                 String destName = listener.getClass().getSimpleName();
-                log.error("Max queue size reached when dispatching event from {} to {}. Clearing queue", srcName, destName);
-                eventQueue.clear();
+                log.error("Uncaught exception while dispatching event from {} to {}", srcName, destName, ex);
+            }
+        }
+        
+        void dispatchBatch(final IBatchEventListener listener)
+        {
+            try
+            {
+                listener.handleEvents(batch);
+            }
+            catch (Throwable ex)
+            {
+                String srcName = batch.get(0).getSource().getClass().getSimpleName();
+                String destName = listener.getClass().getSimpleName();
+                log.error("Uncaught exception while dispatching {} events from {} to {}", batch.size(), srcName, destName, ex);
+            }
+        }
+        
+        void pushEvent(final Event<?> e)
+        {
+            if (cancelled)
+                return;
+            
+            if (listenerRef.get() == null)
+            {
+                removeCollectedListener(this);
+                return;
+            }
+            
+            long droppedCount = eventQueue.getDroppedCount();
+            eventQueue.offer(e);
+            if (eventQueue.getDroppedCount() != droppedCount)
+                reportOverflow(e);
+            
+            // start dispatching if needed
+            scheduleDispatch();
+        }
+        
+        void reportOverflow(final Event<?> e)
+        {
+            // only warn once in a while so we don't flood the log
+            long now = System.currentTimeMillis();
+            if (now - lastDropWarningTime > 10000L)
+            {
+                lastDropWarningTime = now;
+                IEventListener listener = listenerRef.get();
+                String srcName = e.getSource().getClass().getSimpleName();
+                String destName = (listener != null) ? listener.getClass().getSimpleName() : "collected listener";
+                log.warn("Max queue size reached when dispatching event from {} to {}. Applying {} policy ({} events dropped so far)",
+                         srcName, destName, eventQueue.getOverflowPolicy(), eventQueue.getDroppedCount());
             }
         }
         
         synchronized void cancel()
         {
+            cancelled = true;
             eventQueue.clear();
             
             // don't wait if this is called from the listener itself
@@ -145,7 +248,7 @@ public class AsyncEventHandler implements IEventHandler
             // otherwise wait until current event is processed
             // this insures that no more event will be dispatched after this call
             long t0 = System.currentTimeMillis();
-            while (dispatching)
+            while (dispatching.get())
             {
                 try
                 {
@@ -163,32 +266,103 @@ public class AsyncEventHandler implements IEventHandler
     }
     
     
+    /**
+     * Creates an event handler with default queue size and overflow policy
+     * @param threadPool executor used to dispatch events to listeners
+     */
     public AsyncEventHandler(ExecutorService threadPool)
+    {
+        this(threadPool, DEFAULT_QUEUE_SIZE, DEFAULT_OVERFLOW_POLICY, DEFAULT_MAX_BLOCK_TIME, DEFAULT_MAX_BATCH_SIZE);
+    }
+    
+    
+    /**
+     * Creates an event handler with the given per-listener queue settings
+     * @param threadPool executor used to dispatch events to listeners
+     * @param queueSize maximum number of events queued for each listener
+     * @param overflowPolicy policy applied when a listener queue is full
+     * @param maxBlockTime maximum time a producer is blocked when using the
+     * {@link QueueOverflowPolicy#BLOCK} policy (in ms)
+     * @param maxBatchSize maximum number of events delivered to a listener
+     * each time a dispatch task is run (use 1 to dispatch events one by one)
+     */
+    public AsyncEventHandler(ExecutorService threadPool, int queueSize, QueueOverflowPolicy overflowPolicy, long maxBlockTime, int maxBatchSize)
     {
         this.threadPool = threadPool;
-        this.listeners = new WeakHashMap<>();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.queueSize = queueSize;
+        this.overflowPolicy = overflowPolicy;
+        this.maxBlockTime = maxBlockTime;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
     }
     
     
     @Override
     public void publishEvent(final Event<?> e)
     {
-        synchronized (listeners)
+        // add event to all registered listener queues
+        // iterating on the copy-on-write list doesn't require any lock
+        for (ListenerQueue queue: listeners)
+            queue.pushEvent(e);
+    }
+    
+    
+    /**
+     * @param listener
+     * @return the number of events waiting to be dispatched to the given
+     * listener or -1 if the listener is not registered
+     */
+    public int getQueueSize(IEventListener listener)
+    {
+        ListenerQueue queue = getListenerQueue(listener);
+        return (queue != null) ? queue.eventQueue.size() : -1;
+    }
+    
+    
+    /**
+     * @param listener
+     * @return the number of events that were dropped or coalesced because
+     * the queue of the given listener was full, or -1 if the listener is not
+     * registered
+     */
+    public long getDroppedEventCount(IEventListener listener)
+    {
+        ListenerQueue queue = getListenerQueue(listener);
+        return (queue != null) ? queue.eventQueue.getDroppedCount() : -1;
+    }
+    
+    
+    private ListenerQueue getListenerQueue(IEventListener listener)
+    {
+        for (ListenerQueue queue: listeners)
         {
-            // add event to all registered listener queues
-            for (ListenerQueue queue: listeners.values())
-                queue.pushEvent(e);
+            if (queue.listenerRef.get() == listener)
+                return queue;
         }
+        
+        return null;
+    }
+    
+    
+    /*
+     * Discards the queue of a listener that was garbage collected
+     */
+    private void removeCollectedListener(ListenerQueue queue)
+    {
+        queue.cancelled = true;
+        queue.eventQueue.clear();
+        listeners.remove(queue);
     }
    
 
     @Override
     public void registerListener(IEventListener listener)
     {
-        synchronized (listeners)
+        // sync only to prevent concurrent registrations of the same listener
+        synchronized (this)
         {
-            if (!listeners.containsKey(listener))
-                listeners.put(listener, new ListenerQueue(listener));
+            if (getListenerQueue(listener) == null)
+                listeners.add(new ListenerQueue(listener));
         }
     }
 
@@ -196,33 +370,44 @@ public class AsyncEventHandler implements IEventHandler
     @Override
     public void unregisterListener(IEventListener listener)
     {
-        synchronized (listeners)
+        ListenerQueue queue;
+        synchronized (this)
         {
-            ListenerQueue queue = listeners.remove(listener);
+            queue = getListenerQueue(listener);
             if (queue != null)
-                queue.cancel();
+                listeners.remove(queue);
         }
+        
+        // cancel outside of lock since it can wait for current dispatch to complete
+        if (queue != null)
+            queue.cancel();
     }
     
     
     @Override
     public int getNumListeners()
     {
-        synchronized (listeners)
+        int count = 0;
+        for (ListenerQueue queue: listeners)
         {
-            return listeners.size();
+            if (queue.listenerRef.get() != null)
+                count++;
         }
+        return count;
     }
     
     
     @Override
     public void clearAllListeners()
     {
-        synchronized (listeners)
+        List<ListenerQueue> oldQueues;
+        synchronized (this)
         {
-            for (ListenerQueue queue: listeners.values())
-                queue.cancel();
+            oldQueues = new ArrayList<>(listeners);
             listeners.clear();
         }
+        
+        for (ListenerQueue queue: oldQueues)
+            queue.cancel();
     }
 }
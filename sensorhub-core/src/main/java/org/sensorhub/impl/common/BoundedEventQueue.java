@@ -0,0 +1,272 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.common;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.sensorhub.api.common.Event;
+import org.vast.util.Asserts;
+
+
+/**
+ * <p>
+ * Fixed capacity ring buffer of events with configurable overflow policy.<br/>
+ * The number of queued events and the number of events dropped because
+ * of overflow are tracked so they can be reported for each listener.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class BoundedEventQueue
+{
+    private final Event<?>[] items;
+    private final QueueOverflowPolicy overflowPolicy;
+    private final long maxBlockTimeNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private int head; // index of oldest event
+    private int count;
+    private volatile long droppedCount;
+
+
+    /**
+     * Creates a queue with the given capacity and overflow policy
+     * @param capacity maximum number of events that can be queued
+     * @param overflowPolicy policy applied when the queue is full
+     * @param maxBlockTime maximum time to block the producer when using
+     * the {@link QueueOverflowPolicy#BLOCK} policy (in ms)
+     */
+    public BoundedEventQueue(int capacity, QueueOverflowPolicy overflowPolicy, long maxBlockTime)
+    {
+        Asserts.checkArgument(capacity > 0, "Queue capacity must be > 0");
+        Asserts.checkNotNull(overflowPolicy, QueueOverflowPolicy.class);
+        this.items = new Event<?>[capacity];
+        this.overflowPolicy = overflowPolicy;
+        this.maxBlockTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxBlockTime);
+    }
+
+
+    /**
+     * Adds an event to the queue, applying the overflow policy if full
+     * @param e event to add
+     * @return true if the event was queued, false if it was dropped
+     */
+    public boolean offer(Event<?> e)
+    {
+        lock.lock();
+        try
+        {
+            if (count == items.length)
+            {
+                switch (overflowPolicy)
+                {
+                    case BLOCK:
+                        if (!awaitNotFull())
+                        {
+                            droppedCount++;
+                            return false;
+                        }
+                        break;
+
+                    case DROP_OLDEST:
+                        items[head] = null;
+                        head = inc(head);
+                        count--;
+                        droppedCount++;
+                        break;
+
+                    case DROP_NEWEST:
+                        droppedCount++;
+                        return false;
+
+                    case COALESCE:
+                        items[(head + count - 1) % items.length] = e;
+                        droppedCount++;
+                        return true;
+                }
+            }
+
+            items[(head + count) % items.length] = e;
+            count++;
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /*
+     * Wait until at least one slot is free or the max block time is reached
+     * Must be called while holding the lock
+     */
+    private boolean awaitNotFull()
+    {
+        long nanos = maxBlockTimeNanos;
+        try
+        {
+            while (count == items.length)
+            {
+                if (nanos <= 0)
+                    return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+
+            return true;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+
+    /**
+     * Retrieves and removes the oldest event from the queue
+     * @return the oldest event or null if the queue is empty
+     */
+    public Event<?> poll()
+    {
+        lock.lock();
+        try
+        {
+            if (count == 0)
+                return null;
+
+            Event<?> e = items[head];
+            items[head] = null;
+            head = inc(head);
+            count--;
+            notFull.signal();
+            return e;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Removes up to maxEvents events from the queue and adds them to
+     * the given collection, in the order they were queued
+     * @param c collection to add events to
+     * @param maxEvents maximum number of events to transfer
+     * @return the number of events transferred
+     */
+    public int drainTo(Collection<Event<?>> c, int maxEvents)
+    {
+        lock.lock();
+        try
+        {
+            int n = Math.min(maxEvents, count);
+            for (int i = 0; i < n; i++)
+            {
+                c.add(items[head]);
+                items[head] = null;
+                head = inc(head);
+            }
+
+            count -= n;
+            if (n > 0)
+                notFull.signalAll();
+            return n;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Removes all queued events and releases blocked producers
+     */
+    public void clear()
+    {
+        lock.lock();
+        try
+        {
+            for (int i = 0; i < count; i++)
+                items[(head + i) % items.length] = null;
+            head = 0;
+            count = 0;
+            notFull.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    private int inc(int i)
+    {
+        return (++i == items.length) ? 0 : i;
+    }
+
+
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+
+    /**
+     * @return the number of events currently queued
+     */
+    public int size()
+    {
+        lock.lock();
+        try
+        {
+            return count;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return the maximum number of events this queue can hold
+     */
+    public int getCapacity()
+    {
+        return items.length;
+    }
+
+
+    /**
+     * @return the total number of events dropped or coalesced because
+     * the queue was full
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount;
+    }
+
+
+    public QueueOverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+}
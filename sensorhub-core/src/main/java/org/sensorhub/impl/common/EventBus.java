@@ -14,14 +14,26 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 
 package org.sensorhub.impl.common;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.sensorhub.api.common.IEventHandler;
 import org.sensorhub.api.common.IEventListener;
+import org.sensorhub.impl.common.EventBusConfig.DispatchMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -31,6 +43,11 @@ import org.sensorhub.api.common.IEventListener;
  * this class (instead of directly with the source module) in order to
  * benefit from more advanced event dispatching implementations such as
  * distributed event messaging.<br/>
+ * Handler registry is backed by a concurrent map so that registering
+ * producers or listeners never blocks threads publishing events.
+ * </p><p>
+ * The executor used to dispatch events is selected by {@link EventBusConfig}
+ * and its saturation metrics can be retrieved with {@link #getDispatchStats()}.
  * </p>
  *
  * @author Alex Robin <alex.robin@sensiasoftware.com>
@@ -38,40 +55,209 @@ import org.sensorhub.api.common.IEventListener;
  */
 public class EventBus
 {
+    private static final Logger log = LoggerFactory.getLogger(EventBus.class);
     public static final String MAIN_TOPIC = "_MAIN"; 
+    
+    
+    /*
+     * Composite key identifying a topic of a given module.
+     * Hash code is computed once since keys are looked up very often.
+     */
+    static final class TopicKey
+    {
+        final String moduleID;
+        final String topic;
+        final int hash;
+        
+        TopicKey(String moduleID, String topic)
+        {
+            this.moduleID = moduleID;
+            this.topic = topic;
+            this.hash = 31 * Objects.hashCode(moduleID) + Objects.hashCode(topic);
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
         
-    private Map<String, IEventHandler> eventHandlers;
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof TopicKey))
+                return false;
+            
+            TopicKey other = (TopicKey)obj;
+            return hash == other.hash &&
+                   Objects.equals(moduleID, other.moduleID) &&
+                   Objects.equals(topic, other.topic);
+        }
+    }
+        
+    
+    /*
+     * Executor wrapper keeping track of the number of running tasks
+     * Used to report saturation metrics of thread-per-task executors
+     */
+    static final class CountingExecutor extends AbstractExecutorService
+    {
+        final ExecutorService delegate;
+        final AtomicInteger runningTasks = new AtomicInteger();
+        
+        CountingExecutor(ExecutorService delegate)
+        {
+            this.delegate = delegate;
+        }
+        
+        @Override
+        public void execute(final Runnable command)
+        {
+            runningTasks.incrementAndGet();
+            try
+            {
+                delegate.execute(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        try { command.run(); }
+                        finally { runningTasks.decrementAndGet(); }
+                    }
+                });
+            }
+            catch (RuntimeException e)
+            {
+                runningTasks.decrementAndGet();
+                throw e;
+            }
+        }
+        
+        @Override
+        public void shutdown()
+        {
+            delegate.shutdown();
+        }
+        
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            return delegate.shutdownNow();
+        }
+        
+        @Override
+        public boolean isShutdown()
+        {
+            return delegate.isShutdown();
+        }
+        
+        @Override
+        public boolean isTerminated()
+        {
+            return delegate.isTerminated();
+        }
+        
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+        {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+    
+    
+    private ConcurrentMap<TopicKey, IEventHandler> eventHandlers;
+    private EventBusConfig config;
+    private DispatchMode dispatchMode;
     private ExecutorService threadPool;
     
     
     public EventBus()
     {
-        eventHandlers = new HashMap<String, IEventHandler>();
+        this(new EventBusConfig());
+    }
+    
+    
+    /**
+     * Creates an event bus with the given threading model and listener queue settings
+     * @param config event bus configuration
+     */
+    public EventBus(EventBusConfig config)
+    {
+        this.config = config;
+        this.eventHandlers = new ConcurrentHashMap<>();
         
         // create thread pool that will be used by all asynchronous event handlers
-        threadPool = new ThreadPoolExecutor(0, 100,
-                                            10L, TimeUnit.SECONDS,
-                                            new SynchronousQueue<Runnable>(),
-                                            new DefaultThreadFactory("EventBus"));
+        this.dispatchMode = config.dispatchMode;
+        this.threadPool = createThreadPool();
+        log.debug("Event bus dispatch mode is {}", dispatchMode);
+    }
+    
+    
+    protected ExecutorService createThreadPool()
+    {
+        int numThreads = config.maxThreads > 0 ? config.maxThreads : Runtime.getRuntime().availableProcessors();
+        
+        switch (dispatchMode)
+        {
+            case SYNCHRONOUS:
+                return null;
+                
+            case FIXED_POOL:
+                return new ForkJoinPool(numThreads, new ForkJoinWorkerThreadFactory() {
+                    final AtomicInteger threadNumber = new AtomicInteger(1);
+                    @Override
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+                    {
+                        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        t.setName("EventBus-" + threadNumber.getAndIncrement());
+                        return t;
+                    }
+                }, null, true);
+                
+            case VIRTUAL_THREADS:
+                try
+                {
+                    // use reflection so we can still compile and run on older JDKs
+                    Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                    return new CountingExecutor((ExecutorService)m.invoke(null));
+                }
+                catch (Exception e)
+                {
+                    log.warn("Virtual threads are not supported by this JVM. Falling back to {} dispatch mode", DispatchMode.CACHED_POOL);
+                    dispatchMode = DispatchMode.CACHED_POOL;
+                }
+                
+            default:
+                // dispatch tasks are queued when all threads are busy so listener code
+                // never runs in the publishing thread. The queue cannot grow unbounded
+                // since each listener has at most one dispatch task pending at a time
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads, numThreads,
+                                              10L, TimeUnit.SECONDS,
+                                              new LinkedBlockingQueue<Runnable>(),
+                                              new DefaultThreadFactory("EventBus"));
+                pool.allowCoreThreadTimeOut(true);
+                return pool;
+        }
     }
     
     
-    public synchronized IEventHandler registerProducer(String moduleID)
+    public IEventHandler registerProducer(String moduleID)
     {
         return registerProducer(moduleID, MAIN_TOPIC);
     }
     
     
-    public synchronized IEventHandler registerProducer(String moduleID, String topic)
+    public IEventHandler registerProducer(String moduleID, String topic)
     {
-        String key = getKey(moduleID, topic);
+        TopicKey key = new TopicKey(moduleID, topic);
         return ensureHandler(key);
     }
     
     
-    public synchronized IEventHandler registerProducer(String moduleID, String topic, IEventHandler handlerImpl)
+    public IEventHandler registerProducer(String moduleID, String topic, IEventHandler handlerImpl)
     {
-        String key = getKey(moduleID, topic);
+        TopicKey key = new TopicKey(moduleID, topic);
         
         // return already registered handler if any
         IEventHandler handler = eventHandlers.get(key);
@@ -79,59 +265,92 @@ public class EventBus
             return handler;
         
         // otherwise register the provided handler
+        // (or return the one registered concurrently by another thread)
         if (handlerImpl != null)
-            eventHandlers.put(key, handlerImpl);
+        {
+            handler = eventHandlers.putIfAbsent(key, handlerImpl);
+            if (handler != null)
+                return handler;
+        }
         
         return handlerImpl;
     }
     
     
-    public synchronized void unregisterProducer(String moduleID, String topic)
+    public void unregisterProducer(String moduleID, String topic)
     {
-        String key = getKey(moduleID, topic);
+        TopicKey key = new TopicKey(moduleID, topic);
         eventHandlers.remove(key);
     }
     
     
-    public synchronized void registerListener(String moduleID, String topic, IEventListener listener)
+    public void registerListener(String moduleID, String topic, IEventListener listener)
     {
-        String key = getKey(moduleID, topic);
+        TopicKey key = new TopicKey(moduleID, topic);
         // ensure the handler is created so we can register a listener before a producer!
         IEventHandler handler = ensureHandler(key);
         handler.registerListener(listener);
     }
 
 
-    public synchronized void unregisterListener(String moduleID, String topic, IEventListener listener)
+    public void unregisterListener(String moduleID, String topic, IEventListener listener)
     {
-        String key = getKey(moduleID, topic);
+        TopicKey key = new TopicKey(moduleID, topic);
         IEventHandler handler = eventHandlers.get(key);
         if (handler != null)
             handler.unregisterListener(listener);
     }
     
     
-    private final IEventHandler ensureHandler(String key)
+    private final IEventHandler ensureHandler(TopicKey key)
     {
+        // fast path when handler already exists
         IEventHandler handler = eventHandlers.get(key);
+        if (handler != null)
+            return handler;
         
-        // register new handleronly if non already exist for this key
-        if (handler == null)
+        // register new handler only if none already exist for this key
+        if (dispatchMode == DispatchMode.SYNCHRONOUS)
+            handler = new BasicEventHandler();
+        else
+            handler = new AsyncEventHandler(threadPool, config.listenerQueueSize, config.overflowPolicy, config.maxBlockTime, config.maxBatchSize);
+        IEventHandler existingHandler = eventHandlers.putIfAbsent(key, handler);
+        return (existingHandler != null) ? existingHandler : handler;
+    }
+
+    
+    /**
+     * @return saturation metrics of the executor used to dispatch events
+     */
+    public EventDispatchStats getDispatchStats()
+    {
+        if (threadPool instanceof ThreadPoolExecutor)
         {
-            //handler = new BasicEventHandler();
-            handler = new AsyncEventHandler(threadPool);
-            eventHandlers.put(key, handler);
+            ThreadPoolExecutor pool = (ThreadPoolExecutor)threadPool;
+            return new EventDispatchStats(dispatchMode, pool.getPoolSize(), pool.getActiveCount(),
+                pool.getQueue().size());
         }
-        
-        return handler;
+        else if (threadPool instanceof ForkJoinPool)
+        {
+            ForkJoinPool pool = (ForkJoinPool)threadPool;
+            return new EventDispatchStats(dispatchMode, pool.getPoolSize(), pool.getActiveThreadCount(),
+                pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+        }
+        else if (threadPool instanceof CountingExecutor)
+        {
+            int running = ((CountingExecutor)threadPool).runningTasks.get();
+            return new EventDispatchStats(dispatchMode, running, running, 0);
+        }
+        else
+            return new EventDispatchStats(dispatchMode, 0, 0, 0);
     }
     
     
-    private final String getKey(String moduleID, String topic)
+    public DispatchMode getDispatchMode()
     {
-        return moduleID + topic;
+        return dispatchMode;
     }
-
+    
     
     public void shutdown()
     {
@@ -0,0 +1,93 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.common;
+
+
+/**
+ * <p>
+ * Configuration of the event bus threading model and listener queues
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class EventBusConfig
+{
+
+    public enum DispatchMode
+    {
+        /**
+         * Elastic pool of platform threads, created on demand and released
+         * when idle. Dispatch tasks are queued when all threads are busy so
+         * listeners never run in the publishing thread.
+         */
+        CACHED_POOL,
+
+        /**
+         * Fixed number of platform threads with work-stealing queues
+         */
+        FIXED_POOL,
+
+        /**
+         * One virtual thread per dispatch task (requires JDK 21+, falls
+         * back to CACHED_POOL otherwise)
+         */
+        VIRTUAL_THREADS,
+
+        /**
+         * Events are dispatched synchronously in the publishing thread,
+         * without any listener queue
+         */
+        SYNCHRONOUS
+    }
+
+
+    /**
+     * Threading model used to dispatch events to listeners
+     */
+    public DispatchMode dispatchMode = DispatchMode.CACHED_POOL;
+
+
+    /**
+     * Maximum number of threads for CACHED_POOL mode, or number of
+     * threads for FIXED_POOL mode (0 means number of available processors)
+     */
+    public int maxThreads = 100;
+
+
+    /**
+     * Maximum number of events queued for each listener
+     */
+    public int listenerQueueSize = AsyncEventHandler.DEFAULT_QUEUE_SIZE;
+
+
+    /**
+     * Policy applied when a listener queue is full. BLOCK slows down the
+     * producer, and thus all other listeners, when a single listener stalls.
+     */
+    public QueueOverflowPolicy overflowPolicy = AsyncEventHandler.DEFAULT_OVERFLOW_POLICY;
+
+
+    /**
+     * Maximum time a producer is blocked when using the BLOCK overflow policy (ms)
+     */
+    public long maxBlockTime = AsyncEventHandler.DEFAULT_MAX_BLOCK_TIME;
+
+
+    /**
+     * Maximum number of events delivered to a listener by each dispatch task
+     */
+    public int maxBatchSize = AsyncEventHandler.DEFAULT_MAX_BATCH_SIZE;
+}
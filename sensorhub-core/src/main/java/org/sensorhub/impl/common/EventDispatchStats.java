@@ -0,0 +1,67 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.common;
+
+import org.sensorhub.impl.common.EventBusConfig.DispatchMode;
+
+
+/**
+ * <p>
+ * Snapshot of saturation metrics of the event bus dispatch executor
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class EventDispatchStats
+{
+    /**
+     * Dispatch mode actually in use
+     */
+    public final DispatchMode mode;
+
+    /**
+     * Current number of threads in the pool (number of live virtual threads
+     * in VIRTUAL_THREADS mode)
+     */
+    public final int poolSize;
+
+    /**
+     * Number of threads currently running dispatch tasks
+     */
+    public final int activeThreads;
+
+    /**
+     * Number of dispatch tasks waiting for a thread
+     */
+    public final long queuedTasks;
+
+
+    public EventDispatchStats(DispatchMode mode, int poolSize, int activeThreads, long queuedTasks)
+    {
+        this.mode = mode;
+        this.poolSize = poolSize;
+        this.activeThreads = activeThreads;
+        this.queuedTasks = queuedTasks;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return mode + ": poolSize=" + poolSize + ", active=" + activeThreads +
+               ", queued=" + queuedTasks;
+    }
+}
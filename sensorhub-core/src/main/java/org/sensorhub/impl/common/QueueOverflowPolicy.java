@@ -0,0 +1,50 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.common;
+
+
+/**
+ * <p>
+ * Policies applied by bounded event queues when a new event is offered
+ * while the queue is already full.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public enum QueueOverflowPolicy
+{
+    /**
+     * Block the producer until space is available (up to a maximum wait
+     * time, after which the new event is dropped)
+     */
+    BLOCK,
+
+    /**
+     * Discard the oldest queued event to make room for the new one
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discard the new event and keep the queue untouched
+     */
+    DROP_NEWEST,
+
+    /**
+     * Replace the most recently queued event by the new one so the
+     * listener always receives the latest record
+     */
+    COALESCE
+}
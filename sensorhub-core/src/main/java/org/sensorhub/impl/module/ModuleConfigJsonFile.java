@@ -29,6 +29,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import org.sensorhub.api.module.IModuleConfigRepository;
 import org.sensorhub.api.module.ModuleConfig;
 import org.slf4j.Logger;
@@ -70,11 +71,16 @@ public class ModuleConfigJsonFile implements IModuleConfigRepository
     
     /* GSON type adapter factory for parsing JSON object to a custom subclass.
      * The desired class is indicated by an additional field, whose name is
-     * configured by typeFieldName. */
+     * configured by typeFieldName.
+     * Runtime classes and their delegate adapters are resolved once and kept
+     * in a registry, since building reflective adapters is expensive and the
+     * same config classes are seen many times in a config file. */
     public final class RuntimeTypeAdapterFactory<T> implements TypeAdapterFactory
     {
         private final Class<?> baseType;
         private final String typeFieldName;
+        private final Map<String, Class<?>> runtimeClasses = new ConcurrentHashMap<>();
+        private final Map<TypeToken<?>, TypeAdapter<?>> delegateAdapters = new ConcurrentHashMap<>();
 
 
         public RuntimeTypeAdapterFactory(Class<?> baseType, String typeFieldName)
@@ -93,13 +99,17 @@ public class ModuleConfigJsonFile implements IModuleConfigRepository
             if (baseType != Object.class && !type.getRawType().isInstance(baseType))
                 return null;
             
+            // skip types that are never serialized as JSON objects
+            if (isValueType(type.getRawType()))
+                return null;
+            
             return new TypeAdapter<R>()
             {
                 @Override
                 public R read(JsonReader in) throws IOException
                 {
                     JsonElement jsonElement = Streams.parse(in);                
-                    TypeAdapter<R> delegate = gson.getDelegateAdapter(RuntimeTypeAdapterFactory.this, type);
+                    TypeAdapter<R> delegate = getDelegateAdapter(gson, type);
                     
                     if (jsonElement.isJsonObject())
                     {
@@ -111,8 +121,8 @@ public class ModuleConfigJsonFile implements IModuleConfigRepository
                             
                             try
                             {
-                                Class<R> runtimeClass = (Class<R>)Class.forName(type);
-                                delegate = gson.getDelegateAdapter(RuntimeTypeAdapterFactory.this, TypeToken.get(runtimeClass));                        
+                                Class<R> runtimeClass = (Class<R>)getRuntimeClass(type);
+                                delegate = getDelegateAdapter(gson, TypeToken.get(runtimeClass));
                             }
                             catch (ClassNotFoundException e)
                             {
@@ -132,7 +142,7 @@ public class ModuleConfigJsonFile implements IModuleConfigRepository
                 {
                     Class<R> runtimeClass = (Class<R>)value.getClass();
                     String typeName = runtimeClass.getName();
-                    TypeAdapter<R> delegate = gson.getDelegateAdapter(RuntimeTypeAdapterFactory.this, TypeToken.get(runtimeClass));
+                    TypeAdapter<R> delegate = getDelegateAdapter(gson, TypeToken.get(runtimeClass));
                     
                     //JsonElement jsonElt = delegate.toJsonTree(value); // JsonTreeWriter is not lenient in this case                    
                     JsonTreeWriter jsonWriter = new JsonTreeWriter();
@@ -158,6 +168,41 @@ public class ModuleConfigJsonFile implements IModuleConfigRepository
                 }
             }.nullSafe();
         }
+        
+        
+        private boolean isValueType(Class<?> rawType)
+        {
+            return rawType.isPrimitive() || rawType.isEnum() ||
+                   rawType == String.class || rawType == Boolean.class || rawType == Character.class ||
+                   Number.class.isAssignableFrom(rawType);
+        }
+        
+        
+        private Class<?> getRuntimeClass(String className) throws ClassNotFoundException
+        {
+            Class<?> runtimeClass = runtimeClasses.get(className);
+            if (runtimeClass == null)
+            {
+                runtimeClass = Class.forName(className);
+                runtimeClasses.put(className, runtimeClass);
+            }
+            
+            return runtimeClass;
+        }
+        
+        
+        @SuppressWarnings("unchecked")
+        private <R> TypeAdapter<R> getDelegateAdapter(Gson gson, TypeToken<R> type)
+        {
+            TypeAdapter<R> delegate = (TypeAdapter<R>)delegateAdapters.get(type);
+            if (delegate == null)
+            {
+                delegate = gson.getDelegateAdapter(this, type);
+                delegateAdapters.put(type, delegate);
+            }
+            
+            return delegate;
+        }
     }
         
     
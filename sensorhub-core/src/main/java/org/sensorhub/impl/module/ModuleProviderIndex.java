@@ -0,0 +1,202 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.module;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.WeakHashMap;
+import org.sensorhub.api.module.IModuleProvider;
+import org.sensorhub.api.module.ModuleConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * <p>
+ * Immutable index of the module providers visible from a given class loader.<br/>
+ * Scanning service descriptors with {@link ServiceLoader} is costly, so
+ * indexes are built once per class loader and cached until explicitly
+ * refreshed (e.g. when new module jars are added to an existing class loader).
+ * A new index is built automatically when the context class loader changes.<br/>
+ * Indexes are softly referenced since providers loaded by a class loader
+ * hold a strong reference to it, which would otherwise prevent unused class
+ * loaders from being garbage collected.
+ * </p>
+ *
+ * @since Oct 16, 2026
+ */
+public class ModuleProviderIndex
+{
+    private static final Logger log = LoggerFactory.getLogger(ModuleProviderIndex.class);
+    private static final Map<ClassLoader, SoftReference<ModuleProviderIndex>> indexes = new WeakHashMap<>();
+    
+    final List<IModuleProvider> providers;
+    final Map<String, IModuleProvider> providersByModuleClass;
+    final Map<String, Class<? extends ModuleConfig>> configClasses;
+    final long buildTime;
+    
+    
+    private ModuleProviderIndex(ClassLoader classLoader)
+    {
+        long t0 = System.currentTimeMillis();
+        List<IModuleProvider> providerList = new ArrayList<>();
+        Map<String, IModuleProvider> providerMap = new LinkedHashMap<>();
+        Map<String, Class<? extends ModuleConfig>> configMap = new LinkedHashMap<>();
+        
+        ServiceLoader<IModuleProvider> sl = ServiceLoader.load(IModuleProvider.class, classLoader);
+        try
+        {
+            for (IModuleProvider provider: sl)
+            {
+                providerList.add(provider);
+                
+                Class<?> moduleClass = provider.getModuleClass();
+                if (moduleClass != null)
+                    providerMap.put(moduleClass.getName(), provider);
+                
+                Class<? extends ModuleConfig> configClass = provider.getModuleConfigClass();
+                if (configClass != null)
+                    configMap.put(configClass.getName(), configClass);
+            }
+        }
+        catch (ServiceConfigurationError e)
+        {
+            log.error("{}: {}", ServiceConfigurationError.class.getName(), e.getMessage());
+        }
+        
+        this.providers = Collections.unmodifiableList(providerList);
+        this.providersByModuleClass = Collections.unmodifiableMap(providerMap);
+        this.configClasses = Collections.unmodifiableMap(configMap);
+        this.buildTime = System.currentTimeMillis() - t0;
+        log.debug("Found {} module types in {} ms", providerList.size(), buildTime);
+    }
+    
+    
+    /**
+     * @return index of module providers visible from the current thread's
+     * context class loader
+     */
+    public static ModuleProviderIndex get()
+    {
+        return get(getDefaultClassLoader());
+    }
+    
+    
+    /**
+     * @param classLoader class loader used to lookup module providers
+     * @return index of module providers visible from the given class loader
+     */
+    public static ModuleProviderIndex get(ClassLoader classLoader)
+    {
+        synchronized (indexes)
+        {
+            SoftReference<ModuleProviderIndex> ref = indexes.get(classLoader);
+            ModuleProviderIndex index = (ref != null) ? ref.get() : null;
+            if (index == null)
+            {
+                index = new ModuleProviderIndex(classLoader);
+                indexes.put(classLoader, new SoftReference<>(index));
+            }
+            
+            return index;
+        }
+    }
+    
+    
+    /**
+     * Rescans module providers visible from the current thread's context
+     * class loader
+     * @return the new index
+     */
+    public static ModuleProviderIndex refresh()
+    {
+        ClassLoader classLoader = getDefaultClassLoader();
+        synchronized (indexes)
+        {
+            indexes.remove(classLoader);
+            return get(classLoader);
+        }
+    }
+    
+    
+    private static ClassLoader getDefaultClassLoader()
+    {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null)
+            classLoader = ClassLoader.getSystemClassLoader();
+        return classLoader;
+    }
+    
+    
+    /**
+     * @return all installed module providers
+     */
+    public List<IModuleProvider> getProviders()
+    {
+        return providers;
+    }
+    
+    
+    /**
+     * @param moduleType base class or interface of desired modules
+     * @return module providers whose module class is compatible with the given type
+     */
+    public List<IModuleProvider> getProviders(Class<?> moduleType)
+    {
+        List<IModuleProvider> matchingProviders = new ArrayList<>();
+        for (IModuleProvider provider: providers)
+        {
+            if (moduleType.isAssignableFrom(provider.getModuleClass()))
+                matchingProviders.add(provider);
+        }
+        
+        return matchingProviders;
+    }
+    
+    
+    /**
+     * @param moduleClass fully qualified name of module implementation class
+     * @return provider of the given module class or null if none was found
+     */
+    public IModuleProvider getProvider(String moduleClass)
+    {
+        return providersByModuleClass.get(moduleClass);
+    }
+    
+    
+    /**
+     * @return configuration classes of all installed modules, indexed by class name
+     */
+    public Map<String, Class<? extends ModuleConfig>> getConfigClasses()
+    {
+        return configClasses;
+    }
+    
+    
+    /**
+     * @return time it took to build this index, in ms
+     */
+    public long getBuildTime()
+    {
+        return buildTime;
+    }
+}
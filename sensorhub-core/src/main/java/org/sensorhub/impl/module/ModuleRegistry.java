@@ -22,8 +22,6 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.ServiceConfigurationError;
-import java.util.ServiceLoader;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
@@ -73,6 +71,9 @@ public class ModuleRegistry implements IModuleManager<IModule<?>>, IEventProduce
     public static final long SHUTDOWN_TIMEOUT_MS = 10000L;
 
     IModuleConfigRepository configRepo;
+    ModuleRegistryConfig registryConfig;
+    volatile ModuleStartupScheduler startupScheduler;
+    StartupTimeline startupTimeline = new StartupTimeline();
     Map<String, IModule<?>> loadedModules;
     Map<String, Logger> moduleLoggers;
     IEventHandler eventHandler;
@@ -82,8 +83,15 @@ public class ModuleRegistry implements IModuleManager<IModule<?>>, IEventProduce
     
     
     public ModuleRegistry(IModuleConfigRepository configRepos, EventBus eventBus)
+    {
+        this(configRepos, eventBus, new ModuleRegistryConfig());
+    }
+    
+    
+    public ModuleRegistry(IModuleConfigRepository configRepos, EventBus eventBus, ModuleRegistryConfig registryConfig)
     {
         this.configRepo = configRepos;
+        this.registryConfig = registryConfig;
         this.loadedModules = Collections.synchronizedMap(new LinkedHashMap<String, IModule<?>>());
         this.eventHandler = eventBus.registerProducer(ID);
         this.asyncExec = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
@@ -95,18 +103,26 @@ public class ModuleRegistry implements IModuleManager<IModule<?>>, IEventProduce
     
     /**
      * Loads all enabled modules from configuration entries provided
-     * by the specified IModuleConfigRepository
+     * by the specified IModuleConfigRepository.<br/>
+     * Unless disabled in the registry config, modules with 'autostart' set
+     * are then started in parallel by a {@link ModuleStartupScheduler}, in
+     * an order compatible with the dependencies found in their configs.
      */
     public synchronized void loadAllModules()
     {
         allModulesLoaded = false;
+        long t0 = System.currentTimeMillis();
+        boolean useScheduler = registryConfig.dependencyAwareStartup;
+        List<IModule<?>> autoStartModules = new ArrayList<>();
                 
         List<ModuleConfig> moduleConfs = configRepo.getAllModulesConfigurations();
         for (ModuleConfig config: moduleConfs)
         {
             try
             {
-                loadModuleAsync(config.clone(), null);
+                IModule<?> module = loadModuleAsync(config.clone(), null, !useScheduler);
+                if (useScheduler && module.getConfiguration().autoStart)
+                    autoStartModules.add(module);
             }
             catch (Exception e)
             {
@@ -120,6 +136,52 @@ public class ModuleRegistry implements IModuleManager<IModule<?>>, IEventProduce
             this.allModulesLoaded = true;
             loadedModules.notifyAll();
         }
+        
+        startupTimeline.addPhase("Load modules", t0, System.currentTimeMillis());
+        
+        if (!autoStartModules.isEmpty() && !shutdownCalled)
+        {
+            startupScheduler = new ModuleStartupScheduler(registryConfig, startupTimeline);
+            startupScheduler.start(autoStartModules);
+        }
+        else
+            log.info(startupTimeline.getReport(null));
+    }
+    
+    
+    /**
+     * Waits until all modules started by {@link #loadAllModules()} are
+     * started or have failed to start
+     * @param timeOut maximum time to wait in ms (or <= 0 to wait forever)
+     * @return true if startup sequence is complete, false if timeout was reached
+     */
+    public boolean waitForAllModulesStarted(long timeOut)
+    {
+        ModuleStartupScheduler scheduler = startupScheduler;
+        if (scheduler == null)
+            return true;
+        return scheduler.waitForCompletion(timeOut);
+    }
+    
+    
+    /**
+     * @return timeline of the hub startup sequence
+     */
+    public StartupTimeline getStartupTimeline()
+    {
+        return startupTimeline;
+    }
+    
+    
+    /**
+     * @return per-module timings of the last startup sequence, in completion order
+     */
+    public List<ModuleStartupScheduler.StartupTiming> getStartupTimings()
+    {
+        ModuleStartupScheduler scheduler = startupScheduler;
+        if (scheduler == null)
+            return Collections.emptyList();
+        return scheduler.getTimings();
     }
     
     
@@ -186,8 +248,14 @@ public class ModuleRegistry implements IModuleManager<IModule<?>>, IEventProduce
      * @return loaded module instance (may not yet be started when this method returns)
      * @throws SensorHubException if no module with given ID can be found
      */
-    @SuppressWarnings("rawtypes")
     public IModule<?> loadModuleAsync(ModuleConfig config, IEventListener listener) throws SensorHubException
+    {
+        return loadModuleAsync(config, listener, true);
+    }
+    
+    
+    @SuppressWarnings("rawtypes")
+    protected IModule<?> loadModuleAsync(ModuleConfig config, IEventListener listener, boolean allowAutoStart) throws SensorHubException
     {
         if (config.id != null && loadedModules.containsKey(config.id))
             return loadedModules.get(config.id);
@@ -218,7 +286,7 @@ public class ModuleRegistry implements IModuleManager<IModule<?>>, IEventProduce
             eventHandler.publishEvent(new ModuleEvent(module, Type.LOADED));
             
             // also init & start if autostart is set
-            if (config.autoStart)
+            if (config.autoStart && allowAutoStart)
                 startModuleAsync(config.id, null);
         }
         catch (Exception e)
@@ -846,20 +914,7 @@ public class ModuleRegistry implements IModuleManager<IModule<?>>, IEventProduce
      */
     public Collection<IModuleProvider> getInstalledModuleTypes()
     {
-        ArrayList<IModuleProvider> installedModules = new ArrayList<>();
-        
-        ServiceLoader<IModuleProvider> sl = ServiceLoader.load(IModuleProvider.class);
-        try
-        {
-            for (IModuleProvider provider: sl)
-                installedModules.add(provider);
-        }
-        catch (ServiceConfigurationError e)
-        {
-            log.error("{}: {}", ServiceConfigurationError.class.getName(), e.getMessage());
-        }
-        
-        return installedModules;
+        return new ArrayList<>(ModuleProviderIndex.get().getProviders());
     }
     
     
@@ -871,16 +926,18 @@ public class ModuleRegistry implements IModuleManager<IModule<?>>, IEventProduce
      */
     public Collection<IModuleProvider> getInstalledModuleTypes(Class<?> moduleClass)
     {
-        ArrayList<IModuleProvider> installedModules = new ArrayList<>();
-
-        ServiceLoader<IModuleProvider> sl = ServiceLoader.load(IModuleProvider.class);
-        for (IModuleProvider provider: sl)
-        {
-            if (moduleClass.isAssignableFrom(provider.getModuleClass()))
-                installedModules.add(provider);
-        }
-        
-        return installedModules;
+        return ModuleProviderIndex.get().getProviders(moduleClass);
+    }
+    
+    
+    /**
+     * Rescans installed module types.<br/>
+     * Module types are indexed once per class loader, so this must be called
+     * when new module packages are made visible to the current class loader.
+     */
+    public void refreshInstalledModuleTypes()
+    {
+        ModuleProviderIndex.refresh();
     }
     
     
@@ -894,6 +951,10 @@ public class ModuleRegistry implements IModuleManager<IModule<?>>, IEventProduce
     {
         shutdownCalled = true;
         
+        // stop startup sequence if still running
+        if (startupScheduler != null)
+            startupScheduler.cancel();
+        
         // do nothing if no modules have been loaded
         if (loadedModules.isEmpty())
             return;        
@@ -0,0 +1,49 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.module;
+
+
+/**
+ * <p>
+ * Configuration of the module registry startup sequence
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class ModuleRegistryConfig
+{
+
+    /**
+     * Set to true to init and start modules in parallel, following the
+     * dependencies found in their configurations. If false (the default),
+     * all modules are started at once, without any ordering.
+     */
+    public boolean dependencyAwareStartup = false;
+
+
+    /**
+     * Maximum number of modules initialized or started concurrently during
+     * the startup sequence (0 means twice the number of available processors)
+     */
+    public int maxStartupThreads = 0;
+
+
+    /**
+     * Maximum time to wait for a module dependency to be started, in ms.
+     * Dependent modules are started anyway once this delay has elapsed.
+     */
+    public long dependencyTimeout = 60000L;
+}
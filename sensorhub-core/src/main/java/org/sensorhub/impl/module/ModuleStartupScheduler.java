@@ -0,0 +1,690 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.module;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.sensorhub.api.common.Event;
+import org.sensorhub.api.common.IEventListener;
+import org.sensorhub.api.config.DisplayInfo.FieldType;
+import org.sensorhub.api.config.DisplayInfo.FieldType.Type;
+import org.sensorhub.api.module.IModule;
+import org.sensorhub.api.module.ModuleConfig;
+import org.sensorhub.api.module.ModuleEvent;
+import org.sensorhub.api.module.ModuleEvent.ModuleState;
+import org.sensorhub.impl.common.DefaultThreadFactory;
+import org.sensorhub.utils.MsgUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * <p>
+ * Inits and starts a set of modules in parallel on a bounded thread pool,
+ * in an order compatible with the dependencies declared in their
+ * configurations.<br/>
+ * Dependencies are detected by looking for module IDs referenced by config
+ * fields (i.e. fields annotated with {@link FieldType} MODULE_ID or named
+ * dataSourceID, storageID, sensorID or processID), including in nested
+ * config objects. A module is started as soon as all the modules it depends
+ * on are started, have failed, or the dependency timeout has elapsed.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class ModuleStartupScheduler implements IEventListener
+{
+    private static final Logger log = LoggerFactory.getLogger(ModuleStartupScheduler.class);
+    private static final String[] MODULE_REF_FIELDS = {"dataSourceID", "storageID", "sensorID", "processID"};
+    private static final int MAX_CONFIG_DEPTH = 10;
+    private static final int NUM_SLOWEST_REPORTED = 10;
+    
+    final ModuleRegistryConfig config;
+    final StartupTimeline timeline;
+    final Map<String, ModuleNode> nodes = new LinkedHashMap<>();
+    final AtomicInteger numPending = new AtomicInteger();
+    final List<StartupTiming> timings = Collections.synchronizedList(new ArrayList<StartupTiming>());
+    ThreadPoolExecutor exec;
+    ScheduledExecutorService timer;
+    long t0;
+    volatile long endTime;
+    volatile boolean cancelled;
+    
+    
+    /*
+     * Vertex of the dependency graph
+     */
+    class ModuleNode
+    {
+        final IModule<?> module;
+        final Set<String> dependencies = new LinkedHashSet<>();
+        final List<ModuleNode> dependents = new ArrayList<>();
+        final AtomicInteger pendingDeps = new AtomicInteger();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final AtomicBoolean done = new AtomicBoolean();
+        volatile boolean waitingForStart;
+        volatile ScheduledFuture<?> timeoutFuture;
+        long readyTime;
+        long initTime;
+        long startTime;
+        
+        ModuleNode(IModule<?> module)
+        {
+            this.module = module;
+        }
+    }
+    
+    
+    /**
+     * Startup timing of a single module.<br/>
+     * All times are in milliseconds, relative to the beginning of the
+     * startup sequence.
+     */
+    public static class StartupTiming
+    {
+        final String moduleID;
+        final String moduleName;
+        final Set<String> dependencies;
+        final long readyTime;
+        final long initTime;
+        final long startTime;
+        final long endTime;
+        final ModuleState finalState;
+        
+        StartupTiming(String moduleID, String moduleName, Set<String> dependencies, long readyTime, long initTime, long startTime, long endTime, ModuleState finalState)
+        {
+            this.moduleID = moduleID;
+            this.moduleName = moduleName;
+            this.dependencies = Collections.unmodifiableSet(dependencies);
+            this.readyTime = readyTime;
+            this.initTime = initTime;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.finalState = finalState;
+        }
+
+        public String getModuleID()
+        {
+            return moduleID;
+        }
+
+        public String getModuleName()
+        {
+            return moduleName;
+        }
+
+        /**
+         * @return IDs of modules that had to be started before this one
+         */
+        public Set<String> getDependencies()
+        {
+            return dependencies;
+        }
+
+        /**
+         * @return time at which all dependencies were satisfied
+         */
+        public long getReadyTime()
+        {
+            return readyTime;
+        }
+
+        /**
+         * @return time at which init was called (module may have waited for a free thread)
+         */
+        public long getInitTime()
+        {
+            return initTime;
+        }
+
+        /**
+         * @return time at which start was called
+         */
+        public long getStartTime()
+        {
+            return startTime;
+        }
+
+        /**
+         * @return time at which module reached its final startup state
+         */
+        public long getEndTime()
+        {
+            return endTime;
+        }
+
+        /**
+         * @return state of the module at the end of the startup sequence
+         */
+        public ModuleState getFinalState()
+        {
+            return finalState;
+        }
+        
+        public long getDuration()
+        {
+            return endTime - initTime;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return String.format("%s: ready=%d, init=%d ms, start=%d ms, total=%d ms, state=%s",
+                moduleID, readyTime, startTime - initTime, endTime - startTime, getDuration(), finalState);
+        }
+    }
+    
+    
+    public ModuleStartupScheduler(ModuleRegistryConfig config)
+    {
+        this(config, null);
+    }
+    
+    
+    /**
+     * @param config startup options
+     * @param timeline timeline to which the module startup phase is added
+     * when complete (can be null)
+     */
+    public ModuleStartupScheduler(ModuleRegistryConfig config, StartupTimeline timeline)
+    {
+        this.config = config;
+        this.timeline = timeline;
+    }
+    
+    
+    /**
+     * Builds the dependency graph of the given modules and starts them.<br/>
+     * This method returns immediately and modules are initialized and
+     * started asynchronously.
+     * @param modules modules to init and start
+     */
+    public synchronized void start(Collection<IModule<?>> modules)
+    {
+        if (exec != null)
+            throw new IllegalStateException("Startup sequence already launched");
+        
+        buildGraph(modules);
+        numPending.set(nodes.size());
+        if (nodes.isEmpty())
+            return;
+        
+        int numThreads = config.maxStartupThreads;
+        if (numThreads <= 0)
+            numThreads = 2 * Runtime.getRuntime().availableProcessors();
+        exec = new ThreadPoolExecutor(numThreads, numThreads,
+                                      10L, TimeUnit.SECONDS,
+                                      new LinkedBlockingQueue<Runnable>(),
+                                      new DefaultThreadFactory("ModuleStartup"));
+        exec.allowCoreThreadTimeOut(true);
+        timer = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("ModuleStartupTimer"));
+        
+        log.info("Starting {} modules using {} threads", nodes.size(), numThreads);
+        t0 = System.currentTimeMillis();
+        
+        for (ModuleNode node: nodes.values())
+            node.module.registerListener(this);
+        
+        for (ModuleNode node: nodes.values())
+        {
+            if (node.pendingDeps.get() <= 0)
+                schedule(node);
+        }
+    }
+    
+    
+    protected void buildGraph(Collection<IModule<?>> modules)
+    {
+        for (IModule<?> module: modules)
+            nodes.put(module.getLocalID(), new ModuleNode(module));
+        
+        // connect each module to the modules it depends on
+        for (ModuleNode node: nodes.values())
+        {
+            String moduleID = node.module.getLocalID();
+            for (String refID: findModuleReferences(node.module.getConfiguration()))
+            {
+                ModuleNode depNode = nodes.get(refID);
+                if (depNode != null && !refID.equals(moduleID) && node.dependencies.add(refID))
+                    depNode.dependents.add(node);
+            }
+            
+            node.pendingDeps.set(node.dependencies.size());
+        }
+        
+        // find modules part of dependency cycles by sorting graph
+        // these are started right away, as if they had no dependencies
+        Map<ModuleNode, Integer> inDegrees = new IdentityHashMap<>();
+        List<ModuleNode> sorted = new ArrayList<>(nodes.size());
+        for (ModuleNode node: nodes.values())
+        {
+            inDegrees.put(node, node.dependencies.size());
+            if (node.dependencies.isEmpty())
+                sorted.add(node);
+        }
+        
+        for (int i = 0; i < sorted.size(); i++)
+        {
+            for (ModuleNode dependent: sorted.get(i).dependents)
+            {
+                int inDegree = inDegrees.get(dependent) - 1;
+                inDegrees.put(dependent, inDegree);
+                if (inDegree == 0)
+                    sorted.add(dependent);
+            }
+        }
+        
+        if (sorted.size() < nodes.size())
+        {
+            for (ModuleNode node: nodes.values())
+            {
+                if (inDegrees.get(node) > 0)
+                {
+                    log.warn("Module {} is part of a dependency cycle. Its dependencies will be ignored", MsgUtils.moduleString(node.module));
+                    node.pendingDeps.set(0);
+                }
+            }
+        }
+    }
+    
+    
+    protected void schedule(final ModuleNode node)
+    {
+        if (cancelled || !node.scheduled.compareAndSet(false, true))
+            return;
+        
+        node.readyTime = System.currentTimeMillis();
+        
+        try
+        {
+            exec.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    initAndStart(node);
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // only happens when startup is cancelled
+        }
+    }
+    
+    
+    protected void initAndStart(final ModuleNode node)
+    {
+        if (cancelled)
+            return;
+        
+        IModule<?> module = node.module;
+        node.initTime = System.currentTimeMillis();
+        
+        try
+        {
+            if (!module.isInitialized())
+                module.requestInit(false);
+        }
+        catch (Exception e)
+        {
+            log.error(IModule.CANNOT_INIT_MSG + MsgUtils.moduleString(module), e);
+        }
+        
+        node.startTime = System.currentTimeMillis();
+        
+        try
+        {
+            if (!module.isStarted())
+                module.requestStart();
+        }
+        catch (Exception e)
+        {
+            log.error(IModule.CANNOT_START_MSG + MsgUtils.moduleString(module), e);
+        }
+        
+        // modules with asynchronous startup are tracked with their events
+        node.waitingForStart = true;
+        if (isStartPending(module) && !cancelled)
+        {
+            try
+            {
+                node.timeoutFuture = timer.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        log.warn("Module {} not started after {} ms. Starting dependent modules anyway",
+                            MsgUtils.moduleString(node.module), config.dependencyTimeout);
+                        setDone(node);
+                    }
+                }, config.dependencyTimeout, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // only happens when startup is cancelled
+                return;
+            }
+            
+            // check again in case state changed before timer was scheduled
+            if (!isStartPending(module))
+                setDone(node);
+        }
+        else
+            setDone(node);
+    }
+    
+    
+    protected boolean isStartPending(IModule<?> module)
+    {
+        if (module.getCurrentError() != null)
+            return false;
+        
+        ModuleState state = module.getCurrentState();
+        return state == ModuleState.INITIALIZING ||
+               state == ModuleState.INITIALIZED ||
+               state == ModuleState.STARTING;
+    }
+    
+    
+    protected void setDone(ModuleNode node)
+    {
+        if (!node.done.compareAndSet(false, true))
+            return;
+        
+        long now = System.currentTimeMillis();
+        if (node.timeoutFuture != null)
+            node.timeoutFuture.cancel(false);
+        node.module.unregisterListener(this);
+        
+        StartupTiming timing = new StartupTiming(
+            node.module.getLocalID(),
+            node.module.getName(),
+            node.dependencies,
+            node.readyTime - t0,
+            node.initTime - t0,
+            node.startTime - t0,
+            now - t0,
+            node.module.getCurrentState());
+        timings.add(timing);
+        log.debug("Module {} startup timing: {}", MsgUtils.moduleString(node.module), timing);
+        
+        // start dependents that are not waiting on other modules
+        for (ModuleNode dependent: node.dependents)
+        {
+            if (dependent.pendingDeps.decrementAndGet() <= 0)
+                schedule(dependent);
+        }
+        
+        if (numPending.decrementAndGet() == 0)
+            finish(now);
+    }
+    
+    
+    protected void finish(long now)
+    {
+        endTime = now;
+        exec.shutdown();
+        timer.shutdown();
+        
+        List<StartupTiming> slowest = new ArrayList<>(timings);
+        Collections.sort(slowest, new Comparator<StartupTiming>() {
+            @Override
+            public int compare(StartupTiming t1, StartupTiming t2)
+            {
+                return Long.compare(t2.getDuration(), t1.getDuration());
+            }
+        });
+        
+        int numFailed = 0;
+        for (StartupTiming timing: timings)
+        {
+            if (timing.finalState != ModuleState.STARTED)
+                numFailed++;
+        }
+        
+        log.info("Startup of {} modules completed in {} ms ({} not started)", timings.size(), now - t0, numFailed);
+        if (log.isInfoEnabled())
+        {
+            StringBuilder buf = new StringBuilder("Slowest modules:");
+            for (int i = 0; i < Math.min(NUM_SLOWEST_REPORTED, slowest.size()); i++)
+                buf.append("\n  ").append(slowest.get(i));
+            log.info(buf.toString());
+        }
+        
+        if (timeline != null)
+        {
+            timeline.addPhase("Start modules", t0, now);
+            log.info(timeline.getReport(getTimings()));
+        }
+        
+        synchronized (this)
+        {
+            this.notifyAll();
+        }
+    }
+    
+    
+    /**
+     * Stops scheduling modules that have not been started yet
+     */
+    public synchronized void cancel()
+    {
+        cancelled = true;
+        if (exec != null)
+        {
+            exec.shutdownNow();
+            timer.shutdownNow();
+        }
+        
+        for (ModuleNode node: nodes.values())
+            node.module.unregisterListener(this);
+        
+        this.notifyAll();
+    }
+    
+    
+    /**
+     * Waits until all modules have been started (or have failed to start)
+     * @param timeOut maximum time to wait in ms (or <= 0 to wait forever)
+     * @return true if startup sequence is complete, false if timeout was reached
+     */
+    public synchronized boolean waitForCompletion(long timeOut)
+    {
+        long stopTime = System.currentTimeMillis() + timeOut;
+        
+        try
+        {
+            while (numPending.get() > 0 && !cancelled)
+            {
+                if (timeOut <= 0)
+                    this.wait();
+                else
+                {
+                    long waitTime = stopTime - System.currentTimeMillis();
+                    if (waitTime <= 0)
+                        return false;
+                    this.wait(waitTime);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        
+        return numPending.get() == 0;
+    }
+    
+    
+    /**
+     * @return timings of modules that have completed startup, in completion order
+     */
+    public List<StartupTiming> getTimings()
+    {
+        synchronized (timings)
+        {
+            return new ArrayList<>(timings);
+        }
+    }
+    
+    
+    /**
+     * @return total duration of the startup sequence in ms, or -1 if not completed
+     */
+    public long getTotalDuration()
+    {
+        return endTime > 0 ? endTime - t0 : -1;
+    }
+
+
+    @Override
+    public void handleEvent(Event<?> e)
+    {
+        if (e instanceof ModuleEvent)
+        {
+            IModule<?> module = ((ModuleEvent) e).getModule();
+            ModuleNode node = nodes.get(module.getLocalID());
+            
+            // only react once start has been requested
+            if (node != null && node.waitingForStart)
+            {
+                ModuleEvent.Type type = ((ModuleEvent) e).getType();
+                if (type == ModuleEvent.Type.ERROR ||
+                   (type == ModuleEvent.Type.STATE_CHANGED && !isStartPending(module)))
+                    setDone(node);
+            }
+        }
+    }
+    
+    
+    /**
+     * Finds IDs of all modules referenced by the given module configuration
+     * @param config module configuration
+     * @return set of referenced module IDs
+     */
+    public static Set<String> findModuleReferences(ModuleConfig config)
+    {
+        Set<String> moduleIDs = new LinkedHashSet<>();
+        Map<Object, Boolean> visited = new IdentityHashMap<>();
+        collectModuleReferences(config, moduleIDs, visited, 0);
+        moduleIDs.remove(config.id);
+        return moduleIDs;
+    }
+    
+    
+    private static void collectModuleReferences(Object obj, Set<String> moduleIDs, Map<Object, Boolean> visited, int depth)
+    {
+        if (obj == null || depth > MAX_CONFIG_DEPTH || visited.put(obj, Boolean.TRUE) != null)
+            return;
+        
+        if (obj instanceof Collection)
+        {
+            for (Object item: (Collection<?>)obj)
+                collectModuleReferences(item, moduleIDs, visited, depth+1);
+        }
+        else if (obj instanceof Map)
+        {
+            for (Object item: ((Map<?,?>)obj).values())
+                collectModuleReferences(item, moduleIDs, visited, depth+1);
+        }
+        else if (obj.getClass().isArray())
+        {
+            if (!obj.getClass().getComponentType().isPrimitive())
+            {
+                for (int i = 0; i < Array.getLength(obj); i++)
+                    collectModuleReferences(Array.get(obj, i), moduleIDs, visited, depth+1);
+            }
+        }
+        else if (!obj.getClass().isEnum() && !isJdkClass(obj.getClass()))
+        {
+            for (Field f: obj.getClass().getFields())
+            {
+                if (Modifier.isStatic(f.getModifiers()) || f.getType().isPrimitive())
+                    continue;
+                
+                try
+                {
+                    Object val = f.get(obj);
+                    if (val instanceof String)
+                    {
+                        if (isModuleRefField(f))
+                            moduleIDs.add((String)val);
+                    }
+                    else if (val instanceof Collection && isModuleRefField(f))
+                    {
+                        for (Object item: (Collection<?>)val)
+                        {
+                            if (item instanceof String)
+                                moduleIDs.add((String)item);
+                        }
+                    }
+                    else
+                        collectModuleReferences(val, moduleIDs, visited, depth+1);
+                }
+                catch (IllegalAccessException e)
+                {
+                    // skip inaccessible fields
+                }
+            }
+        }
+    }
+    
+    
+    private static boolean isJdkClass(Class<?> clazz)
+    {
+        String className = clazz.getName();
+        return className.startsWith("java.") || className.startsWith("javax.");
+    }
+    
+    
+    private static boolean isModuleRefField(Field f)
+    {
+        FieldType fieldType = f.getAnnotation(FieldType.class);
+        if (fieldType != null)
+            return fieldType.value() == Type.MODULE_ID;
+        
+        for (String name: MODULE_REF_FIELDS)
+        {
+            if (name.equals(f.getName()))
+                return true;
+        }
+        
+        return false;
+    }
+}
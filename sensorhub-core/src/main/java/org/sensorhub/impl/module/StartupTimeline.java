@@ -0,0 +1,220 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.module;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.sensorhub.impl.module.ModuleStartupScheduler.StartupTiming;
+
+
+/**
+ * <p>
+ * Records the main phases of the hub startup sequence and produces a
+ * report showing when each phase ran relative to the JVM start, as well
+ * as the chain of module dependencies that determined the total module
+ * startup time (i.e. the critical path).
+ * </p>
+ *
+ * @since Oct 16, 2026
+ */
+public class StartupTimeline
+{
+    final long jvmStartTime;
+    final List<Phase> phases = new ArrayList<>();
+    
+    
+    public static class Phase
+    {
+        final String name;
+        final long startTime;
+        final long endTime;
+        
+        Phase(String name, long startTime, long endTime)
+        {
+            this.name = name;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return phase start time (epoch ms)
+         */
+        public long getStartTime()
+        {
+            return startTime;
+        }
+
+        /**
+         * @return phase end time (epoch ms)
+         */
+        public long getEndTime()
+        {
+            return endTime;
+        }
+        
+        public long getDuration()
+        {
+            return endTime - startTime;
+        }
+    }
+    
+    
+    public StartupTimeline()
+    {
+        this.jvmStartTime = getJvmStartTime();
+    }
+    
+    
+    private static long getJvmStartTime()
+    {
+        try
+        {
+            return ManagementFactory.getRuntimeMXBean().getStartTime();
+        }
+        catch (Throwable e)
+        {
+            // management API may not be available in minimal runtimes
+            return -1;
+        }
+    }
+    
+    
+    /**
+     * Records a startup phase
+     * @param name name of phase
+     * @param startTime phase start time (epoch ms)
+     * @param endTime phase end time (epoch ms)
+     */
+    public synchronized void addPhase(String name, long startTime, long endTime)
+    {
+        phases.add(new Phase(name, startTime, endTime));
+    }
+    
+    
+    /**
+     * @return list of recorded phases, in chronological order
+     */
+    public synchronized List<Phase> getPhases()
+    {
+        List<Phase> sortedPhases = new ArrayList<>(phases);
+        Collections.sort(sortedPhases, new Comparator<Phase>() {
+            @Override
+            public int compare(Phase p1, Phase p2)
+            {
+                return Long.compare(p1.startTime, p2.startTime);
+            }
+        });
+        return sortedPhases;
+    }
+    
+    
+    /**
+     * Builds the startup report
+     * @param moduleTimings timings of modules started by the startup scheduler, or
+     * null if modules were not started with a {@link ModuleStartupScheduler}
+     * @return multiline report
+     */
+    public String getReport(List<StartupTiming> moduleTimings)
+    {
+        List<Phase> sortedPhases = getPhases();
+        if (sortedPhases.isEmpty())
+            return "Startup timeline is empty";
+        
+        long refTime = jvmStartTime > 0 ? jvmStartTime : sortedPhases.get(0).startTime;
+        StringBuilder buf = new StringBuilder();
+        buf.append("Startup timeline (ms since ").append(jvmStartTime > 0 ? "JVM start" : "first phase").append("):");
+        
+        long lastEndTime = refTime;
+        if (jvmStartTime > 0)
+            appendLine(buf, 0, sortedPhases.get(0).startTime - refTime, "JVM startup and bootstrap");
+        
+        for (Phase phase: sortedPhases)
+        {
+            appendLine(buf, phase.startTime - refTime, phase.endTime - refTime, phase.name);
+            lastEndTime = Math.max(lastEndTime, phase.endTime);
+        }
+        
+        if (moduleTimings != null && !moduleTimings.isEmpty())
+        {
+            List<StartupTiming> criticalPath = findCriticalPath(moduleTimings);
+            StartupTiming last = criticalPath.get(criticalPath.size()-1);
+            buf.append("\n  Critical path (").append(last.getEndTime()).append(" ms): ");
+            for (int i = 0; i < criticalPath.size(); i++)
+            {
+                StartupTiming timing = criticalPath.get(i);
+                if (i > 0)
+                    buf.append(" > ");
+                buf.append(timing.getModuleID()).append(" (").append(timing.getDuration()).append(" ms)");
+            }
+        }
+        
+        buf.append("\n  Hub ready after ").append(lastEndTime - refTime).append(" ms");
+        return buf.toString();
+    }
+    
+    
+    private void appendLine(StringBuilder buf, long start, long end, String name)
+    {
+        buf.append(String.format("%n  %8d - %8d  %s (%d ms)", start, end, name, end - start));
+    }
+    
+    
+    /**
+     * Finds the chain of dependent modules that completed startup last
+     * @param moduleTimings timings of all modules started together
+     * @return list of modules on the critical path, from first to last started
+     */
+    public static List<StartupTiming> findCriticalPath(List<StartupTiming> moduleTimings)
+    {
+        Map<String, StartupTiming> timingMap = new HashMap<>();
+        StartupTiming last = null;
+        for (StartupTiming timing: moduleTimings)
+        {
+            timingMap.put(timing.getModuleID(), timing);
+            if (last == null || timing.getEndTime() > last.getEndTime())
+                last = timing;
+        }
+        
+        // walk back through the dependencies that completed last
+        List<StartupTiming> path = new ArrayList<>();
+        StartupTiming current = last;
+        while (current != null && path.size() < moduleTimings.size())
+        {
+            path.add(current);
+            
+            StartupTiming next = null;
+            for (String depID: current.getDependencies())
+            {
+                StartupTiming dep = timingMap.get(depID);
+                if (dep != null && (next == null || dep.getEndTime() > next.getEndTime()))
+                    next = dep;
+            }
+            current = next;
+        }
+        
+        Collections.reverse(path);
+        return path;
+    }
+}
@@ -91,6 +91,7 @@ public class GenericStreamStorage extends AbstractModule<StreamStorageConfig> im
     long lastCommitTime = Long.MIN_VALUE;
     String currentFoi;
     Timer autoPurgeTimer;
+    volatile StorageWriteQueue writeQueue;
     
     
     @Override
@@ -116,6 +117,18 @@ public class GenericStreamStorage extends AbstractModule<StreamStorageConfig> im
             throw new StorageException("Cannot instantiate underlying storage " + storageConfig.moduleClass, e);
         }
         
+        // start write queue if records are written asynchronously
+        if (config.asyncWrites)
+        {
+            writeQueue = new StorageWriteQueue(storage,
+                    config.writeQueueSize,
+                    config.maxWriteBatchSize,
+                    config.maxUncommittedRecords,
+                    config.minCommitPeriod,
+                    getLogger());
+            writeQueue.start("StorageWriter-" + getLocalID());
+        }
+        
         // start auto-purge timer thread if policy is specified and enabled
         if (config.autoPurgeConfig != null && config.autoPurgeConfig.enabled)
         {
@@ -341,6 +354,13 @@ public class GenericStreamStorage extends AbstractModule<StreamStorageConfig> im
         
         if (autoPurgeTimer != null)
             autoPurgeTimer.cancel();
+        
+        // write and commit pending records before closing storage
+        if (writeQueue != null)
+        {
+            writeQueue.stop();
+            writeQueue = null;
+        }
 
         if (storage != null)
             storage.stop();
@@ -357,7 +377,90 @@ public class GenericStreamStorage extends AbstractModule<StreamStorageConfig> im
     
     
     @Override
-    public synchronized void handleEvent(Event<?> e)
+    public void handleEvent(Event<?> e)
+    {
+        // add records to the write queue without holding the module lock
+        // since the caller is blocked while the queue is full
+        StorageWriteQueue queue = writeQueue;
+        if (queue != null && e instanceof DataEvent)
+        {
+            DataEvent dataEvent = (DataEvent)e;
+            ObsKey[] keys = getRecordKeys(dataEvent);
+            if (keys == null)
+                return;
+            
+            DataBlock[] records = dataEvent.getRecords();
+            for (int i = 0; i < records.length; i++)
+            {
+                try
+                {
+                    queue.add(keys[i], records[i]);
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    getLogger().error("Interrupted while queuing record " + keys[i].timeStamp + " for output " + keys[i].recordType);
+                    return;
+                }
+                catch (IllegalStateException ex)
+                {
+                    // module was stopped concurrently
+                    return;
+                }
+                
+                if (getLogger().isTraceEnabled())
+                    getLogger().trace("Queuing record " + keys[i].timeStamp + " for output " + keys[i].recordType);
+            }
+        }
+        else
+            processEvent(e);
+    }
+    
+    
+    /*
+     * Computes storage keys of all records carried by a data event
+     * Returns null if events should not be processed
+     */
+    protected synchronized ObsKey[] getRecordKeys(DataEvent dataEvent)
+    {
+        // don't do anything if stop was called
+        if (dataSourceRef == null || !config.processEvents)
+            return null;
+        
+        // get indexer for looking up time stamp value
+        String outputName = dataEvent.getSource().getName();
+        ScalarIndexer timeStampIndexer = timeStampIndexers.get(outputName);
+        
+        // get entity and FOI ID
+        String foiID;
+        String entityID = dataEvent.getRelatedEntityID();
+        if (entityID != null)
+        {
+            ensureProducerInfo(entityID, false); // to handle new producer
+            foiID = currentFoiMap.get(entityID);
+        }
+        else
+            foiID = currentFoi; 
+        
+        DataBlock[] records = dataEvent.getRecords();
+        ObsKey[] keys = new ObsKey[records.length];
+        for (int i = 0; i < records.length; i++)
+        {
+            // get time stamp
+            double time;
+            if (timeStampIndexer != null)
+                time = timeStampIndexer.getDoubleValue(records[i]);
+            else
+                time = dataEvent.getTimeStamp() / 1000.;
+            
+            keys[i] = new ObsKey(outputName, entityID, foiID, time);
+        }
+        
+        return keys;
+    }
+    
+    
+    protected synchronized void processEvent(Event<?> e)
     {
         // don't do anything if stop was called
         if (dataSourceRef == null)
@@ -392,38 +495,16 @@ public class GenericStreamStorage extends AbstractModule<StreamStorageConfig> im
             if (e instanceof DataEvent)
             {
                 DataEvent dataEvent = (DataEvent)e;
+                ObsKey[] keys = getRecordKeys(dataEvent);
                 
-                // get indexer for looking up time stamp value
-                String outputName = dataEvent.getSource().getName();
-                ScalarIndexer timeStampIndexer = timeStampIndexers.get(outputName);
-                
-                // get entity and FOI ID
-                String foiID;
-                String entityID = dataEvent.getRelatedEntityID();
-                if (entityID != null)
-                {
-                    ensureProducerInfo(entityID, false); // to handle new producer
-                    foiID = currentFoiMap.get(entityID);
-                }
-                else
-                    foiID = currentFoi; 
-                
-                // process all records
-                for (DataBlock record: dataEvent.getRecords())
+                // store all records with proper key
+                DataBlock[] records = dataEvent.getRecords();
+                for (int i = 0; i < records.length; i++)
                 {
-                    // get time stamp
-                    double time;
-                    if (timeStampIndexer != null)
-                        time = timeStampIndexer.getDoubleValue(record);
-                    else
-                        time = e.getTimeStamp() / 1000.;
-                    
-                    // store record with proper key
-                    ObsKey key = new ObsKey(outputName, entityID, foiID, time);
-                    storage.storeRecord(key, record);
+                    storage.storeRecord(keys[i], records[i]);
                     
                     if (getLogger().isTraceEnabled())
-                        getLogger().trace("Storing record " + key.timeStamp + " for output " + outputName);
+                        getLogger().trace("Storing record " + keys[i].timeStamp + " for output " + keys[i].recordType);
                 }
             }
             
@@ -516,6 +597,22 @@ public class GenericStreamStorage extends AbstractModule<StreamStorageConfig> im
     public void commit()
     {
         checkStarted();
+        
+        // make sure all queued records are written first
+        StorageWriteQueue queue = writeQueue;
+        if (queue != null)
+        {
+            try
+            {
+                if (!queue.flush())
+                    getLogger().warn("Timeout while waiting for queued records to be written");
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
         storage.commit();        
     }
 
@@ -631,6 +728,14 @@ public class GenericStreamStorage extends AbstractModule<StreamStorageConfig> im
         return storage.getNumMatchingRecords(filter, maxCount);
     }
 
+
+    @Override
+    public boolean hasMoreMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        checkStarted();
+        return storage.hasMoreMatchingRecords(filter, maxCount);
+    }
+
     
     @Override
     public int getNumRecords(String recordType)
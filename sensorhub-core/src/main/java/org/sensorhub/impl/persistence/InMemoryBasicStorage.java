@@ -245,6 +245,13 @@ public class InMemoryBasicStorage extends AbstractModule<InMemoryStorageConfig>
     }
 
 
+    @Override
+    public boolean hasMoreMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        return getRecordStore(filter.getRecordType()).getNumMatchingRecords(filter) > maxCount;
+    }
+
+
     @Override
     public int getNumRecords(String recordType)
     {
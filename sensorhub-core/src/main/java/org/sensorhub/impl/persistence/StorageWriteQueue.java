@@ -0,0 +1,374 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import net.opengis.swe.v20.DataBlock;
+import org.sensorhub.api.persistence.DataKey;
+import org.sensorhub.api.persistence.IRecordStorageModule;
+import org.slf4j.Logger;
+import org.vast.util.Asserts;
+
+
+/**
+ * <p>
+ * Ingestion queue decoupling reception of records from writes to the
+ * underlying storage.<br/>
+ * Records are written by a dedicated thread, in batches sorted by record
+ * type, producer and time stamp, while holding the storage lock only once
+ * per batch. The storage is committed when the number of uncommitted records
+ * reaches a threshold, or when the oldest uncommitted record has been waiting
+ * for more than the maximum commit latency.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class StorageWriteQueue
+{
+    static final long MAX_FLUSH_WAIT = 10000L;
+    static final long STOP_CHECK_PERIOD = 100L;
+    static final PendingRecord END_OF_QUEUE = new PendingRecord(null, null);
+    
+    
+    static class PendingRecord
+    {
+        final DataKey key;
+        final DataBlock data;
+        
+        PendingRecord(DataKey key, DataBlock data)
+        {
+            this.key = key;
+            this.data = data;
+        }
+    }
+    
+    
+    /* sort records so consecutive writes hit the same index pages */
+    static final Comparator<PendingRecord> RECORD_COMPARATOR = new Comparator<PendingRecord>()
+    {
+        @Override
+        public int compare(PendingRecord r1, PendingRecord r2)
+        {
+            int comp = compareStrings(r1.key.recordType, r2.key.recordType);
+            if (comp != 0)
+                return comp;
+            
+            comp = compareStrings(r1.key.producerID, r2.key.producerID);
+            if (comp != 0)
+                return comp;
+            
+            return Double.compare(r1.key.timeStamp, r2.key.timeStamp);
+        }
+        
+        private int compareStrings(String s1, String s2)
+        {
+            if (s1 == s2)
+                return 0;
+            if (s1 == null)
+                return -1;
+            if (s2 == null)
+                return 1;
+            return s1.compareTo(s2);
+        }
+    };
+    
+    
+    final IRecordStorageModule<?> storage;
+    final BlockingQueue<PendingRecord> queue;
+    final int maxBatchSize;
+    final int maxUncommittedRecords;
+    final long maxCommitLatency;
+    final Logger log;
+    final Object flushLock = new Object();
+    Thread writerThread;
+    volatile boolean running;
+    long enqueuedCount;
+    long processedCount;
+    int uncommittedCount;
+    long firstUncommittedTime;
+    
+    
+    /**
+     * Creates a new write queue for the given storage
+     * @param storage storage where records are written
+     * @param queueSize maximum number of records waiting to be written
+     * before callers of {@link #add(DataKey, DataBlock)} are blocked
+     * @param maxBatchSize maximum number of records written in one batch
+     * @param maxUncommittedRecords number of written records that triggers
+     * a commit (0 to disable this trigger)
+     * @param maxCommitLatency maximum time written records can remain
+     * uncommitted, in ms (0 to commit after each batch)
+     * @param log logger used to report write errors
+     */
+    public StorageWriteQueue(IRecordStorageModule<?> storage, int queueSize, int maxBatchSize, int maxUncommittedRecords, long maxCommitLatency, Logger log)
+    {
+        Asserts.checkNotNull(storage, IRecordStorageModule.class);
+        Asserts.checkNotNull(log, Logger.class);
+        
+        this.storage = storage;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxUncommittedRecords = maxUncommittedRecords;
+        this.maxCommitLatency = maxCommitLatency;
+        this.log = log;
+    }
+    
+    
+    public synchronized void start(String name)
+    {
+        if (running)
+            return;
+        
+        running = true;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                processQueue();
+            }
+        }, name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+    
+    
+    /**
+     * Adds a record to the queue, blocking the caller if the queue is full
+     * @param key record key
+     * @param data record data
+     * @throws InterruptedException if interrupted while waiting for space
+     * @throws IllegalStateException if the queue is not started or is
+     * stopped while waiting for space
+     */
+    public void add(DataKey key, DataBlock data) throws InterruptedException
+    {
+        if (!running)
+            throw new IllegalStateException("Write queue is not started");
+        
+        // don't wait forever if the writer thread is stopped meanwhile
+        PendingRecord rec = new PendingRecord(key, data);
+        while (!queue.offer(rec, STOP_CHECK_PERIOD, TimeUnit.MILLISECONDS))
+        {
+            if (!running)
+                throw new IllegalStateException("Write queue was stopped");
+        }
+        
+        // only count records that were actually queued so flush() never
+        // waits for a record that was rejected or is still being offered
+        synchronized (flushLock)
+        {
+            enqueuedCount++;
+        }
+    }
+    
+    
+    /**
+     * Waits until all records added before this call have been written
+     * @return true if all records were written, false if timeout expired
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean flush() throws InterruptedException
+    {
+        synchronized (flushLock)
+        {
+            long target = enqueuedCount;
+            long t0 = System.currentTimeMillis();
+            
+            while (processedCount < target && running)
+            {
+                long waitTime = MAX_FLUSH_WAIT - (System.currentTimeMillis() - t0);
+                if (waitTime <= 0)
+                    return false;
+                flushLock.wait(waitTime);
+            }
+            
+            return processedCount >= target;
+        }
+    }
+    
+    
+    /**
+     * Stops the writer thread after writing and committing all queued records.<br/>
+     * This method doesn't return before the writer thread has exited so that
+     * it never writes to the storage concurrently with the caller.
+     */
+    public void stop()
+    {
+        Thread thread;
+        synchronized (this)
+        {
+            if (!running)
+                return;
+            running = false;
+            thread = writerThread;
+            writerThread = null;
+        }
+        
+        // writer thread exits when it reaches the end marker
+        // we don't interrupt it since it could be in the middle of a write
+        boolean interrupted = false;
+        boolean endMarkerQueued = false;
+        while (thread.isAlive())
+        {
+            try
+            {
+                if (!endMarkerQueued)
+                    endMarkerQueued = queue.offer(END_OF_QUEUE, STOP_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+                else
+                {
+                    thread.join(MAX_FLUSH_WAIT);
+                    if (thread.isAlive())
+                        log.warn("Waiting for storage writer thread to finish writing {} queued records", queue.size());
+                }
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        
+        // write records queued concurrently with stop, if any
+        List<PendingRecord> batch = new ArrayList<>(queue.size());
+        queue.drainTo(batch);
+        batch.remove(END_OF_QUEUE);
+        if (!batch.isEmpty())
+            writeBatch(batch);
+        if (uncommittedCount > 0)
+            commit();
+    }
+    
+    
+    protected void processQueue()
+    {
+        List<PendingRecord> batch = new ArrayList<>(maxBatchSize);
+        
+        boolean endOfQueue = false;
+        
+        while (!endOfQueue)
+        {
+            try
+            {
+                // wait for records but wake up in time to honor commit latency
+                PendingRecord first;
+                if (uncommittedCount > 0)
+                {
+                    long waitTime = firstUncommittedTime + maxCommitLatency - System.currentTimeMillis();
+                    first = (waitTime > 0) ? queue.poll(waitTime, TimeUnit.MILLISECONDS) : queue.poll();
+                }
+                else
+                    first = queue.take();
+                
+                if (first != null)
+                {
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatchSize - 1);
+                    endOfQueue = batch.remove(END_OF_QUEUE);
+                    if (!batch.isEmpty())
+                        writeBatch(batch);
+                    batch.clear();
+                }
+                
+                if (isCommitNeeded())
+                    commit();
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+            catch (Exception e)
+            {
+                log.error("Error while writing records to storage", e);
+            }
+        }
+    }
+    
+    
+    protected void writeBatch(List<PendingRecord> batch)
+    {
+        try
+        {
+            Collections.sort(batch, RECORD_COMPARATOR);
+            
+            // lock storage once for the whole batch
+            synchronized (storage)
+            {
+                for (PendingRecord rec: batch)
+                    storage.storeRecord(rec.key, rec.data);
+            }
+            
+            if (uncommittedCount == 0)
+                firstUncommittedTime = System.currentTimeMillis();
+            uncommittedCount += batch.size();
+            
+            if (log.isTraceEnabled())
+                log.trace("Wrote batch of " + batch.size() + " records");
+        }
+        catch (Exception e)
+        {
+            log.error("Error while writing batch of " + batch.size() + " records to storage", e);
+        }
+        finally
+        {
+            synchronized (flushLock)
+            {
+                processedCount += batch.size();
+                flushLock.notifyAll();
+            }
+        }
+    }
+    
+    
+    protected boolean isCommitNeeded()
+    {
+        if (uncommittedCount == 0)
+            return false;
+        
+        if (maxUncommittedRecords > 0 && uncommittedCount >= maxUncommittedRecords)
+            return true;
+        
+        return System.currentTimeMillis() - firstUncommittedTime >= maxCommitLatency;
+    }
+    
+    
+    protected void commit()
+    {
+        try
+        {
+            storage.commit();
+        }
+        catch (Exception e)
+        {
+            log.error("Error while committing storage", e);
+        }
+        
+        uncommittedCount = 0;
+    }
+    
+    
+    public int getQueueSize()
+    {
+        return queue.size();
+    }
+}
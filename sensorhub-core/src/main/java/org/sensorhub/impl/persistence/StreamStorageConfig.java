@@ -42,10 +42,27 @@ public class StreamStorageConfig extends StorageConfig
     public StorageAutoPurgeConfig autoPurgeConfig;
     
 
-    @DisplayInfo(desc="Minimum period between database commits (in ms)")
+    @DisplayInfo(desc="Minimum period between database commits (in ms). With asynchronous writes, this is the maximum delay before written records are committed")
     public int minCommitPeriod = 10000;
     
     
+    @DisplayInfo(desc="Set to true to write records to storage in a separate thread, in batches, instead of in the thread delivering data events. "
+            + "Records are then not yet stored when the data event handler returns and can be lost if the hub is killed before the queue is flushed")
+    public boolean asyncWrites = false;
+    
+    
+    @DisplayInfo(desc="Maximum number of records waiting to be written before data producers are blocked (async writes only)")
+    public int writeQueueSize = 10000;
+    
+    
+    @DisplayInfo(desc="Maximum number of records written to storage in a single batch (async writes only)")
+    public int maxWriteBatchSize = 1000;
+    
+    
+    @DisplayInfo(desc="Number of written records that triggers a commit before the minimum commit period has elapsed, or 0 to only commit periodically (async writes only)")
+    public int maxUncommittedRecords = 0;
+    
+    
     @DisplayInfo(desc="Set to false to stop storing data of received events in underlying storage")
     public boolean processEvents = true;
     
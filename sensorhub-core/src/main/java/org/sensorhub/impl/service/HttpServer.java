@@ -44,6 +44,7 @@ import org.eclipse.jetty.server.handler.AllowSymLinkAliasChecker;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHandler;
@@ -81,6 +82,12 @@ public class HttpServer extends AbstractModule<HttpServerConfig>
     private static final String CORS_ALLOWED_METHODS = "GET, POST, PUT, DELETE, OPTIONS";
     private static final String CORS_ALLOWED_HEADERS = "origin, content-type, accept, authorization";
     
+    private static final int GZIP_INFLATE_BUFFER_SIZE = 8192;
+    private static final String[] GZIP_EXCLUDED_MIME_TYPES = {
+        "application/octet-stream", "application/exi",
+        "video/mp4", "video/h264", "video/x-motion-jpeg",
+        "image/jpeg", "image/png" };
+    
     private static final String CERT_ALIAS = "jetty";
     public static final String TEST_MSG = "SensorHub web server is up";
     private static HttpServer instance;
@@ -223,6 +230,25 @@ public class HttpServer extends AbstractModule<HttpServerConfig>
                     servletHandler.setSecurityHandler(jettySecurityHandler);
                 }
                 
+                // response compression and request decompression
+                if (config.enableCompression)
+                {
+                    GzipHandler gzipHandler = new GzipHandler();
+                    gzipHandler.setCompressionLevel(config.compressionLevel);
+                    gzipHandler.setMinGzipSize(config.compressionMinSize);
+                    gzipHandler.setIncludedMethods("GET", "POST");
+                    gzipHandler.setInflateBufferSize(GZIP_INFLATE_BUFFER_SIZE);
+                    
+                    // binary and media streams don't compress well and would
+                    // only cost CPU, especially with sync flush below
+                    gzipHandler.addExcludedMimeTypes(GZIP_EXCLUDED_MIME_TYPES);
+                    
+                    // flush compressed data each time servlets flush so
+                    // streamed responses are not delayed by the deflater
+                    gzipHandler.setSyncFlush(true);
+                    servletHandler.setGzipHandler(gzipHandler);
+                }
+                
                 // filter to add proper cross-origin headers
                 if (config.enableCORS)
                 {
@@ -14,6 +14,7 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 
 package org.sensorhub.impl.service;
 
+import java.util.zip.Deflater;
 import org.sensorhub.api.config.DisplayInfo;
 import org.sensorhub.api.module.ModuleConfig;
 
@@ -77,6 +78,18 @@ public class HttpServerConfig extends ModuleConfig
     @DisplayInfo(label="Enable CORS", desc="Enable generation of CORS headers to allow cross-domain requests from browsers")
     public boolean enableCORS = true;
     
+    
+    @DisplayInfo(label="Enable Compression", desc="Compress servlet responses with gzip when clients accept it, and accept gzip compressed request bodies. Binary and video responses are never compressed")
+    public boolean enableCompression = true;
+    
+    
+    @DisplayInfo(label="Compression Level", desc="Deflater compression level, from 1 (fastest) to 9 (best compression), or -1 for default level")
+    public int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    
+    
+    @DisplayInfo(label="Min Compressed Size", desc="Minimum size of responses to compress, in bytes. Streamed responses of unknown length are always compressed")
+    public int compressionMinSize = 1024;
+    
 
     public HttpServerConfig()
     {
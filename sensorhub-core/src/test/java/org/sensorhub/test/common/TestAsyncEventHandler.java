@@ -0,0 +1,214 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.common;
+
+import static org.junit.Assert.*;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.sensorhub.api.common.Event;
+import org.sensorhub.api.common.IBatchEventListener;
+import org.sensorhub.api.common.IEventListener;
+import org.sensorhub.impl.common.AsyncEventHandler;
+import org.sensorhub.impl.common.BoundedEventQueue;
+import org.sensorhub.impl.common.QueueOverflowPolicy;
+
+
+public class TestAsyncEventHandler
+{
+    ExecutorService threadPool = Executors.newCachedThreadPool();
+
+
+    enum TestEventType {TEST}
+
+    static class TestEvent extends Event<TestEventType>
+    {
+        int index;
+
+        TestEvent(Object source, int index)
+        {
+            this.timeStamp = System.currentTimeMillis();
+            this.type = TestEventType.TEST;
+            this.source = source;
+            this.index = index;
+        }
+    }
+
+
+    @Test
+    public void testQueueOverflowPolicies() throws Exception
+    {
+        BoundedEventQueue queue;
+
+        queue = new BoundedEventQueue(3, QueueOverflowPolicy.DROP_OLDEST, 0);
+        for (int i = 0; i < 5; i++)
+            queue.offer(new TestEvent(this, i));
+        assertEquals(3, queue.size());
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(2, ((TestEvent)queue.poll()).index);
+
+        queue = new BoundedEventQueue(3, QueueOverflowPolicy.DROP_NEWEST, 0);
+        for (int i = 0; i < 5; i++)
+            queue.offer(new TestEvent(this, i));
+        assertEquals(3, queue.size());
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(0, ((TestEvent)queue.poll()).index);
+
+        queue = new BoundedEventQueue(3, QueueOverflowPolicy.COALESCE, 0);
+        for (int i = 0; i < 5; i++)
+            queue.offer(new TestEvent(this, i));
+        List<Event<?>> events = new ArrayList<>();
+        assertEquals(3, queue.drainTo(events, 10));
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(0, ((TestEvent)events.get(0)).index);
+        assertEquals(4, ((TestEvent)events.get(2)).index);
+
+        queue = new BoundedEventQueue(3, QueueOverflowPolicy.BLOCK, 50);
+        for (int i = 0; i < 3; i++)
+            assertTrue(queue.offer(new TestEvent(this, i)));
+        long t0 = System.currentTimeMillis();
+        assertFalse(queue.offer(new TestEvent(this, 3)));
+        assertTrue(System.currentTimeMillis() - t0 >= 40);
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+
+    @Test
+    public void testSlowListenerDoesNotBlockOthers() throws Exception
+    {
+        final int numEvents = 100;
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(numEvents);
+        AsyncEventHandler handler = new AsyncEventHandler(threadPool, 10, AsyncEventHandler.DEFAULT_OVERFLOW_POLICY, AsyncEventHandler.DEFAULT_MAX_BLOCK_TIME, 1);
+
+        IEventListener slowListener = new IEventListener() {
+            @Override
+            public void handleEvent(Event<?> e)
+            {
+                try { release.await(); }
+                catch (InterruptedException e1) { }
+            }
+        };
+
+        IEventListener fastListener = new IEventListener() {
+            @Override
+            public void handleEvent(Event<?> e)
+            {
+                fastDone.countDown();
+            }
+        };
+
+        handler.registerListener(slowListener);
+        handler.registerListener(fastListener);
+
+        for (int i = 0; i < numEvents; i++)
+        {
+            handler.publishEvent(new TestEvent(this, i));
+            Thread.sleep(1);
+        }
+
+        assertTrue("Fast listener didn't receive all events", fastDone.await(5, TimeUnit.SECONDS));
+        assertEquals(0, handler.getDroppedEventCount(fastListener));
+        assertTrue(handler.getQueueSize(slowListener) <= 10);
+        assertTrue(handler.getDroppedEventCount(slowListener) > 0);
+        release.countDown();
+    }
+
+
+    @Test
+    public void testBatchDispatch() throws Exception
+    {
+        final int numEvents = 1000;
+        final List<Integer> received = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(numEvents);
+        final int[] maxBatch = new int[1];
+        AsyncEventHandler handler = new AsyncEventHandler(threadPool, numEvents, QueueOverflowPolicy.BLOCK, 1000, 50);
+
+        // keep a reference since listeners are only weakly referenced by the handler
+        IBatchEventListener listener = new IBatchEventListener() {
+            @Override
+            public void handleEvent(Event<?> e)
+            {
+                fail("Batch listener should receive events through handleEvents()");
+            }
+
+            @Override
+            public void handleEvents(List<Event<?>> events)
+            {
+                maxBatch[0] = Math.max(maxBatch[0], events.size());
+                for (Event<?> e: events)
+                {
+                    received.add(((TestEvent)e).index);
+                    done.countDown();
+                }
+            }
+        };
+        handler.registerListener(listener);
+
+        for (int i = 0; i < numEvents; i++)
+            handler.publishEvent(new TestEvent(this, i));
+
+        assertTrue("Not all events were received", done.await(5, TimeUnit.SECONDS));
+        assertTrue("Batch size limit was exceeded", maxBatch[0] <= 50);
+        for (int i = 0; i < numEvents; i++)
+            assertEquals("Events were received out of order", i, (int)received.get(i));
+        handler.unregisterListener(listener);
+    }
+
+
+    @Test
+    public void testCollectedListenerIsRemoved() throws Exception
+    {
+        AsyncEventHandler handler = new AsyncEventHandler(threadPool);
+        IEventListener listener = new IEventListener() {
+            @Override
+            public void handleEvent(Event<?> e)
+            {
+            }
+        };
+        
+        handler.registerListener(listener);
+        assertEquals(1, handler.getNumListeners());
+        
+        // listener that was never unregistered must not be retained by the handler
+        WeakReference<IEventListener> ref = new WeakReference<>(listener);
+        listener = null;
+        long t0 = System.currentTimeMillis();
+        while (ref.get() != null && System.currentTimeMillis() - t0 < 5000)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("Listener was not garbage collected", ref.get());
+        assertEquals(0, handler.getNumListeners());
+        
+        // queue is discarded on next publish
+        handler.publishEvent(new TestEvent(this, 0));
+        assertEquals(0, handler.getNumListeners());
+    }
+
+
+    @After
+    public void cleanup()
+    {
+        threadPool.shutdownNow();
+    }
+}
@@ -0,0 +1,199 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.common;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.sensorhub.api.common.Event;
+import org.sensorhub.api.common.IEventHandler;
+import org.sensorhub.api.common.IEventListener;
+import org.sensorhub.impl.SensorHubConfig;
+import org.sensorhub.impl.common.EventBus;
+import org.sensorhub.impl.common.EventBusConfig;
+import org.sensorhub.impl.common.EventBusConfig.DispatchMode;
+import org.sensorhub.impl.common.EventDispatchStats;
+import org.sensorhub.impl.common.QueueOverflowPolicy;
+import org.sensorhub.test.common.TestAsyncEventHandler.TestEvent;
+
+
+public class TestEventBus
+{
+
+    protected void publishAndCheck(DispatchMode mode) throws Exception
+    {
+        final int numEvents = 500;
+        final int numListeners = 10;
+
+        EventBusConfig config = new EventBusConfig();
+        config.dispatchMode = mode;
+        config.maxThreads = 4;
+        EventBus eventBus = new EventBus(config);
+
+        // keep references since listeners are only weakly referenced by the bus
+        List<IEventListener> listeners = new ArrayList<>();
+
+        try
+        {
+            final CountDownLatch done = new CountDownLatch(numEvents * numListeners);
+            for (int i = 0; i < numListeners; i++)
+            {
+                // register listeners before producer
+                IEventListener listener = new IEventListener() {
+                    @Override
+                    public void handleEvent(Event<?> e)
+                    {
+                        done.countDown();
+                    }
+                };
+                listeners.add(listener);
+                eventBus.registerListener("module1", "topic1", listener);
+            }
+
+            IEventHandler handler = eventBus.registerProducer("module1", "topic1");
+            assertSame("Producer and listeners must share the same handler", handler, eventBus.registerProducer("module1", "topic1"));
+            assertEquals(numListeners, handler.getNumListeners());
+
+            for (int i = 0; i < numEvents; i++)
+                handler.publishEvent(new TestEvent(this, i));
+
+            assertTrue("Not all events were received", done.await(5, TimeUnit.SECONDS));
+
+            EventDispatchStats stats = eventBus.getDispatchStats();
+            assertNotNull(stats);
+            assertTrue(stats.activeThreads <= stats.poolSize || mode == DispatchMode.VIRTUAL_THREADS);
+        }
+        finally
+        {
+            listeners.clear();
+            eventBus.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testCachedPoolMode() throws Exception
+    {
+        publishAndCheck(DispatchMode.CACHED_POOL);
+    }
+
+
+    @Test
+    public void testFixedPoolMode() throws Exception
+    {
+        publishAndCheck(DispatchMode.FIXED_POOL);
+    }
+
+
+    @Test
+    public void testVirtualThreadsMode() throws Exception
+    {
+        // falls back to cached pool on older JVMs
+        publishAndCheck(DispatchMode.VIRTUAL_THREADS);
+    }
+
+
+    @Test
+    public void testSynchronousMode() throws Exception
+    {
+        publishAndCheck(DispatchMode.SYNCHRONOUS);
+    }
+
+
+    @Test
+    public void testCachedPoolNeverRunsListenersInPublisherThread() throws Exception
+    {
+        final int numEvents = 200;
+        final int numListeners = 8;
+
+        // fewer threads than listeners so the pool gets saturated
+        EventBusConfig config = new EventBusConfig();
+        config.dispatchMode = DispatchMode.CACHED_POOL;
+        config.maxThreads = 2;
+        config.listenerQueueSize = numEvents;
+        EventBus eventBus = new EventBus(config);
+
+        // keep references since listeners are only weakly referenced by the bus
+        List<IEventListener> listeners = new ArrayList<>();
+
+        try
+        {
+            final Thread publisherThread = Thread.currentThread();
+            final AtomicInteger runsInPublisher = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(numEvents * numListeners);
+            for (int i = 0; i < numListeners; i++)
+            {
+                IEventListener listener = new IEventListener() {
+                    @Override
+                    public void handleEvent(Event<?> e)
+                    {
+                        if (Thread.currentThread() == publisherThread)
+                            runsInPublisher.incrementAndGet();
+                        try { Thread.sleep(1); }
+                        catch (InterruptedException ex) { }
+                        done.countDown();
+                    }
+                };
+                listeners.add(listener);
+                eventBus.registerListener("module1", "topic1", listener);
+            }
+
+            IEventHandler handler = eventBus.registerProducer("module1", "topic1");
+            for (int i = 0; i < numEvents; i++)
+                handler.publishEvent(new TestEvent(this, i));
+
+            assertTrue("Not all events were received", done.await(20, TimeUnit.SECONDS));
+            assertEquals("Listeners were called in publisher thread", 0, runsInPublisher.get());
+            assertTrue(eventBus.getDispatchStats().poolSize <= config.maxThreads);
+        }
+        finally
+        {
+            listeners.clear();
+            eventBus.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testLoadOptionsFromFile() throws Exception
+    {
+        File file = File.createTempFile("hub-options", ".json");
+        file.deleteOnExit();
+        try (Writer writer = new FileWriter(file))
+        {
+            writer.write("{ \"eventBusConfig\": { \"dispatchMode\": \"FIXED_POOL\", \"maxThreads\": 3, \"overflowPolicy\": \"DROP_NEWEST\" } }");
+        }
+
+        SensorHubConfig hubConfig = new SensorHubConfig("config.json", "storage");
+        hubConfig.loadOptions(file);
+        EventBusConfig config = hubConfig.getEventBusConfig();
+        assertEquals(DispatchMode.FIXED_POOL, config.dispatchMode);
+        assertEquals(3, config.maxThreads);
+        assertEquals(QueueOverflowPolicy.DROP_NEWEST, config.overflowPolicy);
+
+        // options missing from file keep their default values
+        EventBusConfig defaultConfig = new EventBusConfig();
+        assertEquals(defaultConfig.listenerQueueSize, config.listenerQueueSize);
+        assertEquals(defaultConfig.maxBlockTime, config.maxBlockTime);
+        assertEquals("config.json", hubConfig.getModuleConfigPath());
+    }
+}
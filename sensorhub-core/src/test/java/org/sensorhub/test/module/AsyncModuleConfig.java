@@ -38,6 +38,8 @@ public class AsyncModuleConfig extends ModuleConfig
     public long stopDelay;
     public long stopExecTime; 
     
+    public String dataSourceID;
+    
     // not part of config, but used in tests
     boolean initEventReceived;
     boolean startEventReceived;
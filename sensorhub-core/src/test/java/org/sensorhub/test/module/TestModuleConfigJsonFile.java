@@ -17,7 +17,9 @@ package org.sensorhub.test.module;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -29,6 +31,11 @@ import org.sensorhub.api.sensor.SensorConfig;
 import org.sensorhub.api.service.ServiceConfig;
 import org.sensorhub.impl.module.ModuleConfigJsonFile;
 import org.sensorhub.impl.persistence.InMemoryStorageConfig;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
 import static org.junit.Assert.*;
 
 
@@ -163,6 +170,58 @@ public class TestModuleConfigJsonFile
     }
     
     
+    @Test
+    public void testDelegateAdaptersAreCached() throws Exception
+    {
+        // count delegate adapter lookups for the runtime config class
+        final AtomicInteger numLookups = new AtomicInteger();
+        GsonBuilder builder = new GsonBuilder();
+        builder.registerTypeAdapterFactory(new TypeAdapterFactory()
+        {
+            @Override
+            public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type)
+            {
+                if (type.getRawType() == SensorConfig.class)
+                    numLookups.incrementAndGet();
+                return null;
+            }
+        });
+        
+        // registered last so it has priority over the counting factory
+        builder.registerTypeAdapterFactory(configDb.new RuntimeTypeAdapterFactory<Object>(Object.class, "objClass"));
+        Gson gson = builder.create();
+        
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 10; i++)
+        {
+            if (i > 0)
+                json.append(',');
+            json.append("{\"objClass\": \"").append(SensorConfig.class.getName()).append("\", ");
+            json.append("\"id\": \"sensor").append(i).append("\", \"name\": \"Sensor").append(i).append("\"}");
+        }
+        json.append(']');
+        
+        TypeToken<List<ModuleConfig>> listType = new TypeToken<List<ModuleConfig>>() {};
+        List<ModuleConfig> configs = gson.fromJson(json.toString(), listType.getType());
+        assertEquals(10, configs.size());
+        for (int i = 0; i < configs.size(); i++)
+        {
+            assertEquals(SensorConfig.class, configs.get(i).getClass());
+            assertEquals("sensor" + i, configs.get(i).id);
+            assertEquals("Sensor" + i, configs.get(i).name);
+        }
+        assertEquals(1, numLookups.get());
+        
+        // writing and reading again reuses the same delegate adapter
+        String output = gson.toJson(configs, listType.getType());
+        List<ModuleConfig> readBack = gson.fromJson(output, listType.getType());
+        assertEquals(10, readBack.size());
+        assertEquals(SensorConfig.class, readBack.get(9).getClass());
+        assertEquals("sensor9", readBack.get(9).id);
+        assertEquals(1, numLookups.get());
+    }
+    
+    
     private void displayFile() throws Exception
     {
         // print out file
@@ -0,0 +1,185 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.module;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.api.module.IModule;
+import org.sensorhub.api.module.IModuleProvider;
+import org.sensorhub.api.module.ModuleConfig;
+import org.sensorhub.impl.module.ModuleProviderIndex;
+
+
+public class TestModuleProviderIndex
+{
+    File servicesDir;
+    ExtensibleClassLoader classLoader;
+    ClassLoader oldContextClassLoader;
+
+
+    public static class DummyModuleProvider implements IModuleProvider
+    {
+        @Override
+        public String getModuleName()
+        {
+            return "Dummy Module";
+        }
+
+        @Override
+        public String getModuleDescription()
+        {
+            return "Module registered by test";
+        }
+
+        @Override
+        public String getModuleVersion()
+        {
+            return "1.0";
+        }
+
+        @Override
+        public String getProviderName()
+        {
+            return "Test";
+        }
+
+        @Override
+        public Class<? extends IModule<?>> getModuleClass()
+        {
+            return DummyModule.class;
+        }
+
+        @Override
+        public Class<? extends ModuleConfig> getModuleConfigClass()
+        {
+            return MyConfig1.class;
+        }
+    }
+
+
+    /* class loader to which jars can be added after it is created */
+    static class ExtensibleClassLoader extends URLClassLoader
+    {
+        ExtensibleClassLoader(ClassLoader parent)
+        {
+            super(new URL[0], parent);
+        }
+
+        @Override
+        public void addURL(URL url)
+        {
+            super.addURL(url);
+        }
+    }
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        // service descriptor registering the dummy provider
+        servicesDir = Files.createTempDirectory("services").toFile();
+        File descriptorFile = new File(servicesDir, "META-INF/services/" + IModuleProvider.class.getName());
+        descriptorFile.getParentFile().mkdirs();
+        try (Writer writer = new FileWriter(descriptorFile))
+        {
+            writer.write(DummyModuleProvider.class.getName() + "\n");
+        }
+
+        classLoader = new ExtensibleClassLoader(getClass().getClassLoader());
+        oldContextClassLoader = Thread.currentThread().getContextClassLoader();
+    }
+
+
+    @Test
+    public void testIndexCachedPerClassLoader() throws Exception
+    {
+        ModuleProviderIndex index = ModuleProviderIndex.get(classLoader);
+        assertSame(index, ModuleProviderIndex.get(classLoader));
+
+        // context class loader is used by default
+        Thread.currentThread().setContextClassLoader(classLoader);
+        assertSame(index, ModuleProviderIndex.get());
+
+        // a new index is built for another class loader
+        try (URLClassLoader otherClassLoader = new URLClassLoader(new URL[] {servicesDir.toURI().toURL()}, getClass().getClassLoader()))
+        {
+            ModuleProviderIndex otherIndex = ModuleProviderIndex.get(otherClassLoader);
+            assertNotSame(index, otherIndex);
+            assertNull(index.getProvider(DummyModule.class.getName()));
+            assertNotNull(otherIndex.getProvider(DummyModule.class.getName()));
+            assertEquals(index.getProviders().size() + 1, otherIndex.getProviders().size());
+
+            Thread.currentThread().setContextClassLoader(otherClassLoader);
+            assertSame(otherIndex, ModuleProviderIndex.get());
+        }
+    }
+
+
+    @Test
+    public void testRefresh() throws Exception
+    {
+        Thread.currentThread().setContextClassLoader(classLoader);
+        ModuleProviderIndex index = ModuleProviderIndex.get();
+        assertNull(index.getProvider(DummyModule.class.getName()));
+
+        // new providers are not seen until the index is refreshed
+        classLoader.addURL(servicesDir.toURI().toURL());
+        assertSame(index, ModuleProviderIndex.get());
+        assertNull(ModuleProviderIndex.get().getProvider(DummyModule.class.getName()));
+
+        ModuleProviderIndex newIndex = ModuleProviderIndex.refresh();
+        assertNotSame(index, newIndex);
+        assertSame(newIndex, ModuleProviderIndex.get());
+
+        IModuleProvider provider = newIndex.getProvider(DummyModule.class.getName());
+        assertNotNull(provider);
+        assertTrue(provider instanceof DummyModuleProvider);
+        assertEquals(MyConfig1.class, newIndex.getConfigClasses().get(MyConfig1.class.getName()));
+        assertTrue(newIndex.getProviders(DummyModule.class).contains(provider));
+        assertEquals(index.getProviders().size() + 1, newIndex.getProviders().size());
+    }
+
+
+    @Test
+    public void testRefreshOnlyAffectsContextClassLoader() throws Exception
+    {
+        ModuleProviderIndex otherIndex = ModuleProviderIndex.get(getClass().getClassLoader());
+
+        Thread.currentThread().setContextClassLoader(classLoader);
+        ModuleProviderIndex.refresh();
+        assertSame(otherIndex, ModuleProviderIndex.get(getClass().getClassLoader()));
+    }
+
+
+    @After
+    public void cleanup() throws Exception
+    {
+        Thread.currentThread().setContextClassLoader(oldContextClassLoader);
+        classLoader.close();
+
+        new File(servicesDir, "META-INF/services/" + IModuleProvider.class.getName()).delete();
+        new File(servicesDir, "META-INF/services").delete();
+        new File(servicesDir, "META-INF").delete();
+        servicesDir.delete();
+    }
+}
@@ -15,7 +15,13 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 package org.sensorhub.test.module;
 
 import static org.junit.Assert.*;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import org.junit.After;
 import org.junit.Before;
@@ -33,7 +39,15 @@ import org.sensorhub.api.processing.ProcessConfig;
 import org.sensorhub.api.sensor.SensorConfig;
 import org.sensorhub.api.service.IServiceModule;
 import org.sensorhub.impl.SensorHub;
+import org.sensorhub.impl.SensorHubConfig;
+import org.sensorhub.impl.common.EventBus;
+import org.sensorhub.impl.common.EventBusConfig;
+import org.sensorhub.impl.module.InMemoryConfigDb;
 import org.sensorhub.impl.module.ModuleRegistry;
+import org.sensorhub.impl.module.ModuleRegistryConfig;
+import org.sensorhub.impl.module.ModuleStartupScheduler;
+import org.sensorhub.impl.module.ModuleStartupScheduler.StartupTiming;
+import org.sensorhub.impl.module.StartupTimeline;
 import org.sensorhub.impl.persistence.InMemoryStorageConfig;
 
 
@@ -368,6 +382,116 @@ public class TestModuleRegistry
     }
     
     
+    private void useDependencyAwareRegistry() throws Exception
+    {
+        registry.shutdown(false, false);
+        SensorHub.clearInstance();
+        
+        SensorHubConfig hubConfig = new SensorHubConfig();
+        hubConfig.getModuleRegistryConfig().dependencyAwareStartup = true;
+        EventBus eventBus = new EventBus(hubConfig.getEventBusConfig());
+        registry = new ModuleRegistry(new InMemoryConfigDb(), eventBus, hubConfig.getModuleRegistryConfig());
+        SensorHub.createInstance(hubConfig, registry, eventBus);
+    }
+    
+    
+    @Test
+    public void testLoadRegistryOptionsFromFile() throws Exception
+    {
+        File file = File.createTempFile("hub-options", ".json");
+        file.deleteOnExit();
+        try (Writer writer = new FileWriter(file))
+        {
+            writer.write("{ \"moduleRegistryConfig\": { \"dependencyAwareStartup\": true, \"maxStartupThreads\": 4 } }");
+        }
+        
+        SensorHubConfig hubConfig = new SensorHubConfig("config.json", "storage");
+        EventBusConfig eventBusConfig = hubConfig.getEventBusConfig();
+        assertFalse(hubConfig.getModuleRegistryConfig().dependencyAwareStartup);
+        hubConfig.loadOptions(file);
+        
+        ModuleRegistryConfig config = hubConfig.getModuleRegistryConfig();
+        assertTrue(config.dependencyAwareStartup);
+        assertEquals(4, config.maxStartupThreads);
+        
+        // options missing from file keep their current values
+        assertEquals(new ModuleRegistryConfig().dependencyTimeout, config.dependencyTimeout);
+        assertSame(eventBusConfig, hubConfig.getEventBusConfig());
+    }
+    
+    
+    @Test
+    public void testLoadAllModulesWithDependencies() throws Exception
+    {
+        useDependencyAwareRegistry();
+        
+        // module 1 starts asynchronously
+        AsyncModuleConfig conf1 = new AsyncModuleConfig();
+        conf1.moduleClass = AsyncModule.class.getCanonicalName();
+        conf1.id = "MOD_ASYNC1";
+        conf1.autoStart = true;
+        conf1.name = "ModuleAsync1";
+        conf1.useThreadForStart = true;
+        conf1.startDelay = 100;
+        conf1.startExecTime = 200;
+        
+        // module 2 depends on module 1
+        AsyncModuleConfig conf2 = new AsyncModuleConfig();
+        conf2.moduleClass = AsyncModule.class.getCanonicalName();
+        conf2.id = "MOD_ASYNC2";
+        conf2.autoStart = true;
+        conf2.name = "ModuleAsync2";
+        conf2.startExecTime = 10;
+        conf2.dataSourceID = conf1.id;
+        
+        // module 3 has no dependency
+        AsyncModuleConfig conf3 = new AsyncModuleConfig();
+        conf3.moduleClass = AsyncModule.class.getCanonicalName();
+        conf3.id = "MOD_ASYNC3";
+        conf3.autoStart = true;
+        conf3.name = "ModuleAsync3";
+        conf3.startExecTime = 100;
+        
+        assertEquals(Arrays.asList(conf1.id), Arrays.asList(ModuleStartupScheduler.findModuleReferences(conf2).toArray()));
+        assertTrue(ModuleStartupScheduler.findModuleReferences(conf1).isEmpty());
+        
+        // start all modules
+        registry.saveConfiguration(conf2, conf3, conf1);
+        registry.loadAllModules();
+        assertTrue("Startup timeout reached", registry.waitForAllModulesStarted(5000));
+        
+        Map<String, StartupTiming> timings = new HashMap<>();
+        for (StartupTiming timing: registry.getStartupTimings())
+        {
+            System.out.println(timing);
+            timings.put(timing.getModuleID(), timing);
+            assertEquals(ModuleState.STARTED, timing.getFinalState());
+        }
+        assertEquals(3, timings.size());
+        
+        // check module 2 was started after module 1 and module 3 in parallel
+        StartupTiming timing1 = timings.get(conf1.id);
+        StartupTiming timing2 = timings.get(conf2.id);
+        StartupTiming timing3 = timings.get(conf3.id);
+        assertTrue("Module 2 started before module 1", timing2.getStartTime() >= timing1.getEndTime());
+        assertTrue("Module 3 not started in parallel", timing3.getStartTime() < timing1.getEndTime());
+        
+        // check critical path
+        List<StartupTiming> criticalPath = StartupTimeline.findCriticalPath(registry.getStartupTimings());
+        assertEquals(Arrays.asList(timing1, timing2), criticalPath);
+        
+        // check report shows startup phases and critical path
+        String report = registry.getStartupTimeline().getReport(registry.getStartupTimings());
+        assertTrue(report.startsWith("Startup timeline"));
+        assertTrue(report.contains("Load modules"));
+        assertTrue(report.contains("Critical path (" + timing2.getEndTime() + " ms): " +
+            conf1.id + " (" + timing1.getDuration() + " ms) > " +
+            conf2.id + " (" + timing2.getDuration() + " ms)"));
+        assertFalse(report.contains(conf3.id));
+        assertTrue(report.contains("Hub ready after"));
+    }
+    
+    
     @Test
     public void testRestartModuleAsync() throws Exception
     {
@@ -375,6 +375,49 @@ public abstract class AbstractTestBasicStorage<StorageType extends IRecordStorag
     }
     
     
+    @Test
+    public void testHasMoreMatchingRecords() throws Exception
+    {
+        DataComponent recordDef = createDs2();
+        
+        // write N records spanning several hours
+        final int numRecords = 200;
+        final double timeStep = 600.0;
+        writeRecords(recordDef, 1000.0, timeStep, numRecords);
+        forceReadBackFromStorage();
+        
+        // time range starting and ending in the middle of hours
+        final double begin = 5432.1;
+        final double end = 98765.4;
+        int numFilteredRecords = 0;
+        for (int i = 0; i < numRecords; i++)
+        {
+            double t = 1000.0 + i*timeStep;
+            if (t >= begin && t <= end)
+                numFilteredRecords++;
+        }
+        
+        IDataFilter filter = new DataFilter(recordDef.getName()) {
+            @Override
+            public double[] getTimeStampRange() { return new double[] {begin, end}; }
+            public Set<String> getProducerIDs() { return producerFilterList; }
+        };
+        
+        assertTrue(storage.hasMoreMatchingRecords(filter, numFilteredRecords-1));
+        assertFalse(storage.hasMoreMatchingRecords(filter, numFilteredRecords));
+        assertTrue(storage.hasMoreMatchingRecords(filter, 0));
+        assertEquals(numFilteredRecords, storage.getNumMatchingRecords(filter, Long.MAX_VALUE));
+        
+        // whole time range
+        filter = new DataFilter(recordDef.getName()) {
+            public Set<String> getProducerIDs() { return producerFilterList; }
+        };
+        
+        assertTrue(storage.hasMoreMatchingRecords(filter, numRecords-1));
+        assertFalse(storage.hasMoreMatchingRecords(filter, numRecords));
+    }
+    
+    
     @Test
     public void testStoreAndGetTimeRange() throws Exception
     {
@@ -14,9 +14,18 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 
 package org.sensorhub.test.persistence;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Iterator;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
 import org.junit.Test;
+import org.sensorhub.api.persistence.IDataRecord;
 import org.sensorhub.api.persistence.IMultiSourceStorage;
+import org.sensorhub.api.persistence.IObsFilter;
 import org.sensorhub.api.persistence.IObsStorageModule;
+import org.sensorhub.api.persistence.ObsFilter;
+import org.sensorhub.api.persistence.ObsKey;
 
 
 /**
@@ -258,4 +267,57 @@ public abstract class AbstractTestMultiObsStorage<StorageType extends IObsStorag
         super.testGetNumMatchingRecordsWithOneFoi();
     }
     
+    
+    @Test
+    public void testGetRecordsSortedByTimeFromMultipleProducers() throws Exception
+    {
+        addProducersToStorage();
+        DataComponent recordDef = createDs2();
+        
+        // interleave records of all producers except the last one,
+        // whose records are all outside of the requested time range
+        int numRecords = 50;
+        for (int p = 1; p <= NUM_PRODUCERS; p++)
+        {
+            String producerID = SENSOR_UID_PREFIX + p;
+            for (int i = 0; i < numRecords; i++)
+            {
+                double time = (p < NUM_PRODUCERS) ? i + p*0.01 : 1000. + i;
+                DataBlock data = recordDef.createDataBlock();
+                data.setDoubleValue(0, time);
+                data.setIntValue(1, p);
+                data.setStringValue(2, "test" + i);
+                storage.storeRecord(new ObsKey(recordDef.getName(), producerID, null, time), data);
+            }
+        }
+        
+        storage.commit();
+        forceReadBackFromStorage();
+        
+        final double[] timeRange = new double[] {10.0, 19.5};
+        IObsFilter filter = new ObsFilter(recordDef.getName()) {
+            @Override
+            public double[] getTimeStampRange()
+            {
+                return timeRange;
+            }
+        };
+        
+        int count = 0;
+        double lastTime = Double.NEGATIVE_INFINITY;
+        Iterator<? extends IDataRecord> it = storage.getRecordIterator(filter);
+        while (it.hasNext())
+        {
+            IDataRecord rec = it.next();
+            double time = rec.getKey().timeStamp;
+            assertTrue("Records are not sorted by time", time >= lastTime);
+            assertTrue("Record outside of time range", time >= timeRange[0] && time <= timeRange[1]);
+            lastTime = time;
+            count++;
+        }
+        
+        // 10 time steps (10 to 19) for each of the first N-1 producers
+        assertEquals(10 * (NUM_PRODUCERS-1), count);
+        assertEquals(count, storage.getNumMatchingRecords(filter, Long.MAX_VALUE));
+    }
 }
@@ -15,6 +15,7 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 package org.sensorhub.test.persistence;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -650,6 +651,8 @@ public abstract class AbstractTestObsStorage<StorageType extends IObsStorageModu
             
             int expectedCount = FOI_STARTS[foiIndex+1] - FOI_STARTS[foiIndex];
             assertEquals(expectedCount, storage.getNumMatchingRecords(filter, Integer.MAX_VALUE));
+            assertTrue(storage.hasMoreMatchingRecords(filter, expectedCount-1));
+            assertFalse(storage.hasMoreMatchingRecords(filter, expectedCount));
         }
     }
 }
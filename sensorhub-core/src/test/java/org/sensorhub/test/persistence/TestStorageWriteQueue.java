@@ -0,0 +1,238 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.persistence;
+
+import static org.junit.Assert.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.api.persistence.DataKey;
+import org.sensorhub.impl.persistence.InMemoryBasicStorage;
+import org.sensorhub.impl.persistence.InMemoryStorageConfig;
+import org.sensorhub.impl.persistence.StorageWriteQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vast.data.QuantityImpl;
+import org.vast.data.TextEncodingImpl;
+
+
+public class TestStorageWriteQueue
+{
+    static final Logger log = LoggerFactory.getLogger(TestStorageWriteQueue.class);
+    static final String RECORD_TYPE = "rec1";
+    
+    DataComponent recordDesc;
+    InMemoryBasicStorage storage;
+    final AtomicInteger commitCount = new AtomicInteger();
+    volatile CountDownLatch writeGate;
+    
+    
+    @Before
+    public void init() throws Exception
+    {
+        InMemoryStorageConfig config = new InMemoryStorageConfig();
+        config.name = "In-Memory Storage";
+        
+        storage = new InMemoryBasicStorage() {
+            @Override
+            public void commit()
+            {
+                commitCount.incrementAndGet();
+            }
+            
+            @Override
+            public void storeRecord(DataKey key, DataBlock data)
+            {
+                // simulate slow storage
+                try
+                {
+                    if (writeGate != null)
+                        writeGate.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                
+                super.storeRecord(key, data);
+            }
+        };
+        storage.init(config);
+        
+        recordDesc = new QuantityImpl();
+        recordDesc.setName(RECORD_TYPE);
+        storage.addRecordStore(RECORD_TYPE, recordDesc, new TextEncodingImpl());
+    }
+    
+    
+    protected void addRecord(StorageWriteQueue writeQueue, double time) throws InterruptedException
+    {
+        DataBlock data = recordDesc.createDataBlock();
+        data.setDoubleValue(time);
+        writeQueue.add(new DataKey(RECORD_TYPE, null, time), data);
+    }
+    
+    
+    @Test
+    public void testWriteFromMultipleThreads() throws Exception
+    {
+        final int numThreads = 4;
+        final int numRecords = 500;
+        final StorageWriteQueue writeQueue = new StorageWriteQueue(storage, 100, 50, 200, 60000L, log);
+        writeQueue.start("StorageWriter");
+        
+        final CountDownLatch done = new CountDownLatch(numThreads);
+        for (int t = 0; t < numThreads; t++)
+        {
+            final int offset = t;
+            new Thread() {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        // write in reverse order, interleaved with other threads
+                        for (int i = numRecords-1; i >= 0; i--)
+                            addRecord(writeQueue, i*numThreads + offset);
+                    }
+                    catch (InterruptedException e)
+                    {
+                    }
+                    
+                    done.countDown();
+                }
+            }.start();
+        }
+        
+        done.await();
+        assertTrue("Flush timed out", writeQueue.flush());
+        assertEquals(numThreads*numRecords, storage.getNumRecords(RECORD_TYPE));
+        assertTrue("Storage should be committed every 200 records", commitCount.get() >= numThreads*numRecords/250);
+        
+        // check records can be read back in time order
+        double[] timeRange = storage.getRecordsTimeRange(RECORD_TYPE);
+        assertEquals(0.0, timeRange[0], 0.0);
+        assertEquals(numThreads*numRecords - 1, timeRange[1], 0.0);
+        
+        writeQueue.stop();
+    }
+    
+    
+    @Test
+    public void testCommitAfterMaxLatency() throws Exception
+    {
+        StorageWriteQueue writeQueue = new StorageWriteQueue(storage, 100, 50, 0, 100L, log);
+        writeQueue.start("StorageWriter");
+        
+        for (int i = 0; i < 10; i++)
+            addRecord(writeQueue, i);
+        assertTrue("Flush timed out", writeQueue.flush());
+        
+        // no commit can occur before latency expires unless it was triggered by an earlier batch
+        Thread.sleep(500);
+        assertTrue("Storage was not committed after max latency", commitCount.get() >= 1);
+        int count = commitCount.get();
+        
+        // nothing more to commit
+        Thread.sleep(300);
+        assertEquals(count, commitCount.get());
+        
+        writeQueue.stop();
+    }
+    
+    
+    @Test
+    public void testStopWritesPendingRecords() throws Exception
+    {
+        int numRecords = 1000;
+        StorageWriteQueue writeQueue = new StorageWriteQueue(storage, numRecords, 10, 0, 60000L, log);
+        writeQueue.start("StorageWriter");
+        
+        for (int i = 0; i < numRecords; i++)
+            addRecord(writeQueue, i);
+        writeQueue.stop();
+        
+        assertEquals(numRecords, storage.getNumRecords(RECORD_TYPE));
+        assertEquals(1, commitCount.get());
+        
+        try
+        {
+            addRecord(writeQueue, numRecords);
+            fail("Records cannot be added after queue is stopped");
+        }
+        catch (IllegalStateException e)
+        {
+        }
+    }
+    
+    
+    @Test
+    public void testStopWithFullQueueAndSlowStorage() throws Exception
+    {
+        writeGate = new CountDownLatch(1);
+        final StorageWriteQueue writeQueue = new StorageWriteQueue(storage, 1, 1, 0, 60000L, log);
+        writeQueue.start("StorageWriter");
+        
+        // first record blocks the writer thread, second one fills the queue
+        addRecord(writeQueue, 0);
+        addRecord(writeQueue, 1);
+        
+        // third record blocks the caller until queue is stopped
+        final AtomicReference<Exception> addError = new AtomicReference<>();
+        final CountDownLatch addDone = new CountDownLatch(1);
+        new Thread() {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    addRecord(writeQueue, 2);
+                }
+                catch (Exception e)
+                {
+                    addError.set(e);
+                }
+                
+                addDone.countDown();
+            }
+        }.start();
+        
+        final CountDownLatch stopDone = new CountDownLatch(1);
+        new Thread() {
+            @Override
+            public void run()
+            {
+                writeQueue.stop();
+                stopDone.countDown();
+            }
+        }.start();
+        
+        // blocked caller must be released even though writer is still busy
+        assertTrue("Caller still blocked after stop", addDone.await(2, TimeUnit.SECONDS));
+        assertTrue(addError.get() instanceof IllegalStateException);
+        
+        // stop must wait for the writer thread
+        assertFalse("Stop returned while writer was still busy", stopDone.await(300, TimeUnit.MILLISECONDS));
+        writeGate.countDown();
+        assertTrue("Stop timed out", stopDone.await(5, TimeUnit.SECONDS));
+        assertEquals(2, storage.getNumRecords(RECORD_TYPE));
+        assertEquals(1, commitCount.get());
+    }
+}
@@ -0,0 +1,378 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.client.sost;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import net.opengis.swe.v20.BinaryEncoding;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import net.opengis.swe.v20.TextEncoding;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.sensorhub.impl.client.sost.SOSTClient.StreamInfo;
+import org.sensorhub.impl.client.sost.SOSTClientConfig.SOSConnectionConfig;
+import org.slf4j.Logger;
+import org.vast.cdm.common.DataStreamWriter;
+import org.vast.swe.SWEHelper;
+
+
+/**
+ * <p>
+ * Non-blocking sender used by the SOS-T client in asynchronous mode.<br/>
+ * Records are encoded as they are received and grouped in batches that
+ * are sent as InsertResult requests when either the max number of records
+ * or the max batch delay is reached.<br/>
+ * Several requests can await a response at the same time, but a new request
+ * is only started once the content of the previous one has been fully sent,
+ * so that batches reach the server in the order they were created.<br/>
+ * Batches are numbered in creation order. When a request fails, the failed
+ * batch and all batches created after it, whether in flight, queued or still
+ * open, are handed back to the client in sequence order so they can be
+ * spooled. Records added while the client is offline are spooled too. This
+ * is done once all requests for earlier batches have completed, so that
+ * records are never spooled out of order. Requests for later batches that
+ * are still in flight are aborted, although some of them may still have
+ * reached the server. Records of batches that cannot be queued because
+ * bandwidth cannot keep up are also handed back to the client.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class AsyncStreamSender
+{
+    final SOSTClient client;
+    final StreamInfo streamInfo;
+    final String outputName;
+    final HttpClient httpClient;
+    final String requestUrl;
+    final String contentType;
+    final SOSConnectionConfig config;
+    final DataStreamWriter writer;
+    final ByteArrayOutputStream batchBuffer = new ByteArrayOutputStream(8192);
+    final ArrayDeque<Batch> pendingBatches = new ArrayDeque<>();
+    final TreeMap<Long, Batch> inFlightBatches = new TreeMap<>();
+    final List<DataBlock> batchRecords = new ArrayList<>();
+    long batchStartTime;
+    long nextSequenceNumber;
+    Batch sendingBatch;
+    Throwable sendError;
+    long retryTime;
+    boolean stopped;
+    
+    
+    static class Batch
+    {
+        final long seqNum;
+        final byte[] data;
+        final DataBlock[] records;
+        Request request;
+        boolean failed;
+        
+        Batch(long seqNum, byte[] data, DataBlock[] records)
+        {
+            this.seqNum = seqNum;
+            this.data = data;
+            this.records = records;
+        }
+    }
+    
+    
+    public AsyncStreamSender(SOSTClient client, StreamInfo streamInfo, String outputName, HttpClient httpClient, String requestUrl,
+            DataComponent recordStruct, DataEncoding encoding)
+    {
+        this.client = client;
+        this.streamInfo = streamInfo;
+        this.outputName = outputName;
+        this.httpClient = httpClient;
+        this.requestUrl = requestUrl;
+        this.config = client.getConfiguration().connection;
+        this.contentType = (encoding instanceof BinaryEncoding) ? "application/octet-stream" : "text/plain";
+        
+        this.writer = SWEHelper.createDataWriter(encoding);
+        writer.setDataComponents(recordStruct);
+        writer.setOutput(batchBuffer);
+    }
+    
+    
+    /**
+     * @param encoding encoding of the data stream
+     * @return true if records with the given encoding can be concatenated
+     * in separate batches
+     */
+    public static boolean isEncodingSupported(DataEncoding encoding)
+    {
+        return encoding instanceof TextEncoding || encoding instanceof BinaryEncoding;
+    }
+    
+    
+    /**
+     * Encodes the given records and sends them if the current batch is full
+     * @param records new records
+     * @throws IOException if records cannot be encoded
+     */
+    public synchronized void addRecords(DataBlock... records) throws IOException
+    {
+        if (stopped)
+            return;
+        
+        // don't send new records before those that were handed back
+        if (client.mustSpool(streamInfo))
+        {
+            client.spoolRecords(streamInfo, outputName, records);
+            return;
+        }
+        
+        for (DataBlock rec: records)
+        {
+            if (batchRecords.isEmpty())
+                batchStartTime = System.currentTimeMillis();
+            
+            writer.write(rec);
+            batchRecords.add(rec);
+            
+            if (batchRecords.size() >= config.maxRecordsPerRequest)
+                closeBatch();
+        }
+        
+        dispatch();
+    }
+    
+    
+    /**
+     * Sends the current batch if it has been waiting for longer than the max
+     * batch delay, and retries sending queued batches if possible.<br/>
+     * This must be called periodically.
+     */
+    public synchronized void checkTimeout()
+    {
+        if (stopped)
+            return;
+        
+        try
+        {
+            long now = System.currentTimeMillis();
+            if (!batchRecords.isEmpty() && now - batchStartTime >= config.maxBatchDelay)
+                closeBatch();
+            
+            dispatch();
+        }
+        catch (IOException e)
+        {
+            client.reportError("Error while encoding '" + outputName + "' records", e);
+        }
+    }
+    
+    
+    private void closeBatch() throws IOException
+    {
+        writer.flush();
+        Batch batch = new Batch(nextSequenceNumber++, batchBuffer.toByteArray(), batchRecords.toArray(new DataBlock[batchRecords.size()]));
+        batchBuffer.reset();
+        batchRecords.clear();
+        
+        // if bandwidth cannot keep up, let client spool or drop the new batch
+        if (pendingBatches.size() >= config.maxQueueSize)
+        {
+            client.handleQueueFull(streamInfo, outputName, batch.records);
+            return;
+        }
+        
+        pendingBatches.add(batch);
+    }
+    
+    
+    private void dispatch()
+    {
+        // don't send anything new until failed batches have been handed back
+        while (!stopped && sendingBatch == null && sendError == null &&
+               inFlightBatches.size() < config.maxRequestsInFlight &&
+               System.currentTimeMillis() >= retryTime)
+        {
+            Batch batch = pendingBatches.poll();
+            if (batch == null)
+                break;
+            
+            send(batch);
+        }
+    }
+    
+    
+    private void send(final Batch batch)
+    {
+        inFlightBatches.put(batch.seqNum, batch);
+        sendingBatch = batch;
+        
+        final Logger log = client.getLogger();
+        if (log.isTraceEnabled())
+        {
+            log.trace("Sending {} '{}' record(s) to SOS-T (batch #{})", batch.records.length, outputName, batch.seqNum);
+            log.trace("{} request(s) in flight, {} batch(es) queued", inFlightBatches.size(), pendingBatches.size());
+        }
+        
+        Request request = httpClient.newRequest(requestUrl)
+            .method(HttpMethod.POST)
+            .idleTimeout(config.connectTimeout, TimeUnit.MILLISECONDS)
+            .content(new BytesContentProvider(contentType, batch.data));
+        batch.request = request;
+        
+        request.onRequestSuccess(new Request.SuccessListener() {
+            @Override
+            public void onSuccess(Request req)
+            {
+                onContentSent(batch);
+            }
+        });
+        
+        request.send(new Response.CompleteListener() {
+            @Override
+            public void onComplete(Result result)
+            {
+                onRequestComplete(batch, result);
+            }
+        });
+    }
+    
+    
+    protected synchronized void onContentSent(Batch batch)
+    {
+        if (sendingBatch == batch)
+        {
+            sendingBatch = null;
+            dispatch();
+        }
+    }
+    
+    
+    protected synchronized void onRequestComplete(Batch batch, Result result)
+    {
+        if (sendingBatch == batch)
+            sendingBatch = null;
+        
+        // ignore batches that were already handed back or discarded
+        if (stopped || inFlightBatches.get(batch.seqNum) != batch)
+            return;
+        
+        int status = (result.getResponse() != null) ? result.getResponse().getStatus() : 0;
+        if (!result.isFailed() && status == HttpStatus.OK_200)
+        {
+            inFlightBatches.remove(batch.seqNum);
+            streamInfo.errorCount = 0;
+        }
+        else
+        {
+            Throwable error = result.isFailed() ? result.getFailure() : new IOException("HTTP status " + status);
+            
+            // records rejected by server are not sent again
+            boolean canRetry = status < 400 || status >= 500;
+            if (canRetry)
+            {
+                batch.failed = true;
+                if (sendError == null)
+                    sendError = error;
+                retryTime = System.currentTimeMillis() + config.reconnectPeriod;
+            }
+            else
+            {
+                inFlightBatches.remove(batch.seqNum);
+                client.handleSendError(streamInfo, outputName, null, error);
+            }
+        }
+        
+        handBackFailedBatches();
+        dispatch();
+    }
+    
+    
+    /*
+     * Hands back records of the first failed batch and of all batches created
+     * after it, but only once all requests for earlier batches have completed
+     */
+    private void handBackFailedBatches()
+    {
+        if (inFlightBatches.isEmpty() || !inFlightBatches.firstEntry().getValue().failed)
+            return;
+        
+        // collect records in sequence order
+        List<DataBlock> failedRecords = new ArrayList<>();
+        List<Request> laterRequests = new ArrayList<>();
+        for (Batch failedBatch: inFlightBatches.values())
+        {
+            failedRecords.addAll(Arrays.asList(failedBatch.records));
+            if (!failedBatch.failed)
+                laterRequests.add(failedBatch.request);
+        }
+        for (Batch queuedBatch: pendingBatches)
+            failedRecords.addAll(Arrays.asList(queuedBatch.records));
+        failedRecords.addAll(batchRecords);
+        inFlightBatches.clear();
+        pendingBatches.clear();
+        discardOpenBatch();
+        
+        Throwable error = sendError;
+        sendError = null;
+        client.handleSendError(streamInfo, outputName, failedRecords.toArray(new DataBlock[failedRecords.size()]), error);
+        
+        // records of later batches are now handed back so don't wait for them
+        for (Request request: laterRequests)
+            request.abort(new IOException("Previous InsertResult request failed"));
+    }
+    
+    
+    private void discardOpenBatch()
+    {
+        try
+        {
+            writer.flush();
+        }
+        catch (IOException e)
+        {
+            client.getLogger().trace("Cannot flush '{}' record writer", outputName, e);
+        }
+        
+        batchBuffer.reset();
+        batchRecords.clear();
+    }
+    
+    
+    /**
+     * Stops sending and discards all batches that have not been sent yet
+     */
+    public synchronized void stop()
+    {
+        stopped = true;
+        pendingBatches.clear();
+        inFlightBatches.clear();
+    }
+    
+    
+    public synchronized int getNumQueuedBatches()
+    {
+        return pendingBatches.size();
+    }
+}
@@ -15,17 +15,28 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 package org.sensorhub.impl.client.sost;
 
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import net.opengis.gml.v32.AbstractFeature;
 import net.opengis.swe.v20.DataBlock;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.util.BasicAuthentication;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.sensorhub.api.client.ClientException;
 import org.sensorhub.api.client.IClientModule;
 import org.sensorhub.api.common.Event;
@@ -82,6 +93,14 @@ public class SOSTClient extends AbstractModule<SOSTClientConfig> implements ICli
     String sosEndpointUrl;
     String offering;
     Map<IStreamingDataInterface, StreamInfo> dataStreams;
+    HttpClient httpClient;
+    ScheduledExecutorService timer;
+    List<StreamInfo> activeStreams = new CopyOnWriteArrayList<>();
+    Thread reconnectThread;
+    final Object reconnectLock = new Object();
+    
+    private static final int TIMER_PERIOD_MS = 100;
+    private static final int SPOOL_SYNC_PERIOD_MS = 5000;
     
     
     public class StreamInfo
@@ -97,6 +116,13 @@ public class SOSTClient extends AbstractModule<SOSTClientConfig> implements ICli
         private DataStreamWriter persistentWriter;
         private volatile boolean connecting = false;
         private volatile boolean stopping = false;
+        private AsyncStreamSender asyncSender;
+        private IStreamingDataInterface output;
+        private List<DataBlock> resultRecords = new ArrayList<>();
+        private StreamSpool spool;
+        private volatile boolean offline = false;
+        private double replayCredit;
+        private long lastSpoolSyncTime;
     }
     
     
@@ -235,6 +261,14 @@ public class SOSTClient extends AbstractModule<SOSTClientConfig> implements ICli
         connection.waitForConnection();
         reportStatus("Connected to " + getSosEndpointUrl());
         
+        // start non-blocking HTTP client if needed
+        if (config.connection.useAsyncClient)
+            startAsyncClient();
+        
+        // start timer used for batching and spool replay
+        if (config.connection.useAsyncClient || config.connection.spoolDir != null)
+            startTimer();
+        
         try
         {   
             // register sensor
@@ -283,6 +317,122 @@ public class SOSTClient extends AbstractModule<SOSTClientConfig> implements ICli
         // stop all streams
         for (Entry<IStreamingDataInterface, StreamInfo> entry: dataStreams.entrySet())
             stopStream(entry.getKey(), entry.getValue());
+        
+        // stop reconnection loop
+        synchronized (reconnectLock)
+        {
+            if (reconnectThread != null)
+            {
+                reconnectThread.interrupt();
+                reconnectThread = null;
+            }
+        }
+        
+        stopTimer();
+        stopAsyncClient();
+    }
+    
+    
+    /*
+     * Starts the HTTP client used by asynchronous stream senders
+     */
+    protected void startAsyncClient() throws SensorHubException
+    {
+        try
+        {
+            if (httpClient == null)
+            {
+                httpClient = config.sos.enableTLS ? new HttpClient(new SslContextFactory.Client()) : new HttpClient();
+                httpClient.setConnectTimeout(config.connection.connectTimeout);
+                httpClient.setMaxConnectionsPerDestination(Math.max(64, config.connection.maxRequestsInFlight * dataSource.getAllOutputs().size()));
+                httpClient.setFollowRedirects(false);
+                
+                // set credentials for all requests sent to SOS endpoint
+                if (config.sos.user != null && config.sos.password != null)
+                {
+                    httpClient.getAuthenticationStore().addAuthenticationResult(
+                        new BasicAuthentication.BasicResult(new URI(sosEndpointUrl), config.sos.user, config.sos.password));
+                }
+                
+                httpClient.start();
+            }
+        }
+        catch (Exception e)
+        {
+            throw new ClientException("Cannot start HTTP client", e);
+        }
+    }
+    
+    
+    /*
+     * Starts the timer that sends batches after the max delay
+     * and replays spooled records
+     */
+    protected void startTimer()
+    {
+        if (timer != null)
+            return;
+        
+        long period = TIMER_PERIOD_MS;
+        if (config.connection.useAsyncClient)
+            period = Math.max(10, Math.min(period, config.connection.maxBatchDelay / 4));
+        
+        timer = Executors.newSingleThreadScheduledExecutor();
+        timer.scheduleWithFixedDelay(new Runnable() {
+            long lastRunTime = System.currentTimeMillis();
+            
+            @Override
+            public void run()
+            {
+                long now = System.currentTimeMillis();
+                long elapsed = now - lastRunTime;
+                lastRunTime = now;
+                
+                for (StreamInfo streamInfo: activeStreams)
+                {
+                    try
+                    {
+                        if (streamInfo.spool != null)
+                            replaySpool(streamInfo, elapsed);
+                        
+                        if (streamInfo.asyncSender != null)
+                            streamInfo.asyncSender.checkTimeout();
+                    }
+                    catch (Exception e)
+                    {
+                        reportError("Error while sending '" + streamInfo.output.getName() + "' data", e);
+                    }
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+    
+    
+    protected void stopTimer()
+    {
+        if (timer != null)
+        {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+    
+    
+    protected void stopAsyncClient()
+    {
+        if (httpClient != null)
+        {
+            try
+            {
+                httpClient.stop();
+            }
+            catch (Exception e)
+            {
+                getLogger().trace("Cannot stop HTTP client", e);
+            }
+            
+            httpClient = null;
+        }
     }
     
     
@@ -298,6 +448,16 @@ public class SOSTClient extends AbstractModule<SOSTClientConfig> implements ICli
         try
         {
             streamInfo.stopping = true;
+            activeStreams.remove(streamInfo);
+            if (streamInfo.asyncSender != null)
+                streamInfo.asyncSender.stop();
+            if (streamInfo.spool != null)
+            {
+                synchronized (streamInfo)
+                {
+                    streamInfo.spool.close();
+                }
+            }
             if (streamInfo.persistentWriter != null)
                 streamInfo.persistentWriter.close();
             if (streamInfo.connection != null)
@@ -395,24 +555,85 @@ public class SOSTClient extends AbstractModule<SOSTClientConfig> implements ICli
         streamInfo.resultData.setEncoding(sensorOutput.getRecommendedEncoding());
         streamInfo.measPeriodMs = (int)(sensorOutput.getAverageSamplingPeriod()*1000);
         streamInfo.minRecordsPerRequest = 1;//(int)(1.0 / sensorOutput.getAverageSamplingPeriod());
+        streamInfo.output = sensorOutput;
         dataStreams.put(sensorOutput, streamInfo);
         
-        // start thread pool
-        BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<>(config.connection.maxQueueSize);
-        streamInfo.threadPool = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, workQueue);
+        // open spool file if enabled
+        if (config.connection.spoolDir != null)
+            streamInfo.spool = openSpool(sensorOutput);
+        
+        // use async sender or start thread pool
+        if (httpClient != null && AsyncStreamSender.isEncodingSupported(sensorOutput.getRecommendedEncoding()))
+        {
+            streamInfo.asyncSender = createAsyncSender(sensorOutput, streamInfo);
+        }
+        else
+        {
+            BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<>(config.connection.maxQueueSize);
+            streamInfo.threadPool = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, workQueue);
+        }
         
         // send last record
         if (sensorOutput.getLatestRecord() != null)
-            sendAsNewRequest(new DataEvent(
+        {
+            DataEvent lastRecord = new DataEvent(
                     sensorOutput.getLatestRecordTime(), 
-                    sensorOutput, sensorOutput.getLatestRecord()),
-                    streamInfo);
+                    sensorOutput, sensorOutput.getLatestRecord());
+            
+            if (streamInfo.asyncSender != null)
+                sendRecords(lastRecord, streamInfo);
+            else
+                sendAsNewRequest(lastRecord, streamInfo);
+        }
         
         // register to data events
+        activeStreams.add(streamInfo);
         sensorOutput.registerListener(this);
     }
     
     
+    /*
+     * Opens spool file for the given output.
+     * Records left in the file during a previous run will be sent first.
+     */
+    protected StreamSpool openSpool(IStreamingDataInterface sensorOutput)
+    {
+        try
+        {
+            String fileName = dataSource.getLocalID() + "_" + sensorOutput.getName() + ".spool";
+            File spoolFile = new File(config.connection.spoolDir, fileName);
+            int maxSize = (int)Math.min(Integer.MAX_VALUE, config.connection.maxSpoolSize*1024L*1024L);
+            StreamSpool spool = new StreamSpool(spoolFile, maxSize, sensorOutput.getRecordDescription());
+            
+            if (!spool.isEmpty())
+                getLogger().info("{} '{}' record(s) left in spool will be sent", spool.getNumRecords(), sensorOutput.getName());
+            
+            return spool;
+        }
+        catch (IOException e)
+        {
+            reportError("Cannot open spool file. Records will be dropped if they cannot be sent", e);
+            return null;
+        }
+    }
+    
+    
+    /*
+     * Creates the asynchronous sender used to push data from the given output
+     */
+    protected AsyncStreamSender createAsyncSender(IStreamingDataInterface sensorOutput, StreamInfo streamInfo) throws OWSException
+    {
+        InsertResultRequest req = new InsertResultRequest();
+        req.setPostServer(getSosEndpointUrl());
+        req.setVersion("2.0");
+        req.setTemplateId(streamInfo.templateID);
+        String requestUrl = sosUtils.buildURLQuery(req);
+        
+        return new AsyncStreamSender(this, streamInfo, sensorOutput.getName(), httpClient, requestUrl,
+            sensorOutput.getRecordDescription(), sensorOutput.getRecommendedEncoding());
+    }
+    
+    
     @Override
     public void handleEvent(final Event<?> e)
     {
@@ -460,6 +681,21 @@ public class SOSTClient extends AbstractModule<SOSTClientConfig> implements ICli
             if (streamInfo == null)
                 return;
             
+            // if spool is enabled, records are spooled while the connection
+            // is down and until all previously spooled records have been sent
+            if (streamInfo.spool != null)
+            {
+                synchronized (streamInfo)
+                {
+                    streamInfo.lastEventTime = e.getTimeStamp();
+                    if (streamInfo.offline || !streamInfo.spool.isEmpty() || isQueueFull(streamInfo))
+                        spoolRecords(streamInfo, e.getSource().getName(), ((DataEvent)e).getRecords());
+                    else
+                        sendRecords((DataEvent)e, streamInfo);
+                }
+                return;
+            }
+            
             // we stop here if we had too many errors
             if (streamInfo.errorCount >= config.connection.maxConnectErrors)
             {
@@ -470,6 +706,14 @@ public class SOSTClient extends AbstractModule<SOSTClientConfig> implements ICli
                 return;
             }
             
+            // async sender handles its own queue
+            if (streamInfo.asyncSender != null)
+            {
+                streamInfo.lastEventTime = e.getTimeStamp();
+                sendRecords((DataEvent)e, streamInfo);
+                return;
+            }
+            
             // skip if we cannot handle more requests
             if (streamInfo.threadPool.getQueue().remainingCapacity() == 0)
             {
@@ -484,10 +728,233 @@ public class SOSTClient extends AbstractModule<SOSTClientConfig> implements ICli
             streamInfo.lastEventTime = e.getTimeStamp();
             
             // send record using one of 2 methods
-            if (config.connection.usePersistentConnection)
-                sendInPersistentRequest((DataEvent)e, streamInfo);
-            else
-                sendAsNewRequest((DataEvent)e, streamInfo);
+            sendRecords((DataEvent)e, streamInfo);
+        }
+    }
+    
+    
+    /*
+     * Sends records using the method selected in config
+     */
+    private void sendRecords(DataEvent e, StreamInfo streamInfo)
+    {
+        if (streamInfo.asyncSender != null)
+        {
+            try
+            {
+                streamInfo.asyncSender.addRecords(e.getRecords());
+            }
+            catch (IOException ex)
+            {
+                reportError("Error while encoding '" + e.getSource().getName() + "' records", ex);
+                streamInfo.errorCount++;
+            }
+        }
+        else if (config.connection.usePersistentConnection)
+            sendInPersistentRequest(e, streamInfo);
+        else
+            sendAsNewRequest(e, streamInfo);
+    }
+    
+    
+    private boolean isQueueFull(StreamInfo streamInfo)
+    {
+        if (streamInfo.asyncSender != null)
+            return streamInfo.asyncSender.getNumQueuedBatches() >= config.connection.maxQueueSize;
+        else if (streamInfo.threadPool != null)
+            return streamInfo.threadPool.getQueue().remainingCapacity() == 0;
+        else
+            return false;
+    }
+    
+    
+    /*
+     * Appends records to the stream spool
+     */
+    void spoolRecords(StreamInfo streamInfo, String outputName, DataBlock... records)
+    {
+        try
+        {
+            int numDropped = 0;
+            for (DataBlock rec: records)
+                numDropped += streamInfo.spool.push(rec);
+            
+            if (numDropped > 0)
+                getLogger().warn("'{}' spool is full. Dropped {} oldest record(s)", outputName, numDropped);
+        }
+        catch (IOException e)
+        {
+            reportError("Cannot spool '" + outputName + "' records", e);
+        }
+    }
+    
+    
+    /*
+     * Returns true if new records of this stream must be spooled instead of sent,
+     * so that they are not sent before records that previously failed
+     */
+    boolean mustSpool(StreamInfo streamInfo)
+    {
+        return streamInfo.spool != null && streamInfo.offline;
+    }
+    
+    
+    /*
+     * Called when records could not be queued for sending because bandwidth cannot keep up
+     */
+    void handleQueueFull(StreamInfo streamInfo, String outputName, DataBlock[] records)
+    {
+        if (streamInfo.spool != null)
+        {
+            spoolRecords(streamInfo, outputName, records);
+        }
+        else
+        {
+            getLogger().warn("Too many '{}' records to send to SOS-T. Bandwidth cannot keep up. Dropping {} record(s)",
+                outputName, records.length);
+        }
+    }
+    
+    
+    /*
+     * Called when records could not be sent to the remote SOS.
+     * Records are null if they should not be sent again.
+     */
+    void handleSendError(StreamInfo streamInfo, String outputName, DataBlock[] records, Throwable error)
+    {
+        reportError("Error when sending '" + outputName + "' data to SOS-T", error, true);
+        
+        // if spool is enabled, keep records and wait for connection to come back
+        if (streamInfo.spool != null && !streamInfo.stopping)
+        {
+            if (records != null)
+                spoolRecords(streamInfo, outputName, records);
+            startOfflineMode();
+        }
+        else
+            streamInfo.errorCount++;
+    }
+    
+    
+    /*
+     * Switches all spooled streams to offline mode and tries to reconnect
+     * in the background, without unregistering from data events
+     */
+    protected void startOfflineMode()
+    {
+        synchronized (reconnectLock)
+        {
+            if (reconnectThread != null || !isStarted())
+                return;
+            
+            for (StreamInfo streamInfo: activeStreams)
+            {
+                if (streamInfo.spool != null)
+                    streamInfo.offline = true;
+            }
+            
+            notifyConnectionStatus(false, "SOS server");
+            reportStatus("Connection to SOS lost. Spooling records until connection is restored");
+            
+            reconnectThread = new Thread("SOST-Reconnect-" + getLocalID()) {
+                @Override
+                public void run()
+                {
+                    connection.cancel();
+                    while (isStarted() && !isInterrupted())
+                    {
+                        try
+                        {
+                            connection.waitForConnection();
+                            break;
+                        }
+                        catch (SensorHubException e)
+                        {
+                            try
+                            {
+                                Thread.sleep(config.connection.reconnectPeriod);
+                            }
+                            catch (InterruptedException e1)
+                            {
+                                return;
+                            }
+                        }
+                    }
+                    
+                    if (!connection.isConnected())
+                        return;
+                    
+                    synchronized (reconnectLock)
+                    {
+                        if (reconnectThread != this)
+                            return;
+                        reconnectThread = null;
+                        
+                        // resume sending, starting with spooled records
+                        for (StreamInfo streamInfo: activeStreams)
+                        {
+                            streamInfo.errorCount = 0;
+                            streamInfo.offline = false;
+                        }
+                    }
+                    
+                    reportStatus("Connection to SOS restored. Sending spooled records");
+                }
+            };
+            
+            reconnectThread.start();
+        }
+    }
+    
+    
+    /*
+     * Sends spooled records at the rate allowed by configuration
+     */
+    protected void replaySpool(StreamInfo streamInfo, long elapsedMs)
+    {
+        long now = System.currentTimeMillis();
+        StreamSpool spool = streamInfo.spool;
+        
+        // periodically force spool content to disk
+        if (now - streamInfo.lastSpoolSyncTime > SPOOL_SYNC_PERIOD_MS)
+        {
+            spool.sync();
+            streamInfo.lastSpoolSyncTime = now;
+        }
+        
+        if (streamInfo.offline || spool.isEmpty())
+        {
+            streamInfo.replayCredit = 0;
+            return;
+        }
+        
+        // accumulate number of records we're allowed to send
+        double maxRate = Math.max(1, config.connection.maxReplayRate);
+        streamInfo.replayCredit = Math.min(streamInfo.replayCredit + maxRate * elapsedMs / 1000., maxRate);
+        int maxCount = (int)streamInfo.replayCredit;
+        if (maxCount == 0 || isQueueFull(streamInfo))
+            return;
+        
+        synchronized (streamInfo)
+        {
+            try
+            {
+                List<DataBlock> records = new ArrayList<>(Math.min(maxCount, 1024));
+                DataBlock rec;
+                while (records.size() < maxCount && (rec = spool.poll()) != null)
+                    records.add(rec);
+                
+                if (!records.isEmpty())
+                {
+                    streamInfo.replayCredit -= records.size();
+                    DataEvent e = new DataEvent(now, streamInfo.output, records.toArray(new DataBlock[records.size()]));
+                    sendRecords(e, streamInfo);
+                }
+            }
+            catch (IOException e)
+            {
+                reportError("Cannot read '" + streamInfo.output.getName() + "' spool", e);
+            }
         }
     }
     
@@ -520,7 +987,10 @@ public class SOSTClient extends AbstractModule<SOSTClientConfig> implements ICli
     {
         // append records to buffer
         for (DataBlock record: e.getRecords())
+        {
             streamInfo.resultData.pushNextDataBlock(record);
+            streamInfo.resultRecords.add(record);
+        }
         
         // send request if min record count is reached
         if (streamInfo.resultData.getNumElements() >= streamInfo.minRecordsPerRequest)
@@ -533,35 +1003,86 @@ public class SOSTClient extends AbstractModule<SOSTClientConfig> implements ICli
             
             // create new container for future data
             streamInfo.resultData = streamInfo.resultData.copy();
+            final DataBlock[] records = streamInfo.resultRecords.toArray(new DataBlock[streamInfo.resultRecords.size()]);
+            streamInfo.resultRecords.clear();
             
-            // create send request task
-            Runnable sendTask = new Runnable() {
-                @Override
-                public void run()
+            // run send request task in async thread pool
+            streamInfo.threadPool.execute(new SendRequestTask(streamInfo, e.getSource().getName(), req, records));
+        }
+    }
+    
+    
+    /*
+     * Task sending one InsertResult request in the stream thread pool
+     */
+    private class SendRequestTask implements Runnable
+    {
+        final StreamInfo streamInfo;
+        final String outputName;
+        final InsertResultRequest req;
+        final DataBlock[] records;
+        
+        SendRequestTask(StreamInfo streamInfo, String outputName, InsertResultRequest req, DataBlock[] records)
+        {
+            this.streamInfo = streamInfo;
+            this.outputName = outputName;
+            this.req = req;
+            this.records = records;
+        }
+        
+        @Override
+        public void run()
+        {
+            // spool records instead of sending them once a previous request failed
+            if (mustSpool(streamInfo))
+            {
+                spoolRecords(streamInfo, outputName, records);
+                return;
+            }
+            
+            try
+            {
+                if (getLogger().isTraceEnabled())
                 {
-                    try
-                    {
-                        if (getLogger().isTraceEnabled())
-                        {
-                            String outputName = e.getSource().getName();
-                            int numRecords = req.getResultData().getComponentCount();
-                            getLogger().trace("Sending " + numRecords + " '" + outputName + "' record(s) to SOS-T");
-                            getLogger().trace("Queue size is " + streamInfo.threadPool.getQueue().size());
-                        }
-                        
-                        sosUtils.sendRequest(req, false);
-                    }
-                    catch (Exception ex)
-                    {
-                        String outputName = e.getSource().getName();
-                        reportError("Error when sending '" + outputName + "' data to SOS-T", ex, true);
-                        streamInfo.errorCount++;
-                    }
-                }           
-            };
+                    int numRecords = req.getResultData().getComponentCount();
+                    getLogger().trace("Sending " + numRecords + " '" + outputName + "' record(s) to SOS-T");
+                    getLogger().trace("Queue size is " + streamInfo.threadPool.getQueue().size());
+                }
+                
+                sosUtils.sendRequest(req, false);
+            }
+            catch (Exception ex)
+            {
+                // lock stream so no new record is queued or buffered meanwhile
+                synchronized (streamInfo)
+                {
+                    DataBlock[] failedRecords = records;
+                    if (streamInfo.spool != null && !streamInfo.stopping)
+                        failedRecords = collectUnsentRecords();
+                    handleSendError(streamInfo, outputName, failedRecords, ex);
+                }
+            }
+        }
+        
+        /*
+         * Gets records of this request, of all queued requests and of the
+         * request being built, in order, and removes them from the queues
+         */
+        private DataBlock[] collectUnsentRecords()
+        {
+            List<DataBlock> unsentRecords = new ArrayList<>();
+            unsentRecords.addAll(Arrays.asList(records));
+            
+            List<Runnable> queuedTasks = new ArrayList<>();
+            streamInfo.threadPool.getQueue().drainTo(queuedTasks);
+            for (Runnable task: queuedTasks)
+                unsentRecords.addAll(Arrays.asList(((SendRequestTask)task).records));
+            
+            unsentRecords.addAll(streamInfo.resultRecords);
+            streamInfo.resultRecords.clear();
+            streamInfo.resultData = streamInfo.resultData.copy();
             
-            // run task in async thread pool
-            streamInfo.threadPool.execute(sendTask);
+            return unsentRecords.toArray(new DataBlock[unsentRecords.size()]);
         }
     }
     
@@ -70,6 +70,35 @@ public class SOSTClientConfig extends ClientConfig
         
         @DisplayInfo(desc="Maximum number of stream errors before we try to reconnect to remote server")
         public int maxConnectErrors = 10;
+        
+        
+        @DisplayInfo(label="Asynchronous Mode", desc="Enable to send records with a non-blocking HTTP client that batches records and keeps several InsertResult requests in flight (only for text and binary encodings)")
+        public boolean useAsyncClient = false;
+        
+        
+        @DisplayInfo(desc="Maximum number of records sent in each InsertResult request (asynchronous mode only)")
+        public int maxRecordsPerRequest = 100;
+        
+        
+        @DisplayInfo(desc="Maximum time (in ms) records are buffered before they are sent (asynchronous mode only)")
+        public int maxBatchDelay = 1000;
+        
+        
+        @DisplayInfo(desc="Maximum number of InsertResult requests waiting for a response, for each data stream (asynchronous mode only)")
+        public int maxRequestsInFlight = 4;
+        
+        
+        @DisplayInfo(desc="Directory where records are spooled while the remote SOS cannot be reached. Spooled records are kept across restarts. Records are dropped if not set")
+        @FieldType(Type.FILESYSTEM_PATH)
+        public String spoolDir;
+        
+        
+        @DisplayInfo(label="Max Spool Size", desc="Maximum size of the spool file of each data stream (in MB). Oldest records are dropped when the spool is full")
+        public int maxSpoolSize = 100;
+        
+        
+        @DisplayInfo(label="Max Replay Rate", desc="Maximum rate at which spooled records are sent once the connection is restored (in records/s)")
+        public int maxReplayRate = 1000;
     }
     
     
@@ -0,0 +1,354 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.client.sost;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import net.opengis.swe.v20.BinaryEncoding;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import org.sensorhub.impl.sensor.swe.DataStructureHash;
+import org.vast.cdm.common.DataStreamParser;
+import org.vast.cdm.common.DataStreamWriter;
+import org.vast.swe.SWEHelper;
+
+
+/**
+ * <p>
+ * Durable FIFO queue used to hold the records of a data stream while they
+ * cannot be sent to the remote SOS.<br/>
+ * Records are serialized with the default binary encoding of the stream
+ * and appended to a memory-mapped ring buffer of fixed size. Read and write
+ * positions are kept in the file header so that the content of the spool
+ * survives a restart. When the spool is full, the oldest records are dropped
+ * to make room for new ones.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class StreamSpool
+{
+    private static final int MAGIC = 0x53505331; // SPS1
+    private static final int WRAP_MARKER = -1;
+    private static final int MAGIC_POS = 0;
+    private static final int HASH_POS = 4;
+    private static final int HEAD_POS = 8;
+    private static final int TAIL_POS = 16;
+    private static final int COUNT_POS = 24;
+    private static final int DATA_START = 32;
+    private static final int ENTRY_HEADER_SIZE = 4;
+    
+    final File file;
+    final RandomAccessFile raf;
+    final MappedByteBuffer buf;
+    final int end;
+    final DataStreamWriter writer;
+    final DataStreamParser parser;
+    final RecordOutput recordOutput = new RecordOutput();
+    final RecordInput recordInput = new RecordInput();
+    int head;
+    int tail;
+    long numRecords;
+    long numDropped;
+    boolean closed;
+    
+    
+    /*
+     * Output stream giving access to its internal buffer
+     */
+    static class RecordOutput extends ByteArrayOutputStream
+    {
+        byte[] getBuffer()
+        {
+            return buf;
+        }
+    }
+    
+    
+    /*
+     * Input stream that can be reset to read a new record
+     */
+    static class RecordInput extends ByteArrayInputStream
+    {
+        RecordInput()
+        {
+            super(new byte[0]);
+        }
+        
+        byte[] getBuffer(int minSize)
+        {
+            return (buf.length < minSize) ? new byte[minSize] : buf;
+        }
+        
+        void setRecord(byte[] data, int len)
+        {
+            this.buf = data;
+            this.pos = 0;
+            this.count = len;
+            this.mark = 0;
+        }
+    }
+    
+    
+    /**
+     * Opens the spool file, or creates it if it doesn't exist yet.<br/>
+     * Existing content is discarded if it was written with a different
+     * record structure or spool size.
+     * @param file spool file
+     * @param maxSize size of spool file, in bytes
+     * @param recordStruct structure of records held in the spool
+     * @throws IOException if the file cannot be opened or created
+     */
+    public StreamSpool(File file, int maxSize, DataComponent recordStruct) throws IOException
+    {
+        this.file = file;
+        
+        if (maxSize <= DATA_START + ENTRY_HEADER_SIZE)
+            throw new IOException("Spool size is too small");
+        
+        File parentDir = file.getAbsoluteFile().getParentFile();
+        if (!parentDir.exists() && !parentDir.mkdirs())
+            throw new IOException("Cannot create spool directory " + parentDir);
+        
+        // create binary reader and writer
+        DataComponent writerStruct = recordStruct.copy();
+        DataComponent parserStruct = recordStruct.copy();
+        BinaryEncoding encoding = SWEHelper.getDefaultBinaryEncoding(recordStruct);
+        int structHash = new DataStructureHash(recordStruct, encoding).hashCode();
+        
+        this.writer = SWEHelper.createDataWriter(encoding);
+        writer.setDataComponents(writerStruct);
+        writer.setOutput(recordOutput);
+        this.parser = SWEHelper.createDataParser(encoding);
+        parser.setDataComponents(parserStruct);
+        
+        // map spool file in memory
+        this.raf = new RandomAccessFile(file, "rw");
+        boolean reuse = raf.length() == maxSize;
+        raf.setLength(maxSize);
+        this.buf = raf.getChannel().map(MapMode.READ_WRITE, 0, maxSize);
+        this.end = maxSize;
+        
+        // restore state from header if valid
+        if (reuse && buf.getInt(MAGIC_POS) == MAGIC && buf.getInt(HASH_POS) == structHash)
+        {
+            head = (int)buf.getLong(HEAD_POS);
+            tail = (int)buf.getLong(TAIL_POS);
+            numRecords = buf.getLong(COUNT_POS);
+            
+            if (head < DATA_START || head > end || tail < DATA_START || tail > end || numRecords < 0)
+                reset(structHash);
+        }
+        else
+            reset(structHash);
+    }
+    
+    
+    private void reset(int structHash)
+    {
+        head = tail = DATA_START;
+        numRecords = 0;
+        buf.putInt(MAGIC_POS, MAGIC);
+        buf.putInt(HASH_POS, structHash);
+        writeHeader();
+    }
+    
+    
+    private void writeHeader()
+    {
+        buf.putLong(HEAD_POS, head);
+        buf.putLong(TAIL_POS, tail);
+        buf.putLong(COUNT_POS, numRecords);
+    }
+    
+    
+    /**
+     * Appends a record at the end of the spool, dropping the oldest records
+     * if there is not enough room left
+     * @param rec record to append
+     * @return number of records that were dropped to make room
+     * @throws IOException if the record cannot be serialized or is larger
+     * than the whole spool
+     */
+    public synchronized int push(DataBlock rec) throws IOException
+    {
+        if (closed)
+            throw new IOException("Spool is closed");
+        
+        recordOutput.reset();
+        writer.write(rec);
+        writer.flush();
+        
+        int len = recordOutput.size();
+        int entrySize = ENTRY_HEADER_SIZE + len;
+        if (entrySize > end - DATA_START)
+            throw new IOException("Record is larger than the spool");
+        
+        // drop oldest records until there is enough room
+        int dropCount = 0;
+        while (!hasRoom(entrySize))
+        {
+            skip();
+            dropCount++;
+        }
+        numDropped += dropCount;
+        
+        // wrap around if record doesn't fit at the end
+        if (tail >= head && end - tail < entrySize)
+        {
+            if (end - tail >= ENTRY_HEADER_SIZE)
+                buf.putInt(tail, WRAP_MARKER);
+            tail = DATA_START;
+        }
+        
+        buf.putInt(tail, len);
+        buf.position(tail + ENTRY_HEADER_SIZE);
+        buf.put(recordOutput.getBuffer(), 0, len);
+        tail += entrySize;
+        numRecords++;
+        writeHeader();
+        
+        return dropCount;
+    }
+    
+    
+    private boolean hasRoom(int entrySize)
+    {
+        if (numRecords == 0)
+        {
+            head = tail = DATA_START;
+            return true;
+        }
+        
+        if (tail > head)
+            return end - tail >= entrySize || head - DATA_START >= entrySize;
+        else if (tail < head)
+            return head - tail >= entrySize;
+        else
+            return false; // full
+    }
+    
+    
+    /*
+     * Moves read position to the next record and returns its length
+     */
+    private int nextRecordLength()
+    {
+        if (end - head < ENTRY_HEADER_SIZE)
+            head = DATA_START;
+        
+        int len = buf.getInt(head);
+        if (len == WRAP_MARKER)
+        {
+            head = DATA_START;
+            len = buf.getInt(head);
+        }
+        
+        return len;
+    }
+    
+    
+    private void skip()
+    {
+        int len = nextRecordLength();
+        head += ENTRY_HEADER_SIZE + len;
+        numRecords--;
+        if (numRecords == 0)
+            head = tail = DATA_START;
+    }
+    
+    
+    /**
+     * Removes the oldest record from the spool
+     * @return the oldest record or null if the spool is empty
+     * @throws IOException if the record cannot be parsed
+     */
+    public synchronized DataBlock poll() throws IOException
+    {
+        if (closed || numRecords == 0)
+            return null;
+        
+        int len = nextRecordLength();
+        byte[] data = recordInput.getBuffer(len);
+        buf.position(head + ENTRY_HEADER_SIZE);
+        buf.get(data, 0, len);
+        skip();
+        writeHeader();
+        
+        recordInput.setRecord(data, len);
+        parser.setInput(recordInput);
+        return parser.parseNextBlock();
+    }
+    
+    
+    public synchronized boolean isEmpty()
+    {
+        return numRecords == 0;
+    }
+    
+    
+    public synchronized long getNumRecords()
+    {
+        return numRecords;
+    }
+    
+    
+    /**
+     * @return total number of records dropped because the spool was full
+     */
+    public synchronized long getNumDropped()
+    {
+        return numDropped;
+    }
+    
+    
+    /**
+     * Writes spool content to disk
+     */
+    public synchronized void sync()
+    {
+        if (!closed)
+            buf.force();
+    }
+    
+    
+    /**
+     * Writes spool content to disk and closes the spool file.<br/>
+     * The file is kept so that records can be sent after a restart.
+     */
+    public synchronized void close()
+    {
+        if (closed)
+            return;
+        
+        try
+        {
+            closed = true;
+            buf.force();
+            raf.close();
+        }
+        catch (IOException e)
+        {
+            // nothing we can do here
+        }
+    }
+}
@@ -211,10 +211,10 @@ public class SWETransactionalSensor extends AbstractSensorModule<SWETransactiona
             return;
         
         SWETransactionalSensorOutput output = (SWETransactionalSensorOutput)getAllOutputs().get(outputName);
-        log.trace("New record received for output " + output.getName());
+        log.trace("{} new record(s) received for output {}", dataBlocks.length, output.getName());
         
-        for (DataBlock dataBlock: dataBlocks)
-            output.publishNewRecord(dataBlock);
+        // publish all records received together as a single event
+        output.publishNewRecords(dataBlocks);
     }
     
 
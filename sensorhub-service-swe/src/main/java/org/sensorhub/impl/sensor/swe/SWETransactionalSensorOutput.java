@@ -70,13 +70,26 @@ public class SWETransactionalSensorOutput extends AbstractSensorOutput<SWETransa
     
     public void publishNewRecord(DataBlock dataBlock)
     {
+        publishNewRecords(dataBlock);
+    }
+    
+    
+    /**
+     * Publishes several records received together as a single data event
+     * @param dataBlocks records in chronological order
+     */
+    public void publishNewRecords(DataBlock... dataBlocks)
+    {
+        if (dataBlocks.length == 0)
+            return;
+        
         long now = System.currentTimeMillis();
-        updateSamplingPeriod(now);
+        updateSamplingPeriod(now, dataBlocks.length);
         
         // publish new sensor data event
-        latestRecord = dataBlock;
+        latestRecord = dataBlocks[dataBlocks.length-1];
         latestRecordTime = now;
-        eventHandler.publishEvent(new SensorDataEvent(latestRecordTime, this, dataBlock));
+        eventHandler.publishEvent(new SensorDataEvent(latestRecordTime, this, dataBlocks));
     }
     
     
@@ -113,8 +126,9 @@ public class SWETransactionalSensorOutput extends AbstractSensorOutput<SWETransa
     /*
      * Refine sampling period at each new measure received by 
      * incrementally computing dt average for the 100 first records
+     * (dt is spread evenly over records received in the same batch)
      */
-    protected void updateSamplingPeriod(long timeStamp)
+    protected void updateSamplingPeriod(long timeStamp, int numRecords)
     {
         if (latestRecordTime == Long.MIN_VALUE)
             return;
@@ -127,7 +141,7 @@ public class SWETransactionalSensorOutput extends AbstractSensorOutput<SWETransa
                 avgSamplingPeriod *= (double)avgSampleCount / (avgSampleCount+1);
             
             avgSampleCount++;
-            avgSamplingPeriod += (timeStamp - latestRecordTime) / 1000.0 / avgSampleCount;
+            avgSamplingPeriod += (timeStamp - latestRecordTime) / 1000.0 / numRecords / avgSampleCount;
             
             SWETransactionalSensor.log.trace("Sampling period = " + avgSamplingPeriod + "s");
         }
@@ -0,0 +1,189 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.service.sos;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+
+
+/**
+ * <p>
+ * Cache of serialized capabilities documents.<br/>
+ * One document is kept for each variant of the response (e.g. version,
+ * SOAP envelope, endpoint URL). All cached documents are invalidated at once
+ * by incrementing the capabilities version whenever any part of the
+ * capabilities changes, and are removed when a document of a newer version
+ * is added. Each document is tagged with an ETag so clients can make
+ * conditional requests.<br/>
+ * Since some variants depend on the request (e.g. host name used by the
+ * client), the number of cached documents is limited. Documents for new
+ * variants are not cached once this limit is reached.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class CapabilitiesCache
+{
+    public static final String ETAG_HEADER = "ETag";
+    public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+    public static final int MAX_ENTRIES = 16;
+    
+    final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    final AtomicLong version = new AtomicLong();
+    final String epoch = Long.toHexString(System.currentTimeMillis());
+    
+    
+    public static class Entry
+    {
+        final long version;
+        final byte[] content;
+        final String contentType;
+        final String etag;
+        
+        Entry(long version, byte[] content, String contentType, String etag)
+        {
+            this.version = version;
+            this.content = content;
+            this.contentType = contentType;
+            this.etag = etag;
+        }
+        
+        public byte[] getContent()
+        {
+            return content;
+        }
+
+        public String getContentType()
+        {
+            return contentType;
+        }
+
+        public String getETag()
+        {
+            return etag;
+        }
+    }
+    
+    
+    /**
+     * Invalidates all cached documents
+     */
+    public void invalidate()
+    {
+        version.incrementAndGet();
+    }
+    
+    
+    /**
+     * @return the current version of the capabilities.<br/>
+     * It must be read before the document is serialized so that changes
+     * made during serialization invalidate the new cache entry.
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+    
+    
+    /**
+     * Gets the cached document for the given response variant
+     * @param key key identifying the response variant
+     * @return the cached entry or null if none is available or it is outdated
+     */
+    public Entry get(String key)
+    {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.version != version.get())
+            return null;
+        return entry;
+    }
+    
+    
+    /**
+     * Adds a newly serialized document to the cache.<br/>
+     * Documents of other versions are removed from the cache, and the new
+     * document is not cached if the max number of entries is reached.
+     * @param key key identifying the response variant
+     * @param version version of the capabilities when serialization started
+     * @param content serialized document
+     * @param contentType MIME type of the document
+     * @return the new cache entry
+     */
+    public synchronized Entry put(String key, long version, byte[] content, String contentType)
+    {
+        String etag = '"' + epoch + '-' + Long.toHexString(version) + '-' + Integer.toHexString(key.hashCode()) + '"';
+        Entry entry = new Entry(version, content, contentType, etag);
+        
+        // remove outdated documents
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext())
+        {
+            if (it.next().version != version)
+                it.remove();
+        }
+        
+        if (entries.size() < MAX_ENTRIES || entries.containsKey(key))
+            entries.put(key, entry);
+        return entry;
+    }
+    
+    
+    /**
+     * @return number of documents currently in cache
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+    
+    
+    /**
+     * Checks if the client already has the current version of the document
+     * @param request HTTP request (can be null)
+     * @param entry cached entry
+     * @return true if the request ETag matches the one of the cached entry
+     */
+    public static boolean isNotModified(HttpServletRequest request, Entry entry)
+    {
+        if (request == null || !"GET".equals(request.getMethod()))
+            return false;
+        
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH_HEADER);
+        if (ifNoneMatch == null)
+            return false;
+        
+        for (String tag: ifNoneMatch.split(","))
+        {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.equals(entry.etag) || tag.equals("*"))
+                return true;
+        }
+        
+        return false;
+    }
+    
+    
+    public void clear()
+    {
+        entries.clear();
+        invalidate();
+    }
+}
@@ -0,0 +1,279 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.service.sos;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import net.opengis.gml.v32.AbstractFeature;
+import net.opengis.swe.v20.DataArray;
+import net.opengis.swe.v20.DataChoice;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataRecord;
+import net.opengis.swe.v20.SimpleComponent;
+import net.opengis.swe.v20.Vector;
+import org.vast.ogc.gml.FeatureRef;
+import org.vast.ogc.gml.GMLStaxBindings;
+import org.vast.ogc.om.IObservation;
+import org.vast.ogc.om.IProcedure;
+import org.vast.ogc.om.ProcedureRef;
+import org.vast.swe.SWEConstants;
+import org.vast.swe.SWEHelper;
+import org.vast.swe.SWEStaxBindings;
+import org.vast.util.DateTimeFormat;
+import org.vast.util.TimeExtent;
+
+
+/**
+ * <p>
+ * Streaming serializer for O&amp;M 2.0 observations.<br/>
+ * Observations are written directly to the XML or JSON stream writer without
+ * building an intermediate DOM tree. Parts that don't change from one
+ * observation to the next (observed property and observation type) are
+ * computed once per offering/observable pair and kept in a {@link Template}.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class OMStreamWriter
+{
+    public static final String OM_VERSION = "2.0";
+    public static final String OM_NS_URI = "http://www.opengis.net/om/2.0";
+    public static final String GML_NS_URI = "http://www.opengis.net/gml/3.2";
+    public static final String XLINK_NS_URI = "http://www.w3.org/1999/xlink";
+    public static final String OM_PREFIX = "om";
+    public static final String GML_PREFIX = "gml";
+    public static final String XLINK_PREFIX = "xlink";
+    
+    protected final SWEStaxBindings sweBindings;
+    protected final GMLStaxBindings gmlBindings;
+    protected final DateTimeFormat timeFormat;
+    protected final Map<String, Template> templates;
+    protected int obsCount;
+    
+    
+    /**
+     * Invariant parts of observations generated for a given
+     * offering and observable
+     */
+    public static class Template
+    {
+        protected String observedProperty;
+        protected String obsType;
+        protected boolean resultIsRoot;
+        protected boolean skip;
+        
+        
+        public boolean isSkipped()
+        {
+            return skip;
+        }
+    }
+    
+    
+    public OMStreamWriter()
+    {
+        this.sweBindings = new SWEStaxBindings();
+        this.gmlBindings = new GMLStaxBindings();
+        this.timeFormat = new DateTimeFormat();
+        this.templates = new HashMap<>();
+    }
+    
+    
+    /**
+     * Writes namespace declarations for all namespaces used in observations.<br/>
+     * Must be called right after the root element has been started.
+     * @param writer
+     * @throws XMLStreamException
+     */
+    public void writeNamespaces(XMLStreamWriter writer) throws XMLStreamException
+    {
+        writer.writeNamespace(OM_PREFIX, OM_NS_URI);
+        writer.writeNamespace(GML_PREFIX, GML_NS_URI);
+        writer.writeNamespace(XLINK_PREFIX, XLINK_NS_URI);
+        sweBindings.setNamespacePrefixes(writer);
+        sweBindings.declareNamespacesOnRootElement();
+        sweBindings.writeNamespaces(writer);
+    }
+    
+    
+    /**
+     * Retrieves or computes the template used to write observations of the
+     * given observable from the given offering
+     * @param offering offering URI
+     * @param observable URI of observed property
+     * @param obs first observation received for this offering, used to
+     * compute the structure of the result
+     * @param wildcard true if all observables of the offering were requested,
+     * in which case observations of aggregate properties are skipped since they
+     * are redundant with observations of their individual components
+     * @return the template (flagged as skipped if observations for this
+     * observable should not be written)
+     */
+    public Template getTemplate(String offering, String observable, IObservation obs, boolean wildcard)
+    {
+        String key = offering + '|' + observable;
+        Template template = templates.get(key);
+        if (template != null)
+            return template;
+        
+        // locate result component the same way as for other O&M versions
+        DataComponent result = findResult(obs.getResult(), observable);
+        template = new Template();
+        templates.put(key, template);
+        if (result == null)
+        {
+            template.skip = true;
+            return template;
+        }
+        
+        template.observedProperty = observable;
+        template.resultIsRoot = (result == obs.getResult());
+        
+        // remove redundant obs in wildcard case
+        template.skip = wildcard && (result instanceof DataRecord || result instanceof DataChoice);
+        
+        // set correct obs type depending on final result structure
+        if (result instanceof SimpleComponent)
+            template.obsType = IObservation.OBS_TYPE_SCALAR;
+        else if (result instanceof DataRecord || result instanceof Vector)
+            template.obsType = IObservation.OBS_TYPE_RECORD;
+        else if (result instanceof DataArray)
+            template.obsType = IObservation.OBS_TYPE_ARRAY;
+        else
+            template.obsType = IObservation.OBS_TYPE_GENERIC;
+        
+        return template;
+    }
+    
+    
+    /**
+     * Writes one observation to the stream writer
+     * @param writer XML or JSON stream writer
+     * @param obs observation containing time stamps, feature of interest and full result record
+     * @param template template containing the invariant parts of the observation
+     * @throws XMLStreamException
+     */
+    public void writeObservation(XMLStreamWriter writer, IObservation obs, Template template) throws XMLStreamException
+    {
+        String obsId = "OBS_" + (++obsCount);
+        writer.writeStartElement(OM_PREFIX, "OM_Observation", OM_NS_URI);
+        writer.writeAttribute(GML_PREFIX, GML_NS_URI, "id", obsId);
+        
+        // type
+        writer.writeStartElement(OM_PREFIX, "type", OM_NS_URI);
+        writer.writeAttribute(XLINK_PREFIX, XLINK_NS_URI, "href", template.obsType);
+        writer.writeEndElement();
+        
+        // phenomenon time
+        TimeExtent phenTime = obs.getPhenomenonTime();
+        String phenTimeId = obsId + "_PHEN_TIME";
+        writer.writeStartElement(OM_PREFIX, "phenomenonTime", OM_NS_URI);
+        writeTime(writer, phenTime, phenTimeId);
+        writer.writeEndElement();
+        
+        // result time (reference phenomenon time if identical)
+        TimeExtent resultTime = obs.getResultTime();
+        writer.writeStartElement(OM_PREFIX, "resultTime", OM_NS_URI);
+        if (resultTime == null || resultTime.equals(phenTime))
+            writer.writeAttribute(XLINK_PREFIX, XLINK_NS_URI, "href", "#" + phenTimeId);
+        else
+            writeTime(writer, resultTime, obsId + "_RES_TIME");
+        writer.writeEndElement();
+        
+        // procedure
+        writer.writeStartElement(OM_PREFIX, "procedure", OM_NS_URI);
+        writer.writeAttribute(XLINK_PREFIX, XLINK_NS_URI, "href", getProcedureUri(obs.getProcedure()));
+        writer.writeEndElement();
+        
+        // observed property
+        writer.writeStartElement(OM_PREFIX, "observedProperty", OM_NS_URI);
+        writer.writeAttribute(XLINK_PREFIX, XLINK_NS_URI, "href", template.observedProperty);
+        writer.writeEndElement();
+        
+        // feature of interest
+        AbstractFeature foi = obs.getFeatureOfInterest();
+        writer.writeStartElement(OM_PREFIX, "featureOfInterest", OM_NS_URI);
+        if (foi == null)
+            writer.writeAttribute(XLINK_PREFIX, XLINK_NS_URI, "href", SWEConstants.NIL_UNKNOWN);
+        else if (foi instanceof FeatureRef)
+            writer.writeAttribute(XLINK_PREFIX, XLINK_NS_URI, "href", ((FeatureRef)foi).getHref());
+        else
+            gmlBindings.writeAbstractFeature(writer, foi);
+        writer.writeEndElement();
+        
+        // result with inline values
+        writer.writeStartElement(OM_PREFIX, "result", OM_NS_URI);
+        sweBindings.writeDataComponent(writer, getResult(obs, template), true);
+        writer.writeEndElement();
+        
+        writer.writeEndElement();
+    }
+    
+    
+    protected void writeTime(XMLStreamWriter writer, TimeExtent time, String id) throws XMLStreamException
+    {
+        if (time.isTimeInstant())
+        {
+            writer.writeStartElement(GML_PREFIX, "TimeInstant", GML_NS_URI);
+            writer.writeAttribute(GML_PREFIX, GML_NS_URI, "id", id);
+            writer.writeStartElement(GML_PREFIX, "timePosition", GML_NS_URI);
+            writer.writeCharacters(timeFormat.formatIso(time.getStartTime(), 0));
+            writer.writeEndElement();
+            writer.writeEndElement();
+        }
+        else
+        {
+            writer.writeStartElement(GML_PREFIX, "TimePeriod", GML_NS_URI);
+            writer.writeAttribute(GML_PREFIX, GML_NS_URI, "id", id);
+            writer.writeStartElement(GML_PREFIX, "beginPosition", GML_NS_URI);
+            writer.writeCharacters(timeFormat.formatIso(time.getStartTime(), 0));
+            writer.writeEndElement();
+            writer.writeStartElement(GML_PREFIX, "endPosition", GML_NS_URI);
+            writer.writeCharacters(timeFormat.formatIso(time.getStopTime(), 0));
+            writer.writeEndElement();
+            writer.writeEndElement();
+        }
+    }
+    
+    
+    protected DataComponent getResult(IObservation obs, Template template)
+    {
+        DataComponent result = obs.getResult();
+        if (template.resultIsRoot)
+            return result;
+        return findResult(result, template.observedProperty);
+    }
+    
+    
+    protected DataComponent findResult(DataComponent obsResult, String observable)
+    {
+        if (observable.equals(obsResult.getDefinition()))
+            return obsResult;
+        return SWEHelper.findComponentByDefinition(obsResult, observable);
+    }
+    
+    
+    protected String getProcedureUri(IProcedure proc)
+    {
+        if (proc == null)
+            return SWEConstants.NIL_UNKNOWN;
+        if (proc instanceof ProcedureRef)
+            return ((ProcedureRef)proc).getHref();
+        return proc.getUniqueIdentifier();
+    }
+}
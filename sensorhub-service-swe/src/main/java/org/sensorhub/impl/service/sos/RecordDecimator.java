@@ -0,0 +1,295 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.service.sos;
+
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataType;
+import net.opengis.swe.v20.SimpleComponent;
+import org.vast.swe.SWEConstants;
+
+
+/**
+ * <p>
+ * Reduces the number of records returned by a data provider, either by
+ * keeping only some of them (every Nth record, min interval between records)
+ * or by aggregating all records falling in fixed duration time buckets.<br/>
+ * When aggregating, numerical values are replaced by their min, max or
+ * average over the bucket, the time stamp is set to the beginning of the
+ * bucket, and other values are taken from the first record of the bucket.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class RecordDecimator
+{
+    public enum AggregateFunction
+    {
+        MIN, MAX, AVG
+    }
+    
+    final int decimationFactor;
+    final double minInterval;
+    final double aggregationPeriod;
+    final AggregateFunction aggregateFunction;
+    final int timeIndex;
+    
+    long recordCount;
+    double lastTime = Double.NEGATIVE_INFINITY;
+    
+    // aggregation state
+    DataBlock bucketRecord;
+    double bucketStart = Double.NaN;
+    double[] sums;
+    int bucketCount;
+    
+    
+    /**
+     * @param filter filter containing decimation/aggregation parameters
+     * @param recordStruct structure of records to process
+     */
+    public RecordDecimator(SOSDataFilter filter, DataComponent recordStruct)
+    {
+        this.decimationFactor = Math.max(filter.getDecimationFactor(), 1);
+        this.minInterval = filter.getMinInterval();
+        this.aggregationPeriod = filter.getAggregationPeriod();
+        this.aggregateFunction = filter.getAggregateFunction() != null ? filter.getAggregateFunction() : AggregateFunction.AVG;
+        this.timeIndex = findTimeIndex(recordStruct);
+    }
+    
+    
+    /*
+     * Finds index of the sampling time value in the record datablock.
+     * We only look at top level scalars so we know their datablock index.
+     */
+    protected static int findTimeIndex(DataComponent recordStruct)
+    {
+        if (recordStruct instanceof SimpleComponent)
+            return -1;
+        
+        for (int i = 0; i < recordStruct.getComponentCount(); i++)
+        {
+            DataComponent comp = recordStruct.getComponent(i);
+            if (!(comp instanceof SimpleComponent))
+                return -1;
+            if (SWEConstants.DEF_SAMPLING_TIME.equals(comp.getDefinition()))
+                return i;
+        }
+        
+        return -1;
+    }
+    
+    
+    /**
+     * Processes the next record
+     * @param rec record to process
+     * @param defaultTime time stamp to use if record doesn't have a sampling time
+     * @return the record to send, or null if the record was dropped or
+     * absorbed in the current aggregation bucket
+     */
+    public DataBlock process(DataBlock rec, double defaultTime)
+    {
+        double time = (timeIndex >= 0) ? rec.getDoubleValue(timeIndex) : defaultTime;
+        
+        // aggregation
+        if (!Double.isNaN(aggregationPeriod))
+            return aggregate(rec, time);
+        
+        return keep(time) ? rec : null;
+    }
+    
+    
+    /**
+     * Processes the next record using only its time stamp.<br/>
+     * This is used to find page boundaries without reading record data,
+     * so aggregation buckets are delimited by time only.
+     * @param time record time stamp
+     * @return true if the record would start a new output record, that is
+     * if it would be kept or would open a new aggregation bucket
+     */
+    public boolean startsOutput(double time)
+    {
+        if (!Double.isNaN(aggregationPeriod))
+        {
+            double start = Math.floor(time / aggregationPeriod) * aggregationPeriod;
+            if (start == bucketStart)
+                return false;
+            bucketStart = start;
+            return true;
+        }
+        
+        return keep(time);
+    }
+    
+    
+    protected boolean keep(double time)
+    {
+        // every Nth record
+        if (recordCount++ % decimationFactor != 0)
+            return false;
+        
+        // min interval between records
+        if (!Double.isNaN(minInterval))
+        {
+            if (time - lastTime < minInterval)
+                return false;
+            lastTime = time;
+        }
+        
+        return true;
+    }
+    
+    
+    /**
+     * Called when the source has no more records
+     * @return the last aggregated record or null if none is pending
+     */
+    public DataBlock flush()
+    {
+        if (bucketRecord == null)
+            return null;
+        
+        DataBlock result = closeBucket();
+        bucketRecord = null;
+        return result;
+    }
+    
+    
+    protected DataBlock aggregate(DataBlock rec, double time)
+    {
+        double start = Math.floor(time / aggregationPeriod) * aggregationPeriod;
+        DataBlock result = null;
+        
+        // close current bucket if record falls outside of it
+        // or if record size changed (i.e. variable size arrays)
+        if (bucketRecord != null && (start != bucketStart || rec.getAtomCount() != bucketRecord.getAtomCount()))
+        {
+            result = closeBucket();
+            bucketRecord = null;
+        }
+        
+        if (bucketRecord == null)
+        {
+            // copy since providers may reuse datablocks
+            bucketRecord = rec.clone();
+            bucketStart = start;
+            bucketCount = 1;
+            if (aggregateFunction == AggregateFunction.AVG)
+            {
+                int numAtoms = rec.getAtomCount();
+                if (sums == null || sums.length < numAtoms)
+                    sums = new double[numAtoms];
+                for (int i = 0; i < numAtoms; i++)
+                    sums[i] = isNumeric(rec, i) ? rec.getDoubleValue(i) : 0.0;
+            }
+        }
+        else
+        {
+            bucketCount++;
+            for (int i = 0; i < rec.getAtomCount(); i++)
+            {
+                if (i == timeIndex || !isNumeric(rec, i))
+                    continue;
+                
+                double val = rec.getDoubleValue(i);
+                switch (aggregateFunction)
+                {
+                    case MIN:
+                        if (val < bucketRecord.getDoubleValue(i))
+                            bucketRecord.setDoubleValue(i, val);
+                        break;
+                        
+                    case MAX:
+                        if (val > bucketRecord.getDoubleValue(i))
+                            bucketRecord.setDoubleValue(i, val);
+                        break;
+                        
+                    default:
+                        sums[i] += val;
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    
+    protected DataBlock closeBucket()
+    {
+        if (aggregateFunction == AggregateFunction.AVG && bucketCount > 1)
+        {
+            for (int i = 0; i < bucketRecord.getAtomCount(); i++)
+            {
+                if (i != timeIndex && isNumeric(bucketRecord, i))
+                    bucketRecord.setDoubleValue(i, sums[i] / bucketCount);
+            }
+        }
+        
+        if (timeIndex >= 0)
+            bucketRecord.setDoubleValue(timeIndex, bucketStart);
+        
+        return bucketRecord;
+    }
+    
+    
+    protected boolean isNumeric(DataBlock rec, int index)
+    {
+        DataType dataType = rec.getDataType(index);
+        if (dataType == null)
+            return false;
+        
+        switch (dataType)
+        {
+            case BYTE:
+            case UBYTE:
+            case SHORT:
+            case USHORT:
+            case INT:
+            case UINT:
+            case LONG:
+            case ULONG:
+            case FLOAT:
+            case DOUBLE:
+                return true;
+                
+            default:
+                return false;
+        }
+    }
+    
+    
+    /**
+     * Estimates the max number of records that will be sent after decimation
+     * @param filter filter containing decimation/aggregation parameters
+     * @param numRecords number of records before decimation
+     * @param timeSpan duration of requested time period in seconds
+     * @return max number of records after decimation
+     */
+    public static long estimateOutputCount(SOSDataFilter filter, long numRecords, double timeSpan)
+    {
+        long count = numRecords;
+        
+        int factor = filter.getDecimationFactor();
+        if (factor > 1)
+            count = count / factor + (count % factor != 0 ? 1 : 0);
+        
+        double interval = !Double.isNaN(filter.getAggregationPeriod()) ? filter.getAggregationPeriod() : filter.getMinInterval();
+        if (!Double.isNaN(interval) && !Double.isInfinite(timeSpan))
+            count = Math.min(count, (long)Math.ceil(timeSpan / interval) + 1);
+        
+        return count;
+    }
+}
@@ -0,0 +1,104 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.service.sos;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.vast.ows.sos.SOSException;
+
+
+/**
+ * <p>
+ * Continuation token used to resume a paginated historical request.<br/>
+ * The token encodes the time stamp of the last record sent and the number
+ * of records already sent with this exact time stamp, so that records
+ * sharing the same time stamp are neither skipped nor sent twice when the
+ * next page is requested. This relies on storages always returning records
+ * with the same time stamp in the same order.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class ResultCursor
+{
+    private static final char SEP = '|';
+    
+    final double timeStamp;
+    final int numSentAtTimeStamp;
+    
+    
+    public ResultCursor(double timeStamp, int numSentAtTimeStamp)
+    {
+        this.timeStamp = timeStamp;
+        this.numSentAtTimeStamp = numSentAtTimeStamp;
+    }
+    
+    
+    public double getTimeStamp()
+    {
+        return timeStamp;
+    }
+
+
+    public int getNumSentAtTimeStamp()
+    {
+        return numSentAtTimeStamp;
+    }
+    
+    
+    /**
+     * @return URL safe string representation of this cursor
+     */
+    public String encode()
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append(Double.toString(timeStamp)).append(SEP);
+        buf.append(numSentAtTimeStamp);
+        
+        byte[] bytes = buf.toString().getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+    
+    
+    /**
+     * Decodes a cursor from the token sent by a client
+     * @param token token obtained with {@link #encode()}
+     * @param paramName name of request parameter, used in error report
+     * @return decoded cursor
+     * @throws SOSException if token is invalid
+     */
+    public static ResultCursor decode(String token, String paramName) throws SOSException
+    {
+        try
+        {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int sep = value.indexOf(SEP);
+            if (sep < 0)
+                throw new IllegalArgumentException();
+            
+            double timeStamp = Double.parseDouble(value.substring(0, sep));
+            int numSent = Integer.parseInt(value.substring(sep + 1));
+            if (Double.isNaN(timeStamp) || numSent < 1)
+                throw new IllegalArgumentException();
+            
+            return new ResultCursor(timeStamp, numSent);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new SOSException(SOSException.invalid_param_code, paramName, token, "Invalid continuation token");
+        }
+    }
+}
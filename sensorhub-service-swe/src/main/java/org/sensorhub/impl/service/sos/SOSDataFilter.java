@@ -54,6 +54,14 @@ public class SOSDataFilter
     double replaySpeedFactor = Double.NaN;
     long maxObsCount = Long.MAX_VALUE;
     
+    int decimationFactor = 1;
+    double minInterval = Double.NaN;
+    double aggregationPeriod = Double.NaN;
+    RecordDecimator.AggregateFunction aggregateFunction;
+    
+    long pageSize = 0;
+    ResultCursor cursor;
+    
     
     public SOSDataFilter(Set<String> observables)
     {
@@ -139,4 +147,101 @@ public class SOSDataFilter
     {
         this.maxObsCount = maxObsCount;
     }
+
+
+    public int getDecimationFactor()
+    {
+        return decimationFactor;
+    }
+
+
+    /**
+     * @param decimationFactor only every Nth record will be returned
+     */
+    public void setDecimationFactor(int decimationFactor)
+    {
+        this.decimationFactor = decimationFactor;
+    }
+
+
+    public double getMinInterval()
+    {
+        return minInterval;
+    }
+
+
+    /**
+     * @param minInterval min time interval between returned records, in seconds
+     */
+    public void setMinInterval(double minInterval)
+    {
+        this.minInterval = minInterval;
+    }
+
+
+    public double getAggregationPeriod()
+    {
+        return aggregationPeriod;
+    }
+
+
+    /**
+     * @param aggregationPeriod duration of aggregation buckets, in seconds
+     */
+    public void setAggregationPeriod(double aggregationPeriod)
+    {
+        this.aggregationPeriod = aggregationPeriod;
+    }
+
+
+    public RecordDecimator.AggregateFunction getAggregateFunction()
+    {
+        return aggregateFunction;
+    }
+
+
+    public void setAggregateFunction(RecordDecimator.AggregateFunction aggregateFunction)
+    {
+        this.aggregateFunction = aggregateFunction;
+    }
+    
+    
+    public long getPageSize()
+    {
+        return pageSize;
+    }
+
+
+    /**
+     * @param pageSize max number of records returned in one page (after
+     * decimation or aggregation), or 0 to disable pagination
+     */
+    public void setPageSize(long pageSize)
+    {
+        this.pageSize = pageSize;
+    }
+
+
+    public ResultCursor getCursor()
+    {
+        return cursor;
+    }
+
+
+    /**
+     * @param cursor cursor to resume from, as returned with the previous page
+     */
+    public void setCursor(ResultCursor cursor)
+    {
+        this.cursor = cursor;
+    }
+    
+    
+    /**
+     * @return true if decimation or aggregation of records was requested
+     */
+    public boolean isDecimated()
+    {
+        return decimationFactor > 1 || !Double.isNaN(minInterval) || !Double.isNaN(aggregationPeriod);
+    }
 }
@@ -18,6 +18,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.Objects;
 import net.opengis.OgcProperty;
 import net.opengis.gml.v32.AbstractFeature;
 import net.opengis.gml.v32.AbstractGeometry;
@@ -172,4 +173,46 @@ public class SOSProviderUtils
 
         return obs;
     }
+    
+    
+    /**
+     * Computes a hash of the offering metadata that providers can update
+     * while the offering is advertised, so that changes can be detected
+     * without serializing the offering.<br/>
+     * Times that are relative to 'now' are not included since they are
+     * always serialized the same way.
+     * @param caps offering capabilities
+     * @return hash value
+     */
+    public static int getCapabilitiesHash(SOSOfferingCapabilities caps)
+    {
+        int hash = Objects.hash(caps.getIdentifier(), caps.getTitle(), caps.getDescription());
+        hash = 31 * hash + caps.getProcedures().hashCode();
+        hash = 31 * hash + caps.getObservableProperties().hashCode();
+        hash = 31 * hash + caps.getRelatedFeatures().hashCode();
+        hash = 31 * hash + caps.getResponseFormats().hashCode();
+        hash = 31 * hash + getTimeExtentHash(caps.getPhenomenonTime());
+        
+        for (Bbox bbox: caps.getObservedAreas())
+        {
+            hash = 31 * hash + Double.hashCode(bbox.getMinX());
+            hash = 31 * hash + Double.hashCode(bbox.getMinY());
+            hash = 31 * hash + Double.hashCode(bbox.getMaxX());
+            hash = 31 * hash + Double.hashCode(bbox.getMaxY());
+        }
+        
+        return hash;
+    }
+    
+    
+    protected static int getTimeExtentHash(TimeExtent timeExtent)
+    {
+        if (timeExtent == null || timeExtent.isNull())
+            return 0;
+        
+        int hash = Boolean.hashCode(timeExtent.isBaseAtNow());
+        hash = 31 * hash + (timeExtent.isBeginNow() ? 1 : Double.hashCode(timeExtent.getStartTime()));
+        hash = 31 * hash + (timeExtent.isEndNow() ? 1 : Double.hashCode(timeExtent.getStopTime()));
+        return hash;
+    }
 }
@@ -191,4 +191,16 @@ public class SOSService extends AbstractModule<SOSServiceConfig> implements ISer
         else
             return null;
     }
+    
+    
+    /**
+     * @return number of websocket connections currently open
+     */
+    public int getNumWebSocketConnections()
+    {
+        if (isStarted())
+            return servlet.numWebSockets.get();
+        else
+            return 0;
+    }
 }
@@ -46,6 +46,40 @@ public class SOSServiceConfig extends OGCServiceConfig
     public int maxRecordCount = 100000;
     
     
+    @DisplayInfo(label="Max Response Buffer Size", desc="Maximum number of bytes buffered before they are written to the HTTP response when streaming historical results")
+    public int maxResponseBufferSize = 64*1024;
+    
+    
+    @DisplayInfo(label="Max Response Latency", desc="Maximum time (in ms) results are buffered before they are sent to the client when streaming historical results over HTTP")
+    public int maxResponseLatency = 1000;
+    
+    
+    @DisplayInfo(label="Capabilities Refresh Period", desc="Period at which offering metadata is refreshed from data providers (in ms). Changes such as new time periods or observed features appear in GetCapabilities after at most this delay")
+    public int capabilitiesRefreshPeriod = 1000;
+    
+    
+    @DisplayInfo(label="Prefetch Queue Size", desc="Number of observations read ahead from each offering when observations from several offerings are merged by time")
+    public int prefetchQueueSize = 256;
+    
+    
+    @DisplayInfo(label="Max Websocket Connections", desc="Maximum number of websocket connections streaming data simultaneously. "
+            + "Each connection uses one thread, so values in the order of 10000 require Java 21 or later where virtual threads are used")
+    public int maxWebSocketConnections = 1000;
+    
+    
+    @DisplayInfo(label="Max Websocket Pending Bytes", desc="Maximum number of bytes queued for sending on each websocket connection before the response writer is paused. "
+            + "Total memory used can reach this value times the max number of connections")
+    public int maxWebSocketPendingBytes = 64*1024;
+    
+    
+    @DisplayInfo(label="Share Live Streams", desc="Set to encode live records only once for all clients requesting the same data with the same encoding")
+    public boolean shareLiveStreams = true;
+    
+    
+    @DisplayInfo(label="Offer Binary Encoding", desc="Set to let clients request results of any offering in binary encoding (with responseFormat=application/octet-stream), even if the offering uses text encoding by default")
+    public boolean enableBinaryEncoding = true;
+    
+    
     @DisplayInfo(desc="Storage configuration to use for newly registered sensors")
     public StorageConfig newStorageConfig;
     
@@ -54,6 +88,10 @@ public class SOSServiceConfig extends OGCServiceConfig
     public double defaultLiveTimeout = 600.0;
     
     
+    @DisplayInfo(label="Insert Batch Size", desc="Maximum number of records parsed from an InsertResult request before they are published as a single data event")
+    public int insertResultBatchSize = 1000;
+    
+    
     @DisplayInfo(label="Offerings", desc="Configuration of data providers for SOS offerings")
     public OfferingList<SOSProviderConfig> dataProviders = new OfferingList<>();
     
@@ -16,10 +16,14 @@ package org.sensorhub.impl.service.sos;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -29,6 +33,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -80,11 +93,13 @@ import org.sensorhub.api.security.ISecurityManager;
 import org.sensorhub.api.sensor.ISensorModule;
 import org.sensorhub.api.service.ServiceException;
 import org.sensorhub.impl.SensorHub;
+import org.sensorhub.impl.common.DefaultThreadFactory;
 import org.sensorhub.impl.module.ModuleRegistry;
 import org.sensorhub.impl.persistence.StreamStorageConfig;
 import org.sensorhub.impl.sensor.swe.SWETransactionalSensor;
 import org.sensorhub.impl.service.HttpServer;
 import org.sensorhub.impl.service.ogc.OGCServiceConfig.CapabilitiesInfo;
+import org.sensorhub.impl.service.swe.AdaptiveFlushOutputStream;
 import org.sensorhub.impl.service.swe.Template;
 import org.sensorhub.impl.service.swe.TransactionUtils;
 import org.slf4j.Logger;
@@ -150,18 +165,35 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
     private static final String INVALID_WS_REQ_MSG = "Invalid Websocket request: ";        
     private static final QName EXT_REPLAY = new QName("replayspeed"); // kvp params are always lower case
     private static final QName EXT_WS = new QName("websocket");
+    private static final QName EXT_LOW_LATENCY = new QName("lowlatency");
+    private static final QName EXT_DECIMATE = new QName("decimate");
+    private static final QName EXT_MIN_INTERVAL = new QName("mininterval");
+    private static final QName EXT_AGG_PERIOD = new QName("aggperiod");
+    private static final QName EXT_AGG_FUNC = new QName("aggfunc");
+    private static final QName EXT_PAGE_SIZE = new QName("pagesize");
+    private static final QName EXT_CURSOR = new QName("cursor");
+    private static final int MAX_PLATFORM_WEBSOCKET_THREADS = 1000;
+    private static final String CONTINUATION_TOKEN_HEADER = "X-Continuation-Token";
     
     final transient SOSServiceConfig config;
     final transient SOSSecurity securityHandler;
     final transient ReentrantReadWriteLock capabilitiesLock = new ReentrantReadWriteLock();
     final transient SOSServiceCapabilities capabilities = new SOSServiceCapabilities();
     final transient Map<String, SOSOfferingCapabilities> offeringCaps = new HashMap<>();
+    final transient Map<String, Integer> offeringCapsHashes = new ConcurrentHashMap<>();
+    final transient CapabilitiesCache capabilitiesCache = new CapabilitiesCache();
     final transient Map<String, String> procedureToOfferingMap = new HashMap<>();
     final transient Map<String, String> templateToOfferingMap = new HashMap<>();    
     final transient Map<String, ISOSDataProviderFactory> dataProviders = new LinkedHashMap<>();
     final transient Map<String, ISOSDataConsumer> dataConsumers = new LinkedHashMap<>();
     final transient Map<String, ISOSCustomSerializer> customFormats = new HashMap<>();
     WebSocketServletFactory wsFactory;
+    ExecutorService prefetchExecutor;
+    ExecutorService webSocketExecutor;
+    ScheduledExecutorService capsRefreshTimer;
+    final AtomicInteger numWebSockets = new AtomicInteger();
+    final Map<String, SharedResultStream> sharedStreams = new HashMap<>();
+    final Set<String> unsharableStreams = new HashSet<>();
     
     
     protected SOSServlet(SOSServiceConfig config, SOSSecurity securityHandler, Logger log) throws SensorHubException
@@ -170,6 +202,7 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
         this.config = config;
         this.securityHandler = securityHandler;
         generateCapabilities();
+        startCapabilitiesRefresh();
     }
     
     
@@ -218,6 +251,101 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
         // cleanup all consumers
         for (ISOSDataConsumer consumer: dataConsumers.values())
             consumer.cleanup();
+        
+        // stop shared live streams
+        synchronized (sharedStreams)
+        {
+            for (SharedResultStream stream: new ArrayList<>(sharedStreams.values()))
+                stream.close();
+            unsharableStreams.clear();
+        }
+        
+        // stop prefetch threads
+        synchronized (this)
+        {
+            if (capsRefreshTimer != null)
+            {
+                capsRefreshTimer.shutdownNow();
+                capsRefreshTimer = null;
+            }
+            
+            if (prefetchExecutor != null)
+            {
+                prefetchExecutor.shutdownNow();
+                prefetchExecutor = null;
+            }
+            
+            if (webSocketExecutor != null)
+            {
+                webSocketExecutor.shutdownNow();
+                webSocketExecutor = null;
+            }
+        }
+    }
+    
+    
+    /*
+     * Executor shared by all output websockets.
+     * Virtual threads are used when available since live requests block their
+     * thread while waiting for new data. Otherwise we use a pool of platform
+     * threads bounded by the max number of connections, so that connections
+     * in excess are rejected instead of creating new threads
+     */
+    protected synchronized ExecutorService getWebSocketExecutor()
+    {
+        if (webSocketExecutor == null)
+        {
+            try
+            {
+                // use reflection so we can still compile and run on older JDKs
+                Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                webSocketExecutor = (ExecutorService)m.invoke(null);
+            }
+            catch (Exception e)
+            {
+                int maxThreads = Math.max(1, config.maxWebSocketConnections);
+                if (maxThreads > MAX_PLATFORM_WEBSOCKET_THREADS)
+                    log.warn("Virtual threads not supported by this JVM. Up to {} platform threads may be used for websockets", maxThreads);
+                else
+                    log.debug("Virtual threads not supported by this JVM. Using platform threads for websockets");
+                
+                webSocketExecutor = new ThreadPoolExecutor(0, maxThreads,
+                    60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                    new DefaultThreadFactory("SOSWebSocket"));
+            }
+        }
+        
+        return webSocketExecutor;
+    }
+    
+    
+    protected boolean acquireWebSocketSlot()
+    {
+        if (numWebSockets.incrementAndGet() > config.maxWebSocketConnections)
+        {
+            numWebSockets.decrementAndGet();
+            return false;
+        }
+        
+        return true;
+    }
+    
+    
+    protected void releaseWebSocketSlot()
+    {
+        numWebSockets.decrementAndGet();
+    }
+    
+    
+    /*
+     * Executor running the tasks reading observations ahead of serialization.
+     * We need an unbounded pool since each task blocks until its queue is consumed
+     */
+    protected synchronized ExecutorService getPrefetchExecutor()
+    {
+        if (prefetchExecutor == null)
+            prefetchExecutor = Executors.newCachedThreadPool(new DefaultThreadFactory("SOSPrefetch"));
+        return prefetchExecutor;
     }
     
     
@@ -227,6 +355,8 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
     protected void generateCapabilities() throws SensorHubException
     {
         offeringCaps.clear();
+        offeringCapsHashes.clear();
+        capabilitiesCache.clear();
         procedureToOfferingMap.clear();
         templateToOfferingMap.clear();
         dataProviders.clear();
@@ -413,6 +543,8 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
                 // replace old offering
                 SOSOfferingCapabilities oldCaps = offeringCaps.put(providerConf.offeringID, offCaps);
                 capabilities.getLayers().set(capabilities.getLayers().indexOf(oldCaps), offCaps);
+                offeringCapsHashes.put(offCaps.getIdentifier(), SOSProviderUtils.getCapabilitiesHash(offCaps));
+                capabilitiesCache.invalidate();
                 
                 if (log.isDebugEnabled())
                     log.debug("Offering " + "\"" + offCaps.getIdentifier() + "\" updated for procedure " + procedureID);
@@ -425,6 +557,8 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
                 offeringCaps.put(offCaps.getIdentifier(), offCaps);                
                 procedureToOfferingMap.put(procedureID, offCaps.getIdentifier());                
                 capabilities.getLayers().add(offCaps);
+                offeringCapsHashes.put(offCaps.getIdentifier(), SOSProviderUtils.getCapabilitiesHash(offCaps));
+                capabilitiesCache.invalidate();
                 
                 if (log.isDebugEnabled())
                     log.debug("Offering " + "\"" + offCaps.getIdentifier() + "\" added for procedure " + procedureID);
@@ -456,6 +590,8 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
             // remove offering from capabilities
             SOSOfferingCapabilities offCaps = offeringCaps.remove(providerConf.offeringID);
             capabilities.getLayers().remove(offCaps);
+            offeringCapsHashes.remove(providerConf.offeringID);
+            capabilitiesCache.invalidate();
             
             // remove from procedure map
             String procedureID = offCaps.getMainProcedure();
@@ -743,50 +879,172 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
         // security check
         securityHandler.checkPermission(securityHandler.sos_read_caps);
         
-        // make sure capabilities are up to date
-        try
+        // update operation URLs dynamically if base URL not set in config
+        String endpointUrl = null;
+        if (Strings.isNullOrEmpty(HttpServer.getInstance().getConfiguration().proxyBaseUrl) && request.getHttpRequest() != null)
+            endpointUrl = getEndpointUrl(request.getHttpRequest());
+        
+        // serialize capabilities only if they changed since last request
+        String cacheKey = request.getVersion() + '|' + request.getSoapVersion() + '|' + endpointUrl;
+        CapabilitiesCache.Entry cachedCaps = capabilitiesCache.get(cacheKey);
+        if (cachedCaps == null)
+            cachedCaps = serializeCapabilities(request, cacheKey, endpointUrl);
+        
+        // send cached document or tell client it's not modified
+        HttpServletResponse httpResponse = request.getHttpResponse();
+        if (httpResponse != null)
         {
-            capabilitiesLock.writeLock().lock();
-            
-            // update operation URLs dynamically if base URL not set in config
-            if (Strings.isNullOrEmpty(HttpServer.getInstance().getConfiguration().proxyBaseUrl))
+            httpResponse.setHeader(CapabilitiesCache.ETAG_HEADER, cachedCaps.getETag());
+            if (CapabilitiesCache.isNotModified(request.getHttpRequest(), cachedCaps))
             {
-                String endpointUrl = request.getHttpRequest().getRequestURL().toString();
-                capabilities.updateAllEndpointUrls(endpointUrl);
+                httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
             }
             
-            // ask providers to refresh their capabilities if needed.
-            // we do that here so capabilities doc contains the most up-to-date info.
-            // we don't always do it when changes occur because high frequency changes 
-            // would trigger too many updates (e.g. new measurements changing time periods)
-            for (ISOSDataProviderFactory provider: dataProviders.values())
+            httpResponse.setContentType(cachedCaps.getContentType());
+            httpResponse.setContentLength(cachedCaps.getContent().length);
+        }
+        
+        OutputStream os = request.getResponseStream();
+        os.write(cachedCaps.getContent());
+        os.flush();
+    }
+    
+    
+    /*
+     * Gets URL of the service endpoint the request was sent to, without any
+     * extra path so that it doesn't depend on what the client appended to it
+     */
+    protected String getEndpointUrl(HttpServletRequest httpRequest)
+    {
+        StringBuffer url = httpRequest.getRequestURL();
+        String pathInfo = httpRequest.getPathInfo();
+        if (pathInfo != null && url.toString().endsWith(pathInfo))
+            url.setLength(url.length() - pathInfo.length());
+        return url.toString();
+    }
+    
+    
+    /*
+     * Starts the timer periodically refreshing capabilities from providers
+     */
+    protected synchronized void startCapabilitiesRefresh()
+    {
+        long period = Math.max(1, config.capabilitiesRefreshPeriod);
+        capsRefreshTimer = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("SOSCapsRefresh"));
+        capsRefreshTimer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run()
             {
                 try
                 {
-                    if (provider.isEnabled())
-                        provider.updateCapabilities();
+                    refreshCapabilities();
                 }
-                catch (SensorHubException e)
+                catch (Exception e)
                 {
-                    log.error("Cannot update capabilities of provider " + provider.getConfig().name, e);
+                    log.error("Error while refreshing capabilities", e);
                 }
             }
-        }
-        finally
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+    
+    
+    /*
+     * Asks providers to refresh their capabilities if needed and invalidates
+     * cached capabilities if the metadata of any offering has changed
+     */
+    protected void refreshCapabilities()
+    {
+        // we do that periodically rather than on each GetCapabilities request
+        // so requests only serve the cached document, and not each time changes
+        // occur because high frequency changes would trigger too many updates
+        // (e.g. new measurements changing time periods)
+        // providers lock capabilities while they update them
+        for (ISOSDataProviderFactory provider: dataProviders.values())
         {
-            capabilitiesLock.writeLock().unlock();
+            try
+            {
+                if (provider.isEnabled())
+                    provider.updateCapabilities();
+            }
+            catch (SensorHubException e)
+            {
+                log.error("Cannot update capabilities of provider " + provider.getConfig().name, e);
+            }
         }
         
+        // detect offerings that have changed
         try
         {
             capabilitiesLock.readLock().lock();
-            sendResponse(request, capabilities);
+            
+            boolean changed = false;
+            for (SOSOfferingCapabilities offCaps: capabilities.getLayers())
+            {
+                Integer newHash = SOSProviderUtils.getCapabilitiesHash(offCaps);
+                Integer oldHash = offeringCapsHashes.put(offCaps.getIdentifier(), newHash);
+                if (!newHash.equals(oldHash))
+                    changed = true;
+            }
+            
+            if (changed)
+                capabilitiesCache.invalidate();
         }
         finally
         {
             capabilitiesLock.readLock().unlock();
         }
     }
+    
+    
+    /*
+     * Serializes capabilities document and adds it to the cache
+     */
+    protected CapabilitiesCache.Entry serializeCapabilities(GetCapabilitiesRequest request, String cacheKey, String endpointUrl) throws IOException
+    {
+        // only one thread serializes the document, others wait and use the new cache entry
+        synchronized (capabilitiesCache)
+        {
+            CapabilitiesCache.Entry cachedCaps = capabilitiesCache.get(cacheKey);
+            if (cachedCaps != null)
+                return cachedCaps;
+            
+            try
+            {
+                capabilitiesLock.writeLock().lock();
+                
+                if (endpointUrl != null)
+                    capabilities.updateAllEndpointUrls(endpointUrl);
+                
+                // downgrade to read lock while serializing
+                capabilitiesLock.readLock().lock();
+            }
+            finally
+            {
+                capabilitiesLock.writeLock().unlock();
+            }
+            
+            OutputStream os = request.getResponseStream();
+            try
+            {
+                long version = capabilitiesCache.getVersion();
+                ByteArrayOutputStream buf = new ByteArrayOutputStream(64*1024);
+                request.setResponseStream(buf);
+                sendResponse(request, capabilities);
+                
+                String contentType = OWSUtils.XML_MIME_TYPE;
+                if (request.getHttpResponse() != null && request.getHttpResponse().getContentType() != null)
+                    contentType = request.getHttpResponse().getContentType();
+                
+                return capabilitiesCache.put(cacheKey, version, buf.toByteArray(), contentType);
+            }
+            finally
+            {
+                request.setResponseStream(os);
+                capabilitiesLock.readLock().unlock();
+            }
+        }
+    }
         
     
     @Override
@@ -868,7 +1126,7 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
     @Override
     protected void handleRequest(GetObservationRequest request) throws IOException, OWSException
     {
-        ISOSDataProvider dataProvider = null;
+        TimeOrderedObsReader obsReader = null;
         
         // set default format
         if (request.getFormat() == null)
@@ -907,10 +1165,15 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
         try
         {
             // prepare obs stream writer for requested O&M version
+            // O&M 2.0 is serialized directly, other versions go through DOM
             String format = request.getFormat();
             String omVersion = format.substring(format.lastIndexOf('/') + 1);
-            @SuppressWarnings("unchecked")
-            IXMLWriterDOM<IObservation> obsWriter = (IXMLWriterDOM<IObservation>)OGCRegistry.createWriter(OMUtils.OM, OMUtils.OBSERVATION, omVersion);
+            OMStreamWriter omStreamWriter = null;
+            IXMLWriterDOM<IObservation> obsWriter = null;
+            if (OMStreamWriter.OM_VERSION.equals(omVersion))
+                omStreamWriter = new OMStreamWriter();
+            else
+                obsWriter = getObservationDOMWriter(omVersion);
             String sosNsUri = OGCRegistry.getNamespaceURI(SOSUtils.SOS, DEFAULT_VERSION);
             
             // init XML or JSON writer
@@ -930,36 +1193,83 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
                 // wrap all observations inside response
                 writer.writeStartElement(SOS_PREFIX, "GetObservationResponse", sosNsUri);
                 writer.writeNamespace(SOS_PREFIX, sosNsUri);
+                if (omStreamWriter != null)
+                    omStreamWriter.writeNamespaces(writer);
             }
             
-            // send obs from each selected offering
-            // TODO sort by time by multiplexing obs from different offerings?
-            boolean firstObs = true;
+            // select observables and build filter for each offering
+            Map<String, Set<String>> offeringObservables = new HashMap<>();
+            Map<String, SOSDataFilter> offeringFilters = new HashMap<>();
+            Set<String> wildcardOfferings = new HashSet<>();
+            boolean allHistorical = true;
             for (String offering: selectedOfferings)
             {
                 Set<String> selectedObservables = request.getObservables();
                                 
                 // if no observables were selected, add all of them
                 // we'll filter redundant one later
-                boolean sendAllObservables = false;
                 if (selectedObservables.isEmpty())
                 {
                    SOSOfferingCapabilities caps = offeringCaps.get(offering);
                    selectedObservables = new LinkedHashSet<>();
                    selectedObservables.addAll(caps.getObservableProperties());
-                   sendAllObservables = true;
+                   wildcardOfferings.add(offering);
                 }
                 
-                // setup data provider
                 SOSDataFilter filter = new SOSDataFilter(selectedObservables, request.getTime(), request.getFoiIDs(), request.getSpatialFilter());
                 filter.setMaxObsCount(config.maxObsCount);
-                dataProvider = getDataProvider(offering, filter);
+                offeringObservables.put(offering, selectedObservables);
+                offeringFilters.put(offering, filter);
+                allHistorical &= isHistoricalRequest(filter);
+            }
+            
+            // multiplex historical obs from all offerings by time
+            // live obs are sent for each offering one after the other since
+            // a time ordered merge would block on the least active stream
+            List<List<String>> offeringGroups = new ArrayList<>();
+            if (allHistorical && selectedOfferings.size() > 1)
+                offeringGroups.add(new ArrayList<>(selectedOfferings));
+            else
+            {
+                for (String offering: selectedOfferings)
+                    offeringGroups.add(Collections.singletonList(offering));
+            }
+            
+            boolean firstObs = true;
+            for (List<String> offerings: offeringGroups)
+            {
+                // setup data providers, prefetching in background when merging
+                obsReader = new TimeOrderedObsReader(offerings.size() > 1 ? getPrefetchExecutor() : null, config.prefetchQueueSize);
+                for (String offering: offerings)
+                    obsReader.addProvider(offering, getDataProvider(offering, offeringFilters.get(offering)));
                 
                 // write each observation in stream
                 // we use stream writer to limit memory usage
                 IObservation obs;
-                while ((obs = dataProvider.getNextObservation()) != null)
+                while ((obs = obsReader.next()) != null)
                 {
+                    String offering = obsReader.getCurrentOffering();
+                    Set<String> selectedObservables = offeringObservables.get(offering);
+                    boolean sendAllObservables = wildcardOfferings.contains(offering);
+                    
+                    // stream O&M 2.0 observations using precomputed templates
+                    if (omStreamWriter != null)
+                    {
+                        for (String observable: selectedObservables)
+                        {
+                            OMStreamWriter.Template template = omStreamWriter.getTemplate(offering, observable, obs, sendAllObservables);
+                            if (template.isSkipped())
+                                continue;
+                            
+                            writer.writeStartElement(SOS_PREFIX, "observationData", sosNsUri);
+                            omStreamWriter.writeObservation(writer, obs, template);
+                            writer.writeEndElement();
+                            writer.flush();
+                        }
+                        
+                        continue;
+                    }
+                    
                     DataComponent obsResult = obs.getResult();
                     
                     // write a different obs for each requested observable
@@ -1011,6 +1321,9 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
                         writer.flush();
                     }
                 }
+                
+                obsReader.close();
+                obsReader = null;
             }
             
             // close SOAP elements
@@ -1027,12 +1340,19 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
         }
         finally
         {
-            if (dataProvider != null)
-                dataProvider.close();
+            if (obsReader != null)
+                obsReader.close();
         }
     }
     
     
+    @SuppressWarnings("unchecked")
+    protected IXMLWriterDOM<IObservation> getObservationDOMWriter(String omVersion)
+    {
+        return (IXMLWriterDOM<IObservation>)OGCRegistry.createWriter(OMUtils.OM, OMUtils.OBSERVATION, omVersion);
+    }
+    
+    
     @Override
     protected void handleRequest(GetResultTemplateRequest request) throws IOException, OWSException
     {
@@ -1073,9 +1393,13 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
             }
             else
             {
+                DataEncoding resultEncoding = dataProvider.getDefaultResultEncoding();
+                if (isBinaryFormatRequested(request.getFormat()) && !(resultEncoding instanceof BinaryEncoding))
+                    resultEncoding = SWEHelper.getDefaultBinaryEncoding(filteredStruct);
+                
                 GetResultTemplateResponse resp = new GetResultTemplateResponse();
                 resp.setResultStructure(filteredStruct);
-                resp.setResultEncoding(dataProvider.getDefaultResultEncoding());
+                resp.setResultEncoding(resultEncoding);
                 sendResponse(request, resp);
             }
         }
@@ -1113,6 +1437,19 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
             String replaySpeed = (String)request.getExtensions().get(EXT_REPLAY);
             filter.setReplaySpeedFactor(Double.parseDouble(replaySpeed));
         }
+        setDecimationOptions(request, filter);
+        setPaginationOptions(request, filter);
+        
+        // share live streams between clients requesting the same data
+        if (config.shareLiveStreams && isSharableRequest(request, filter))
+        {
+            SharedResultStream.Subscriber sub = subscribeToSharedStream(request, filter, isWs);
+            if (sub != null)
+            {
+                writeSharedStream(request, sub, isWs);
+                return;
+            }
+        }
         
         // setup data provider
         dataProvider = getDataProvider(request.getOffering(), filter);
@@ -1120,6 +1457,14 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
         DataEncoding resultEncoding = dataProvider.getDefaultResultEncoding();
         boolean customFormatUsed = false;
         
+        // send token to request next page in header since it must be known before streaming
+        if (filter.getPageSize() > 0 && dataProvider instanceof StorageDataProvider && request.getHttpResponse() != null)
+        {
+            String token = ((StorageDataProvider)dataProvider).getContinuationToken();
+            if (token != null)
+                request.getHttpResponse().setHeader(CONTINUATION_TOKEN_HEADER, token);
+        }
+        
         try
         {
             // use JSON, XML or custom format if requested
@@ -1127,57 +1472,30 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
                 resultEncoding = new JSONEncodingImpl();
             else if (resultEncoding instanceof TextEncoding && OWSUtils.XML_MIME_TYPE.equals(request.getFormat()))
                 resultEncoding = new XMLEncodingImpl();
+            else if (isBinaryFormatRequested(request.getFormat()))
+            {
+                if (!(resultEncoding instanceof BinaryEncoding))
+                    resultEncoding = SWEHelper.getDefaultBinaryEncoding(resultStructure);
+            }
             else
                 customFormatUsed = writeCustomFormatStream(request, dataProvider);
             
             // if no custom format was written write standard SWE common data stream
             if (!customFormatUsed)
             {
-                OutputStream os = new BufferedOutputStream(request.getResponseStream());
-                
-                // force disable xmlWrapper in some cases
-                if (resultEncoding instanceof JSONEncodingImpl ||
-                    resultEncoding instanceof BinaryEncoding || isWs)
-                    request.setXmlWrapper(false);
-                
-                // write small xml wrapper if requested
-                if (request.isXmlWrapper())
-                {
-                    String nsUri = OGCRegistry.getNamespaceURI(SOSUtils.SOS, request.getVersion());
-                    os.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n".getBytes());
-                    os.write(("<GetResultResponse xmlns=\"" + nsUri + "\">\n<resultValues>\n").getBytes());
-                }
+                // historical data is sent in larger chunks unless client explicitly asks for low latency
+                // live data is always sent as soon as each record is available
+                // websocket clients always get one message per record
+                AdaptiveFlushOutputStream os;
+                if (!isWs && isHistoricalRequest(filter) && !isLowLatencyRequest(request))
+                    os = new AdaptiveFlushOutputStream(request.getResponseStream(), config.maxResponseBufferSize, config.maxResponseLatency);
+                else
+                    os = new AdaptiveFlushOutputStream(request.getResponseStream(), 8192, 0);
                 
-                // else change response content type according to encoding
-                else if (request.getHttpResponse() != null)
-                {
-                    if (resultEncoding instanceof TextEncoding)
-                        request.getHttpResponse().setContentType(OWSUtils.TEXT_MIME_TYPE);
-                    else if (resultEncoding instanceof JSONEncoding)
-                        request.getHttpResponse().setContentType(OWSUtils.JSON_MIME_TYPE);
-                    else if (resultEncoding instanceof XMLEncoding)
-                        request.getHttpResponse().setContentType(OWSUtils.XML_MIME_TYPE);
-                    else if (resultEncoding instanceof BinaryEncoding)
-                        request.getHttpResponse().setContentType(OWSUtils.BINARY_MIME_TYPE);
-                    else
-                        throw new IllegalStateException("Unsupported encoding: " + resultEncoding.getClass().getCanonicalName());
-                }
+                startResultResponse(request, os, resultEncoding, isWs);
 
                 // prepare writer for selected encoding
-                DataStreamWriter writer = SWEHelper.createDataWriter(resultEncoding);
-                
-                // we also do filtering here in case data provider hasn't modified the datablocks
-                // always keep sampling time and entity ID if present
-                filter.getObservables().add(SWEConstants.DEF_SAMPLING_TIME);
-                String entityComponentUri = SOSProviderUtils.findEntityIDComponentURI(resultStructure);
-                if (entityComponentUri != null)
-                    filter.getObservables().add(entityComponentUri);
-                // temporary hack to switch btw old and new writer architecture
-                if (writer instanceof AbstractDataWriter)
-                    writer = new FilteredWriter((AbstractDataWriter)writer, filter.getObservables());
-                else
-                    ((DataBlockProcessor)writer).setDataComponentFilter(new FilterByDefinition(filter.getObservables()));
-                writer.setDataComponents(resultStructure);
+                DataStreamWriter writer = createResultWriter(resultStructure, resultEncoding, filter);
                 writer.setOutput(os);
                                 
                 // write all records in output stream
@@ -1190,11 +1508,8 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
                 }
                 writer.endStream();
                 
-                // close xml wrapper if needed
-                if (request.isXmlWrapper())
-                    os.write("\n</resultValues>\n</GetResultResponse>".getBytes());          
-                        
-                os.flush();
+                endResultResponse(request, os);
+                os.forceFlush();
             }
         }
         catch (IOException e)
@@ -1208,6 +1523,296 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
     }
     
     
+    protected void startResultResponse(GetResultRequest request, OutputStream os, DataEncoding resultEncoding, boolean isWs) throws IOException
+    {
+        // force disable xmlWrapper in some cases
+        if (resultEncoding instanceof JSONEncodingImpl ||
+            resultEncoding instanceof BinaryEncoding || isWs)
+            request.setXmlWrapper(false);
+        
+        // write small xml wrapper if requested
+        if (request.isXmlWrapper())
+        {
+            String nsUri = OGCRegistry.getNamespaceURI(SOSUtils.SOS, request.getVersion());
+            os.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n".getBytes());
+            os.write(("<GetResultResponse xmlns=\"" + nsUri + "\">\n<resultValues>\n").getBytes());
+        }
+        
+        // else change response content type according to encoding
+        else if (request.getHttpResponse() != null)
+        {
+            if (resultEncoding instanceof TextEncoding)
+                request.getHttpResponse().setContentType(OWSUtils.TEXT_MIME_TYPE);
+            else if (resultEncoding instanceof JSONEncoding)
+                request.getHttpResponse().setContentType(OWSUtils.JSON_MIME_TYPE);
+            else if (resultEncoding instanceof XMLEncoding)
+                request.getHttpResponse().setContentType(OWSUtils.XML_MIME_TYPE);
+            else if (resultEncoding instanceof BinaryEncoding)
+                request.getHttpResponse().setContentType(OWSUtils.BINARY_MIME_TYPE);
+            else
+                throw new IllegalStateException("Unsupported encoding: " + resultEncoding.getClass().getCanonicalName());
+        }
+    }
+    
+    
+    /*
+     * Binary variant of result encoding can be requested for all offerings
+     * unless a custom serializer is registered for the binary mime type
+     */
+    protected boolean isBinaryFormatRequested(String format)
+    {
+        return config.enableBinaryEncoding &&
+               OWSUtils.BINARY_MIME_TYPE.equals(format) &&
+               !customFormats.containsKey(format);
+    }
+    
+    
+    protected void endResultResponse(GetResultRequest request, OutputStream os) throws IOException
+    {
+        // close xml wrapper if needed
+        if (request.isXmlWrapper())
+            os.write("\n</resultValues>\n</GetResultResponse>".getBytes());
+    }
+    
+    
+    protected DataStreamWriter createResultWriter(DataComponent resultStructure, DataEncoding resultEncoding, SOSDataFilter filter)
+    {
+        DataStreamWriter writer = SWEHelper.createDataWriter(resultEncoding);
+        
+        // we also do filtering here in case data provider hasn't modified the datablocks
+        // always keep sampling time and entity ID if present
+        filter.getObservables().add(SWEConstants.DEF_SAMPLING_TIME);
+        String entityComponentUri = SOSProviderUtils.findEntityIDComponentURI(resultStructure);
+        if (entityComponentUri != null)
+            filter.getObservables().add(entityComponentUri);
+        // temporary hack to switch btw old and new writer architecture
+        if (writer instanceof AbstractDataWriter)
+            writer = new FilteredWriter((AbstractDataWriter)writer, filter.getObservables());
+        else
+            ((DataBlockProcessor)writer).setDataComponentFilter(new FilterByDefinition(filter.getObservables()));
+        writer.setDataComponents(resultStructure);
+        
+        return writer;
+    }
+    
+    
+    /*
+     * Reads decimation and aggregation extensions from request
+     */
+    protected void setDecimationOptions(OWSRequest request, SOSDataFilter filter) throws SOSException
+    {
+        Map<QName, Object> ext = request.getExtensions();
+        
+        try
+        {
+            if (ext.containsKey(EXT_DECIMATE))
+            {
+                String value = (String)ext.get(EXT_DECIMATE);
+                int factor = Integer.parseInt(value);
+                if (factor < 1)
+                    throw new SOSException(SOSException.invalid_param_code, EXT_DECIMATE.getLocalPart(), value, "Decimation factor must be >= 1");
+                filter.setDecimationFactor(factor);
+            }
+            
+            if (ext.containsKey(EXT_MIN_INTERVAL))
+            {
+                String value = (String)ext.get(EXT_MIN_INTERVAL);
+                double interval = Double.parseDouble(value);
+                if (!(interval > 0))
+                    throw new SOSException(SOSException.invalid_param_code, EXT_MIN_INTERVAL.getLocalPart(), value, "Minimum interval must be > 0");
+                filter.setMinInterval(interval);
+            }
+            
+            if (ext.containsKey(EXT_AGG_PERIOD))
+            {
+                String value = (String)ext.get(EXT_AGG_PERIOD);
+                double period = Double.parseDouble(value);
+                if (!(period > 0))
+                    throw new SOSException(SOSException.invalid_param_code, EXT_AGG_PERIOD.getLocalPart(), value, "Aggregation period must be > 0");
+                filter.setAggregationPeriod(period);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw new SOSException(SOSException.invalid_param_code, null, null, "Invalid decimation parameter: " + e.getMessage());
+        }
+        
+        if (ext.containsKey(EXT_AGG_FUNC))
+        {
+            String value = (String)ext.get(EXT_AGG_FUNC);
+            try
+            {
+                filter.setAggregateFunction(RecordDecimator.AggregateFunction.valueOf(value.toUpperCase()));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new SOSException(SOSException.invalid_param_code, EXT_AGG_FUNC.getLocalPart(), value, "Aggregate function must be one of min, max, avg");
+            }
+        }
+    }
+    
+    
+    /*
+     * Reads pagination extensions from request.
+     * Page size is capped to the max number of records allowed in one response.
+     * Pagination is not supported with websockets since the continuation token
+     * is sent in an HTTP response header.
+     */
+    protected void setPaginationOptions(OWSRequest request, SOSDataFilter filter) throws SOSException
+    {
+        Map<QName, Object> ext = request.getExtensions();
+        
+        if (isWebSocketRequest(request))
+        {
+            QName param = ext.containsKey(EXT_PAGE_SIZE) ? EXT_PAGE_SIZE : ext.containsKey(EXT_CURSOR) ? EXT_CURSOR : null;
+            if (param != null)
+                throw new SOSException(SOSException.invalid_param_code, param.getLocalPart(), (String)ext.get(param), "Pagination is not supported with websocket requests");
+            return;
+        }
+        
+        if (ext.containsKey(EXT_PAGE_SIZE))
+        {
+            String value = (String)ext.get(EXT_PAGE_SIZE);
+            try
+            {
+                long pageSize = Long.parseLong(value);
+                if (pageSize < 1)
+                    throw new NumberFormatException();
+                filter.setPageSize(Math.min(pageSize, config.maxRecordCount));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new SOSException(SOSException.invalid_param_code, EXT_PAGE_SIZE.getLocalPart(), value, "Page size must be a positive integer");
+            }
+        }
+        
+        if (ext.containsKey(EXT_CURSOR))
+        {
+            String value = (String)ext.get(EXT_CURSOR);
+            filter.setCursor(ResultCursor.decode(value, EXT_CURSOR.getLocalPart()));
+            if (filter.getPageSize() <= 0)
+                filter.setPageSize(config.maxRecordCount);
+        }
+    }
+    
+    
+    /*
+     * Live requests can share a stream if they don't need a custom serializer
+     * and the result is not filtered spatially
+     */
+    protected boolean isSharableRequest(GetResultRequest request, SOSDataFilter filter)
+    {
+        TimeExtent timeRange = filter.getTimeRange();
+        if (!timeRange.isBeginNow() || timeRange.isBaseAtNow())
+            return false;
+        
+        if (!Double.isNaN(filter.getReplaySpeedFactor()) || request.getSpatialFilter() != null || filter.isDecimated() || filter.getPageSize() > 0)
+            return false;
+        
+        // browsers may get video formats automatically selected
+        String format = request.getFormat();
+        if (format == null)
+            return !isRequestFromBrowser(request);
+        
+        return !customFormats.containsKey(format) &&
+               !OWSUtils.JSON_MIME_TYPE.equals(format) &&
+               !OWSUtils.XML_MIME_TYPE.equals(format);
+    }
+    
+    
+    protected SharedResultStream.Subscriber subscribeToSharedStream(GetResultRequest request, SOSDataFilter filter, boolean isWs) throws IOException, OWSException
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append(request.getOffering()).append('|');
+        buf.append(new TreeSet<>(request.getObservables())).append('|');
+        buf.append(new TreeSet<>(request.getFoiIDs())).append('|');
+        buf.append(request.getFormat()).append('|');
+        buf.append(isWs);
+        String key = buf.toString();
+        long stopTime = (long)(filter.getTimeRange().getStopTime() * 1000.);
+        
+        synchronized (sharedStreams)
+        {
+            if (unsharableStreams.contains(key))
+                return null;
+            
+            // join existing stream if any
+            SharedResultStream stream = sharedStreams.get(key);
+            if (stream != null)
+            {
+                SharedResultStream.Subscriber sub = stream.addSubscriber(stopTime);
+                if (sub != null)
+                    return sub;
+            }
+            
+            // otherwise create new stream with no end time
+            TimeExtent timeRange = new TimeExtent();
+            timeRange.setBeginNow(true);
+            timeRange.setStopTime(Long.MAX_VALUE / 1000);
+            SOSDataFilter sharedFilter = new SOSDataFilter(new LinkedHashSet<>(request.getObservables()), timeRange, request.getFoiIDs(), null);
+            ISOSDataProvider dataProvider = getDataProvider(request.getOffering(), sharedFilter);
+            
+            // only text and binary records can be concatenated without per client state
+            DataEncoding resultEncoding = dataProvider.getDefaultResultEncoding();
+            if (isBinaryFormatRequested(request.getFormat()) && !(resultEncoding instanceof BinaryEncoding))
+                resultEncoding = SWEHelper.getDefaultBinaryEncoding(dataProvider.getResultStructure());
+            if (!(resultEncoding instanceof TextEncoding || resultEncoding instanceof BinaryEncoding))
+            {
+                dataProvider.close();
+                unsharableStreams.add(key);
+                return null;
+            }
+            
+            try
+            {
+                DataStreamWriter writer = createResultWriter(dataProvider.getResultStructure(), resultEncoding, sharedFilter);
+                stream = new SharedResultStream(key, sharedStreams, dataProvider, writer, resultEncoding, !isWs, log);
+            }
+            catch (IOException e)
+            {
+                dataProvider.close();
+                throw e;
+            }
+            
+            SharedResultStream.Subscriber sub = stream.addSubscriber(stopTime);
+            sharedStreams.put(key, stream);
+            stream.start(getWebSocketExecutor());
+            log.debug("Started shared result stream {}", key);
+            return sub;
+        }
+    }
+    
+    
+    protected void writeSharedStream(GetResultRequest request, SharedResultStream.Subscriber sub, boolean isWs) throws IOException
+    {
+        try
+        {
+            // live data is always sent as soon as each record is available
+            AdaptiveFlushOutputStream os = new AdaptiveFlushOutputStream(request.getResponseStream(), 8192, 0);
+            startResultResponse(request, os, sub.getEncoding(), isWs);
+            os.write(sub.getHeader());
+            
+            byte[] rec;
+            while ((rec = sub.next()) != null)
+            {
+                os.write(rec);
+                os.flush();
+            }
+            
+            endResultResponse(request, os);
+            os.forceFlush();
+        }
+        catch (IOException e)
+        {
+            throw new IOException(SEND_RESPONSE_ERROR_MSG, e);
+        }
+        finally
+        {
+            sub.close();
+        }
+    }
+    
+    
     @Override
     protected void handleRequest(final GetFeatureOfInterestRequest request) throws IOException, OWSException
     {
@@ -1671,10 +2276,22 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
             }
             else
             {
-                // parse each record and send it to consumer
+                // parse records and send them to consumer in batches
+                int batchSize = Math.max(1, config.insertResultBatchSize);
+                List<DataBlock> batch = new ArrayList<>(Math.min(batchSize, 1024));
                 DataBlock nextBlock = null;
                 while ((nextBlock = parser.parseNextBlock()) != null)
-                    consumer.newResultRecord(templateID, nextBlock);
+                {
+                    batch.add(nextBlock);
+                    if (batch.size() >= batchSize)
+                    {
+                        consumer.newResultRecord(templateID, batch.toArray(new DataBlock[batch.size()]));
+                        batch.clear();
+                    }
+                }
+                
+                if (!batch.isEmpty())
+                    consumer.newResultRecord(templateID, batch.toArray(new DataBlock[batch.size()]));
                 
                 // build and send response
                 InsertResultResponse resp = new InsertResultResponse();
@@ -2059,6 +2676,30 @@ public class SOSServlet extends org.vast.ows.sos.SOSServlet
     }
     
     
+    protected boolean isLowLatencyRequest(OWSRequest request)
+    {
+        Object lowLatency = request.getExtensions().get(EXT_LOW_LATENCY);
+        return lowLatency != null && !"false".equalsIgnoreCase(lowLatency.toString());
+    }
+    
+    
+    /*
+     * Historical requests are the ones that will only return data already
+     * available in storage, that is without any 'now' time and not replayed
+     */
+    protected boolean isHistoricalRequest(SOSDataFilter filter)
+    {
+        TimeExtent timeRange = filter.getTimeRange();
+        if (timeRange.isBaseAtNow() || timeRange.isBeginNow() || timeRange.isEndNow())
+            return false;
+        
+        if (!Double.isNaN(filter.getReplaySpeedFactor()))
+            return false;
+        
+        return timeRange.getStopTime() <= System.currentTimeMillis() / 1000.;
+    }
+    
+    
     protected void startSoapEnvelope(OWSRequest request, XMLStreamWriter writer) throws XMLStreamException
     {
         String soapUri = request.getSoapVersion(); 
@@ -15,6 +15,9 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 package org.sensorhub.impl.service.sos;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.List;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.StatusCode;
 import org.eclipse.jetty.websocket.api.WebSocketListener;
@@ -26,7 +29,9 @@ import net.opengis.swe.v20.DataBlock;
 
 /**
  * <p>
- * Input only websocket for receiving live record streams (via InsertResult)
+ * Input only websocket for receiving live record streams (via InsertResult).<br/>
+ * Each binary frame can contain one or more records. All records parsed from
+ * the same frame are sent to the consumer in a single call.
  * </p>
  *
  * @author Alex Robin <alex.robin@sensiasoftware.com>
@@ -39,6 +44,29 @@ public class SOSWebSocketIn implements WebSocketListener
     DataStreamParser parser;
     ISOSDataConsumer consumer;
     String templateID;
+    FrameInputStream frameInput = new FrameInputStream();
+    List<DataBlock> batch = new ArrayList<>();
+    
+    
+    /*
+     * Input stream that can be reset to read from a new frame
+     * without allocating a new stream object
+     */
+    static class FrameInputStream extends ByteArrayInputStream
+    {
+        FrameInputStream()
+        {
+            super(new byte[0]);
+        }
+        
+        void setFrame(byte[] buf, int offset, int len)
+        {
+            this.buf = buf;
+            this.pos = offset;
+            this.count = Math.min(offset + len, buf.length);
+            this.mark = offset;
+        }
+    }
     
     
     public SOSWebSocketIn(DataStreamParser parser, ISOSDataConsumer consumer, String templateID, Logger log)
@@ -66,10 +94,34 @@ public class SOSWebSocketIn implements WebSocketListener
             if (payload == null || payload.length == 0)
                 return;
             
-            ByteArrayInputStream is = new ByteArrayInputStream(payload, offset, len);
-            parser.setInput(is);
-            DataBlock data = parser.parseNextBlock();
-            consumer.newResultRecord(templateID, data);
+            // parse all records contained in frame
+            frameInput.setFrame(payload, offset, len);
+            parser.setInput(frameInput);
+            while (true)
+            {
+                // some parsers report the end of input with an EOFException
+                // rather than a null block, which is only an error if we
+                // were in the middle of a record
+                boolean endOfFrame = frameInput.available() == 0;
+                DataBlock data;
+                try
+                {
+                    data = parser.parseNextBlock();
+                }
+                catch (EOFException e)
+                {
+                    if (endOfFrame)
+                        break;
+                    throw e;
+                }
+                
+                if (data == null)
+                    break;
+                batch.add(data);
+            }
+            
+            if (!batch.isEmpty())
+                consumer.newResultRecord(templateID, batch.toArray(new DataBlock[batch.size()]));
         }
         catch (Exception e)
         {
@@ -77,6 +129,10 @@ public class SOSWebSocketIn implements WebSocketListener
             if (session != null)
                 session.close(StatusCode.BAD_DATA, e.getMessage());
         }
+        finally
+        {
+            batch.clear();
+        }
     }
 
 
@@ -14,12 +14,12 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 
 package org.sensorhub.impl.service.sos;
 
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.StatusCode;
 import org.eclipse.jetty.websocket.api.WebSocketListener;
-import org.sensorhub.impl.service.swe.WebSocketOutputStream;
+import org.sensorhub.impl.service.swe.AsyncWebSocketOutputStream;
 import org.sensorhub.impl.service.swe.WebSocketUtils;
 import org.slf4j.Logger;
 import org.vast.ows.OWSException;
@@ -30,7 +30,9 @@ import org.vast.ows.sos.GetResultRequest;
 
 /**
  * <p>
- * Output only websocket for sending SOS live responses
+ * Output only websocket for sending SOS live responses.<br/>
+ * Requests are processed by the executor shared by all websockets of the
+ * parent service and responses are sent asynchronously.
  * </p>
  *
  * @author Alex Robin <alex.robin@sensiasoftware.com>
@@ -43,8 +45,9 @@ public class SOSWebSocketOut implements WebSocketListener, Runnable
     SOSServlet parentService;
     OWSRequest request;
     String userID;
-    WebSocketOutputStream respOutputStream;
-    Executor threadPool;
+    AsyncWebSocketOutputStream respOutputStream;
+    volatile Future<?> future;
+    boolean connected;
     
     
     public SOSWebSocketOut(SOSServlet parentService, OWSRequest request, String userID, Logger log)
@@ -52,7 +55,6 @@ public class SOSWebSocketOut implements WebSocketListener, Runnable
         this.parentService = parentService;
         this.request = request;
         this.userID = userID;
-        this.threadPool = Executors.newSingleThreadExecutor();
         this.log = log;
         
         // enforce no XML wrapper to GetResult response
@@ -67,16 +69,30 @@ public class SOSWebSocketOut implements WebSocketListener, Runnable
         this.session = session;
         WebSocketUtils.logOpen(session, log);
         
+        // reject connection if too many are already open
+        if (!parentService.acquireWebSocketSlot())
+        {
+            WebSocketUtils.closeSession(session, StatusCode.TRY_AGAIN_LATER, WebSocketUtils.MAX_CONNECTIONS_ERROR, log);
+            return;
+        }
+        connected = true;
+        
         try
         {
-            respOutputStream = new WebSocketOutputStream(session, 1024);
+            respOutputStream = new AsyncWebSocketOutputStream(session, 1024, parentService.config.maxWebSocketPendingBytes);
             request.setResponseStream(respOutputStream);
             
             // launch processing in separate thread
-            threadPool.execute(this);
+            future = parentService.getWebSocketExecutor().submit(this);
+        }
+        catch (RejectedExecutionException e)
+        {
+            release();
+            WebSocketUtils.closeSession(session, StatusCode.TRY_AGAIN_LATER, WebSocketUtils.MAX_CONNECTIONS_ERROR, log);
         }
         catch (Exception e)
         {
+            release();
             WebSocketUtils.closeSession(session, StatusCode.SERVER_ERROR, WebSocketUtils.INIT_ERROR, log);
         }
     }
@@ -90,10 +106,26 @@ public class SOSWebSocketOut implements WebSocketListener, Runnable
         if (respOutputStream != null)
             respOutputStream.close();
         
+        // interrupt processing thread if still running
+        Future<?> f = future;
+        if (f != null)
+            f.cancel(true);
+        release();
+        
         session = null;
     }
     
     
+    protected synchronized void release()
+    {
+        if (connected)
+        {
+            parentService.releaseWebSocketSlot();
+            connected = false;
+        }
+    }
+    
+    
     @Override
     public void onWebSocketError(Throwable e)
     {
@@ -147,5 +179,9 @@ public class SOSWebSocketOut implements WebSocketListener, Runnable
                     WebSocketUtils.closeSession(session, StatusCode.SERVER_ERROR, e.getMessage(), log);
             }
         }
+        finally
+        {
+            release();
+        }
     }
 }
@@ -0,0 +1,313 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.service.sos;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataEncoding;
+import org.sensorhub.utils.SWEDataUtils;
+import org.slf4j.Logger;
+import org.vast.cdm.common.DataStreamWriter;
+import org.vast.swe.ScalarIndexer;
+
+
+/**
+ * <p>
+ * Live result stream shared by all clients requesting the same data.<br/>
+ * A single data provider is read by a background task and each record is
+ * encoded only once. The resulting immutable byte buffer is then queued
+ * for every subscriber. The stream is stopped when its last subscriber
+ * leaves or when the provider has no more data.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class SharedResultStream implements Runnable
+{
+    private static final int QUEUE_SIZE = 200;
+    private static final Object END = new Object();
+    
+    final String key;
+    final Map<String, SharedResultStream> registry;
+    final ISOSDataProvider dataProvider;
+    final DataStreamWriter writer;
+    final DataEncoding encoding;
+    final ScalarIndexer timeStampIndexer;
+    final ByteArrayOutputStream buffer;
+    final byte[] header;
+    final List<Subscriber> subscribers = new ArrayList<>();
+    final Logger log;
+    Chunk latest;
+    Future<?> future;
+    volatile boolean closed;
+    long lastQueueErrorTime = Long.MIN_VALUE;
+    
+    
+    static class Chunk
+    {
+        final long time;
+        final byte[] data;
+        
+        Chunk(long time, byte[] data)
+        {
+            this.time = time;
+            this.data = data;
+        }
+    }
+    
+    
+    /**
+     * Handle used by one client to consume the shared stream
+     */
+    public class Subscriber
+    {
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final long stopTime; // in ms since epoch, compared to record sampling time
+        
+        Subscriber(long stopTime)
+        {
+            this.stopTime = stopTime;
+        }
+        
+        /**
+         * @return header bytes to send before the first record
+         */
+        public byte[] getHeader()
+        {
+            return header;
+        }
+        
+        /**
+         * @return encoding used for all records
+         */
+        public DataEncoding getEncoding()
+        {
+            return encoding;
+        }
+        
+        /**
+         * Waits for the next encoded record
+         * @return encoded record or null if the stream has ended or the
+         * subscriber stop time has been reached
+         */
+        public byte[] next()
+        {
+            try
+            {
+                Object item = queue.take();
+                if (item == END)
+                    return null;
+                
+                Chunk chunk = (Chunk)item;
+                if (chunk.time > stopTime)
+                    return null;
+                
+                return chunk.data;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        
+        /**
+         * Unsubscribes from the shared stream
+         */
+        public void close()
+        {
+            removeSubscriber(this);
+        }
+        
+        void offer(Object item)
+        {
+            if (!queue.offer(item))
+            {
+                // make sure end marker is always delivered
+                if (item == END)
+                {
+                    queue.clear();
+                    queue.offer(END);
+                    return;
+                }
+                
+                long now = System.currentTimeMillis();
+                if (now - lastQueueErrorTime > 10000)
+                {
+                    log.warn("Maximum queue size reached while streaming shared result {}. "
+                           + "Some records will be discarded. This is often due to insufficient bandwidth", key);
+                    lastQueueErrorTime = now;
+                }
+            }
+        }
+    }
+    
+    
+    /**
+     * Creates a shared stream reading from the given provider
+     * @param key key identifying the requested data
+     * @param registry map of active shared streams this stream is registered in
+     * @param dataProvider provider of live records
+     * @param writer data writer configured with result structure, encoding and filter
+     * @param encoding encoding of records
+     * @param addWrapper true if stream wrapper must be written in header
+     * @param log logger
+     * @throws IOException if header cannot be encoded
+     */
+    public SharedResultStream(String key, Map<String, SharedResultStream> registry, ISOSDataProvider dataProvider, DataStreamWriter writer, DataEncoding encoding, boolean addWrapper, Logger log) throws IOException
+    {
+        this.key = key;
+        this.registry = registry;
+        this.dataProvider = dataProvider;
+        this.writer = writer;
+        this.encoding = encoding;
+        this.log = log;
+        this.timeStampIndexer = SWEDataUtils.getTimeStampIndexer(dataProvider.getResultStructure());
+        
+        // capture stream header once so it can be sent to each new subscriber
+        this.buffer = new ByteArrayOutputStream(1024);
+        writer.setOutput(buffer);
+        writer.startStream(addWrapper);
+        writer.flush();
+        this.header = buffer.toByteArray();
+        buffer.reset();
+    }
+    
+    
+    /**
+     * Starts reading data from the provider
+     * @param executor executor used to run the read task
+     */
+    public void start(ExecutorService executor)
+    {
+        future = executor.submit(this);
+    }
+    
+    
+    /**
+     * Adds a subscriber to this stream.<br/>
+     * Caller must synchronize on the registry.
+     * @param stopTime sampling time (in ms since epoch) after which records are
+     * no longer sent to this subscriber
+     * @return the new subscriber or null if this stream has already ended
+     */
+    public synchronized Subscriber addSubscriber(long stopTime)
+    {
+        if (closed)
+            return null;
+        
+        Subscriber sub = new Subscriber(stopTime);
+        subscribers.add(sub);
+        
+        // always start with latest record like a dedicated provider would
+        if (latest != null)
+            sub.offer(latest);
+        
+        return sub;
+    }
+    
+    
+    protected void removeSubscriber(Subscriber sub)
+    {
+        synchronized (registry)
+        {
+            synchronized (this)
+            {
+                subscribers.remove(sub);
+                if (subscribers.isEmpty())
+                    close();
+            }
+        }
+    }
+    
+    
+    @Override
+    public void run()
+    {
+        try
+        {
+            DataBlock rec;
+            while (!closed && (rec = dataProvider.getNextResultRecord()) != null)
+            {
+                // encode record only once for all subscribers
+                writer.write(rec);
+                writer.flush();
+                Chunk chunk = new Chunk(getSamplingTime(rec), buffer.toByteArray());
+                buffer.reset();
+                
+                synchronized (this)
+                {
+                    latest = chunk;
+                    for (Subscriber sub: subscribers)
+                        sub.offer(chunk);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            if (!closed)
+                log.error("Error while reading shared result stream " + key, e);
+        }
+        finally
+        {
+            synchronized (registry)
+            {
+                close();
+            }
+        }
+    }
+    
+    
+    /*
+     * Gets record sampling time in ms, or current time if the record
+     * doesn't include a time stamp
+     */
+    protected long getSamplingTime(DataBlock rec)
+    {
+        if (timeStampIndexer != null)
+            return (long)(timeStampIndexer.getDoubleValue(rec) * 1000.);
+        else
+            return System.currentTimeMillis();
+    }
+    
+    
+    /*
+     * Must be called while holding registry lock
+     */
+    protected synchronized void close()
+    {
+        if (closed)
+            return;
+        closed = true;
+        
+        registry.remove(key, this);
+        for (Subscriber sub: subscribers)
+            sub.offer(END);
+        subscribers.clear();
+        
+        if (future != null)
+            future.cancel(true);
+        dataProvider.close();
+    }
+}
@@ -52,13 +52,25 @@ public class StorageDataProvider implements ISOSDataProvider
     
     IBasicStorage storage;
     List<StorageState> dataStoresStates;
-    DataKey lastRecordKey;
+    DataKey lastRecordKey; // key of last record read from storage
+    DataKey resultKey; // key of record used to build last result
     
     // replay stuff 
     double replaySpeedFactor;
     double requestStartTime;
     long requestSystemTime;
     
+    // decimation stuff
+    SOSDataFilter filter;
+    RecordDecimator decimator;
+    double lastRecordTime;
+    DataKey bucketKey; // key of first record in current aggregation bucket
+    
+    // pagination stuff
+    boolean pagePrepared;
+    long pageRemaining; // number of storage records left in page
+    String continuationToken;
+    
     
     class StorageState
     {
@@ -76,31 +88,45 @@ public class StorageDataProvider implements ISOSDataProvider
         this.dataStoresStates = new ArrayList<>();
         this.replaySpeedFactor = filter.getReplaySpeedFactor();
         this.requestSystemTime = System.currentTimeMillis();
+        this.filter = filter;
                         
         // prepare time range filter
-        final double[] timePeriod;
+        double[] requestPeriod;
         if (filter.getTimeRange() != null && !filter.getTimeRange().isNull())
         {
             // special case if requesting latest records
             if (filter.getTimeRange().isBaseAtNow())
             {
-                timePeriod = new double[] {
+                requestPeriod = new double[] {
                     Double.POSITIVE_INFINITY,
                     Double.POSITIVE_INFINITY
                 };
             }
             else
             {
-                timePeriod = new double[] {
+                requestPeriod = new double[] {
                     filter.getTimeRange().getStartTime(),
                     filter.getTimeRange().getStopTime()
                 };
             }
             
-            this.requestStartTime = timePeriod[0];
+            this.requestStartTime = requestPeriod[0];
         }
         else
-            timePeriod = null;
+            requestPeriod = null;
+        
+        // when resuming a paginated request, restart from cursor time stamp
+        // records already sent with the same time stamp are skipped later
+        ResultCursor cursor = filter.getCursor();
+        if (cursor != null)
+        {
+            if (requestPeriod == null)
+                requestPeriod = new double[] {cursor.getTimeStamp(), Double.POSITIVE_INFINITY};
+            else
+                requestPeriod[0] = Math.max(requestPeriod[0], cursor.getTimeStamp());
+        }
+        
+        final double[] timePeriod = requestPeriod;
         
         // loop through all outputs and connect to the ones containing observables we need
         for (Entry<String, ? extends IRecordStoreInfo> dsEntry: storage.getRecordStores().entrySet())
@@ -127,9 +153,14 @@ public class StorageDataProvider implements ISOSDataProvider
                     };
                     
                     // check obs count is not too large
-                    int obsCount = storage.getNumMatchingRecords(storageFilter, filter.getMaxObsCount());
-                    if (obsCount > filter.getMaxObsCount())
-                        throw new SOSException(SOSException.response_too_big_code, null, null, TOO_MANY_OBS_MSG);
+                    // no need to count when paginating since page size is already limited
+                    if (filter.getPageSize() <= 0)
+                    {
+                        if (filter.isDecimated())
+                            checkDecimatedObsCount(storageFilter, filter, timePeriod);
+                        else if (storage.hasMoreMatchingRecords(storageFilter, filter.getMaxObsCount()))
+                            throw new SOSException(SOSException.response_too_big_code, null, null, TOO_MANY_OBS_MSG);
+                    }
                     
                     StorageState state = new StorageState();
                     state.recordStruct = recordInfo.getRecordDescription();
@@ -146,6 +177,29 @@ public class StorageDataProvider implements ISOSDataProvider
     }
     
     
+    /*
+     * Checks number of records sent after decimation is not too large
+     */
+    protected void checkDecimatedObsCount(IObsFilter storageFilter, SOSDataFilter filter, double[] timePeriod) throws SOSException
+    {
+        long maxCount = filter.getMaxObsCount();
+        double timeSpan = timePeriod != null ? timePeriod[1] - timePeriod[0] : Double.POSITIVE_INFINITY;
+        if (Double.isNaN(timeSpan))
+            timeSpan = Double.POSITIVE_INFINITY;
+        
+        // no need to count if time buckets alone are enough to limit the number of records
+        if (RecordDecimator.estimateOutputCount(filter, Long.MAX_VALUE, timeSpan) <= maxCount)
+            return;
+        
+        // otherwise decimated count exceeds max only if raw count exceeds max * factor
+        long rawMaxCount = maxCount * filter.getDecimationFactor();
+        if (rawMaxCount / filter.getDecimationFactor() != maxCount)
+            rawMaxCount = Long.MAX_VALUE;
+        if (storage.hasMoreMatchingRecords(storageFilter, rawMaxCount))
+            throw new SOSException(SOSException.response_too_big_code, null, null, TOO_MANY_OBS_MSG);
+    }
+    
+    
     @Override
     public IObservation getNextObservation() throws IOException
     {
@@ -163,8 +217,8 @@ public class StorageDataProvider implements ISOSDataProvider
         
         // FOI
         String foiID = SWEConstants.NIL_UNKNOWN;
-        if (lastRecordKey instanceof ObsKey)
-            foiID = ((ObsKey)lastRecordKey).foiID;
+        if (resultKey instanceof ObsKey && ((ObsKey)resultKey).foiID != null)
+            foiID = ((ObsKey)resultKey).foiID;
                 
         return SOSProviderUtils.buildObservation(getResultStructure(), foiID, storage.getLatestDataSourceDescription().getUniqueIdentifier());
     }
@@ -172,11 +226,176 @@ public class StorageDataProvider implements ISOSDataProvider
 
     @Override
     public DataBlock getNextResultRecord() throws IOException
+    {
+        if (!filter.isDecimated() || dataStoresStates.isEmpty())
+        {
+            DataBlock rec = readNextRecord();
+            resultKey = lastRecordKey;
+            return rec;
+        }
+        
+        if (decimator == null)
+            decimator = new RecordDecimator(filter, getResultStructure());
+        boolean aggregating = !Double.isNaN(filter.getAggregationPeriod());
+        
+        // decimate or aggregate records as they come out of storage
+        DataBlock rec;
+        while ((rec = readNextRecord()) != null)
+        {
+            rec = decimator.process(rec, lastRecordTime);
+            
+            // an aggregate is output when the first record of the next bucket
+            // is read, so we must remember the key of the bucket's first record
+            if (!aggregating)
+                resultKey = lastRecordKey;
+            else if (rec != null || bucketKey == null)
+            {
+                resultKey = bucketKey;
+                bucketKey = lastRecordKey;
+            }
+            
+            if (rec != null)
+                return rec;
+        }
+        
+        resultKey = bucketKey;
+        bucketKey = null;
+        return decimator.flush();
+    }
+    
+    
+    /**
+     * Gets the token to use for requesting the next page.<br/>
+     * This must be called before the first record is read so the token can
+     * be sent in response headers.
+     * @return continuation token or null if pagination was not requested
+     * or this is the last page
+     * @throws IOException
+     */
+    public String getContinuationToken() throws IOException
+    {
+        if (filter.getPageSize() > 0 && !dataStoresStates.isEmpty())
+            preparePage();
+        return continuationToken;
+    }
+    
+    
+    /*
+     * Scans keys of records in the current page to count the storage records
+     * it contains and generate the cursor of the next page, then rewinds
+     * storage iterators to the start of the page.
+     * When decimating, the page ends just before the record that would start
+     * the first output record of the next page, so that decimation restarts
+     * in the same state on the next page.
+     * This costs at most one page of reads, unlike a full count of matching records.
+     */
+    protected void preparePage() throws IOException
+    {
+        if (pagePrepared)
+            return;
+        pagePrepared = true;
+        
+        ResultCursor cursor = filter.getCursor();
+        long pageSize = filter.getPageSize();
+        RecordDecimator pageDecimator = null;
+        if (filter.isDecimated() && !dataStoresStates.isEmpty())
+            pageDecimator = new RecordDecimator(filter, getResultStructure());
+        
+        long numOutputs = 0;
+        long count = 0;
+        double lastTime = Double.NaN;
+        int numAtLastTime = 0;
+        boolean hasMore = false;
+        
+        skipToCursor();
+        int index;
+        while ((index = selectNextStore()) >= 0)
+        {
+            StorageState state = dataStoresStates.get(index);
+            double time = state.nextRecord.getKey().timeStamp;
+            if (pageDecimator == null || pageDecimator.startsOutput(time))
+            {
+                if (numOutputs == pageSize)
+                {
+                    hasMore = true;
+                    break;
+                }
+                numOutputs++;
+            }
+            
+            fetchNextRecord(state);
+            count++;
+            if (time == lastTime)
+                numAtLastTime++;
+            else
+            {
+                lastTime = time;
+                numAtLastTime = 1;
+            }
+        }
+        
+        // account for records sent in previous pages with the same time stamp
+        if (cursor != null && lastTime == cursor.getTimeStamp() && numAtLastTime == count)
+            numAtLastTime += cursor.getNumSentAtTimeStamp();
+        
+        // generate token only if more records are available
+        if (hasMore)
+            continuationToken = new ResultCursor(lastTime, numAtLastTime).encode();
+        
+        // rewind to start of page
+        for (StorageState state: dataStoresStates)
+        {
+            state.recordIterator = null;
+            state.nextRecord = null;
+        }
+        skipToCursor();
+        pageRemaining = count;
+    }
+    
+    
+    /*
+     * Skips records sent in previous pages that have the same time stamp as the cursor
+     */
+    protected void skipToCursor() throws IOException
+    {
+        ResultCursor cursor = filter.getCursor();
+        if (cursor == null)
+            return;
+        
+        for (int i = 0; i < cursor.getNumSentAtTimeStamp(); i++)
+        {
+            int index = selectNextStore();
+            if (index < 0 || dataStoresStates.get(index).nextRecord.getKey().timeStamp != cursor.getTimeStamp())
+                break;
+            fetchNextRecord(dataStoresStates.get(index));
+        }
+    }
+    
+    
+    protected DataBlock readNextRecord() throws IOException
+    {
+        if (filter.getPageSize() <= 0)
+            return readStorageRecord();
+        
+        // stop at end of page
+        preparePage();
+        if (pageRemaining <= 0)
+            return null;
+        pageRemaining--;
+        
+        return readStorageRecord();
+    }
+    
+    
+    /*
+     * Selects data store with next earliest time stamp
+     * @return index of data store or -1 if no more records are available
+     */
+    protected int selectNextStore()
     {
         double nextStorageTime = Double.POSITIVE_INFINITY;
         int nextStorageIndex = -1;
         
-        // select data store with next earliest time stamp
         for (int i = 0; i < dataStoresStates.size(); i++)
         {
             StorageState state = dataStoresStates.get(i);
@@ -200,20 +419,38 @@ public class StorageDataProvider implements ISOSDataProvider
             }
         }
         
+        return nextStorageIndex;
+    }
+    
+    
+    /*
+     * Moves data store to its next record, without reading the current record data
+     */
+    protected void fetchNextRecord(StorageState state)
+    {
+        if (state.recordIterator.hasNext())
+            state.nextRecord = state.recordIterator.next();
+        else
+            state.nextRecord = null;
+    }
+    
+    
+    protected DataBlock readStorageRecord() throws IOException
+    {
+        int nextStorageIndex = selectNextStore();
         if (nextStorageIndex < 0)
             return null;
         
         // get datablock from selected data store 
         StorageState state = dataStoresStates.get(nextStorageIndex);
+        double nextStorageTime = state.nextRecord.getKey().timeStamp;
         IDataRecord nextRec = state.nextRecord;
         lastRecordKey = nextRec.getKey();
+        lastRecordTime = nextStorageTime;
         DataBlock datablk = nextRec.getData();
                 
         // prefetch next record
-        if (state.recordIterator.hasNext())
-            state.nextRecord = state.recordIterator.next();
-        else
-            state.nextRecord = null;
+        fetchNextRecord(state);
         
         // wait if replay mode is active
         if (!Double.isNaN(replaySpeedFactor))
@@ -73,12 +73,15 @@ public class StreamDataProvider implements ISOSDataProvider, IEventListener
     int nextEventRecordIndex = 0;
     Set<String> requestedFois;
     Map<String, String> currentFoiMap = new LinkedHashMap<>(); // entity ID -> current FOI ID
+    SOSDataFilter filter;
+    RecordDecimator decimator;
     
 
     public StreamDataProvider(IDataProducerModule<?> dataSource, StreamDataProviderConfig config, SOSDataFilter filter) throws OWSException
     {
         this.dataSource = dataSource;
         this.sourceOutputs = new ArrayList<>();
+        this.filter = filter;
         
         // figure out stop time (if any)
         stopTime = ((long) filter.getTimeRange().getStopTime()) * 1000L;
@@ -247,6 +250,28 @@ public class StreamDataProvider implements ISOSDataProvider, IEventListener
 
     @Override
     public DataBlock getNextResultRecord()
+    {
+        if (!filter.isDecimated())
+            return readNextRecord();
+        
+        if (decimator == null)
+            decimator = new RecordDecimator(filter, resultStruct);
+        
+        // decimate or aggregate records as they are received
+        // aggregates are sent when the first record of the next bucket arrives
+        DataBlock rec;
+        while ((rec = readNextRecord()) != null)
+        {
+            rec = decimator.process(rec, lastDataEvent.getTimeStamp() / 1000.);
+            if (rec != null)
+                return rec;
+        }
+        
+        return decimator.flush();
+    }
+    
+    
+    protected DataBlock readNextRecord()
     {
         if (!hasMoreData())
             return null;
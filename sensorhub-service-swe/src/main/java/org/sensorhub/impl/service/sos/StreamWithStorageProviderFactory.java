@@ -132,20 +132,29 @@ public class StreamWithStorageProviderFactory extends StorageDataProviderFactory
         if (caps == null)
             return;
         
-        if (storage.isStarted())
-            super.updateCapabilities();
-        
-        // enable real-time requests if streaming data source is enabled
-        if (producer.isStarted())
+        try
         {
-            // if latest record is not too old, enable real-time
-            long delta = altProvider.getTimeSinceLastRecord();
-            if (delta < liveDataTimeOut)
-                caps.getPhenomenonTime().setEndNow(true);
+            service.capabilitiesLock.writeLock().lock();
             
-            // if storage does support FOIs, list the current ones
-            if (!(storage instanceof IObsStorage))
-                SOSProviderUtils.updateFois(caps, producer, config.maxFois);
+            if (storage.isStarted())
+                super.updateCapabilities();
+            
+            // enable real-time requests if streaming data source is enabled
+            if (producer.isStarted())
+            {
+                // if latest record is not too old, enable real-time
+                long delta = altProvider.getTimeSinceLastRecord();
+                if (delta < liveDataTimeOut)
+                    caps.getPhenomenonTime().setEndNow(true);
+                
+                // if storage does support FOIs, list the current ones
+                if (!(storage instanceof IObsStorage))
+                    SOSProviderUtils.updateFois(caps, producer, config.maxFois);
+            }
+        }
+        finally
+        {
+            service.capabilitiesLock.writeLock().unlock();
         }
     }
     
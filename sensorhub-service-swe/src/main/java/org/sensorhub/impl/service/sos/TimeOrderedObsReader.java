@@ -0,0 +1,311 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.service.sos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import org.vast.ogc.om.IObservation;
+
+
+/**
+ * <p>
+ * Reads observations from the data providers of several offerings and
+ * merges them by phenomenon time.<br/>
+ * When an executor is provided, each provider is read ahead by a background
+ * task into a bounded queue so that storage access overlaps with the
+ * serialization of the response. Without executor, providers are simply
+ * read one after the other, in the order they were added.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class TimeOrderedObsReader
+{
+    private static final Object END = new Object();
+    
+    private final ExecutorService executor;
+    private final int prefetchSize;
+    private final List<Source> sources = new ArrayList<>();
+    private PriorityQueue<Source> mergeQueue;
+    private Source current;
+    private int currentIndex;
+    
+    
+    static class QueuedObs
+    {
+        final IObservation obs;
+        final DataBlock data;
+        
+        QueuedObs(IObservation obs, DataBlock data)
+        {
+            this.obs = obs;
+            this.data = data;
+        }
+    }
+    
+    
+    class Source implements Runnable
+    {
+        final String offering;
+        final ISOSDataProvider provider;
+        BlockingQueue<Object> queue;
+        Future<?> future;
+        volatile boolean closed;
+        boolean taskDone;
+        DataComponent result;
+        QueuedObs next;
+        
+        Source(String offering, ISOSDataProvider provider)
+        {
+            this.offering = offering;
+            this.provider = provider;
+        }
+        
+        void start()
+        {
+            queue = new ArrayBlockingQueue<>(prefetchSize);
+            future = executor.submit(this);
+        }
+        
+        @Override
+        public void run()
+        {
+            try
+            {
+                IObservation obs;
+                while (!closed && (obs = provider.getNextObservation()) != null)
+                {
+                    // result component is reused by providers so we capture
+                    // the data block now and rebind it when the obs is consumed
+                    queue.put(new QueuedObs(obs, obs.getResult().getData()));
+                }
+                
+                if (!closed)
+                    queue.put(END);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            catch (Exception e)
+            {
+                try
+                {
+                    if (!closed)
+                        queue.put(e);
+                }
+                catch (InterruptedException e1)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            finally
+            {
+                // close provider here if reader was closed while we were using it
+                synchronized (this)
+                {
+                    taskDone = true;
+                    if (closed)
+                        provider.close();
+                }
+            }
+        }
+        
+        /*
+         * Loads next obs from prefetch queue, returns false if there is none
+         */
+        boolean fetch() throws IOException
+        {
+            try
+            {
+                Object item = queue.take();
+                if (item == END)
+                {
+                    next = null;
+                    return false;
+                }
+                
+                if (item instanceof Exception)
+                    throw new IOException("Error while reading observations from offering " + offering, (Exception)item);
+                
+                next = (QueuedObs)item;
+                return true;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading observations from offering " + offering, e);
+            }
+        }
+        
+        IObservation consume()
+        {
+            IObservation obs = next.obs;
+            
+            // bind data to our own copy of the result structure since the
+            // provider's one is modified concurrently by the prefetch task
+            if (result == null)
+                result = obs.getResult().copy();
+            result.setData(next.data);
+            obs.setResult(result);
+            
+            return obs;
+        }
+        
+        double getNextTime()
+        {
+            return next.obs.getPhenomenonTime().getStartTime();
+        }
+        
+        void close()
+        {
+            synchronized (this)
+            {
+                if (closed)
+                    return;
+                closed = true;
+                
+                // if prefetch task is still running, let it close the provider
+                // when it exits so it's never closed while a read is in progress
+                if (future == null || taskDone)
+                    provider.close();
+            }
+            
+            // unblock prefetch task if it's waiting for space in the queue
+            if (queue != null)
+                queue.clear();
+        }
+    }
+    
+    
+    /**
+     * @param executor executor used to run prefetch tasks or null to read
+     * providers sequentially
+     * @param prefetchSize max number of observations read ahead for each provider
+     */
+    public TimeOrderedObsReader(ExecutorService executor, int prefetchSize)
+    {
+        this.executor = executor;
+        this.prefetchSize = Math.max(prefetchSize, 1);
+    }
+    
+    
+    /**
+     * Adds a provider to read observations from.<br/>
+     * All providers must be added before the first call to {@link #next()}
+     * @param offering URI of offering the provider is associated to
+     * @param provider data provider
+     */
+    public void addProvider(String offering, ISOSDataProvider provider)
+    {
+        sources.add(new Source(offering, provider));
+    }
+    
+    
+    /**
+     * @return the next observation or null if all providers are exhausted
+     * @throws IOException
+     */
+    public IObservation next() throws IOException
+    {
+        if (executor == null)
+            return nextSequential();
+        else
+            return nextMerged();
+    }
+    
+    
+    protected IObservation nextSequential() throws IOException
+    {
+        while (currentIndex < sources.size())
+        {
+            current = sources.get(currentIndex);
+            IObservation obs = current.provider.getNextObservation();
+            if (obs != null)
+                return obs;
+            currentIndex++;
+        }
+        
+        return null;
+    }
+    
+    
+    protected IObservation nextMerged() throws IOException
+    {
+        if (mergeQueue == null)
+        {
+            // start all prefetch tasks first so they run concurrently
+            for (Source src: sources)
+                src.start();
+            
+            mergeQueue = new PriorityQueue<>(Math.max(sources.size(), 1), new Comparator<Source>() {
+                @Override
+                public int compare(Source s1, Source s2)
+                {
+                    return Double.compare(s1.getNextTime(), s2.getNextTime());
+                }
+            });
+            
+            for (Source src: sources)
+            {
+                if (src.fetch())
+                    mergeQueue.add(src);
+            }
+        }
+        
+        // advance source of last returned obs only now because its result
+        // structure was in use until this call
+        else if (current != null && current.fetch())
+            mergeQueue.add(current);
+        
+        current = mergeQueue.poll();
+        if (current == null)
+            return null;
+        
+        return current.consume();
+    }
+    
+    
+    /**
+     * @return URI of the offering the last observation returned by
+     * {@link #next()} comes from
+     */
+    public String getCurrentOffering()
+    {
+        return current != null ? current.offering : null;
+    }
+    
+    
+    /**
+     * Stops all prefetch tasks and closes all providers.<br/>
+     * A provider that is being read by a prefetch task is closed by the
+     * task itself as soon as the current read completes.
+     */
+    public void close()
+    {
+        for (Source src: sources)
+            src.close();
+    }
+}
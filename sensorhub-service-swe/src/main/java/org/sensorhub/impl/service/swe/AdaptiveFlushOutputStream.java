@@ -0,0 +1,139 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.service.swe;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * <p>
+ * Buffered output stream that only propagates calls to flush() to the
+ * underlying stream when a latency threshold has been reached.<br/>
+ * When the buffer is full, data is written to the underlying stream but the
+ * stream is not flushed, so data is only flushed at record boundaries (i.e.
+ * when the caller calls flush()). This is required for message based streams
+ * such as websockets, where each flush produces a separate message.
+ * Use {@link #forceFlush()} to send all remaining data.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class AdaptiveFlushOutputStream extends OutputStream
+{
+    protected final OutputStream out;
+    protected final byte[] buf;
+    protected final long maxLatency;
+    protected int count;
+    protected long lastFlushTime;
+    
+    
+    /**
+     * @param out underlying output stream
+     * @param bufferSize size of internal buffer
+     * @param maxLatency maximum time between two consecutive flushes, in ms.
+     * If 0, all calls to flush() are propagated to the underlying stream.
+     */
+    public AdaptiveFlushOutputStream(OutputStream out, int bufferSize, long maxLatency)
+    {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("Buffer size must be > 0");
+        
+        this.out = out;
+        this.buf = new byte[bufferSize];
+        this.maxLatency = maxLatency;
+        this.lastFlushTime = System.currentTimeMillis();
+    }
+    
+    
+    @Override
+    public void write(int b) throws IOException
+    {
+        if (count >= buf.length)
+            writeBuffer();
+        buf[count++] = (byte)b;
+    }
+    
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        // write large chunks directly to underlying stream
+        if (len >= buf.length)
+        {
+            writeBuffer();
+            out.write(b, off, len);
+            return;
+        }
+        
+        if (len > buf.length - count)
+            writeBuffer();
+        
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+    
+    
+    /*
+     * Writes buffered data to underlying stream without flushing it
+     */
+    protected void writeBuffer() throws IOException
+    {
+        if (count > 0)
+        {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+    }
+    
+    
+    /**
+     * Sends buffered data only if the max latency has been reached since
+     * the last time data was sent
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if (maxLatency <= 0 || System.currentTimeMillis() - lastFlushTime >= maxLatency)
+            forceFlush();
+    }
+    
+    
+    /**
+     * Sends all buffered data and flushes the underlying stream
+     * @throws IOException
+     */
+    public void forceFlush() throws IOException
+    {
+        writeBuffer();
+        out.flush();
+        lastFlushTime = System.currentTimeMillis();
+    }
+    
+    
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            forceFlush();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.service.swe;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+
+/**
+ * <p>
+ * Adapter output stream for sending data to a websocket asynchronously.<br/>
+ * As with {@link WebSocketOutputStream}, data is sent as one message each time
+ * flush() is called, but the message is handed over to Jetty without waiting
+ * for it to be written to the network. The writer is only paused when the
+ * amount of data queued for sending exceeds the configured limit, so a slow
+ * client doesn't cause unbounded memory usage.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class AsyncWebSocketOutputStream extends ByteArrayOutputStream
+{
+    final Session session;
+    final int maxPendingBytes;
+    int pendingBytes;
+    volatile Throwable writeError;
+    volatile boolean closed;
+    
+    
+    /**
+     * @param session websocket session to send data to
+     * @param bufferSize initial size of the message buffer
+     * @param maxPendingBytes max number of bytes queued for sending before
+     * calls to flush() block
+     */
+    public AsyncWebSocketOutputStream(Session session, int bufferSize, int maxPendingBytes)
+    {
+        super(bufferSize);
+        this.session = session;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+    
+    
+    @Override
+    public void close()
+    {
+        closed = true;
+        synchronized (this)
+        {
+            notifyAll();
+        }
+        
+        if (session.isOpen())
+            session.close();
+    }
+    
+
+    @Override
+    public void flush() throws IOException
+    {
+        if (closed)
+            throw new EOFException();
+        
+        if (writeError != null)
+            throw new IOException("Error while sending data to websocket", writeError);
+        
+        // do nothing if no more bytes have been written since last call
+        if (count == 0)
+            return;
+        
+        // copy message since our buffer is reused right away
+        final int msgSize = count;
+        ByteBuffer msg = ByteBuffer.wrap(toByteArray());
+        this.reset();
+        
+        // wait until enough data has been sent if client is too slow
+        synchronized (this)
+        {
+            try
+            {
+                while (pendingBytes > 0 && pendingBytes + msgSize > maxPendingBytes && !closed && writeError == null)
+                    wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to send data to websocket");
+            }
+            
+            if (closed)
+                throw new EOFException();
+            
+            pendingBytes += msgSize;
+        }
+        
+        session.getRemote().sendBytes(msg, new WriteCallback() {
+            @Override
+            public void writeSuccess()
+            {
+                release(msgSize);
+            }
+
+            @Override
+            public void writeFailed(Throwable e)
+            {
+                writeError = e;
+                release(msgSize);
+            }
+        });
+    }
+    
+    
+    protected synchronized void release(int msgSize)
+    {
+        pendingBytes -= msgSize;
+        notifyAll();
+    }
+    
+    
+    /**
+     * @return number of bytes queued for sending
+     */
+    public synchronized int getPendingBytes()
+    {
+        return pendingBytes;
+    }
+}
@@ -33,6 +33,7 @@ public class WebSocketUtils
     public static final String INPUT_NOT_SUPPORTED = "Incoming data is not supported";
     public static final String TEXT_NOT_SUPPORTED = "Incoming text data is not supported";
     public static final String INIT_ERROR = "Error while initializing websocket connection";
+    public static final String MAX_CONNECTIONS_ERROR = "Maximum number of websocket connections reached";
     
     
     private WebSocketUtils()
@@ -0,0 +1,90 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.service.sos;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.sensorhub.impl.service.sos.CapabilitiesCache;
+
+
+public class TestCapabilitiesCache
+{
+    static final byte[] DOC = new byte[] {1, 2, 3};
+    
+    
+    @Test
+    public void testGetCurrentVersion()
+    {
+        CapabilitiesCache cache = new CapabilitiesCache();
+        long version = cache.getVersion();
+        CapabilitiesCache.Entry entry = cache.put("key1", version, DOC, "text/xml");
+        assertSame(entry, cache.get("key1"));
+        assertNull(cache.get("key2"));
+        
+        // entry is outdated as soon as capabilities change
+        cache.invalidate();
+        assertNull(cache.get("key1"));
+    }
+    
+    
+    @Test
+    public void testOutdatedEntriesRemovedOnPut()
+    {
+        CapabilitiesCache cache = new CapabilitiesCache();
+        cache.put("key1", cache.getVersion(), DOC, "text/xml");
+        cache.put("key2", cache.getVersion(), DOC, "text/xml");
+        assertEquals(2, cache.size());
+        
+        cache.invalidate();
+        CapabilitiesCache.Entry entry = cache.put("key3", cache.getVersion(), DOC, "text/xml");
+        assertEquals(1, cache.size());
+        assertSame(entry, cache.get("key3"));
+    }
+    
+    
+    @Test
+    public void testNumEntriesLimited()
+    {
+        CapabilitiesCache cache = new CapabilitiesCache();
+        long version = cache.getVersion();
+        for (int i = 0; i < 10*CapabilitiesCache.MAX_ENTRIES; i++)
+        {
+            // new entry is always returned even if it's not cached
+            CapabilitiesCache.Entry entry = cache.put("http://host" + i + "/sos", version, DOC, "text/xml");
+            assertNotNull(entry);
+            assertEquals(version, cache.getVersion());
+        }
+        assertEquals(CapabilitiesCache.MAX_ENTRIES, cache.size());
+        
+        // existing entries can still be replaced
+        CapabilitiesCache.Entry entry = cache.put("http://host0/sos", version, DOC, "text/xml");
+        assertSame(entry, cache.get("http://host0/sos"));
+        assertEquals(CapabilitiesCache.MAX_ENTRIES, cache.size());
+    }
+    
+    
+    @Test
+    public void testETagChangesWithVersion()
+    {
+        CapabilitiesCache cache = new CapabilitiesCache();
+        String etag1 = cache.put("key1", cache.getVersion(), DOC, "text/xml").getETag();
+        assertEquals(etag1, cache.put("key1", cache.getVersion(), DOC, "text/xml").getETag());
+        
+        cache.invalidate();
+        String etag2 = cache.put("key1", cache.getVersion(), DOC, "text/xml").getETag();
+        assertNotEquals(etag1, etag2);
+        assertNotEquals(etag2, cache.put("key2", cache.getVersion(), DOC, "text/xml").getETag());
+    }
+}
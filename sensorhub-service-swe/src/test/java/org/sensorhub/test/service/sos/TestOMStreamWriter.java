@@ -0,0 +1,154 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.service.sos;
+
+import static org.junit.Assert.*;
+import java.io.StringWriter;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import net.opengis.swe.v20.DataRecord;
+import net.opengis.swe.v20.Quantity;
+import net.opengis.swe.v20.Time;
+import org.junit.Test;
+import org.sensorhub.impl.service.sos.OMStreamWriter;
+import org.vast.data.DataRecordImpl;
+import org.vast.data.QuantityImpl;
+import org.vast.data.TimeImpl;
+import org.vast.ogc.gml.FeatureRef;
+import org.vast.ogc.om.IObservation;
+import org.vast.ogc.om.ObservationImpl;
+import org.vast.ogc.om.ProcedureRef;
+import org.vast.swe.SWEConstants;
+import org.vast.util.TimeExtent;
+
+
+public class TestOMStreamWriter
+{
+    static final String PROC_URI = "urn:osh:sensor:test";
+    static final String FOI_URI = "urn:osh:foi:test";
+    static final String REC_DEF = "urn:osh:def:weather";
+    static final String TEMP_DEF = "urn:osh:def:temperature";
+    static final String PRESS_DEF = "urn:osh:def:pressure";
+    
+    
+    protected IObservation createObservation(double time, boolean withFoi)
+    {
+        DataRecord rec = new DataRecordImpl();
+        rec.setDefinition(REC_DEF);
+        TimeImpl t = new TimeImpl();
+        t.setDefinition(SWEConstants.DEF_SAMPLING_TIME);
+        t.getUom().setHref(Time.ISO_TIME_UNIT);
+        rec.addComponent("time", t);
+        Quantity temp = new QuantityImpl();
+        temp.setDefinition(TEMP_DEF);
+        temp.getUom().setCode("Cel");
+        rec.addComponent("temp", temp);
+        Quantity press = new QuantityImpl();
+        press.setDefinition(PRESS_DEF);
+        press.getUom().setCode("hPa");
+        rec.addComponent("press", press);
+        
+        rec.assignNewDataBlock();
+        rec.getData().setDoubleValue(0, time);
+        rec.getData().setDoubleValue(1, 21.5);
+        rec.getData().setDoubleValue(2, 1013.0);
+        
+        IObservation obs = new ObservationImpl();
+        obs.setPhenomenonTime(new TimeExtent(time));
+        obs.setResultTime(obs.getPhenomenonTime());
+        obs.setProcedure(new ProcedureRef(PROC_URI));
+        if (withFoi)
+            obs.setFeatureOfInterest(new FeatureRef(FOI_URI));
+        obs.setResult(rec);
+        return obs;
+    }
+    
+    
+    protected String write(OMStreamWriter omWriter, IObservation obs, OMStreamWriter.Template template) throws Exception
+    {
+        StringWriter buf = new StringWriter();
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(buf);
+        writer.writeStartDocument();
+        writer.writeStartElement("sos", "GetObservationResponse", "http://www.opengis.net/sos/2.0");
+        writer.writeNamespace("sos", "http://www.opengis.net/sos/2.0");
+        omWriter.writeNamespaces(writer);
+        omWriter.writeObservation(writer, obs, template);
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+        return buf.toString();
+    }
+    
+    
+    @Test
+    public void testWriteScalarObservation() throws Exception
+    {
+        OMStreamWriter omWriter = new OMStreamWriter();
+        IObservation obs = createObservation(1500000000., true);
+        OMStreamWriter.Template template = omWriter.getTemplate("offering1", TEMP_DEF, obs, false);
+        assertFalse(template.isSkipped());
+        
+        String xml = write(omWriter, obs, template);
+        assertTrue(xml.contains("xlink:href=\"" + IObservation.OBS_TYPE_SCALAR + "\""));
+        assertTrue(xml.contains("xlink:href=\"" + PROC_URI + "\""));
+        assertTrue(xml.contains("xlink:href=\"" + TEMP_DEF + "\""));
+        assertTrue(xml.contains("xlink:href=\"" + FOI_URI + "\""));
+        assertTrue(xml.contains("21.5"));
+        assertFalse("Only selected component must be written", xml.contains("1013"));
+        
+        // template is reused for next observation
+        obs = createObservation(1500000001., true);
+        assertSame(template, omWriter.getTemplate("offering1", TEMP_DEF, obs, false));
+    }
+    
+    
+    @Test
+    public void testWriteRecordObservation() throws Exception
+    {
+        OMStreamWriter omWriter = new OMStreamWriter();
+        IObservation obs = createObservation(1500000000., true);
+        OMStreamWriter.Template template = omWriter.getTemplate("offering1", REC_DEF, obs, false);
+        assertFalse(template.isSkipped());
+        
+        String xml = write(omWriter, obs, template);
+        assertTrue(xml.contains("xlink:href=\"" + IObservation.OBS_TYPE_RECORD + "\""));
+        assertTrue(xml.contains("21.5"));
+        assertTrue(xml.contains("1013"));
+        
+        // record observations are redundant when all observables are requested
+        assertTrue(new OMStreamWriter().getTemplate("offering1", REC_DEF, obs, true).isSkipped());
+    }
+    
+    
+    @Test
+    public void testWriteObservationWithoutFoi() throws Exception
+    {
+        OMStreamWriter omWriter = new OMStreamWriter();
+        IObservation obs = createObservation(1500000000., false);
+        OMStreamWriter.Template template = omWriter.getTemplate("offering1", TEMP_DEF, obs, false);
+        
+        String xml = write(omWriter, obs, template);
+        assertTrue(xml.contains("<om:featureOfInterest xlink:href=\"" + SWEConstants.NIL_UNKNOWN + "\""));
+    }
+    
+    
+    @Test
+    public void testUnknownObservableIsSkipped() throws Exception
+    {
+        OMStreamWriter omWriter = new OMStreamWriter();
+        IObservation obs = createObservation(1500000000., true);
+        assertTrue(omWriter.getTemplate("offering1", "urn:osh:def:unknown", obs, false).isSkipped());
+    }
+}
@@ -20,6 +20,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
@@ -38,6 +39,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
 import org.eclipse.jetty.websocket.api.WebSocketAdapter;
 import org.eclipse.jetty.websocket.client.WebSocketClient;
 import org.junit.After;
@@ -114,6 +117,7 @@ public class TestSOSService
     static final String HTTP_ENDPOINT = "http://localhost:" + SERVER_PORT + "/sensorhub" + SERVICE_PATH;
     static final String WS_ENDPOINT = HTTP_ENDPOINT.replace("http://", "ws://"); 
     static final String GETCAPS_REQUEST = "?service=SOS&version=2.0&request=GetCapabilities";
+    static final int CAPS_REFRESH_PERIOD = 100;
     static final String OFFERING_NODES = "contents/Contents/offering/*";
     static final String TIMERANGE_FUTURE = "now/2080-01-01";
     static final String TIMERANGE_NOW = "now";
@@ -157,6 +161,7 @@ public class TestSOSService
         serviceCfg.name = "SOS";
         serviceCfg.enableTransactional = enableSOST;
         serviceCfg.customFormats.clear();
+        serviceCfg.capabilitiesRefreshPeriod = CAPS_REFRESH_PERIOD;
         CapabilitiesInfo srvcMetadata = serviceCfg.ogcCapabilitiesInfo;
         srvcMetadata.title = "My SOS Service";
         srvcMetadata.description = "An SOS service automatically deployed by SensorHub";
@@ -304,6 +309,16 @@ public class TestSOSService
     }
     
     
+    /*
+     * Sends GetCapabilities request after capabilities had time to be refreshed
+     */
+    protected InputStream sendGetCapabilities() throws Exception
+    {
+        Thread.sleep(2*CAPS_REFRESH_PERIOD);
+        return new URL(HTTP_ENDPOINT + GETCAPS_REQUEST).openStream();
+    }
+    
+    
     protected FakeSensor startSending(SensorDataProviderConfig sosProviderConfig, boolean waitForFirstRecord) throws Exception
     {
         final ReentrantLock lock = new ReentrantLock();
@@ -471,6 +486,36 @@ public class TestSOSService
     }
     
     
+    @Test
+    public void testGetCapabilitiesNotModified() throws Exception
+    {
+        SensorDataProviderConfig provider1 = buildSensorProvider1(false);
+        SensorDataProviderConfig provider2 = buildSensorProvider2();
+        final SOSService sos = deployService(provider2, provider1);
+        
+        HttpURLConnection conn = (HttpURLConnection)new URL(HTTP_ENDPOINT + GETCAPS_REQUEST).openConnection();
+        String etag = conn.getHeaderField("ETag");
+        assertNotNull("Missing ETag", etag);
+        checkOfferings(conn.getInputStream(), new String[] {UID_SENSOR2});
+        
+        // same document should not be sent again
+        conn = (HttpURLConnection)new URL(HTTP_ENDPOINT + GETCAPS_REQUEST).openConnection();
+        conn.setRequestProperty("If-None-Match", etag);
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, conn.getResponseCode());
+        
+        // new offering should change ETag
+        SensorHub.getInstance().getModuleRegistry().startModule(provider1.sensorID);
+        new WaitForCondition(5000L) {
+            public boolean check() { return sos.getCapabilities().getLayers().size() == 2; }
+        };
+        conn = (HttpURLConnection)new URL(HTTP_ENDPOINT + GETCAPS_REQUEST).openConnection();
+        conn.setRequestProperty("If-None-Match", etag);
+        assertEquals(HttpURLConnection.HTTP_OK, conn.getResponseCode());
+        assertNotEquals(etag, conn.getHeaderField("ETag"));
+        checkOfferings(conn.getInputStream(), new String[] {UID_SENSOR2, UID_SENSOR1});
+    }
+    
+    
     @Test
     public void testGetCapabilitiesSoap12() throws Exception
     {
@@ -560,7 +605,7 @@ public class TestSOSService
         Thread.sleep(((long)(provider2.liveDataTimeout*1000)));
         
         // sensor1 is not started, sensor2 is started but not sending data
-        InputStream is = new URL(HTTP_ENDPOINT + GETCAPS_REQUEST).openStream();
+        InputStream is = sendGetCapabilities();
         DOMHelper dom = checkOfferings(is, new String[] {UID_SENSOR2});
         checkOfferingTimeRange(dom, 0, "unknown", "unknown");
         
@@ -569,21 +614,21 @@ public class TestSOSService
         new WaitForCondition(5000L) {
             public boolean check() { return sos.getCapabilities().getLayers().size() == 2; }
         };
-        is = new URL(HTTP_ENDPOINT + GETCAPS_REQUEST).openStream();
+        is = sendGetCapabilities();
         dom = checkOfferings(is, new String[] {UID_SENSOR2, UID_SENSOR1});
         checkOfferingTimeRange(dom, 0, "unknown", "unknown");
         checkOfferingTimeRange(dom, 1, "unknown", "unknown");
         
         // trigger measurements from sensor1, wait for measurements and check capabilities again
         startSending(provider1, true);
-        is = new URL(HTTP_ENDPOINT + GETCAPS_REQUEST).openStream();
+        is = sendGetCapabilities();
         dom = checkOfferings(is, new String[] {UID_SENSOR2, UID_SENSOR1});
         checkOfferingTimeRange(dom, 0, "unknown", "unknown");
         checkOfferingTimeRange(dom, 1, "now", "now");
         
         // trigger measurements from sensor2, wait for measurements and check capabilities again
         FakeSensor sensor2 = startSending(provider2, true);
-        is = new URL(HTTP_ENDPOINT + GETCAPS_REQUEST).openStream();
+        is = sendGetCapabilities();
         dom = checkOfferings(is, new String[] {UID_SENSOR2, UID_SENSOR1});
         checkOfferingTimeRange(dom, 0, "now", "now");
         checkOfferingTimeRange(dom, 1, "now", "now");
@@ -592,7 +637,7 @@ public class TestSOSService
         while (sensor2.getAllOutputs().get(NAME_OUTPUT1).isEnabled())
             Thread.sleep((long)(SAMPLING_PERIOD*1000));
         Thread.sleep((long)(provider2.liveDataTimeout*1000));
-        is = new URL(HTTP_ENDPOINT + GETCAPS_REQUEST).openStream();
+        is = sendGetCapabilities();
         dom = checkOfferings(is, new String[] {UID_SENSOR2, UID_SENSOR1});
         checkOfferingTimeRange(dom, 0, "unknown", "unknown");
         checkOfferingTimeRange(dom, 1, "unknown", "unknown");
@@ -612,7 +657,7 @@ public class TestSOSService
         Thread.sleep(((long)(SAMPLING_PERIOD*1000)));
         
         // sensor1 is not started, sensor2 is started and sending data
-        InputStream is = new URL(HTTP_ENDPOINT + GETCAPS_REQUEST).openStream();
+        InputStream is = sendGetCapabilities();
         DOMHelper dom = checkOfferings(is, new String[] {UID_SENSOR2});
         String currentIsoTime = new DateTimeFormat().formatIso(System.currentTimeMillis()/1000., 0);
         checkOfferingTimeRange(dom, 0, currentIsoTime, "now");
@@ -621,7 +666,7 @@ public class TestSOSService
         SensorHub.getInstance().getModuleRegistry().startModule(provider1.sensorID);
         Thread.sleep(((long)(3*SAMPLING_PERIOD*1000)));
         
-        is = new URL(HTTP_ENDPOINT + GETCAPS_REQUEST).openStream();
+        is = sendGetCapabilities();
         dom = checkOfferings(is, new String[] {UID_SENSOR2, UID_SENSOR1});
         currentIsoTime = new DateTimeFormat().formatIso(System.currentTimeMillis()/1000., 0);
         checkOfferingTimeRange(dom, 0, currentIsoTime, "now");
@@ -643,7 +688,7 @@ public class TestSOSService
         while (sensor1.getAllOutputs().get(NAME_OUTPUT1).isEnabled())
             Thread.sleep((long)(SAMPLING_PERIOD*1000));
         Thread.sleep((long)((SAMPLING_PERIOD+provider1.liveDataTimeout*2)*1000));
-        InputStream is = new URL(HTTP_ENDPOINT + GETCAPS_REQUEST).openStream();
+        InputStream is = sendGetCapabilities();
         DOMHelper dom = checkOfferings(is, new String[] {UID_SENSOR2, UID_SENSOR1});
         String currentIsoTime = new DateTimeFormat().formatIso(System.currentTimeMillis()/1000., 0);
         checkOfferingTimeRange(dom, 0, currentIsoTime, "now");
@@ -689,12 +734,19 @@ public class TestSOSService
     
     
     protected String[] sendGetResult(String offering, String observables, String timeRange, boolean useWebsocket) throws Exception
+    {
+        return sendGetResult(offering, observables, timeRange, useWebsocket, "");
+    }
+    
+    
+    protected String[] sendGetResult(String offering, String observables, String timeRange, boolean useWebsocket, String extraParams) throws Exception
     {
         String url = (useWebsocket ? WS_ENDPOINT : HTTP_ENDPOINT) + 
                 "?service=SOS&version=2.0&request=GetResult" + 
                 "&offering=" + offering +
                 "&observedProperty=" + observables + 
-                "&temporalfilter=time," + timeRange;
+                "&temporalfilter=time," + timeRange +
+                extraParams;
         
         String currentTime = new DateTimeFormat().formatIso(System.currentTimeMillis()/1000., 0);
         
@@ -818,6 +870,32 @@ public class TestSOSService
     }
     
     
+    @Test
+    public void testGetResultRealTimeDecimated() throws Exception
+    {
+        deployService(buildSensorProvider1());
+        
+        String[] records = sendGetResult(URI_OFFERING1, URI_PROP1, TIMERANGE_FUTURE, false, "&decimate=2");
+        checkGetResultResponse(records, (NUM_GEN_SAMPLES+1)/2, 4);
+    }
+    
+    
+    @Test
+    public void testGetResultTemplateBinary() throws Exception
+    {
+        deployService(buildSensorProvider1());
+        
+        String url = HTTP_ENDPOINT + "?service=SOS&version=2.0&request=GetResultTemplate" +
+                "&offering=" + URI_OFFERING1 +
+                "&observedProperty=" + URI_PROP1 +
+                "&responseFormat=" + OWSUtils.BINARY_MIME_TYPE;
+        
+        DOMHelper dom = new DOMHelper(new URL(url).openStream(), false);
+        dom.serialize(dom.getBaseElement(), System.out, true);
+        assertTrue("Missing binary encoding", dom.existElement("resultEncoding/BinaryEncoding"));
+    }
+    
+    
     @Test
     public void testGetResultRealTimeOneObservable() throws Exception
     {
@@ -959,6 +1037,124 @@ public class TestSOSService
     }
     
     
+    /*
+     * Handler recording the status code the websocket was closed with
+     */
+    static class CloseStatusHandler extends WebSocketAdapter
+    {
+        volatile int statusCode = -1;
+        
+        @Override
+        public void onWebSocketClose(int statusCode, String reason)
+        {
+            this.statusCode = statusCode;
+        }
+        
+        boolean waitForClose() throws InterruptedException
+        {
+            long t0 = System.currentTimeMillis();
+            while (statusCode < 0 && System.currentTimeMillis() - t0 < TIMEOUT)
+                Thread.sleep(50);
+            return statusCode >= 0;
+        }
+    }
+    
+    
+    protected void checkNumWebSockets(final SOSService sos, final int expectedCount)
+    {
+        new WaitForCondition(5000L) {
+            public boolean check() { return sos.getNumWebSocketConnections() == expectedCount; }
+        };
+        
+        assertEquals("Wrong number of open websockets", expectedCount, sos.getNumWebSocketConnections());
+    }
+    
+    
+    @Test
+    public void testWebSocketSlotReleasedOnCompletion() throws Exception
+    {
+        SOSService sos = deployService(buildSensorProvider1());
+        
+        String[] records = sendGetResult(URI_OFFERING1, URI_PROP1, TIMERANGE_FUTURE, true);
+        checkGetResultResponse(records, NUM_GEN_SAMPLES, 4);
+        checkNumWebSockets(sos, 0);
+    }
+    
+    
+    @Test
+    public void testWebSocketSlotReleasedOnFailure() throws Exception
+    {
+        SOSService sos = deployService(buildSensorProvider1());
+        
+        WebSocketClient client = new WebSocketClient();
+        client.start();
+        try
+        {
+            CloseStatusHandler handler = new CloseStatusHandler();
+            client.connect(handler, new URI(WS_ENDPOINT + "?service=SOS&version=2.0&request=GetResult" +
+                "&offering=" + URI_OFFERING1 + "&observedProperty=urn:blabla:wrong"));
+            
+            assertTrue("Websocket was not closed", handler.waitForClose());
+            assertNotEquals(StatusCode.NORMAL, handler.statusCode);
+            checkNumWebSockets(sos, 0);
+        }
+        finally
+        {
+            client.stop();
+        }
+    }
+    
+    
+    @Test
+    public void testWebSocketCancelledOnClientClose() throws Exception
+    {
+        SOSService sos = deployService(buildSensorProvider1(false));
+        sos.getConfiguration().maxWebSocketConnections = 1;
+        
+        // sensor doesn't produce data yet so requests block
+        FakeSensor sensor1 = getSensorModule(0);
+        sensor1.setStartedState();
+        
+        String url = WS_ENDPOINT + "?service=SOS&version=2.0&request=GetResult" +
+                "&offering=" + URI_OFFERING1 +
+                "&observedProperty=" + URI_PROP1 +
+                "&temporalfilter=time," + TIMERANGE_FUTURE;
+        
+        WebSocketClient client = new WebSocketClient();
+        client.start();
+        try
+        {
+            // first connection uses the only slot
+            Session session1 = client.connect(new CloseStatusHandler(), new URI(url)).get(TIMEOUT, TimeUnit.MILLISECONDS);
+            checkNumWebSockets(sos, 1);
+            
+            // second one is rejected
+            CloseStatusHandler handler2 = new CloseStatusHandler();
+            client.connect(handler2, new URI(url));
+            assertTrue("Websocket was not closed", handler2.waitForClose());
+            assertEquals(StatusCode.TRY_AGAIN_LATER, handler2.statusCode);
+            checkNumWebSockets(sos, 1);
+            
+            // closing first connection cancels its request and frees the slot
+            session1.close();
+            checkNumWebSockets(sos, 0);
+            
+            // so a new connection can be served
+            CloseStatusHandler handler3 = new CloseStatusHandler();
+            client.connect(handler3, new URI(url));
+            checkNumWebSockets(sos, 1);
+            sensor1.start();
+            assertTrue("Websocket was not closed", handler3.waitForClose());
+            assertEquals(StatusCode.NORMAL, handler3.statusCode);
+            checkNumWebSockets(sos, 0);
+        }
+        finally
+        {
+            client.stop();
+        }
+    }
+    
+    
     @Test
     public void testGetObsOneOfferingStartNow() throws Exception
     {
@@ -15,16 +15,31 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 package org.sensorhub.test.service.sos;
 
 import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.opengis.swe.v20.DataBlock;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.sensorhub.api.client.ClientException;
+import org.sensorhub.api.common.Event;
+import org.sensorhub.api.common.IEventListener;
 import org.sensorhub.api.common.SensorHubException;
+import org.sensorhub.api.data.DataEvent;
 import org.sensorhub.api.module.ModuleEvent.ModuleState;
 import org.sensorhub.api.sensor.ISensorModule;
 import org.sensorhub.api.sensor.SensorConfig;
+import org.sensorhub.impl.SensorHub;
 import org.sensorhub.impl.client.sost.SOSTClient;
 import org.sensorhub.impl.client.sost.SOSTClientConfig;
 import org.sensorhub.impl.security.ClientAuth;
@@ -50,6 +65,12 @@ public class TestSOSTClient
     TestSOSService sosTest;
     Exception asyncError;
     int recordCounter = 0;
+    boolean useAsyncClient = false;
+    int maxRecordsPerRequest = 100;
+    int maxBatchDelay = 100;
+    int maxRequestsInFlight = 4;
+    String sosEndpointUrl = TestSOSService.HTTP_ENDPOINT;
+    File spoolDir;
     
     
     @Before
@@ -85,7 +106,7 @@ public class TestSOSTClient
     
     protected SOSTClient startClient(String sensorID, boolean async, boolean persistent, int maxAttempts) throws Exception
     {
-        URL sosUrl = new URL(TestSOSService.HTTP_ENDPOINT);
+        URL sosUrl = new URL(sosEndpointUrl);
         
         SOSTClientConfig config = new SOSTClientConfig();
         config.id = "SOST";
@@ -100,6 +121,12 @@ public class TestSOSTClient
         config.connection.checkReachability = false;
         config.connection.usePersistentConnection = persistent;
         config.connection.maxConnectErrors = 2;
+        config.connection.useAsyncClient = useAsyncClient;
+        config.connection.maxRecordsPerRequest = maxRecordsPerRequest;
+        config.connection.maxBatchDelay = maxBatchDelay;
+        config.connection.maxRequestsInFlight = maxRequestsInFlight;
+        if (spoolDir != null)
+            config.connection.spoolDir = spoolDir.getAbsolutePath();
         
         final SOSTClient client = new SOSTClient();
         client.setConfiguration(config);
@@ -273,6 +300,148 @@ public class TestSOSTClient
     }
     
     
+    @Test
+    public void testInsertResultAsyncClient() throws Exception
+    {
+        // start service with SOS-T support
+        SOSService sos = sosTest.deployService(true, new SOSProviderConfig[0]);
+        
+        // start client in non-blocking mode
+        ISensorModule<?> sensor = buildSensor1(NUM_GEN_SAMPLES);
+        useAsyncClient = true;
+        SOSTClient client = startClient(sensor.getLocalID(), false, false, 1);
+        
+        // reduce liveDataTimeout of new provider
+        SensorDataProviderConfig provider = (SensorDataProviderConfig)sos.getConfiguration().dataProviders.get(0);
+        provider.liveDataTimeout = 1.0;
+        
+        // send getResult request
+        Future<String[]> f = sosTest.sendGetResultAsync(SENSOR_UID + "-sos", 
+                TestSOSService.URI_PROP1, TestSOSService.TIMERANGE_FUTURE, false);
+        
+        // start sensor
+        sensor.start();
+        
+        sosTest.checkGetResultResponse(f.get(), NUM_GEN_SAMPLES, 4);
+        client.stop();
+    }
+    
+    
+    /*
+     * Servlet forwarding requests to the SOS, that can be set to reject
+     * InsertResult requests after a delay to simulate a failing server
+     */
+    static class FailingProxyServlet extends HttpServlet
+    {
+        private static final long serialVersionUID = 1L;
+        final AtomicBoolean failInsertResult = new AtomicBoolean();
+        
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+        {
+            String query = req.getQueryString();
+            if (failInsertResult.get() && query != null && query.contains("InsertResult"))
+            {
+                try
+                {
+                    // delay response so new records are buffered meanwhile
+                    Thread.sleep(500);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                
+                resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            
+            getServletContext().getRequestDispatcher(TestSOSService.SERVICE_PATH).forward(req, resp);
+        }
+    }
+    
+    
+    @Test
+    public void testInsertResultAsyncClientSpoolOrder() throws Exception
+    {
+        // start service with SOS-T support and proxy used to simulate errors
+        sosTest.deployService(true, new SOSProviderConfig[0]);
+        FailingProxyServlet proxy = new FailingProxyServlet();
+        HttpServer.getInstance().deployServlet(proxy, "/sosproxy");
+        spoolDir = Files.createTempDirectory("spool").toFile();
+        
+        try
+        {
+            // start client in non-blocking mode with batches of several records
+            final int numSamples = 30;
+            ISensorModule<?> sensor = buildSensor1(numSamples);
+            useAsyncClient = true;
+            maxRecordsPerRequest = 4;
+            maxBatchDelay = 2000;
+            
+            // with several requests in flight, a later request could reach the
+            // proxy after errors stop and be inserted before the delayed rejection
+            maxRequestsInFlight = 1;
+            sosEndpointUrl = TestSOSService.HTTP_ENDPOINT.replace(TestSOSService.SERVICE_PATH, "/sosproxy");
+            SOSTClient client = startClient(sensor.getLocalID(), false, false, 1);
+            
+            // collect records received by virtual sensor
+            final List<Double> receivedTimes = new ArrayList<>();
+            IEventListener listener = new IEventListener() {
+                @Override
+                public void handleEvent(Event<?> e)
+                {
+                    if (e instanceof DataEvent)
+                    {
+                        synchronized (receivedTimes)
+                        {
+                            for (DataBlock rec: ((DataEvent)e).getRecords())
+                                receivedTimes.add(rec.getDoubleValue(0));
+                            receivedTimes.notifyAll();
+                        }
+                    }
+                }
+            };
+            ISensorModule<?> virtualSensor = (ISensorModule<?>)SensorHub.getInstance().getModuleRegistry().getLoadedModuleById(SENSOR_UID);
+            virtualSensor.getAllOutputs().get(TestSOSService.NAME_OUTPUT1).registerListener(listener);
+            
+            // start sensor and fail requests for a while once a few records are received
+            sensor.start();
+            waitForRecords(receivedTimes, 6);
+            proxy.failInsertResult.set(true);
+            Thread.sleep(1500);
+            proxy.failInsertResult.set(false);
+            
+            // check all records were received once and in order
+            waitForRecords(receivedTimes, numSamples);
+            client.stop();
+            virtualSensor.getAllOutputs().get(TestSOSService.NAME_OUTPUT1).unregisterListener(listener);
+            
+            assertEquals("Wrong number of records", numSamples, receivedTimes.size());
+            for (int i = 1; i < receivedTimes.size(); i++)
+                assertTrue("Records received out of order", receivedTimes.get(i) > receivedTimes.get(i-1));
+        }
+        finally
+        {
+            HttpServer.getInstance().undeployServlet(proxy);
+            for (File f: spoolDir.listFiles())
+                f.delete();
+            spoolDir.delete();
+        }
+    }
+    
+    
+    protected void waitForRecords(List<Double> receivedTimes, int numRecords) throws InterruptedException
+    {
+        long maxWait = System.currentTimeMillis() + 3*TIMEOUT;
+        synchronized (receivedTimes)
+        {
+            while (receivedTimes.size() < numRecords && System.currentTimeMillis() < maxWait)
+                receivedTimes.wait(100);
+        }
+    }
+    
+    
     @Test
     public void testInsertResultReconnect() throws Exception
     {
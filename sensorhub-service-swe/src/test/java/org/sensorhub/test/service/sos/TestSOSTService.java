@@ -14,13 +14,22 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 
 package org.sensorhub.test.service.sos;
 
-import static org.junit.Assert.*;
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Future;
-import net.opengis.sensorml.v20.PhysicalSystem;
+import net.opengis.sensorml.v20.PhysicalSystem;
+import net.opengis.swe.v20.BinaryEncoding;
+import net.opengis.swe.v20.ByteEncoding;
+import net.opengis.swe.v20.ByteOrder;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataType;
 import net.opengis.swe.v20.DataRecord;
 import net.opengis.swe.v20.DataStream;
 import net.opengis.swe.v20.Quantity;
@@ -33,12 +42,19 @@ import org.eclipse.jetty.websocket.client.WebSocketClient;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.sensorhub.api.common.Event;
+import org.sensorhub.api.common.IEventListener;
+import org.sensorhub.api.data.DataEvent;
 import org.sensorhub.api.persistence.StorageConfig;
+import org.sensorhub.api.sensor.ISensorModule;
+import org.sensorhub.impl.SensorHub;
 import org.sensorhub.impl.persistence.InMemoryBasicStorage;
 import org.sensorhub.impl.persistence.InMemoryStorageConfig;
 import org.sensorhub.impl.service.sos.SOSProviderConfig;
 import org.sensorhub.impl.service.sos.SOSService;
-import org.sensorhub.impl.service.sos.SensorDataProviderConfig;
+import org.sensorhub.impl.service.sos.SensorDataProviderConfig;
+import org.vast.cdm.common.DataStreamWriter;
+import org.vast.data.BinaryComponentImpl;
 import org.vast.data.DataList;
 import org.vast.data.DataRecordImpl;
 import org.vast.data.QuantityImpl;
@@ -64,6 +80,7 @@ import org.vast.ows.sos.SOSServiceCapabilities;
 import org.vast.ows.sos.SOSUtils;
 import org.vast.sensorML.PhysicalSystemImpl;
 import org.vast.swe.SWEConstants;
+import org.vast.swe.SWEHelper;
 import org.vast.util.DateTimeFormat;
 import org.vast.util.TimeExtent;
 
@@ -335,6 +352,122 @@ public class TestSOSTService
     
     @Test
     public void testInsertResultWebsocket() throws Exception
+    {
+        insertResultWebsocket(false);
+    }
+    
+    
+    @Test
+    public void testInsertResultWebsocketMultiRecords() throws Exception
+    {
+        insertResultWebsocket(true);
+    }
+    
+    
+    @Test
+    public void testInsertResultWebsocketBinaryMultiRecords() throws Exception
+    {
+        deployService(new SensorDataProviderConfig[0]);
+        OWSUtils utils = new OWSUtils();
+        
+        // first register sensor
+        InsertSensorRequest insertSensorReq = buildInsertSensor();
+        InsertSensorResponse insertSensorResp = (InsertSensorResponse)utils.sendRequest(insertSensorReq, false);
+        
+        // send insert template with binary encoding
+        DataStream output = (DataStream)insertSensorReq.getProcedureDescription().getOutputList().get(1);
+        BinaryEncoding binaryEnc = new SWEHelper().newBinaryEncoding(ByteOrder.BIG_ENDIAN, ByteEncoding.RAW);
+        binaryEnc.addMemberAsComponent(new BinaryComponentImpl("time", DataType.DOUBLE));
+        binaryEnc.addMemberAsComponent(new BinaryComponentImpl("pos/lat", DataType.DOUBLE));
+        binaryEnc.addMemberAsComponent(new BinaryComponentImpl("pos/lon", DataType.DOUBLE));
+        binaryEnc.addMemberAsComponent(new BinaryComponentImpl("pos/alt", DataType.DOUBLE));
+        output.setEncoding(binaryEnc);
+        InsertResultTemplateResponse insertTemplateResp = (InsertResultTemplateResponse)utils.sendRequest(buildInsertResultTemplate(output, insertSensorResp), false);
+        
+        // collect records received by virtual sensor
+        final List<DataBlock> receivedRecords = new ArrayList<>();
+        IEventListener listener = new IEventListener() {
+            @Override
+            public void handleEvent(Event<?> e)
+            {
+                if (e instanceof DataEvent)
+                {
+                    synchronized (receivedRecords)
+                    {
+                        for (DataBlock rec: ((DataEvent)e).getRecords())
+                            receivedRecords.add(rec);
+                        receivedRecords.notifyAll();
+                    }
+                }
+            }
+        };
+        ISensorModule<?> sensor = (ISensorModule<?>)SensorHub.getInstance().getModuleRegistry().getLoadedModuleById(SENSOR_UID);
+        sensor.getAllOutputs().get("posOut").registerListener(listener);
+        
+        // connect websocket
+        InsertResultRequest insertResultReq = buildInsertResult(insertTemplateResp);
+        String url = utils.buildURLQuery(insertResultReq).replace("http://", "ws://");
+        WebSocketClient wsClient = new WebSocketClient();
+        wsClient.start();
+        WebSocketAdapter socket = new WebSocketAdapter() {
+            public void onWebSocketError(Throwable e)
+            {
+                error = e;
+            }
+        };
+        Session session = wsClient.connect(socket, new URI(url)).get();
+        assertTrue("Websocket client could not connect", socket.isConnected());
+        
+        // write all records in a single binary frame
+        DataComponent recordStruct = output.getElementType().copy();
+        DataStreamWriter writer = SWEHelper.createDataWriter(binaryEnc);
+        writer.setDataComponents(recordStruct);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        writer.setOutput(frame);
+        double t0 = new DateTimeFormat().parseIso("2010-01-01T00:00:00Z");
+        for (int i=0; i<NUM_GEN_SAMPLES; i++)
+        {
+            DataBlock rec = recordStruct.createDataBlock();
+            rec.setDoubleValue(0, t0 + i);
+            rec.setDoubleValue(1, 40.0+i/10.);
+            rec.setDoubleValue(2, -90.0-i/10.);
+            rec.setDoubleValue(3, 0.0);
+            writer.write(rec);
+        }
+        writer.flush();
+        session.getRemote().sendBytes(ByteBuffer.wrap(frame.toByteArray()));
+        
+        // check all records were received in order
+        long maxWait = System.currentTimeMillis() + 5000;
+        synchronized (receivedRecords)
+        {
+            while (receivedRecords.size() < NUM_GEN_SAMPLES && System.currentTimeMillis() < maxWait)
+                receivedRecords.wait(100);
+        }
+        
+        if (error != null)
+        {
+            error.printStackTrace();
+            fail("Error while sending records using websocket");
+        }
+        
+        assertTrue("Websocket was closed by server", socket.isConnected());
+        assertEquals("Wrong number of records", NUM_GEN_SAMPLES, receivedRecords.size());
+        for (int i=0; i<NUM_GEN_SAMPLES; i++)
+        {
+            DataBlock rec = receivedRecords.get(i);
+            assertEquals(t0 + i, rec.getDoubleValue(0), 1e-6);
+            assertEquals(40.0+i/10., rec.getDoubleValue(1), 1e-9);
+            assertEquals(-90.0-i/10., rec.getDoubleValue(2), 1e-9);
+        }
+        
+        session.close();
+        wsClient.stop();
+        sensor.getAllOutputs().get("posOut").unregisterListener(listener);
+    }
+    
+    
+    protected void insertResultWebsocket(boolean singleFrame) throws Exception
     {
         SOSService sos = deployService(new SensorDataProviderConfig[0]);
         OWSUtils utils = new OWSUtils();
@@ -384,13 +517,20 @@ public class TestSOSTService
         // send data using websocket
         DateTimeFormat timeFormat = new DateTimeFormat();
         double t0 = timeFormat.parseIso("2010-01-01T00:00:00Z");
+        StringBuilder frame = new StringBuilder();
         for (int i=0; i<NUM_GEN_SAMPLES; i++)
         {
             String isoTime = timeFormat.formatIso(t0 + i, 0);
-            byte[] data = new String(isoTime + "," + (40.0+i/10.) + "," + (-90.0-i/10.) + ",0.0\n").getBytes();
-            ByteBuffer buf = ByteBuffer.wrap(data);
-            session.getRemote().sendBytes(buf);
-            Thread.sleep(300);
+            frame.append(isoTime + "," + (40.0+i/10.) + "," + (-90.0-i/10.) + ",0.0\n");
+            
+            // send each record in its own frame or all records at once
+            if (!singleFrame || i == NUM_GEN_SAMPLES-1)
+            {
+                ByteBuffer buf = ByteBuffer.wrap(frame.toString().getBytes());
+                session.getRemote().sendBytes(buf);
+                frame.setLength(0);
+                Thread.sleep(300);
+            }
         }
         
         // check no errors occured during transfer
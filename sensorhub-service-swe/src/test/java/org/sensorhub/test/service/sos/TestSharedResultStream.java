@@ -0,0 +1,259 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.service.sos;
+
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import net.opengis.swe.v20.DataRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.service.sos.ISOSDataProvider;
+import org.sensorhub.impl.service.sos.SharedResultStream;
+import org.slf4j.LoggerFactory;
+import org.vast.cdm.common.DataStreamWriter;
+import org.vast.data.TextEncodingImpl;
+import org.vast.ogc.om.IObservation;
+import org.vast.swe.SWEConstants;
+import org.vast.swe.SWEHelper;
+
+
+public class TestSharedResultStream
+{
+    static final String KEY = "offering|obs|foi|text|false";
+    static final double START_TIME = 946684800.0; // 2000-01-01T00:00:00Z
+    
+    ExecutorService executor;
+    Map<String, SharedResultStream> registry;
+    LiveProvider provider;
+    
+    
+    /*
+     * Provider returning records as they are pushed by the test
+     */
+    static class LiveProvider implements ISOSDataProvider
+    {
+        final BlockingQueue<DataBlock[]> queue = new LinkedBlockingQueue<>();
+        final DataRecord recordStruct;
+        final DataEncoding encoding = new TextEncodingImpl(",", "\n");
+        volatile boolean closed;
+        
+        LiveProvider()
+        {
+            SWEHelper fac = new SWEHelper();
+            recordStruct = fac.newDataRecord();
+            recordStruct.addComponent("time", fac.newTimeIsoUTC(SWEConstants.DEF_SAMPLING_TIME, null, null));
+            recordStruct.addComponent("temp", fac.newQuantity("urn:test:temp", "Temperature", null, "Cel"));
+        }
+        
+        void push(double time, double temp)
+        {
+            DataBlock data = recordStruct.createDataBlock();
+            data.setDoubleValue(0, time);
+            data.setDoubleValue(1, temp);
+            queue.add(new DataBlock[] {data});
+        }
+        
+        void end()
+        {
+            queue.add(new DataBlock[] {null});
+        }
+        
+        @Override
+        public IObservation getNextObservation() throws IOException
+        {
+            return null;
+        }
+
+        @Override
+        public DataBlock getNextResultRecord() throws IOException
+        {
+            try
+            {
+                return queue.take()[0];
+            }
+            catch (InterruptedException e)
+            {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public DataComponent getResultStructure() throws IOException
+        {
+            return recordStruct;
+        }
+
+        @Override
+        public DataEncoding getDefaultResultEncoding() throws IOException
+        {
+            return encoding;
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+    }
+    
+    
+    @Before
+    public void setup()
+    {
+        executor = Executors.newCachedThreadPool();
+        registry = new HashMap<>();
+        provider = new LiveProvider();
+    }
+    
+    
+    protected SharedResultStream startStream() throws IOException
+    {
+        DataStreamWriter writer = SWEHelper.createDataWriter(provider.encoding);
+        writer.setDataComponents(provider.recordStruct);
+        SharedResultStream stream = new SharedResultStream(KEY, registry, provider, writer, provider.encoding, false, LoggerFactory.getLogger(getClass()));
+        registry.put(KEY, stream);
+        stream.start(executor);
+        return stream;
+    }
+    
+    
+    protected long toMillis(double time)
+    {
+        return (long)(time * 1000.);
+    }
+    
+    
+    @Test
+    public void testRecordsEncodedOnceForAllSubscribers() throws Exception
+    {
+        SharedResultStream stream = startStream();
+        SharedResultStream.Subscriber sub1 = stream.addSubscriber(Long.MAX_VALUE);
+        SharedResultStream.Subscriber sub2 = stream.addSubscriber(Long.MAX_VALUE);
+        assertSame(sub1.getHeader(), sub2.getHeader());
+        assertSame(provider.encoding, sub1.getEncoding());
+        
+        int numRecords = 5;
+        for (int i = 0; i < numRecords; i++)
+            provider.push(START_TIME + i, 20.0 + i);
+        provider.end();
+        
+        for (int i = 0; i < numRecords; i++)
+        {
+            byte[] rec1 = sub1.next();
+            byte[] rec2 = sub2.next();
+            assertNotNull(rec1);
+            assertSame("Record should be encoded only once", rec1, rec2);
+            assertTrue(new String(rec1).contains("2000-01-01T00:00:0" + i));
+        }
+        
+        // end of provider data ends all subscriptions
+        assertNull(sub1.next());
+        assertNull(sub2.next());
+        assertTrue(provider.closed);
+        assertFalse(registry.containsKey(KEY));
+        assertNull(stream.addSubscriber(Long.MAX_VALUE));
+    }
+    
+    
+    @Test
+    public void testNewSubscriberGetsLatestRecord() throws Exception
+    {
+        SharedResultStream stream = startStream();
+        SharedResultStream.Subscriber sub1 = stream.addSubscriber(Long.MAX_VALUE);
+        
+        provider.push(START_TIME, 20.0);
+        provider.push(START_TIME + 1, 21.0);
+        sub1.next();
+        byte[] latest = sub1.next();
+        
+        SharedResultStream.Subscriber sub2 = stream.addSubscriber(Long.MAX_VALUE);
+        assertSame(latest, sub2.next());
+        
+        provider.push(START_TIME + 2, 22.0);
+        assertSame(sub1.next(), sub2.next());
+        
+        sub1.close();
+        sub2.close();
+    }
+    
+    
+    @Test
+    public void testUnsubscribe() throws Exception
+    {
+        SharedResultStream stream = startStream();
+        SharedResultStream.Subscriber sub1 = stream.addSubscriber(Long.MAX_VALUE);
+        SharedResultStream.Subscriber sub2 = stream.addSubscriber(Long.MAX_VALUE);
+        
+        // stream keeps running while some subscribers remain
+        sub1.close();
+        assertFalse(provider.closed);
+        assertSame(stream, registry.get(KEY));
+        provider.push(START_TIME, 20.0);
+        assertNotNull(sub2.next());
+        
+        // last subscriber leaving stops the stream
+        sub2.close();
+        assertTrue(provider.closed);
+        assertFalse(registry.containsKey(KEY));
+        assertNull(stream.addSubscriber(Long.MAX_VALUE));
+    }
+    
+    
+    @Test
+    public void testStopTimeUsesSamplingTime() throws Exception
+    {
+        SharedResultStream stream = startStream();
+        
+        // stop times are in the past so they would be reached immediately if
+        // they were compared to the time at which records are received
+        SharedResultStream.Subscriber sub1 = stream.addSubscriber(toMillis(START_TIME + 2));
+        SharedResultStream.Subscriber sub2 = stream.addSubscriber(Long.MAX_VALUE);
+        
+        for (int i = 0; i < 5; i++)
+            provider.push(START_TIME + i, 20.0 + i);
+        
+        // 1st subscriber only gets records sampled before its stop time
+        assertNotNull(sub1.next());
+        assertNotNull(sub1.next());
+        assertNotNull(sub1.next());
+        assertNull(sub1.next());
+        sub1.close();
+        
+        // other subscriber still gets all records
+        for (int i = 0; i < 5; i++)
+            assertNotNull(sub2.next());
+        assertFalse(provider.closed);
+        
+        sub2.close();
+        assertTrue(provider.closed);
+    }
+    
+    
+    @After
+    public void cleanup()
+    {
+        executor.shutdownNow();
+    }
+}
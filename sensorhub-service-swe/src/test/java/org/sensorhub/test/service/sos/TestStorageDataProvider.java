@@ -0,0 +1,541 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.service.sos;
+
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import net.opengis.sensorml.v20.PhysicalSystem;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataRecord;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.api.persistence.DataKey;
+import org.sensorhub.api.persistence.IDataFilter;
+import org.sensorhub.api.persistence.IDataRecord;
+import org.sensorhub.api.persistence.IObsFilter;
+import org.sensorhub.api.persistence.ObsKey;
+import org.sensorhub.impl.persistence.InMemoryBasicStorage;
+import org.sensorhub.impl.service.sos.ResultCursor;
+import org.sensorhub.impl.service.sos.RecordDecimator.AggregateFunction;
+import org.sensorhub.impl.service.sos.SOSDataFilter;
+import org.sensorhub.impl.service.sos.StorageDataProvider;
+import org.sensorhub.impl.service.sos.StorageDataProviderConfig;
+import org.vast.data.TextEncodingImpl;
+import org.vast.ogc.gml.FeatureRef;
+import org.vast.ogc.om.IObservation;
+import org.vast.ogc.om.ProcedureRef;
+import org.vast.ows.sos.SOSException;
+import org.vast.sensorML.PhysicalSystemImpl;
+import org.vast.swe.SWEConstants;
+import org.vast.swe.SWEHelper;
+import org.vast.util.TimeExtent;
+
+
+public class TestStorageDataProvider
+{
+    static final String RECORD_TYPE = "weather";
+    static final String URI_TEMP = "urn:test:temp";
+    static final String SENSOR_UID = "urn:test:sensor";
+    static final double START_TIME = 1000.0;
+    
+    ListStorage storage;
+    
+    
+    /*
+     * In-memory storage that keeps records in a time ordered list
+     * so several records can have the same time stamp
+     */
+    static class ListStorage extends InMemoryBasicStorage
+    {
+        final List<IDataRecord> records = new ArrayList<>();
+        
+        @Override
+        public void storeRecord(final DataKey key, final DataBlock data)
+        {
+            int i = records.size();
+            while (i > 0 && records.get(i-1).getKey().timeStamp > key.timeStamp)
+                i--;
+            
+            records.add(i, new IDataRecord() {
+                @Override
+                public DataKey getKey()
+                {
+                    return key;
+                }
+
+                @Override
+                public DataBlock getData()
+                {
+                    return data;
+                }
+            });
+        }
+        
+        @Override
+        public Iterator<? extends IDataRecord> getRecordIterator(IDataFilter filter)
+        {
+            List<IDataRecord> selected = new ArrayList<>();
+            for (IDataRecord rec: records)
+            {
+                if (matches(rec.getKey(), filter))
+                    selected.add(rec);
+            }
+            return selected.iterator();
+        }
+        
+        @Override
+        public int getNumMatchingRecords(IDataFilter filter, long maxCount)
+        {
+            int count = 0;
+            for (IDataRecord rec: records)
+            {
+                if (matches(rec.getKey(), filter) && ++count >= maxCount)
+                    break;
+            }
+            return count;
+        }
+        
+        @Override
+        public boolean hasMoreMatchingRecords(IDataFilter filter, long maxCount)
+        {
+            int count = 0;
+            for (IDataRecord rec: records)
+            {
+                if (matches(rec.getKey(), filter) && ++count > maxCount)
+                    return true;
+            }
+            return false;
+        }
+        
+        protected boolean matches(DataKey key, IDataFilter filter)
+        {
+            double[] timeRange = filter.getTimeStampRange();
+            if (timeRange != null && (key.timeStamp < timeRange[0] || key.timeStamp > timeRange[1]))
+                return false;
+            
+            if (filter instanceof IObsFilter)
+            {
+                Set<String> foiIDs = ((IObsFilter)filter).getFoiIDs();
+                if (foiIDs != null && !foiIDs.isEmpty() && !foiIDs.contains(((ObsKey)key).foiID))
+                    return false;
+            }
+            
+            return true;
+        }
+    }
+    
+    
+    @Before
+    public void setup()
+    {
+        storage = new ListStorage();
+        
+        PhysicalSystem system = new PhysicalSystemImpl();
+        system.setUniqueIdentifier(SENSOR_UID);
+        storage.storeDataSourceDescription(system);
+        
+        SWEHelper fac = new SWEHelper();
+        DataRecord rec = fac.newDataRecord();
+        rec.setDefinition(URI_TEMP);
+        rec.addComponent("time", fac.newTimeIsoUTC(SWEConstants.DEF_SAMPLING_TIME, null, null));
+        rec.addComponent("temp", fac.newQuantity(URI_TEMP, "Temperature", null, "Cel"));
+        storage.addRecordStore(RECORD_TYPE, rec, new TextEncodingImpl());
+    }
+    
+    
+    protected void addRecord(String foiID, double time, double temp)
+    {
+        DataBlock data = storage.getRecordStores().get(RECORD_TYPE).getRecordDescription().createDataBlock();
+        data.setDoubleValue(0, time);
+        data.setDoubleValue(1, temp);
+        storage.storeRecord(new ObsKey(RECORD_TYPE, null, foiID, time), data);
+    }
+    
+    
+    /*
+     * Adds one record per second with temperature equal to the record index
+     */
+    protected void addRecords(String foiID, int startIndex, int numRecords)
+    {
+        for (int i = startIndex; i < startIndex + numRecords; i++)
+            addRecord(foiID, START_TIME + i, i);
+    }
+    
+    
+    protected SOSDataFilter buildFilter()
+    {
+        TimeExtent timeRange = new TimeExtent();
+        timeRange.setStartTime(START_TIME);
+        timeRange.setStopTime(START_TIME + 3600);
+        return new SOSDataFilter(new HashSet<>(Arrays.asList(URI_TEMP)), timeRange, null, null);
+    }
+    
+    
+    protected List<DataBlock> readAll(SOSDataFilter filter) throws Exception
+    {
+        StorageDataProvider provider = new StorageDataProvider(storage, new StorageDataProviderConfig(), filter);
+        List<DataBlock> results = new ArrayList<>();
+        DataBlock rec;
+        while ((rec = provider.getNextResultRecord()) != null)
+            results.add(rec.clone());
+        provider.close();
+        return results;
+    }
+    
+    
+    /*
+     * Reads all pages using continuation tokens and concatenates them
+     */
+    protected List<DataBlock> readAllPages(SOSDataFilter filter, int pageSize) throws Exception
+    {
+        List<DataBlock> results = new ArrayList<>();
+        filter.setPageSize(pageSize);
+        
+        String token;
+        do
+        {
+            StorageDataProvider provider = new StorageDataProvider(storage, new StorageDataProviderConfig(), filter);
+            token = provider.getContinuationToken();
+            
+            int count = 0;
+            DataBlock rec;
+            while ((rec = provider.getNextResultRecord()) != null)
+            {
+                results.add(rec.clone());
+                count++;
+            }
+            provider.close();
+            
+            if (token != null)
+            {
+                assertEquals("Wrong page size", pageSize, count);
+                filter.setCursor(ResultCursor.decode(token, "cursor"));
+            }
+            else
+                assertTrue("Page is too large", count <= pageSize);
+        }
+        while (token != null);
+        
+        return results;
+    }
+    
+    
+    protected void checkSameRecords(List<DataBlock> expected, List<DataBlock> actual)
+    {
+        assertEquals("Wrong number of records", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertEquals("Wrong time stamp at index " + i, expected.get(i).getDoubleValue(0), actual.get(i).getDoubleValue(0), 1e-9);
+            assertEquals("Wrong value at index " + i, expected.get(i).getDoubleValue(1), actual.get(i).getDoubleValue(1), 1e-9);
+        }
+    }
+    
+    
+    /*
+     * Adds records with several records per time stamp
+     */
+    protected void addRecordsWithDuplicateTimeStamps()
+    {
+        double[] times = {0, 0, 0, 1, 2, 2, 2, 2, 2, 3, 4, 4, 5, 6, 6, 7};
+        for (int i = 0; i < times.length; i++)
+            addRecord("foi1", START_TIME + times[i], i);
+    }
+    
+    
+    protected void checkRecords(List<DataBlock> records, double[] expectedTimes, double[] expectedTemps)
+    {
+        assertEquals("Wrong number of records", expectedTimes.length, records.size());
+        for (int i = 0; i < expectedTimes.length; i++)
+        {
+            assertEquals("Wrong time stamp", START_TIME + expectedTimes[i], records.get(i).getDoubleValue(0), 1e-9);
+            assertEquals("Wrong value", expectedTemps[i], records.get(i).getDoubleValue(1), 1e-9);
+        }
+    }
+    
+    
+    @Test
+    public void testHistorical() throws Exception
+    {
+        addRecords("foi1", 0, 10);
+        
+        SOSDataFilter filter = buildFilter();
+        filter.getTimeRange().setStartTime(START_TIME + 2);
+        filter.getTimeRange().setStopTime(START_TIME + 5);
+        
+        List<DataBlock> records = readAll(filter);
+        checkRecords(records, new double[] {2, 3, 4, 5}, new double[] {2, 3, 4, 5});
+    }
+    
+    
+    @Test
+    public void testDecimate() throws Exception
+    {
+        addRecords("foi1", 0, 10);
+        
+        SOSDataFilter filter = buildFilter();
+        filter.setDecimationFactor(3);
+        
+        List<DataBlock> records = readAll(filter);
+        checkRecords(records, new double[] {0, 3, 6, 9}, new double[] {0, 3, 6, 9});
+    }
+    
+    
+    @Test
+    public void testMinInterval() throws Exception
+    {
+        addRecords("foi1", 0, 10);
+        
+        SOSDataFilter filter = buildFilter();
+        filter.setMinInterval(2.5);
+        
+        List<DataBlock> records = readAll(filter);
+        checkRecords(records, new double[] {0, 3, 6, 9}, new double[] {0, 3, 6, 9});
+    }
+    
+    
+    @Test
+    public void testAggregateAvg() throws Exception
+    {
+        addRecords("foi1", 0, 10);
+        
+        SOSDataFilter filter = buildFilter();
+        filter.setAggregationPeriod(4.0);
+        
+        // avg is the default function
+        List<DataBlock> records = readAll(filter);
+        checkRecords(records, new double[] {0, 4, 8}, new double[] {1.5, 5.5, 8.5});
+        
+        filter.setAggregateFunction(AggregateFunction.AVG);
+        records = readAll(filter);
+        checkRecords(records, new double[] {0, 4, 8}, new double[] {1.5, 5.5, 8.5});
+    }
+    
+    
+    @Test
+    public void testAggregateMin() throws Exception
+    {
+        addRecords("foi1", 0, 10);
+        
+        SOSDataFilter filter = buildFilter();
+        filter.setAggregationPeriod(4.0);
+        filter.setAggregateFunction(AggregateFunction.MIN);
+        
+        List<DataBlock> records = readAll(filter);
+        checkRecords(records, new double[] {0, 4, 8}, new double[] {0, 4, 8});
+    }
+    
+    
+    @Test
+    public void testAggregateMax() throws Exception
+    {
+        addRecords("foi1", 0, 10);
+        
+        SOSDataFilter filter = buildFilter();
+        filter.setAggregationPeriod(4.0);
+        filter.setAggregateFunction(AggregateFunction.MAX);
+        
+        List<DataBlock> records = readAll(filter);
+        checkRecords(records, new double[] {0, 4, 8}, new double[] {3, 7, 9});
+    }
+    
+    
+    @Test
+    public void testAggregateFoiFromBucketRecords() throws Exception
+    {
+        addRecords("foi1", 0, 4);
+        addRecords("foi2", 4, 4);
+        addRecords("foi3", 8, 2);
+        
+        SOSDataFilter filter = buildFilter();
+        filter.setAggregationPeriod(4.0);
+        
+        StorageDataProvider provider = new StorageDataProvider(storage, new StorageDataProviderConfig(), filter);
+        String[] expectedFois = {"foi1", "foi2", "foi3"};
+        for (String foiID: expectedFois)
+        {
+            IObservation obs = provider.getNextObservation();
+            assertNotNull(obs);
+            assertEquals(SENSOR_UID, ((ProcedureRef)obs.getProcedure()).getHref());
+            assertEquals("Wrong FOI for aggregated observation", foiID, ((FeatureRef)obs.getFeatureOfInterest()).getHref());
+        }
+        assertNull(provider.getNextObservation());
+    }
+    
+    
+    @Test
+    public void testPaginationWithDuplicateTimeStamps() throws Exception
+    {
+        addRecordsWithDuplicateTimeStamps();
+        List<DataBlock> allRecords = readAll(buildFilter());
+        assertEquals(16, allRecords.size());
+        
+        for (int pageSize = 1; pageSize <= 17; pageSize++)
+        {
+            List<DataBlock> pagedRecords = readAllPages(buildFilter(), pageSize);
+            checkSameRecords(allRecords, pagedRecords);
+        }
+    }
+    
+    
+    @Test
+    public void testPaginationResumeAtSameTimeStamp() throws Exception
+    {
+        addRecordsWithDuplicateTimeStamps();
+        
+        // 1st page ends in the middle of the 5 records at time 2
+        SOSDataFilter filter = buildFilter();
+        filter.setPageSize(6);
+        StorageDataProvider provider = new StorageDataProvider(storage, new StorageDataProviderConfig(), filter);
+        ResultCursor cursor = ResultCursor.decode(provider.getContinuationToken(), "cursor");
+        assertEquals(START_TIME + 2, cursor.getTimeStamp(), 0.0);
+        assertEquals(2, cursor.getNumSentAtTimeStamp());
+        
+        // 2nd page only contains records at time 2 so count must include those of 1st page
+        filter.setPageSize(2);
+        filter.setCursor(cursor);
+        provider = new StorageDataProvider(storage, new StorageDataProviderConfig(), filter);
+        cursor = ResultCursor.decode(provider.getContinuationToken(), "cursor");
+        assertEquals(START_TIME + 2, cursor.getTimeStamp(), 0.0);
+        assertEquals(4, cursor.getNumSentAtTimeStamp());
+        assertEquals(6, provider.getNextResultRecord().getDoubleValue(1), 0.0);
+        assertEquals(7, provider.getNextResultRecord().getDoubleValue(1), 0.0);
+        assertNull(provider.getNextResultRecord());
+        
+        // 3rd page starts with last record at time 2
+        filter.setCursor(cursor);
+        provider = new StorageDataProvider(storage, new StorageDataProviderConfig(), filter);
+        provider.getContinuationToken();
+        assertEquals(8, provider.getNextResultRecord().getDoubleValue(1), 0.0);
+        assertEquals(9, provider.getNextResultRecord().getDoubleValue(1), 0.0);
+        assertNull(provider.getNextResultRecord());
+    }
+    
+    
+    @Test
+    public void testCursorEncoding() throws Exception
+    {
+        ResultCursor cursor = ResultCursor.decode(new ResultCursor(START_TIME + 0.125, 3).encode(), "cursor");
+        assertEquals(START_TIME + 0.125, cursor.getTimeStamp(), 0.0);
+        assertEquals(3, cursor.getNumSentAtTimeStamp());
+        
+        for (String badToken: new String[] {"", "bad token", "MTAwMA"})
+        {
+            try
+            {
+                ResultCursor.decode(badToken, "cursor");
+                fail("Invalid token should be rejected: " + badToken);
+            }
+            catch (SOSException e)
+            {
+            }
+        }
+    }
+    
+    
+    @Test
+    public void testPaginationLastPage() throws Exception
+    {
+        addRecords("foi1", 0, 10);
+        
+        // no token if all records fit in the page
+        SOSDataFilter filter = buildFilter();
+        filter.setPageSize(10);
+        StorageDataProvider provider = new StorageDataProvider(storage, new StorageDataProviderConfig(), filter);
+        assertNull(provider.getContinuationToken());
+        
+        filter.setPageSize(9);
+        provider = new StorageDataProvider(storage, new StorageDataProviderConfig(), filter);
+        assertNotNull(provider.getContinuationToken());
+    }
+    
+    
+    @Test
+    public void testPaginationDecimated() throws Exception
+    {
+        addRecordsWithDuplicateTimeStamps();
+        
+        SOSDataFilter filter = buildFilter();
+        filter.setDecimationFactor(3);
+        List<DataBlock> allRecords = readAll(filter);
+        assertEquals(6, allRecords.size());
+        
+        // page size applies to decimated records
+        for (int pageSize = 1; pageSize <= 7; pageSize++)
+        {
+            filter = buildFilter();
+            filter.setDecimationFactor(3);
+            checkSameRecords(allRecords, readAllPages(filter, pageSize));
+        }
+    }
+    
+    
+    @Test
+    public void testPaginationMinInterval() throws Exception
+    {
+        addRecordsWithDuplicateTimeStamps();
+        
+        SOSDataFilter filter = buildFilter();
+        filter.setMinInterval(1.5);
+        List<DataBlock> allRecords = readAll(filter);
+        checkRecords(allRecords, new double[] {0, 2, 4, 6}, new double[] {0, 4, 10, 13});
+        
+        for (int pageSize = 1; pageSize <= 5; pageSize++)
+        {
+            filter = buildFilter();
+            filter.setMinInterval(1.5);
+            checkSameRecords(allRecords, readAllPages(filter, pageSize));
+        }
+    }
+    
+    
+    @Test
+    public void testPaginationAggregated() throws Exception
+    {
+        addRecordsWithDuplicateTimeStamps();
+        
+        SOSDataFilter filter = buildFilter();
+        filter.setAggregationPeriod(2.0);
+        filter.setAggregateFunction(AggregateFunction.MAX);
+        List<DataBlock> allRecords = readAll(filter);
+        checkRecords(allRecords, new double[] {0, 2, 4, 6}, new double[] {3, 9, 12, 15});
+        
+        for (int pageSize = 1; pageSize <= 5; pageSize++)
+        {
+            filter = buildFilter();
+            filter.setAggregationPeriod(2.0);
+            filter.setAggregateFunction(AggregateFunction.MAX);
+            checkSameRecords(allRecords, readAllPages(filter, pageSize));
+        }
+    }
+    
+    
+    @Test
+    public void testObservationFoiNotDecimated() throws Exception
+    {
+        addRecords("foi1", 0, 2);
+        addRecords(null, 2, 1);
+        
+        StorageDataProvider provider = new StorageDataProvider(storage, new StorageDataProviderConfig(), buildFilter());
+        assertEquals("foi1", ((FeatureRef)provider.getNextObservation().getFeatureOfInterest()).getHref());
+        assertEquals("foi1", ((FeatureRef)provider.getNextObservation().getFeatureOfInterest()).getHref());
+        assertEquals(SWEConstants.NIL_UNKNOWN, ((FeatureRef)provider.getNextObservation().getFeatureOfInterest()).getHref());
+        assertNull(provider.getNextObservation());
+    }
+}
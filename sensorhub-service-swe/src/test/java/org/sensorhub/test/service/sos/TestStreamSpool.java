@@ -0,0 +1,130 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+ 
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.service.sos;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.client.sost.StreamSpool;
+import org.vast.swe.SWEConstants;
+import org.vast.swe.SWEHelper;
+
+
+public class TestStreamSpool
+{
+    File spoolFile;
+    DataRecord recordStruct;
+    
+    
+    @Before
+    public void setup() throws IOException
+    {
+        spoolFile = Files.createTempFile("sost", ".spool").toFile();
+        spoolFile.delete();
+        
+        SWEHelper fac = new SWEHelper();
+        recordStruct = fac.newDataRecord(3);
+        recordStruct.setName("obs");
+        recordStruct.addComponent("time", fac.newTimeIsoUTC(SWEConstants.DEF_SAMPLING_TIME, null, null));
+        recordStruct.addComponent("temp", fac.newQuantity("urn:blabla:temp", "Temperature", null, "Cel"));
+        recordStruct.addComponent("status", fac.newText("urn:blabla:status", "Status", null));
+    }
+    
+    
+    protected DataBlock newRecord(int i)
+    {
+        DataBlock rec = recordStruct.createDataBlock();
+        rec.setDoubleValue(0, 1.5e9 + i);
+        rec.setDoubleValue(1, i / 10.0);
+        rec.setStringValue(2, "rec" + i);
+        return rec;
+    }
+    
+    
+    protected void checkRecord(DataBlock rec, int i)
+    {
+        assertNotNull("Missing record " + i, rec);
+        assertEquals(1.5e9 + i, rec.getDoubleValue(0), 1e-6);
+        assertEquals(i / 10.0, rec.getDoubleValue(1), 1e-9);
+        assertEquals("rec" + i, rec.getStringValue(2));
+    }
+    
+    
+    @Test
+    public void testPushPollAfterReopen() throws Exception
+    {
+        int numRecords = 1000;
+        
+        StreamSpool spool = new StreamSpool(spoolFile, 1024*1024, recordStruct);
+        for (int i = 0; i < numRecords; i++)
+            assertEquals(0, spool.push(newRecord(i)));
+        assertEquals(numRecords, spool.getNumRecords());
+        
+        // read half of the records
+        for (int i = 0; i < numRecords/2; i++)
+            checkRecord(spool.poll(), i);
+        spool.close();
+        
+        // reopen and read the rest
+        spool = new StreamSpool(spoolFile, 1024*1024, recordStruct);
+        assertEquals(numRecords/2, spool.getNumRecords());
+        for (int i = numRecords/2; i < numRecords; i++)
+            checkRecord(spool.poll(), i);
+        
+        assertTrue(spool.isEmpty());
+        assertNull(spool.poll());
+        spool.close();
+    }
+    
+    
+    @Test
+    public void testDropOldestWhenFull() throws Exception
+    {
+        StreamSpool spool = new StreamSpool(spoolFile, 4096, recordStruct);
+        
+        // write a lot more than what the spool can hold
+        int numRecords = 2000;
+        long numDropped = 0;
+        for (int i = 0; i < numRecords; i++)
+        {
+            numDropped += spool.push(newRecord(i));
+            if (i % 3 == 0)
+                checkRecord(spool.poll(), (int)(i - spool.getNumRecords()));
+        }
+        
+        assertTrue("No record dropped", numDropped > 0);
+        assertEquals(numDropped, spool.getNumDropped());
+        
+        // check we get the most recent records in order
+        int first = (int)(numRecords - spool.getNumRecords());
+        for (int i = first; i < numRecords; i++)
+            checkRecord(spool.poll(), i);
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+    
+    
+    @After
+    public void cleanup()
+    {
+        spoolFile.delete();
+    }
+}
@@ -0,0 +1,235 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.service.sos;
+
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import org.junit.After;
+import org.junit.Test;
+import org.sensorhub.impl.service.sos.ISOSDataProvider;
+import org.sensorhub.impl.service.sos.TimeOrderedObsReader;
+import org.vast.data.QuantityImpl;
+import org.vast.data.TextEncodingImpl;
+import org.vast.ogc.om.IObservation;
+import org.vast.ogc.om.ObservationImpl;
+import org.vast.util.TimeExtent;
+
+
+public class TestTimeOrderedObsReader
+{
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    
+    
+    /*
+     * Provider generating one observation per time stamp and reusing
+     * the same result component like real providers do
+     */
+    static class FakeProvider implements ISOSDataProvider
+    {
+        final double[] times;
+        final DataComponent result = new QuantityImpl();
+        CountDownLatch readGate;
+        int readGateIndex = -1;
+        volatile int index;
+        volatile boolean reading;
+        volatile boolean closed;
+        volatile boolean closedWhileReading;
+        
+        FakeProvider(double... times)
+        {
+            this.times = times;
+            this.result.setDefinition("urn:osh:def:time");
+        }
+        
+        @Override
+        public IObservation getNextObservation() throws IOException
+        {
+            reading = true;
+            try
+            {
+                if (index == readGateIndex)
+                    readGate.await();
+                
+                if (closed)
+                    throw new IOException("Provider closed");
+                
+                if (index >= times.length)
+                    return null;
+                
+                double time = times[index++];
+                DataBlock data = result.createDataBlock();
+                data.setDoubleValue(time);
+                result.setData(data);
+                
+                IObservation obs = new ObservationImpl();
+                obs.setPhenomenonTime(new TimeExtent(time));
+                obs.setResult(result);
+                return obs;
+            }
+            catch (InterruptedException e)
+            {
+                throw new IOException(e);
+            }
+            finally
+            {
+                reading = false;
+            }
+        }
+
+        @Override
+        public DataBlock getNextResultRecord() throws IOException
+        {
+            return null;
+        }
+
+        @Override
+        public DataComponent getResultStructure() throws IOException
+        {
+            return result;
+        }
+
+        @Override
+        public DataEncoding getDefaultResultEncoding() throws IOException
+        {
+            return new TextEncodingImpl();
+        }
+
+        @Override
+        public void close()
+        {
+            if (reading)
+                closedWhileReading = true;
+            closed = true;
+        }
+    }
+    
+    
+    @Test
+    public void testMergeByTime() throws Exception
+    {
+        FakeProvider p1 = new FakeProvider(0, 2, 4, 4, 6, 8, 10, 12);
+        FakeProvider p2 = new FakeProvider(1, 3, 4, 5, 7, 30, 31);
+        FakeProvider p3 = new FakeProvider();
+        
+        TimeOrderedObsReader reader = new TimeOrderedObsReader(executor, 2);
+        reader.addProvider("off1", p1);
+        reader.addProvider("off2", p2);
+        reader.addProvider("off3", p3);
+        
+        int count = 0;
+        double lastTime = Double.NEGATIVE_INFINITY;
+        IObservation obs;
+        while ((obs = reader.next()) != null)
+        {
+            double time = obs.getPhenomenonTime().getStartTime();
+            assertTrue("Observations are not in time order", time >= lastTime);
+            
+            // check result data matches the observation even though providers reuse their result
+            assertEquals(time, obs.getResult().getData().getDoubleValue(), 0.0);
+            
+            // check observation is associated to the proper offering
+            String offering = reader.getCurrentOffering();
+            if (time == 4)
+                assertTrue(offering.equals("off1") || offering.equals("off2"));
+            else if (time % 2 == 0 && time < 30)
+                assertEquals("off1", offering);
+            else
+                assertEquals("off2", offering);
+            
+            lastTime = time;
+            count++;
+        }
+        
+        assertEquals(p1.times.length + p2.times.length, count);
+        reader.close();
+        assertTrue(p1.closed);
+        assertTrue(p2.closed);
+        assertTrue(p3.closed);
+    }
+    
+    
+    @Test
+    public void testSequentialRead() throws Exception
+    {
+        FakeProvider p1 = new FakeProvider(10, 20, 30);
+        FakeProvider p2 = new FakeProvider(0, 15);
+        
+        TimeOrderedObsReader reader = new TimeOrderedObsReader(null, 2);
+        reader.addProvider("off1", p1);
+        reader.addProvider("off2", p2);
+        
+        double[] expectedTimes = {10, 20, 30, 0, 15};
+        for (double expectedTime: expectedTimes)
+        {
+            IObservation obs = reader.next();
+            assertEquals(expectedTime, obs.getPhenomenonTime().getStartTime(), 0.0);
+            assertEquals(expectedTime < 10 || expectedTime == 15 ? "off2" : "off1", reader.getCurrentOffering());
+        }
+        
+        assertNull(reader.next());
+        reader.close();
+        assertTrue(p1.closed);
+        assertTrue(p2.closed);
+    }
+    
+    
+    @Test
+    public void testCloseWhileProviderIsReading() throws Exception
+    {
+        FakeProvider p1 = new FakeProvider(0, 1, 2, 3);
+        FakeProvider p2 = new FakeProvider(0.5, 1.5);
+        
+        // block prefetch task in the middle of reading
+        p1.readGate = new CountDownLatch(1);
+        p1.readGateIndex = 1;
+        
+        TimeOrderedObsReader reader = new TimeOrderedObsReader(executor, 1);
+        reader.addProvider("off1", p1);
+        reader.addProvider("off2", p2);
+        assertEquals(0, reader.next().getPhenomenonTime().getStartTime(), 0.0);
+        
+        // wait until prefetch task is blocked reading 2nd obs
+        long t0 = System.currentTimeMillis();
+        while (!p1.reading && System.currentTimeMillis() - t0 < 5000)
+            Thread.sleep(10);
+        
+        // provider must not be closed while the prefetch task is using it
+        reader.close();
+        assertTrue(p2.closed);
+        assertFalse(p1.closed);
+        
+        // provider is closed as soon as read completes
+        p1.readGate.countDown();
+        t0 = System.currentTimeMillis();
+        while (!p1.closed && System.currentTimeMillis() - t0 < 5000)
+            Thread.sleep(10);
+        assertTrue("Provider was not closed", p1.closed);
+        assertFalse("Provider was closed while reading", p1.closedWhileReading);
+    }
+    
+    
+    @After
+    public void cleanup()
+    {
+        executor.shutdownNow();
+    }
+}
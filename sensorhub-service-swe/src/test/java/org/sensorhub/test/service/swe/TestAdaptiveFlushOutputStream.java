@@ -0,0 +1,169 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.service.swe;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.sensorhub.impl.service.swe.AdaptiveFlushOutputStream;
+
+
+public class TestAdaptiveFlushOutputStream
+{
+    
+    /*
+     * Message based stream similar to websocket output streams,
+     * each call to flush() sends a separate message
+     */
+    static class MessageOutputStream extends ByteArrayOutputStream
+    {
+        List<byte[]> messages = new ArrayList<>();
+        boolean closed;
+        
+        @Override
+        public void flush()
+        {
+            if (count > 0)
+                messages.add(toByteArray());
+            reset();
+        }
+        
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+    }
+    
+    
+    protected byte[] createRecord(int size, int seed)
+    {
+        byte[] rec = new byte[size];
+        for (int i = 0; i < size; i++)
+            rec[i] = (byte)(seed + i);
+        return rec;
+    }
+    
+    
+    protected void writeInSmallChunks(AdaptiveFlushOutputStream os, byte[] rec) throws IOException
+    {
+        for (int i = 0; i < rec.length; i += 10)
+        {
+            // mix single byte and array writes
+            os.write(rec[i]);
+            os.write(rec, i+1, Math.min(9, rec.length-i-1));
+        }
+    }
+    
+    
+    @Test
+    public void testRecordsLargerThanBufferAreNotSplit() throws Exception
+    {
+        MessageOutputStream out = new MessageOutputStream();
+        AdaptiveFlushOutputStream os = new AdaptiveFlushOutputStream(out, 16, 0);
+        
+        List<byte[]> records = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            byte[] rec = createRecord(10 + i*50, i);
+            records.add(rec);
+            writeInSmallChunks(os, rec);
+            os.flush();
+        }
+        
+        // one message per record
+        assertEquals(records.size(), out.messages.size());
+        for (int i = 0; i < records.size(); i++)
+            assertArrayEquals(records.get(i), out.messages.get(i));
+    }
+    
+    
+    @Test
+    public void testLargeWritesArePassedThrough() throws Exception
+    {
+        MessageOutputStream out = new MessageOutputStream();
+        AdaptiveFlushOutputStream os = new AdaptiveFlushOutputStream(out, 16, 0);
+        
+        byte[] header = createRecord(5, 0);
+        byte[] rec = createRecord(1000, 1);
+        os.write(header);
+        os.write(rec);
+        os.flush();
+        
+        assertEquals(1, out.messages.size());
+        byte[] msg = out.messages.get(0);
+        assertArrayEquals(header, Arrays.copyOfRange(msg, 0, header.length));
+        assertArrayEquals(rec, Arrays.copyOfRange(msg, header.length, msg.length));
+    }
+    
+    
+    @Test
+    public void testFlushesAreCoalescedUntilMaxLatency() throws Exception
+    {
+        MessageOutputStream out = new MessageOutputStream();
+        AdaptiveFlushOutputStream os = new AdaptiveFlushOutputStream(out, 64, 200);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        
+        // records exceed buffer size but are not flushed before latency expires
+        for (int i = 0; i < 10; i++)
+        {
+            byte[] rec = createRecord(20, i);
+            expected.write(rec);
+            os.write(rec);
+            os.flush();
+        }
+        assertEquals(0, out.messages.size());
+        
+        // next flush after max latency sends everything at a record boundary
+        Thread.sleep(250);
+        byte[] rec = createRecord(20, 10);
+        expected.write(rec);
+        os.write(rec);
+        os.flush();
+        assertEquals(1, out.messages.size());
+        assertArrayEquals(expected.toByteArray(), out.messages.get(0));
+        
+        // force flush sends remaining data right away
+        rec = createRecord(20, 11);
+        os.write(rec);
+        os.flush();
+        assertEquals(1, out.messages.size());
+        os.forceFlush();
+        assertEquals(2, out.messages.size());
+        assertArrayEquals(rec, out.messages.get(1));
+    }
+    
+    
+    @Test
+    public void testCloseSendsRemainingData() throws Exception
+    {
+        MessageOutputStream out = new MessageOutputStream();
+        AdaptiveFlushOutputStream os = new AdaptiveFlushOutputStream(out, 64, 10000);
+        
+        byte[] rec = createRecord(100, 0);
+        os.write(rec);
+        os.flush();
+        assertEquals(0, out.messages.size());
+        
+        os.close();
+        assertTrue(out.closed);
+        assertEquals(1, out.messages.size());
+        assertArrayEquals(rec, out.messages.get(0));
+    }
+}
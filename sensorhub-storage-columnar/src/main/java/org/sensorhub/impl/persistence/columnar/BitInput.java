@@ -0,0 +1,91 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+
+/**
+ * <p>
+ * Bit stream reader for columns encoded with {@link BitOutput}
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+final class BitInput
+{
+    final byte[] buf;
+    long bitPos;
+    final long bitLimit;
+    
+    
+    BitInput(byte[] buf, int offset, int length)
+    {
+        this.buf = buf;
+        this.bitPos = offset * 8L;
+        this.bitLimit = (offset + (long)length) * 8L;
+    }
+    
+    
+    boolean readBit()
+    {
+        return readBits(1) != 0;
+    }
+    
+    
+    long readBits(int numBits)
+    {
+        if (bitPos + numBits > bitLimit)
+            throw new IllegalStateException("Unexpected end of column data");
+        
+        long value = 0;
+        while (numBits > 0)
+        {
+            int byteIndex = (int)(bitPos >>> 3);
+            int availBits = 8 - (int)(bitPos & 7);
+            int n = Math.min(availBits, numBits);
+            int bits = (buf[byteIndex] >>> (availBits - n)) & ((1 << n) - 1);
+            value = (value << n) | bits;
+            bitPos += n;
+            numBits -= n;
+        }
+        
+        return value;
+    }
+    
+    
+    long readVarLong()
+    {
+        long value = 0;
+        int shift = 0;
+        long b;
+        
+        do
+        {
+            b = readBits(8);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0);
+        
+        return value;
+    }
+    
+    
+    long readZigZag()
+    {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
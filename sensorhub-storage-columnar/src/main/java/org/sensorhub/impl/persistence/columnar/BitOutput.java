@@ -0,0 +1,112 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+import java.util.Arrays;
+
+
+/**
+ * <p>
+ * Growable bit stream used to encode columns of a segment block.<br/>
+ * Bits are written MSB first.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+final class BitOutput
+{
+    byte[] buf;
+    long bitPos;
+    
+    
+    BitOutput(int initialCapacity)
+    {
+        this.buf = new byte[Math.max(16, initialCapacity)];
+    }
+    
+    
+    void writeBit(boolean bit)
+    {
+        writeBits(bit ? 1 : 0, 1);
+    }
+    
+    
+    /**
+     * Writes the lowest bits of the given value
+     * @param value
+     * @param numBits number of bits to write (0 to 64)
+     */
+    void writeBits(long value, int numBits)
+    {
+        ensureCapacity(bitPos + numBits);
+        
+        while (numBits > 0)
+        {
+            int byteIndex = (int)(bitPos >>> 3);
+            int freeBits = 8 - (int)(bitPos & 7);
+            int n = Math.min(freeBits, numBits);
+            int bits = (int)(value >>> (numBits - n)) & ((1 << n) - 1);
+            buf[byteIndex] |= bits << (freeBits - n);
+            bitPos += n;
+            numBits -= n;
+        }
+    }
+    
+    
+    /**
+     * Writes an unsigned variable length integer (7 bits groups)
+     * @param value
+     */
+    void writeVarLong(long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            writeBits((value & 0x7F) | 0x80, 8);
+            value >>>= 7;
+        }
+        writeBits(value, 8);
+    }
+    
+    
+    /**
+     * Writes a signed variable length integer using zigzag encoding
+     * @param value
+     */
+    void writeZigZag(long value)
+    {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+    
+    
+    private void ensureCapacity(long numBits)
+    {
+        int numBytes = (int)((numBits + 7) >>> 3);
+        if (numBytes > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(numBytes, buf.length * 2));
+    }
+    
+    
+    int byteLength()
+    {
+        return (int)((bitPos + 7) >>> 3);
+    }
+    
+    
+    byte[] toByteArray()
+    {
+        return Arrays.copyOf(buf, byteLength());
+    }
+}
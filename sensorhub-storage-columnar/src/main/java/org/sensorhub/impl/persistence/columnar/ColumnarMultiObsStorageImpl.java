@@ -0,0 +1,64 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+import java.io.File;
+import java.util.Collection;
+import org.sensorhub.api.persistence.IMultiSourceStorage;
+import org.sensorhub.api.persistence.IObsStorage;
+
+
+/**
+ * <p>
+ * Columnar implementation of {@link IMultiSourceStorage} module.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class ColumnarMultiObsStorageImpl extends ColumnarObsStorageImpl implements IMultiSourceStorage<IObsStorage>
+{
+    
+    @Override
+    protected ObsStore createRoot(File storageDir)
+    {
+        return new MultiProducerObsStore(config, storageDir, getLogger());
+    }
+    
+    
+    @Override
+    public Collection<String> getProducerIDs()
+    {
+        return ((MultiProducerObsStore)root).getProducerIDs();
+    }
+
+
+    @Override
+    public IObsStorage getDataStore(String producerID)
+    {
+        return ((MultiProducerObsStore)root).getDataStore(producerID);
+    }
+    
+    
+    @Override
+    public synchronized IObsStorage addDataStore(String producerID)
+    {
+        IObsStorage dataStore = ((MultiProducerObsStore)root).addDataStore(producerID);
+        if (autoCommit)
+            commit();
+        
+        return dataStore;
+    }
+}
@@ -0,0 +1,563 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import net.opengis.gml.v32.AbstractFeature;
+import net.opengis.sensorml.v20.AbstractProcess;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import org.sensorhub.api.common.SensorHubException;
+import org.sensorhub.api.persistence.DataKey;
+import org.sensorhub.api.persistence.IDataFilter;
+import org.sensorhub.api.persistence.IDataRecord;
+import org.sensorhub.api.persistence.IFoiFilter;
+import org.sensorhub.api.persistence.IObsFilter;
+import org.sensorhub.api.persistence.IObsStorage;
+import org.sensorhub.api.persistence.IObsStorageModule;
+import org.sensorhub.api.persistence.IRecordStoreInfo;
+import org.sensorhub.api.persistence.IStorageModule;
+import org.sensorhub.api.persistence.ObsPeriod;
+import org.sensorhub.api.persistence.StorageException;
+import org.sensorhub.impl.module.AbstractModule;
+import org.sensorhub.utils.FileUtils;
+import org.vast.util.Bbox;
+
+
+/**
+ * <p>
+ * Implementation of {@link IObsStorage} storing each record type as a
+ * compressed column-oriented time series.<br/>
+ * Records are buffered in memory and written at commit time into immutable
+ * segment files, one per time partition, that are merged in the background
+ * of subsequent commits. Time stamps are delta-of-delta encoded and numeric
+ * fields are XOR compressed, which is much more compact than the row storage
+ * used by the PERST implementation for regularly sampled sensor data.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class ColumnarObsStorageImpl extends AbstractModule<ColumnarStorageConfig> implements IObsStorageModule<ColumnarStorageConfig>
+{
+    static final String LOCK_FILE = ".lock";
+    static final String DELETED_EXT = ".deleted";
+    
+    protected ObsStore root;
+    protected FileChannel lockChannel;
+    protected FileLock lock;
+    protected boolean autoCommit = false;
+    
+    
+    @Override
+    public synchronized void start() throws StorageException
+    {
+        try
+        {
+            // check file path is valid
+            if (!FileUtils.isSafeFilePath(config.storagePath))
+                throw new StorageException("Storage path contains illegal characters: " + config.storagePath);
+            
+            File storageDir = new File(config.storagePath);
+            storageDir.mkdirs();
+            
+            // acquire lock on storage folder
+            lockChannel = FileChannel.open(new File(storageDir, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try
+            {
+                lock = lockChannel.tryLock();
+                if (lock == null)
+                    throw new StorageException("Storage folder " + config.storagePath + " is already opened by another SensorHub process");
+            }
+            catch (OverlappingFileLockException e)
+            {
+                throw new StorageException("Storage folder " + config.storagePath + " is already locked by the JVM", e);
+            }
+            
+            root = createRoot(storageDir);
+            root.load();
+        }
+        catch (StorageException e)
+        {
+            releaseLock();
+            throw e;
+        }
+        catch (Exception e)
+        {
+            releaseLock();
+            throw new StorageException("Error while opening storage " + config.name, e);
+        }
+    }
+    
+    
+    protected ObsStore createRoot(File storageDir)
+    {
+        return new ObsStore(config, storageDir, null, getLogger());
+    }
+    
+    
+    protected void releaseLock()
+    {
+        try
+        {
+            if (lock != null)
+                lock.release();
+            if (lockChannel != null)
+                lockChannel.close();
+        }
+        catch (IOException e)
+        {
+            getLogger().error("Cannot release lock on storage folder " + config.storagePath, e);
+        }
+        
+        lock = null;
+        lockChannel = null;
+    }
+    
+
+    @Override
+    public synchronized void stop() throws SensorHubException
+    {
+        if (root != null)
+        {
+            try
+            {
+                root.commit();
+            }
+            catch (IOException e)
+            {
+                throw new StorageException("Error while closing storage " + config.name, e);
+            }
+            finally
+            {
+                root = null;
+                releaseLock();
+            }
+        }
+    }
+
+
+    @Override
+    public synchronized void cleanup() throws SensorHubException
+    {
+        if (root != null)
+            stop();
+        
+        // we just mark folder as deleted by renaming it with .deleted suffix
+        // storage will restart with an empty folder but we don't loose any data
+        if (config.storagePath != null)
+        {
+            File storageDir = new File(config.storagePath);
+            File newDir = new File(config.storagePath + DELETED_EXT);
+            try
+            {
+                if (newDir.exists())
+                    FileUtils.deleteRecursively(newDir);
+            }
+            catch (IOException e)
+            {
+                throw new StorageException("Cannot delete folder " + newDir, e);
+            }
+            storageDir.renameTo(newDir);
+        }
+    }
+    
+    
+    @Override
+    public synchronized void backup(OutputStream os) throws IOException
+    {
+        // segment files are immutable so a committed storage can be copied as is
+        root.commit();
+        
+        File storageDir = new File(config.storagePath);
+        ZipOutputStream zos = new ZipOutputStream(os);
+        addToZip(zos, storageDir, "");
+        zos.finish();
+    }
+    
+    
+    private void addToZip(ZipOutputStream zos, File dir, String path) throws IOException
+    {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        
+        byte[] buf = new byte[8192];
+        for (File f: files)
+        {
+            if (f.isDirectory())
+            {
+                addToZip(zos, f, path + f.getName() + "/");
+            }
+            else if (!f.getName().equals(LOCK_FILE))
+            {
+                zos.putNextEntry(new ZipEntry(path + f.getName()));
+                try (InputStream is = new FileInputStream(f))
+                {
+                    int nBytes;
+                    while ((nBytes = is.read(buf)) > 0)
+                        zos.write(buf, 0, nBytes);
+                }
+                zos.closeEntry();
+            }
+        }
+    }
+
+
+    @Override
+    public synchronized void restore(InputStream is) throws IOException
+    {
+        File storageDir = new File(config.storagePath);
+        String rootPath = storageDir.getCanonicalPath() + File.separator;
+        
+        // discard current content
+        root.rollback();
+        for (File f: storageDir.listFiles())
+        {
+            if (!f.getName().equals(LOCK_FILE))
+                FileUtils.deleteRecursively(f);
+        }
+        
+        // extract all files from zip archive
+        ZipInputStream zis = new ZipInputStream(is);
+        ZipEntry entry;
+        byte[] buf = new byte[8192];
+        while ((entry = zis.getNextEntry()) != null)
+        {
+            File f = new File(storageDir, entry.getName());
+            if (!f.getCanonicalPath().startsWith(rootPath))
+                throw new IOException("Invalid entry in storage archive: " + entry.getName());
+            
+            if (entry.isDirectory())
+            {
+                f.mkdirs();
+                continue;
+            }
+            
+            f.getParentFile().mkdirs();
+            try (OutputStream os = new FileOutputStream(f))
+            {
+                int nBytes;
+                while ((nBytes = zis.read(buf)) > 0)
+                    os.write(buf, 0, nBytes);
+            }
+        }
+        
+        root.load();
+    }
+
+
+    @Override
+    public synchronized void commit()
+    {
+        try
+        {
+            root.commit();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Error while committing storage " + config.name, e);
+        }
+    }
+
+
+    @Override
+    public synchronized void rollback()
+    {
+        try
+        {
+            root.rollback();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Error while rolling back storage " + config.name, e);
+        }
+    }
+
+
+    /**
+     * Flushes buffered records to column files so that they are durable and
+     * visible to other readers of the storage directory.<br/>
+     * Synchronizing with another storage instance is not supported.
+     */
+    @Override
+    public synchronized void sync(IStorageModule<?> storage) throws StorageException
+    {
+        if (storage != null && storage != this)
+            throw new StorageException("Synchronization with another storage is not supported by " + getClass().getSimpleName());
+        
+        try
+        {
+            root.commit();
+        }
+        catch (IOException e)
+        {
+            throw new StorageException("Error while flushing storage " + config.name, e);
+        }
+    }
+
+
+    @Override
+    public AbstractProcess getLatestDataSourceDescription()
+    {
+        return root.getLatestDataSourceDescription();
+    }
+
+
+    @Override
+    public List<AbstractProcess> getDataSourceDescriptionHistory(double startTime, double endTime)
+    {
+        return root.getDataSourceDescriptionHistory(startTime, endTime);
+    }
+
+
+    @Override
+    public AbstractProcess getDataSourceDescriptionAtTime(double time)
+    {
+        return root.getDataSourceDescriptionAtTime(time);
+    }
+
+
+    @Override
+    public synchronized void storeDataSourceDescription(AbstractProcess process)
+    {
+        root.storeDataSourceDescription(process);
+        if (autoCommit)
+            commit();
+    }
+
+
+    @Override
+    public synchronized void updateDataSourceDescription(AbstractProcess process)
+    {
+        root.updateDataSourceDescription(process);
+        if (autoCommit)
+            commit();
+    }
+
+
+    @Override
+    public synchronized void removeDataSourceDescription(double time)
+    {
+        root.removeDataSourceDescription(time);
+        if (autoCommit)
+            commit();
+    }
+
+
+    @Override
+    public synchronized void removeDataSourceDescriptionHistory(double startTime, double endTime)
+    {
+        root.removeDataSourceDescriptionHistory(startTime, endTime);
+        if (autoCommit)
+            commit();
+    }
+    
+    
+    @Override
+    public synchronized void addRecordStore(String name, DataComponent recordStructure, DataEncoding recommendedEncoding)
+    {
+        root.addRecordStore(name, recordStructure, recommendedEncoding);
+        if (autoCommit)
+            commit();
+    }
+    
+    
+    @Override
+    public synchronized void updateRecordStore(String name, DataComponent recordStructure)
+    {
+        root.updateRecordStore(name, recordStructure);
+        if (autoCommit)
+            commit();
+    }
+    
+    
+    @Override
+    public Map<String, ? extends IRecordStoreInfo> getRecordStores()
+    {
+        return root.getRecordStores();
+    }
+
+
+    @Override
+    public int getNumRecords(String recordType)
+    {
+        return root.getNumRecords(recordType);
+    }
+
+    
+    @Override
+    public double[] getRecordsTimeRange(String recordType)
+    {
+        return root.getRecordsTimeRange(recordType);
+    }
+    
+    
+    @Override
+    public int[] getEstimatedRecordCounts(String recordType, double[] timeStamps)
+    {
+        return root.getEstimatedRecordCounts(recordType, timeStamps);
+    }
+    
+    
+    @Override
+    public DataBlock getDataBlock(DataKey key)
+    {
+        return root.getDataBlock(key);
+    }
+
+
+    @Override
+    public Iterator<DataBlock> getDataBlockIterator(IDataFilter filter)
+    {
+        return root.getDataBlockIterator(filter);
+    }
+
+
+    @Override
+    public Iterator<? extends IDataRecord> getRecordIterator(IDataFilter filter)
+    {
+        return root.getRecordIterator(filter);
+    }
+
+
+    @Override
+    public int getNumMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        return root.getNumMatchingRecords(filter, maxCount);
+    }
+
+
+    @Override
+    public boolean hasMoreMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        return root.hasMoreMatchingRecords(filter, maxCount);
+    }
+    
+
+    @Override
+    public synchronized void storeRecord(DataKey key, DataBlock data)
+    {
+        getLogger().trace("Storing record with {}", key);
+        root.storeRecord(key, data);
+        if (autoCommit)
+            commit();
+    }
+
+
+    @Override
+    public synchronized void updateRecord(DataKey key, DataBlock data)
+    {
+        getLogger().trace("Updating record with {}", key);
+        root.updateRecord(key, data);
+        if (autoCommit)
+            commit();
+    }
+
+
+    @Override
+    public synchronized void removeRecord(DataKey key)
+    {
+        getLogger().trace("Removing record with {}", key);
+        root.removeRecord(key);
+        if (autoCommit)
+            commit();
+    }
+
+
+    @Override
+    public synchronized int removeRecords(IDataFilter filter)
+    {
+        getLogger().trace("Removing records with {}", filter);
+        int count = root.removeRecords(filter);
+        if (autoCommit)
+            commit();
+        return count;
+    }
+    
+    
+    @Override
+    public int getNumFois(IFoiFilter filter)
+    {
+        return root.getNumFois(filter);
+    }
+    
+    
+    @Override
+    public Bbox getFoisSpatialExtent()
+    {
+        return root.getFoisSpatialExtent();
+    }
+
+
+    @Override
+    public Iterator<String> getFoiIDs(IFoiFilter filter)
+    {
+        return root.getFoiIDs(filter);
+    }
+
+
+    @Override
+    public Iterator<AbstractFeature> getFois(IFoiFilter filter)
+    {
+        return root.getFois(filter);
+    }
+
+
+    @Override
+    public Iterator<ObsPeriod> getFoiTimeRanges(IObsFilter filter)
+    {
+        return root.getFoiTimeRanges(filter);
+    }
+    
+    
+    @Override
+    public synchronized void storeFoi(String producerID, AbstractFeature foi)
+    {
+        root.storeFoi(producerID, foi);
+        if (autoCommit)
+            commit();
+    }
+
+
+    @Override
+    public boolean isReadSupported()
+    {
+        return true;
+    }
+
+
+    @Override
+    public boolean isWriteSupported()
+    {
+        return true;
+    }
+}
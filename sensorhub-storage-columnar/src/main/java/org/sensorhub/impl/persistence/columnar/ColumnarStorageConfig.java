@@ -0,0 +1,55 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+import org.sensorhub.api.config.DisplayInfo;
+import org.sensorhub.api.config.DisplayInfo.Required;
+import org.sensorhub.utils.FileUtils;
+
+
+/**
+ * <p>
+ * Configuration class for columnar observation storage
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class ColumnarStorageConfig extends org.sensorhub.api.persistence.ObsStorageConfig
+{
+    
+    @Required
+    @DisplayInfo(desc="Path to storage directory")
+    public String storagePath;
+    
+    
+    @DisplayInfo(desc="Duration of time partitions in seconds. Segment files never span more than one partition, so this is also the granularity at which old data is dropped")
+    public double partitionDuration = 86400.0;
+    
+    
+    @DisplayInfo(desc="Number of records per compressed block. Larger blocks compress better but make random access slower")
+    public int blockSize = 1024;
+    
+    
+    @DisplayInfo(desc="Maximum number of records kept in memory before they are written to disk, even if commit is not called")
+    public int maxBufferedRecords = 10000;
+
+
+    @Override
+    public void setStorageIdentifier(String name)
+    {
+        storagePath = FileUtils.safeFileName(name);
+    }
+}
@@ -0,0 +1,327 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import net.opengis.gml.v32.AbstractFeature;
+import net.opengis.gml.v32.AbstractGeometry;
+import net.opengis.gml.v32.LineString;
+import net.opengis.gml.v32.Point;
+import org.sensorhub.api.persistence.IFeatureFilter;
+import org.sensorhub.api.persistence.IFeatureStorage;
+import org.sensorhub.impl.persistence.columnar.MetadataLog.Entry;
+import org.vast.ogc.gml.GMLUtils;
+import org.vast.util.Bbox;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+
+/**
+ * <p>
+ * Feature of interest store of the columnar storage.<br/>
+ * Features are kept in memory, sorted by UID, and persisted as GML in an
+ * append-only metadata log. Spatial queries are done by scanning features,
+ * which is fine for the number of FOIs usually attached to a data source.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+class FeatureStore implements IFeatureStorage
+{
+    static final String LOG_FILE = "features.log";
+    
+    final MetadataLog log;
+    final ConcurrentSkipListMap<String, AbstractFeature> features = new ConcurrentSkipListMap<>();
+    final List<Entry> pendingEntries = new ArrayList<>();
+    final GeometryFactory jtsFactory = new GeometryFactory();
+    final double[] extentCoords = new double[6];
+    boolean has3dExtent;
+    
+    
+    FeatureStore(File dir)
+    {
+        this.log = new MetadataLog(new File(dir, LOG_FILE));
+        resetExtent();
+    }
+    
+    
+    synchronized void load() throws IOException
+    {
+        features.clear();
+        pendingEntries.clear();
+        resetExtent();
+        
+        GMLUtils gmlUtils = new GMLUtils(GMLUtils.V3_2);
+        for (Entry entry: log.load())
+        {
+            if (entry.op == MetadataLog.OP_PUT)
+            {
+                try
+                {
+                    AbstractFeature f = gmlUtils.readFeature(new ByteArrayInputStream(entry.payload));
+                    addFeature(f);
+                }
+                catch (Exception e)
+                {
+                    throw new IOException("Cannot read feature " + entry.key, e);
+                }
+            }
+            else
+                features.remove(entry.key);
+        }
+    }
+    
+    
+    synchronized void commit() throws IOException
+    {
+        log.append(pendingEntries);
+        pendingEntries.clear();
+    }
+    
+    
+    synchronized void rollback() throws IOException
+    {
+        load();
+    }
+    
+    
+    @Override
+    public int getNumFeatures()
+    {
+        return features.size();
+    }
+
+
+    @Override
+    public int getNumMatchingFeatures(IFeatureFilter filter)
+    {
+        int count = 0;
+        Iterator<String> it = getFeatureIDs(filter);
+        while (it.hasNext())
+        {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+
+    @Override
+    public synchronized Bbox getFeaturesSpatialExtent()
+    {
+        if (Double.isInfinite(extentCoords[0]))
+            return null;
+        
+        if (has3dExtent)
+            return new Bbox(extentCoords[0], extentCoords[1], extentCoords[2], extentCoords[3], extentCoords[4], extentCoords[5]);
+        else
+            return new Bbox(extentCoords[0], extentCoords[1], extentCoords[3], extentCoords[4]);
+    }
+
+
+    @Override
+    public Iterator<String> getFeatureIDs(IFeatureFilter filter)
+    {
+        final Iterator<AbstractFeature> it = getFeatures(filter);
+        
+        return new Iterator<String>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            @Override
+            public String next()
+            {
+                return it.next().getUniqueIdentifier();
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+
+    @Override
+    public Iterator<AbstractFeature> getFeatures(IFeatureFilter filter)
+    {
+        List<AbstractFeature> selectedFeatures = new ArrayList<>();
+        
+        // case of requesting by IDs
+        Collection<String> foiIDs = filter.getFeatureIDs();
+        if (foiIDs != null && !foiIDs.isEmpty())
+        {
+            Set<String> ids = new LinkedHashSet<>(foiIDs);
+            for (String id: ids)
+            {
+                AbstractFeature f = features.get(id);
+                if (f != null)
+                    selectedFeatures.add(f);
+            }
+        }
+        
+        // case of ROI
+        else if (filter.getRoi() != null)
+        {
+            Polygon roi = filter.getRoi();
+            for (AbstractFeature f: features.values())
+            {
+                Geometry geom = toJtsGeometry(f.getLocation());
+                if (geom != null && roi.intersects(geom))
+                    selectedFeatures.add(f);
+            }
+        }
+        
+        // else return all features
+        else
+            selectedFeatures.addAll(features.values());
+        
+        return selectedFeatures.iterator();
+    }
+    
+    
+    /*
+     * Geometries read back from the log may not be backed by JTS objects
+     * so we convert them when needed
+     */
+    protected Geometry toJtsGeometry(AbstractGeometry geom)
+    {
+        if (geom == null || geom instanceof Geometry)
+            return (Geometry)geom;
+        
+        if (geom instanceof Point)
+        {
+            double[] pos = ((Point)geom).getPos();
+            return jtsFactory.createPoint(new Coordinate(pos[0], pos[1]));
+        }
+        
+        double[] posList = null;
+        if (geom instanceof LineString)
+            posList = ((LineString)geom).getPosList();
+        else if (geom instanceof net.opengis.gml.v32.Polygon)
+            posList = ((net.opengis.gml.v32.Polygon)geom).getExterior().getPosList();
+        
+        if (posList == null)
+            return null;
+        
+        int numDims = getNumDims(geom, posList);
+        Coordinate[] coords = new Coordinate[posList.length / numDims];
+        for (int i = 0; i < coords.length; i++)
+            coords[i] = new Coordinate(posList[i*numDims], posList[i*numDims+1]);
+        return jtsFactory.createLineString(coords);
+    }
+    
+    
+    private int getNumDims(AbstractGeometry geom, double[] posList)
+    {
+        if (geom.isSetSrsDimension())
+            return geom.getSrsDimension();
+        return (posList.length % 2 == 0) ? 2 : 3;
+    }
+
+
+    @Override
+    public synchronized void store(AbstractFeature f)
+    {
+        // first stored version of a feature is kept
+        if (features.containsKey(f.getUniqueIdentifier()))
+            return;
+        
+        try
+        {
+            ByteArrayOutputStream os = new ByteArrayOutputStream(1024);
+            new GMLUtils(GMLUtils.V3_2).writeFeature(os, f, false);
+            pendingEntries.add(new Entry(MetadataLog.OP_PUT, f.getUniqueIdentifier(), Double.NaN, os.toByteArray()));
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Cannot serialize feature " + f.getUniqueIdentifier(), e);
+        }
+        
+        addFeature(f);
+    }
+    
+    
+    private void addFeature(AbstractFeature f)
+    {
+        features.put(f.getUniqueIdentifier(), f);
+        
+        // update spatial extent
+        AbstractGeometry geom = f.getLocation();
+        double[] coords;
+        int numDims;
+        if (geom instanceof Point)
+        {
+            coords = ((Point)geom).getPos();
+            numDims = coords.length;
+        }
+        else if (geom instanceof LineString)
+        {
+            coords = ((LineString)geom).getPosList();
+            numDims = getNumDims(geom, coords);
+        }
+        else if (geom instanceof net.opengis.gml.v32.Polygon)
+        {
+            coords = ((net.opengis.gml.v32.Polygon)geom).getExterior().getPosList();
+            numDims = getNumDims(geom, coords);
+        }
+        else
+            return;
+        
+        if (coords == null || numDims < 2 || numDims > 3)
+            return;
+        
+        for (int i = 0; i + numDims <= coords.length; i += numDims)
+        {
+            for (int d = 0; d < numDims; d++)
+            {
+                extentCoords[d] = Math.min(extentCoords[d], coords[i+d]);
+                extentCoords[d+3] = Math.max(extentCoords[d+3], coords[i+d]);
+            }
+        }
+        
+        if (numDims == 3)
+            has3dExtent = true;
+    }
+    
+    
+    private void resetExtent()
+    {
+        for (int d = 0; d < 3; d++)
+        {
+            extentCoords[d] = Double.POSITIVE_INFINITY;
+            extentCoords[d+3] = Double.NEGATIVE_INFINITY;
+        }
+        has3dExtent = false;
+    }
+}
@@ -0,0 +1,215 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * <p>
+ * Append-only log used to persist metadata objects (data source descriptions,
+ * features of interest) as a sequence of put/remove entries.<br/>
+ * Only entries added since the last commit are written, so committing
+ * doesn't get slower as the number of objects grows. The log is rewritten
+ * compactly when it is loaded and contains removed or overwritten entries.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+class MetadataLog
+{
+    static final byte OP_PUT = 1;
+    static final byte OP_REMOVE = 2;
+    static final String TEMP_EXT = ".tmp";
+    
+    final File file;
+    
+    
+    static class Entry
+    {
+        final byte op;
+        final String key;
+        final double time;
+        final byte[] payload;
+        
+        Entry(byte op, String key, double time, byte[] payload)
+        {
+            this.op = op;
+            this.key = key;
+            this.time = time;
+            this.payload = payload;
+        }
+    }
+    
+    
+    MetadataLog(File file)
+    {
+        this.file = file;
+    }
+    
+    
+    /**
+     * Reads all entries of the log.<br/>
+     * A partially written entry at the end of the log (i.e. if the process
+     * was killed while committing) is discarded.
+     * @return list of entries in the order they were appended
+     * @throws IOException
+     */
+    List<Entry> load() throws IOException
+    {
+        List<Entry> entries = new ArrayList<>();
+        if (!file.exists())
+            return entries;
+        
+        long validLength = 0;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            while (true)
+            {
+                byte op = dis.readByte();
+                String key = dis.readBoolean() ? dis.readUTF() : null;
+                double time = dis.readDouble();
+                byte[] payload = null;
+                int length = dis.readInt();
+                if (length >= 0)
+                {
+                    payload = new byte[length];
+                    dis.readFully(payload);
+                }
+                
+                if (op != OP_PUT && op != OP_REMOVE)
+                    throw new IOException("Corrupted metadata log: " + file);
+                
+                entries.add(new Entry(op, key, time, payload));
+                validLength += getEntrySize(key, payload);
+            }
+        }
+        catch (EOFException e)
+        {
+            // end of log
+        }
+        
+        // truncate partial entry
+        if (validLength < file.length())
+        {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+            {
+                raf.setLength(validLength);
+            }
+        }
+        
+        return entries;
+    }
+    
+    
+    private static long getEntrySize(String key, byte[] payload)
+    {
+        long size = 1 + 1 + 8 + 4;
+        if (key != null)
+            size += 2 + getUtfLength(key);
+        if (payload != null)
+            size += payload.length;
+        return size;
+    }
+    
+    
+    private static int getUtfLength(String s)
+    {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F)
+                length++;
+            else if (c > 0x07FF)
+                length += 3;
+            else
+                length += 2;
+        }
+        return length;
+    }
+    
+    
+    /**
+     * Appends entries at the end of the log and syncs it to disk
+     * @param entries
+     * @throws IOException
+     */
+    void append(List<Entry> entries) throws IOException
+    {
+        if (entries.isEmpty())
+            return;
+        
+        try (FileOutputStream fos = new FileOutputStream(file, true))
+        {
+            writeEntries(fos, entries);
+        }
+    }
+    
+    
+    /**
+     * Atomically replaces the whole log with the given entries
+     * @param entries
+     * @throws IOException
+     */
+    void rewrite(List<Entry> entries) throws IOException
+    {
+        File tmpFile = new File(file.getPath() + TEMP_EXT);
+        try (FileOutputStream fos = new FileOutputStream(tmpFile))
+        {
+            writeEntries(fos, entries);
+        }
+        
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    
+    private void writeEntries(FileOutputStream fos, List<Entry> entries) throws IOException
+    {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos, 16*1024));
+        for (Entry e: entries)
+        {
+            dos.writeByte(e.op);
+            dos.writeBoolean(e.key != null);
+            if (e.key != null)
+                dos.writeUTF(e.key);
+            dos.writeDouble(e.time);
+            if (e.payload != null)
+            {
+                dos.writeInt(e.payload.length);
+                dos.write(e.payload);
+            }
+            else
+                dos.writeInt(-1);
+        }
+        
+        dos.flush();
+        fos.getFD().sync();
+    }
+}
@@ -0,0 +1,588 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import net.opengis.gml.v32.AbstractFeature;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import org.sensorhub.api.persistence.DataKey;
+import org.sensorhub.api.persistence.IDataFilter;
+import org.sensorhub.api.persistence.IDataRecord;
+import org.sensorhub.api.persistence.IFoiFilter;
+import org.sensorhub.api.persistence.IMultiSourceStorage;
+import org.sensorhub.api.persistence.IObsFilter;
+import org.sensorhub.api.persistence.IObsStorage;
+import org.sensorhub.api.persistence.IRecordStoreInfo;
+import org.sensorhub.api.persistence.ObsPeriod;
+import org.sensorhub.utils.FileUtils;
+import org.slf4j.Logger;
+import org.vast.util.Bbox;
+
+
+/**
+ * <p>
+ * Columnar implementation of an observation storage that can be fed by
+ * multiple producers. Each producer gets its own {@link ObsStore} in a
+ * separate sub-directory.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+class MultiProducerObsStore extends ObsStore implements IMultiSourceStorage<IObsStorage>
+{
+    static final String PRODUCERS_DIR = "producers";
+    static final String PRODUCER_ID_FILE = "producer.id";
+    
+    final ConcurrentSkipListMap<String, ObsStore> obsStores = new ConcurrentSkipListMap<>();
+    
+    
+    /* merge state of a single producer */
+    static final class ProducerCursor
+    {
+        final int index;
+        final RecordSeries series;
+        Iterator<SeriesRecord> iterator; // null until sub-iterator is opened
+        SeriesRecord nextRecord;
+        double nextTime; // lower bound of next record time until sub-iterator is opened
+        
+        ProducerCursor(int index, RecordSeries series, double minTime)
+        {
+            this.index = index;
+            this.series = series;
+            this.nextTime = minTime;
+        }
+    }
+    
+    
+    /* order cursors by next record time, then by producer index to keep ordering stable */
+    static final Comparator<ProducerCursor> CURSOR_COMPARATOR = new Comparator<ProducerCursor>()
+    {
+        @Override
+        public int compare(ProducerCursor c1, ProducerCursor c2)
+        {
+            int comp = Double.compare(c1.nextTime, c2.nextTime);
+            if (comp != 0)
+                return comp;
+            return Integer.compare(c1.index, c2.index);
+        }
+    };
+    
+    
+    /*
+     * k-way merge of records from several producers, sorted by time stamp.
+     * Sub-iterators are only opened when a producer can contribute the next record.
+     */
+    abstract class MultiProducerTimeSortIterator<ObjectType> implements Iterator<ObjectType>
+    {
+        final IDataFilter filter;
+        final PriorityQueue<ProducerCursor> cursors;
+        SeriesRecord nextRecord;
+        
+        MultiProducerTimeSortIterator(Collection<String> producerIDs, IDataFilter filter)
+        {
+            this.filter = filter;
+            this.cursors = new PriorityQueue<>(Math.max(1, producerIDs.size()), CURSOR_COMPARATOR);
+            
+            String recordType = filter.getRecordType();
+            double[] timeRange = filter.getTimeStampRange();
+            double begin = (timeRange == null) ? Double.NEGATIVE_INFINITY : timeRange[0];
+            double end = (timeRange == null) ? Double.POSITIVE_INFINITY : timeRange[1];
+            
+            // add a cursor for each producer with data in the requested time range
+            int i = 0;
+            for (String producerID: producerIDs)
+            {
+                RecordSeries series = getEntityStorage(producerID).dataStores.get(recordType);
+                if (series == null)
+                    continue;
+                
+                double[] dataTimeRange = series.getDataTimeRange();
+                if (Double.isNaN(dataTimeRange[0]) || dataTimeRange[1] < begin || dataTimeRange[0] > end)
+                    continue;
+                
+                cursors.add(new ProducerCursor(i++, series, Math.max(begin, dataTimeRange[0])));
+            }
+            
+            // call it once to init things properly
+            nextRecord();
+        }
+        
+        @Override
+        public final boolean hasNext()
+        {
+            return nextRecord != null;
+        }
+
+        public final SeriesRecord nextRecord()
+        {
+            SeriesRecord rec = nextRecord;
+            nextRecord = null;
+            
+            ProducerCursor cursor;
+            while ((cursor = cursors.poll()) != null)
+            {
+                // open sub-iterator when cursor reaches the head of the queue for the first time
+                if (cursor.iterator == null)
+                {
+                    cursor.iterator = cursor.series.getRecordIterator(filter, true);
+                    if (fetchNext(cursor))
+                        cursors.add(cursor);
+                    continue;
+                }
+                
+                // otherwise it holds the record with earliest time stamp among producers
+                nextRecord = cursor.nextRecord;
+                if (fetchNext(cursor))
+                    cursors.add(cursor);
+                break;
+            }
+            
+            return rec;
+        }
+        
+        private boolean fetchNext(ProducerCursor cursor)
+        {
+            if (!cursor.iterator.hasNext())
+            {
+                cursor.nextRecord = null;
+                return false;
+            }
+            
+            cursor.nextRecord = cursor.iterator.next();
+            cursor.nextTime = cursor.nextRecord.time;
+            return true;
+        }
+    
+        @Override
+        public final void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+    
+    
+    MultiProducerObsStore(ColumnarStorageConfig config, File dir, Logger log)
+    {
+        super(config, dir, null, log);
+    }
+    
+    
+    @Override
+    void load() throws IOException
+    {
+        super.load();
+        
+        obsStores.clear();
+        File[] producerDirs = new File(dir, PRODUCERS_DIR).listFiles();
+        if (producerDirs != null)
+        {
+            for (File producerDir: producerDirs)
+            {
+                File idFile = new File(producerDir, PRODUCER_ID_FILE);
+                if (!idFile.exists())
+                    continue;
+                
+                String producerID = new String(Files.readAllBytes(idFile.toPath()), StandardCharsets.UTF_8);
+                ObsStore obsStore = new ObsStore(config, producerDir, producerID, log);
+                obsStore.load();
+                obsStores.put(producerID, obsStore);
+            }
+        }
+    }
+    
+    
+    @Override
+    void commit() throws IOException
+    {
+        super.commit();
+        for (ObsStore obsStore: obsStores.values())
+            obsStore.commit();
+    }
+    
+    
+    @Override
+    void rollback() throws IOException
+    {
+        super.rollback();
+        for (ObsStore obsStore: obsStores.values())
+            obsStore.rollback();
+    }
+    
+    
+    protected final ObsStore getEntityStorage(String entityID)
+    {
+        ObsStore obsStore = obsStores.get(entityID);
+        if (obsStore == null)
+            throw new IllegalArgumentException("No data store for entity " + entityID);
+        return obsStore;
+    }
+    
+    
+    protected Collection<String> getSelectedProducerIDs(Set<String> producerIDs)
+    {
+        // use producer list from filter or use all producers
+        if (producerIDs == null || producerIDs.isEmpty())
+            return this.getProducerIDs();
+        return producerIDs;
+    }
+    
+    
+    @Override
+    public Collection<String> getProducerIDs()
+    {
+        return Collections.unmodifiableSet(obsStores.keySet());
+    }
+    
+    
+    @Override
+    public IObsStorage getDataStore(String producerID)
+    {
+        return getEntityStorage(producerID);
+    }
+    
+    
+    @Override
+    public synchronized IObsStorage addDataStore(String producerID)
+    {
+        ObsStore obsStore = obsStores.get(producerID);
+        if (obsStore != null)
+            return obsStore;
+        
+        try
+        {
+            // find unused directory name
+            File producersDir = new File(dir, PRODUCERS_DIR);
+            String dirName = FileUtils.safeFileName(producerID);
+            File producerDir = new File(producersDir, dirName);
+            for (int i = 2; producerDir.exists(); i++)
+                producerDir = new File(producersDir, dirName + "_" + i);
+            
+            producerDir.mkdirs();
+            Files.write(new File(producerDir, PRODUCER_ID_FILE).toPath(), producerID.getBytes(StandardCharsets.UTF_8));
+            obsStore = new ObsStore(config, producerDir, producerID, log);
+            obsStore.load();
+            
+            // create all record types already registered with this storage
+            for (IRecordStoreInfo rsInfo: dataStores.values())
+                obsStore.addRecordStore(rsInfo.getName(), rsInfo.getRecordDescription().copy(), rsInfo.getRecommendedEncoding());
+            
+            obsStores.put(producerID, obsStore);
+            return obsStore;
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot create data store for producer " + producerID, e);
+        }
+    }
+
+
+    @Override
+    public void addRecordStore(String name, DataComponent recordStructure, DataEncoding recommendedEncoding)
+    {
+        super.addRecordStore(name, recordStructure, recommendedEncoding);
+        
+        // also add record type to all data stores
+        for (ObsStore dataStore: obsStores.values())
+            dataStore.addRecordStore(name, recordStructure.copy(), recommendedEncoding);
+    }
+
+
+    @Override
+    public int getNumRecords(String recordType)
+    {
+        int numRecords = 0;
+        
+        for (ObsStore dataStore: obsStores.values())
+        {
+            RecordSeries series = dataStore.dataStores.get(recordType);
+            if (series != null)
+                numRecords += series.getNumRecords();
+        }
+        
+        return numRecords;
+    }
+
+
+    @Override
+    public double[] getRecordsTimeRange(String recordType)
+    {
+        double[] timeRange = new double[] {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        
+        for (ObsStore dataStore: obsStores.values())
+        {
+            RecordSeries series = dataStore.dataStores.get(recordType);
+            if (series != null)
+            {
+                double[] storeTimeRange = series.getDataTimeRange();
+                if (storeTimeRange[0] < timeRange[0])
+                    timeRange[0] = storeTimeRange[0];
+                if (storeTimeRange[1] > timeRange[1])
+                    timeRange[1] = storeTimeRange[1];
+            }
+        }
+        
+        if (Double.isInfinite(timeRange[0]))
+            timeRange[0] = timeRange[1] = Double.NaN;
+        
+        return timeRange;
+    }
+    
+    
+    @Override
+    public int[] getEstimatedRecordCounts(String recordType, double[] timeStamps)
+    {
+        int [] counts = new int[timeStamps.length-1];
+        
+        for (ObsStore dataStore: obsStores.values())
+        {
+            RecordSeries series = dataStore.dataStores.get(recordType);
+            if (series == null)
+                continue;
+            
+            int[] producerCounts = series.getEstimatedRecordCounts(timeStamps);
+            for (int i = 0; i < counts.length; i++)
+                counts[i] += producerCounts[i];
+        }
+        
+        return counts;
+    }
+
+
+    @Override
+    public DataBlock getDataBlock(DataKey key)
+    {
+        return getEntityStorage(key.producerID).getDataBlock(key);
+    }
+
+
+    @Override
+    public Iterator<DataBlock> getDataBlockIterator(IDataFilter filter)
+    {
+        return new MultiProducerTimeSortIterator<DataBlock>(getSelectedProducerIDs(filter.getProducerIDs()), filter)
+        {
+            @Override
+            public DataBlock next()
+            {
+                return nextRecord().data;
+            }
+        };
+    }
+
+
+    @Override
+    public Iterator<? extends IDataRecord> getRecordIterator(IDataFilter filter)
+    {
+        return new MultiProducerTimeSortIterator<IDataRecord>(getSelectedProducerIDs(filter.getProducerIDs()), filter)
+        {
+            @Override
+            public IDataRecord next()
+            {
+                return nextRecord();
+            }
+        };
+    }
+
+
+    @Override
+    public int getNumMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        int numRecords = 0;
+        for (String producerID: getSelectedProducerIDs(filter.getProducerIDs()))
+        {
+            numRecords += getEntityStorage(producerID).getNumMatchingRecords(filter, maxCount);
+            if (numRecords > maxCount)
+                return numRecords;
+        }
+        
+        return numRecords;
+    }
+
+
+    @Override
+    long countMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        // stop as soon as threshold is exceeded
+        long numRecords = 0;
+        for (String producerID: getSelectedProducerIDs(filter.getProducerIDs()))
+        {
+            numRecords += getEntityStorage(producerID).countMatchingRecords(filter, maxCount - numRecords);
+            if (numRecords > maxCount)
+                return numRecords;
+        }
+        
+        return numRecords;
+    }
+
+
+    @Override
+    public void storeRecord(DataKey key, DataBlock data)
+    {
+        getEntityStorage(key.producerID).storeRecord(key, data);
+    }
+
+
+    @Override
+    public void updateRecord(DataKey key, DataBlock data)
+    {
+        getEntityStorage(key.producerID).updateRecord(key, data);
+    }
+
+
+    @Override
+    public void removeRecord(DataKey key)
+    {
+        getEntityStorage(key.producerID).removeRecord(key);
+    }
+
+
+    @Override
+    public int removeRecords(IDataFilter filter)
+    {
+        int numDeleted = 0;
+        for (String producerID: getSelectedProducerIDs(filter.getProducerIDs()))
+            numDeleted += getEntityStorage(producerID).removeRecords(filter);
+        return numDeleted;
+    }
+
+
+    @Override
+    public int getNumFois(IFoiFilter filter)
+    {
+        int numFois = 0;
+        for (String producerID: getSelectedProducerIDs(filter.getProducerIDs()))
+            numFois += getEntityStorage(producerID).getNumFois(filter);
+        return numFois;
+    }
+
+
+    @Override
+    public Bbox getFoisSpatialExtent()
+    {
+        Bbox bbox = new Bbox();
+        for (ObsStore dataStore: obsStores.values())
+        {
+            Bbox entityBbox = dataStore.getFoisSpatialExtent();
+            if (entityBbox != null)
+                bbox.add(entityBbox);
+        }
+        
+        if (bbox.isNull())
+            return null;
+        return bbox;
+    }
+
+
+    @Override
+    public Iterator<String> getFoiIDs(IFoiFilter filter)
+    {
+        // we're forced to temporarily hold the whole set in memory to remove duplicates
+        LinkedHashSet<String> foiIDs = new LinkedHashSet<>();
+        for (String producerID: getSelectedProducerIDs(filter.getProducerIDs()))
+        {
+            Iterator<String> it = getEntityStorage(producerID).getFoiIDs(filter);
+            while (it.hasNext())
+                foiIDs.add(it.next());
+        }
+        
+        return foiIDs.iterator();
+    }
+
+
+    @Override
+    public Iterator<AbstractFeature> getFois(IFoiFilter filter)
+    {
+        // we're forced to temporarily hold the whole set in memory to remove duplicates
+        LinkedHashSet<AbstractFeature> fois = new LinkedHashSet<>();
+        for (String producerID: getSelectedProducerIDs(filter.getProducerIDs()))
+        {
+            Iterator<AbstractFeature> it = getEntityStorage(producerID).getFois(filter);
+            while (it.hasNext())
+                fois.add(it.next());
+        }
+        
+        return fois.iterator();
+    }
+    
+    
+    @Override
+    public Iterator<ObsPeriod> getFoiTimeRanges(final IObsFilter filter)
+    {
+        final Iterator<ObsStore> dataStoresIt = obsStores.values().iterator();
+        
+        return new Iterator<ObsPeriod>()
+        {
+            Iterator<ObsPeriod> currentIterator;
+            
+            @Override
+            public boolean hasNext()
+            {
+                while (currentIterator == null || !currentIterator.hasNext())
+                {
+                    if (!dataStoresIt.hasNext())
+                        return false;
+                    
+                    ObsStore dataStore = dataStoresIt.next();
+                    if (dataStore.dataStores.containsKey(filter.getRecordType()))
+                        currentIterator = dataStore.getFoiTimeRanges(filter);
+                }
+                
+                return true;
+            }
+
+            @Override
+            public ObsPeriod next()
+            {
+                return currentIterator.next();
+            }
+            
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+
+    @Override
+    public void storeFoi(String producerID, AbstractFeature foi)
+    {
+        if (producerID == null)
+            featureStore.store(foi);
+        else
+            getEntityStorage(producerID).storeFoi(producerID, foi);
+    }
+    
+    
+    Map<String, ObsStore> getObsStores()
+    {
+        return obsStores;
+    }
+}
@@ -0,0 +1,575 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+import net.opengis.gml.v32.AbstractFeature;
+import net.opengis.gml.v32.AbstractTimeGeometricPrimitive;
+import net.opengis.gml.v32.TimeInstant;
+import net.opengis.gml.v32.TimePeriod;
+import net.opengis.sensorml.v20.AbstractProcess;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import org.sensorhub.api.persistence.DataKey;
+import org.sensorhub.api.persistence.IDataFilter;
+import org.sensorhub.api.persistence.IDataRecord;
+import org.sensorhub.api.persistence.IFoiFilter;
+import org.sensorhub.api.persistence.IObsFilter;
+import org.sensorhub.api.persistence.IObsStorage;
+import org.sensorhub.api.persistence.IRecordStoreInfo;
+import org.sensorhub.api.persistence.ObsPeriod;
+import org.sensorhub.utils.FileUtils;
+import org.slf4j.Logger;
+import org.vast.sensorML.SMLUtils;
+import org.vast.util.Bbox;
+
+
+/**
+ * <p>
+ * Columnar implementation of an observation storage fed by a single producer.<br/>
+ * Each record type is stored in its own {@link RecordSeries} directory, while
+ * data source descriptions and features of interest are persisted in
+ * append-only metadata logs.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+class ObsStore implements IObsStorage
+{
+    static final String RECORDS_DIR = "records";
+    static final String DESC_LOG_FILE = "descriptions.log";
+    
+    final ColumnarStorageConfig config;
+    final File dir;
+    final String producerID;
+    final Logger log;
+    final FeatureStore featureStore;
+    final MetadataLog descLog;
+    final ConcurrentSkipListMap<Double, AbstractProcess> descriptions = new ConcurrentSkipListMap<>();
+    final List<MetadataLog.Entry> pendingDescEntries = new ArrayList<>();
+    final ConcurrentSkipListMap<String, RecordSeries> dataStores = new ConcurrentSkipListMap<>();
+    
+    
+    ObsStore(ColumnarStorageConfig config, File dir, String producerID, Logger log)
+    {
+        this.config = config;
+        this.dir = dir;
+        this.producerID = producerID;
+        this.log = log;
+        this.featureStore = new FeatureStore(dir);
+        this.descLog = new MetadataLog(new File(dir, DESC_LOG_FILE));
+    }
+    
+    
+    /*
+     * Loads metadata and segment indexes from disk
+     */
+    void load() throws IOException
+    {
+        dir.mkdirs();
+        featureStore.load();
+        loadDescriptions();
+        
+        // load record series
+        dataStores.clear();
+        File[] seriesDirs = new File(dir, RECORDS_DIR).listFiles();
+        if (seriesDirs != null)
+        {
+            for (File seriesDir: seriesDirs)
+            {
+                if (new File(seriesDir, RecordSeries.INFO_FILE).exists())
+                {
+                    RecordSeries series = new RecordSeries(this, seriesDir);
+                    dataStores.put(series.getName(), series);
+                }
+            }
+        }
+    }
+    
+    
+    protected synchronized void loadDescriptions() throws IOException
+    {
+        descriptions.clear();
+        pendingDescEntries.clear();
+        
+        SMLUtils smlUtils = new SMLUtils(SMLUtils.V2_0);
+        List<MetadataLog.Entry> entries = descLog.load();
+        for (MetadataLog.Entry entry: entries)
+        {
+            if (entry.op == MetadataLog.OP_PUT)
+            {
+                try
+                {
+                    AbstractProcess process = smlUtils.readProcess(new ByteArrayInputStream(entry.payload));
+                    descriptions.put(entry.time, process);
+                }
+                catch (Exception e)
+                {
+                    throw new IOException("Cannot read data source description", e);
+                }
+            }
+            else
+                descriptions.remove(entry.time);
+        }
+        
+        // compact log if it contains removed or replaced descriptions
+        if (entries.size() > descriptions.size())
+        {
+            List<MetadataLog.Entry> liveEntries = new ArrayList<>(descriptions.size());
+            for (MetadataLog.Entry entry: entries)
+            {
+                if (entry.op == MetadataLog.OP_PUT && descriptions.containsKey(entry.time))
+                    liveEntries.add(entry);
+            }
+            
+            // keep only the last version of each description
+            Map<Double, MetadataLog.Entry> lastEntries = new ConcurrentSkipListMap<>();
+            for (MetadataLog.Entry entry: liveEntries)
+                lastEntries.put(entry.time, entry);
+            descLog.rewrite(new ArrayList<>(lastEntries.values()));
+        }
+    }
+    
+    
+    /*
+     * Writes buffered records and new metadata to disk
+     */
+    void commit() throws IOException
+    {
+        for (RecordSeries series: dataStores.values())
+            series.flush();
+        
+        featureStore.commit();
+        
+        synchronized (this)
+        {
+            descLog.append(pendingDescEntries);
+            pendingDescEntries.clear();
+        }
+    }
+    
+    
+    /*
+     * Discards buffered records and metadata changes since last commit
+     */
+    void rollback() throws IOException
+    {
+        for (RecordSeries series: dataStores.values())
+            series.rollback();
+        
+        featureStore.rollback();
+        loadDescriptions();
+    }
+    
+    
+    @Override
+    public AbstractProcess getLatestDataSourceDescription()
+    {
+        Entry<Double, AbstractProcess> entry = descriptions.lastEntry();
+        return entry != null ? entry.getValue() : null;
+    }
+
+
+    @Override
+    public List<AbstractProcess> getDataSourceDescriptionHistory(double startTime, double endTime)
+    {
+        List<AbstractProcess> processList = new ArrayList<>(descriptions.subMap(startTime, true, endTime, true).values());
+        return Collections.unmodifiableList(processList);
+    }
+
+
+    @Override
+    public AbstractProcess getDataSourceDescriptionAtTime(double time)
+    {
+        Entry<Double, AbstractProcess> entry = descriptions.floorEntry(time);
+        return entry != null ? entry.getValue() : null;
+    }
+    
+    
+    protected synchronized void storeDataSourceDescription(AbstractProcess process, boolean update)
+    {
+        List<Double> times = new ArrayList<>();
+        
+        if (process.getNumValidTimes() > 0)
+        {
+            // we add the description in index for each validity period/instant
+            for (AbstractTimeGeometricPrimitive validTime: process.getValidTimeList())
+            {
+                double time = Double.NaN;
+                
+                if (validTime instanceof TimeInstant)
+                    time = ((TimeInstant) validTime).getTimePosition().getDecimalValue();
+                else if (validTime instanceof TimePeriod)
+                    time = ((TimePeriod) validTime).getBeginPosition().getDecimalValue();
+                
+                if (!Double.isNaN(time))
+                    times.add(time);
+            }
+        }
+        else
+        {
+            times.add(System.currentTimeMillis() / 1000.);
+        }
+        
+        byte[] payload = null;
+        for (double time: times)
+        {
+            if (update)
+                descriptions.put(time, process);
+            else if (descriptions.putIfAbsent(time, process) != null)
+                continue;
+            
+            if (payload == null)
+                payload = serializeProcess(process);
+            pendingDescEntries.add(new MetadataLog.Entry(MetadataLog.OP_PUT, null, time, payload));
+        }
+    }
+    
+    
+    private byte[] serializeProcess(AbstractProcess process)
+    {
+        try
+        {
+            ByteArrayOutputStream os = new ByteArrayOutputStream(4096);
+            new SMLUtils(SMLUtils.V2_0).writeProcess(os, process, false);
+            return os.toByteArray();
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Cannot serialize data source description " + process.getUniqueIdentifier(), e);
+        }
+    }
+
+
+    @Override
+    public void storeDataSourceDescription(AbstractProcess process)
+    {
+        storeDataSourceDescription(process, false);
+    }
+
+
+    @Override
+    public void updateDataSourceDescription(AbstractProcess process)
+    {
+        storeDataSourceDescription(process, true);
+    }
+
+
+    @Override
+    public synchronized void removeDataSourceDescription(double time)
+    {
+        Entry<Double, AbstractProcess> entry = descriptions.floorEntry(time);
+        if (entry != null)
+        {
+            descriptions.remove(entry.getKey());
+            pendingDescEntries.add(new MetadataLog.Entry(MetadataLog.OP_REMOVE, null, entry.getKey(), null));
+        }
+    }
+
+
+    @Override
+    public synchronized void removeDataSourceDescriptionHistory(double startTime, double endTime)
+    {
+        Iterator<Entry<Double, AbstractProcess>> it = descriptions.subMap(startTime, true, endTime, true).entrySet().iterator();
+        while (it.hasNext())
+        {
+            Entry<Double, AbstractProcess> entry = it.next();
+            AbstractProcess sml = entry.getValue();
+            
+            // get end of validity of process description
+            double endValidity = Double.NaN;
+            AbstractTimeGeometricPrimitive validTime = sml.getValidTimeList().get(0);
+            if (validTime instanceof TimePeriod)
+                endValidity = ((TimePeriod) validTime).getEndPosition().getDecimalValue();
+            
+            // check that end of validity is also within time range
+            // if end of validity is now, endValidity will be NaN
+            // if this is the last description returned, don't remove it if end of validity is now
+            if (endValidity <= endTime || (Double.isNaN(endValidity) && it.hasNext()))
+            {
+                it.remove();
+                pendingDescEntries.add(new MetadataLog.Entry(MetadataLog.OP_REMOVE, null, entry.getKey(), null));
+            }
+        }
+    }
+
+
+    @Override
+    public void addRecordStore(String name, DataComponent recordStructure, DataEncoding recommendedEncoding)
+    {
+        try
+        {
+            recordStructure.setName(name);
+            
+            // find unused directory name
+            File recordsDir = new File(dir, RECORDS_DIR);
+            String dirName = FileUtils.safeFileName(name);
+            File seriesDir = new File(recordsDir, dirName);
+            RecordSeries oldSeries = dataStores.remove(name);
+            if (oldSeries != null)
+                oldSeries.delete();
+            for (int i = 2; seriesDir.exists(); i++)
+                seriesDir = new File(recordsDir, dirName + "_" + i);
+            
+            RecordSeries newSeries = new RecordSeries(this, seriesDir, recordStructure, recommendedEncoding);
+            dataStores.put(name, newSeries);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot create record store " + name, e);
+        }
+    }
+
+
+    @Override
+    public void updateRecordStore(String name, DataComponent recordStructure)
+    {
+        try
+        {
+            recordStructure.setName(name);
+            getRecordStore(name).updateRecordStructure(recordStructure);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot update record store " + name, e);
+        }
+    }
+
+
+    @Override
+    public Map<String, ? extends IRecordStoreInfo> getRecordStores()
+    {
+        return Collections.unmodifiableMap(dataStores);
+    }
+    
+    
+    protected final RecordSeries getRecordStore(String recordType)
+    {
+        RecordSeries dataStore = dataStores.get(recordType);
+        if (dataStore == null)
+            throw new IllegalArgumentException("Record type not found in this storage: " + recordType);
+        return dataStore;
+    }
+
+
+    @Override
+    public int getNumRecords(String recordType)
+    {
+        return getRecordStore(recordType).getNumRecords();
+    }
+
+
+    @Override
+    public double[] getRecordsTimeRange(String recordType)
+    {
+        return getRecordStore(recordType).getDataTimeRange();
+    }
+
+
+    @Override
+    public int[] getEstimatedRecordCounts(String recordType, double[] timeStamps)
+    {
+        return getRecordStore(recordType).getEstimatedRecordCounts(timeStamps);
+    }
+
+
+    @Override
+    public DataBlock getDataBlock(DataKey key)
+    {
+        return getRecordStore(key.recordType).getDataBlock(key);
+    }
+
+
+    @Override
+    public Iterator<DataBlock> getDataBlockIterator(IDataFilter filter)
+    {
+        final Iterator<SeriesRecord> it = getRecordStore(filter.getRecordType()).getRecordIterator(filter, true);
+        
+        return new Iterator<DataBlock>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            @Override
+            public DataBlock next()
+            {
+                return it.next().data;
+            }
+            
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+
+    @Override
+    public Iterator<? extends IDataRecord> getRecordIterator(IDataFilter filter)
+    {
+        return getRecordStore(filter.getRecordType()).getRecordIterator(filter, true);
+    }
+
+
+    @Override
+    public int getNumMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        return getRecordStore(filter.getRecordType()).getNumMatchingRecords(filter, maxCount);
+    }
+
+
+    @Override
+    public boolean hasMoreMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        return countMatchingRecords(filter, maxCount) > maxCount;
+    }
+    
+    
+    /*
+     * Bounded count of matching records (exact only up to maxCount)
+     */
+    long countMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        return getRecordStore(filter.getRecordType()).countMatchingRecords(filter, maxCount);
+    }
+
+
+    @Override
+    public void storeRecord(DataKey key, DataBlock data)
+    {
+        try
+        {
+            getRecordStore(key.recordType).store(key, data);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot store record " + key, e);
+        }
+    }
+
+
+    @Override
+    public void updateRecord(DataKey key, DataBlock data)
+    {
+        try
+        {
+            getRecordStore(key.recordType).update(key, data);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot update record " + key, e);
+        }
+    }
+
+
+    @Override
+    public void removeRecord(DataKey key)
+    {
+        try
+        {
+            getRecordStore(key.recordType).remove(key);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot remove record " + key, e);
+        }
+    }
+
+
+    @Override
+    public int removeRecords(IDataFilter filter)
+    {
+        try
+        {
+            return getRecordStore(filter.getRecordType()).remove(filter);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot remove records matching " + filter, e);
+        }
+    }
+
+
+    @Override
+    public int getNumFois(IFoiFilter filter)
+    {
+        return featureStore.getNumMatchingFeatures(filter);
+    }
+
+
+    @Override
+    public Bbox getFoisSpatialExtent()
+    {
+        return featureStore.getFeaturesSpatialExtent();
+    }
+
+
+    @Override
+    public Iterator<String> getFoiIDs(IFoiFilter filter)
+    {
+        return featureStore.getFeatureIDs(filter);
+    }
+
+
+    @Override
+    public Iterator<AbstractFeature> getFois(IFoiFilter filter)
+    {
+        return featureStore.getFeatures(filter);
+    }
+
+
+    @Override
+    public Iterator<ObsPeriod> getFoiTimeRanges(IObsFilter filter)
+    {
+        return getRecordStore(filter.getRecordType()).getFoiTimePeriods(filter).iterator();
+    }
+
+
+    @Override
+    public void storeFoi(String producerID, AbstractFeature foi)
+    {
+        featureStore.store(foi);
+    }
+
+
+    @Override
+    public boolean isReadSupported()
+    {
+        return true;
+    }
+
+
+    @Override
+    public boolean isWriteSupported()
+    {
+        return true;
+    }
+}
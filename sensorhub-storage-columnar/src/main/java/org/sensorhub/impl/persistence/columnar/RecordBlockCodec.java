@@ -0,0 +1,398 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataType;
+
+
+/**
+ * <p>
+ * Encoder/decoder of segment blocks.<br/>
+ * A block contains up to a few thousand consecutive records and is encoded
+ * column by column: time stamps (delta-of-delta), FOI references (run length),
+ * then one column per scalar field of the record structure. Floating point
+ * fields are XOR compressed, integer fields are delta encoded as zigzag
+ * varints and text fields use a per-block dictionary.<br/>
+ * Records whose size differs from the record structure (e.g. variable size
+ * arrays) can't be split in fixed columns, so blocks containing such records
+ * fall back to serializing each data block.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+class RecordBlockCodec
+{
+    static final byte MODE_COLUMNS = 0;
+    static final byte MODE_SERIALIZED = 1;
+    
+    static final byte COL_DOUBLE = 0;
+    static final byte COL_LONG = 1;
+    static final byte COL_BOOLEAN = 2;
+    static final byte COL_STRING = 3;
+    
+    final DataBlock template;
+    final byte[] columnTypes;
+    
+    
+    /*
+     * Dictionary of FOI IDs referenced by the blocks of a segment
+     */
+    static class FoiDictionary
+    {
+        final List<String> ids = new ArrayList<>();
+        final Map<String, Integer> indexes = new HashMap<>();
+        
+        int indexOf(String foiID)
+        {
+            if (foiID == null)
+                return -1;
+            
+            Integer index = indexes.get(foiID);
+            if (index == null)
+            {
+                index = ids.size();
+                ids.add(foiID);
+                indexes.put(foiID, index);
+            }
+            
+            return index;
+        }
+    }
+    
+    
+    /*
+     * Content of a decoded block
+     */
+    static class DecodedBlock
+    {
+        int numRecords;
+        double[] times;
+        int[] foiIndexes;
+        DataBlock[] data;
+    }
+    
+    
+    RecordBlockCodec(DataComponent recordStruct)
+    {
+        this.template = recordStruct.createDataBlock();
+        this.columnTypes = new byte[template.getAtomCount()];
+        for (int i = 0; i < columnTypes.length; i++)
+            columnTypes[i] = getColumnType(template.getDataType(i));
+    }
+    
+    
+    static byte getColumnType(DataType dataType)
+    {
+        switch (dataType)
+        {
+            case FLOAT:
+            case DOUBLE:
+                return COL_DOUBLE;
+                
+            case BOOLEAN:
+                return COL_BOOLEAN;
+                
+            case BYTE:
+            case UBYTE:
+            case SHORT:
+            case USHORT:
+            case INT:
+            case UINT:
+            case LONG:
+            case ULONG:
+                return COL_LONG;
+                
+            default:
+                return COL_STRING;
+        }
+    }
+    
+    
+    byte[] encode(List<SeriesRecord> records, int from, int to, FoiDictionary foiDict) throws IOException
+    {
+        int numRecords = to - from;
+        
+        // use columns only if all records match the record structure
+        boolean useColumns = true;
+        for (int i = from; i < to; i++)
+        {
+            if (records.get(i).data.getAtomCount() != columnTypes.length)
+            {
+                useColumns = false;
+                break;
+            }
+        }
+        
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(numRecords * (columnTypes.length + 2) + 64);
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(useColumns ? MODE_COLUMNS : MODE_SERIALIZED);
+        dos.writeInt(numRecords);
+        
+        // time stamps
+        double[] times = new double[numRecords];
+        for (int i = 0; i < numRecords; i++)
+            times[i] = records.get(from + i).time;
+        BitOutput bits = new BitOutput(numRecords);
+        TimestampCodec.encode(times, numRecords, bits);
+        writeSection(dos, bits);
+        
+        // FOI runs
+        bits = new BitOutput(16);
+        int runFoi = -2;
+        int runLength = 0;
+        for (int i = from; i < to; i++)
+        {
+            int foiIndex = foiDict.indexOf(records.get(i).foiID);
+            if (foiIndex != runFoi && runLength > 0)
+            {
+                bits.writeVarLong(runFoi + 1);
+                bits.writeVarLong(runLength);
+                runLength = 0;
+            }
+            runFoi = foiIndex;
+            runLength++;
+        }
+        bits.writeVarLong(runFoi + 1);
+        bits.writeVarLong(runLength);
+        writeSection(dos, bits);
+        
+        // record values
+        if (useColumns)
+        {
+            for (int j = 0; j < columnTypes.length; j++)
+            {
+                bits = new BitOutput(numRecords * 2);
+                encodeColumn(j, records, from, to, bits);
+                writeSection(dos, bits);
+            }
+        }
+        else
+        {
+            for (int i = from; i < to; i++)
+            {
+                ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+                ObjectOutputStream oos = new ObjectOutputStream(recordBytes);
+                oos.writeObject(records.get(i).data);
+                oos.close();
+                dos.writeInt(recordBytes.size());
+                recordBytes.writeTo(dos);
+            }
+        }
+        
+        dos.flush();
+        return bos.toByteArray();
+    }
+    
+    
+    protected void encodeColumn(int index, List<SeriesRecord> records, int from, int to, BitOutput out)
+    {
+        switch (columnTypes[index])
+        {
+            case COL_DOUBLE:
+                double[] values = new double[to - from];
+                for (int i = from; i < to; i++)
+                    values[i - from] = records.get(i).data.getDoubleValue(index);
+                XorDoubleCodec.encode(values, values.length, out);
+                break;
+                
+            case COL_LONG:
+                long prev = 0;
+                for (int i = from; i < to; i++)
+                {
+                    long val = records.get(i).data.getLongValue(index);
+                    out.writeZigZag(val - prev);
+                    prev = val;
+                }
+                break;
+                
+            case COL_BOOLEAN:
+                for (int i = from; i < to; i++)
+                    out.writeBit(records.get(i).data.getBooleanValue(index));
+                break;
+                
+            default:
+                Map<String, Integer> dict = new HashMap<>();
+                for (int i = from; i < to; i++)
+                {
+                    String val = records.get(i).data.getStringValue(index);
+                    if (val == null)
+                    {
+                        out.writeVarLong(0);
+                        continue;
+                    }
+                    
+                    Integer code = dict.get(val);
+                    if (code != null)
+                    {
+                        out.writeVarLong(code);
+                    }
+                    else
+                    {
+                        // new dictionary entry
+                        code = dict.size() + 1;
+                        dict.put(val, code);
+                        out.writeVarLong(code);
+                        byte[] utf8 = val.getBytes(StandardCharsets.UTF_8);
+                        out.writeVarLong(utf8.length);
+                        for (byte b: utf8)
+                            out.writeBits(b, 8);
+                    }
+                }
+        }
+    }
+    
+    
+    private void writeSection(DataOutputStream dos, BitOutput bits) throws IOException
+    {
+        dos.writeInt(bits.byteLength());
+        dos.write(bits.buf, 0, bits.byteLength());
+    }
+    
+    
+    /**
+     * Decodes a block
+     * @param bytes encoded block
+     * @param withData true to also decode record values, false to only
+     * decode time stamps and FOI references
+     * @return decoded block
+     * @throws IOException
+     */
+    DecodedBlock decode(byte[] bytes, boolean withData) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        DecodedBlock block = new DecodedBlock();
+        byte mode = buf.get();
+        int numRecords = block.numRecords = buf.getInt();
+        
+        // time stamps
+        int length = buf.getInt();
+        block.times = new double[numRecords];
+        TimestampCodec.decode(new BitInput(bytes, buf.position(), length), numRecords, block.times);
+        buf.position(buf.position() + length);
+        
+        // FOI runs
+        length = buf.getInt();
+        block.foiIndexes = new int[numRecords];
+        BitInput in = new BitInput(bytes, buf.position(), length);
+        int i = 0;
+        while (i < numRecords)
+        {
+            int foiIndex = (int)in.readVarLong() - 1;
+            int runLength = (int)in.readVarLong();
+            for (int k = 0; k < runLength; k++)
+                block.foiIndexes[i++] = foiIndex;
+        }
+        buf.position(buf.position() + length);
+        
+        if (!withData)
+            return block;
+        
+        block.data = new DataBlock[numRecords];
+        if (mode == MODE_COLUMNS)
+        {
+            for (i = 0; i < numRecords; i++)
+                block.data[i] = template.renew();
+            
+            for (int j = 0; j < columnTypes.length; j++)
+            {
+                length = buf.getInt();
+                decodeColumn(j, new BitInput(bytes, buf.position(), length), block.data);
+                buf.position(buf.position() + length);
+            }
+        }
+        else
+        {
+            for (i = 0; i < numRecords; i++)
+            {
+                length = buf.getInt();
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes, buf.position(), length)))
+                {
+                    block.data[i] = (DataBlock)ois.readObject();
+                }
+                catch (ClassNotFoundException e)
+                {
+                    throw new IOException("Cannot deserialize record", e);
+                }
+                buf.position(buf.position() + length);
+            }
+        }
+        
+        return block;
+    }
+    
+    
+    protected void decodeColumn(int index, BitInput in, DataBlock[] data)
+    {
+        int numRecords = data.length;
+        
+        switch (columnTypes[index])
+        {
+            case COL_DOUBLE:
+                double[] values = new double[numRecords];
+                XorDoubleCodec.decode(in, numRecords, values);
+                for (int i = 0; i < numRecords; i++)
+                    data[i].setDoubleValue(index, values[i]);
+                break;
+                
+            case COL_LONG:
+                long val = 0;
+                for (int i = 0; i < numRecords; i++)
+                {
+                    val += in.readZigZag();
+                    data[i].setLongValue(index, val);
+                }
+                break;
+                
+            case COL_BOOLEAN:
+                for (int i = 0; i < numRecords; i++)
+                    data[i].setBooleanValue(index, in.readBit());
+                break;
+                
+            default:
+                List<String> dict = new ArrayList<>();
+                for (int i = 0; i < numRecords; i++)
+                {
+                    int code = (int)in.readVarLong();
+                    if (code == 0)
+                        continue;
+                    
+                    if (code > dict.size())
+                    {
+                        byte[] utf8 = new byte[(int)in.readVarLong()];
+                        for (int k = 0; k < utf8.length; k++)
+                            utf8[k] = (byte)in.readBits(8);
+                        dict.add(new String(utf8, StandardCharsets.UTF_8));
+                    }
+                    
+                    data[i].setStringValue(index, dict.get(code - 1));
+                }
+        }
+    }
+}
@@ -0,0 +1,1129 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import net.opengis.swe.v20.DataEncoding;
+import org.sensorhub.api.persistence.DataKey;
+import org.sensorhub.api.persistence.FeatureFilter;
+import org.sensorhub.api.persistence.IDataFilter;
+import org.sensorhub.api.persistence.IObsFilter;
+import org.sensorhub.api.persistence.IRecordStoreInfo;
+import org.sensorhub.api.persistence.ObsKey;
+import org.sensorhub.api.persistence.ObsPeriod;
+import org.sensorhub.impl.persistence.columnar.RecordBlockCodec.DecodedBlock;
+import org.sensorhub.impl.persistence.columnar.Segment.FoiRun;
+import org.sensorhub.impl.persistence.columnar.Segment.SegmentRetiredException;
+import org.sensorhub.utils.DataComponentChecks;
+import org.vast.swe.SWEUtils;
+import org.vast.xml.DOMHelper;
+import org.w3c.dom.Element;
+import com.vividsolutions.jts.geom.Polygon;
+
+
+/**
+ * <p>
+ * Columnar time series of records of a single type.<br/>
+ * New records are kept in a time sorted write buffer until the storage is
+ * committed. They are then written to immutable segment files, one per time
+ * partition. Segments of a partition are merged in the background of commits
+ * using a binary counter policy (i.e. a segment is merged with the previous
+ * one as soon as it contains at least as many records), so the number of
+ * segments stays logarithmic, and partitions that don't receive new records
+ * anymore end up in a single segment.<br/>
+ * Readers work on immutable snapshots of the segment list and of the write
+ * buffer, so they never block writers for more than the time needed to
+ * publish a new segment list.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+class RecordSeries implements IRecordStoreInfo
+{
+    static final String INFO_FILE = "series.xml";
+    
+    final ObsStore parentStore;
+    final File dir;
+    final String name;
+    volatile DataComponent recordStruct;
+    final DataEncoding recommendedEncoding;
+    volatile RecordBlockCodec codec;
+    
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    final ConcurrentSkipListMap<Double, SeriesRecord> buffer = new ConcurrentSkipListMap<>();
+    final AtomicInteger bufferCount = new AtomicInteger();
+    volatile SeriesState state = new SeriesState(Collections.<Segment>emptyList());
+    final List<Segment> pendingDeletes = new ArrayList<>();
+    long nextSeq;
+    
+    // last block decoded when checking for duplicate time stamps
+    Segment lookupSegment;
+    int lookupBlock;
+    double[] lookupTimes;
+    
+    
+    /*
+     * Immutable list of committed segments, sorted by partition and sequence number
+     */
+    static class SeriesState
+    {
+        final List<Segment> segments;
+        final long numRecords;
+        final double minTime;
+        final double maxTime;
+        
+        SeriesState(List<Segment> segments)
+        {
+            this.segments = Collections.unmodifiableList(segments);
+            
+            long numRecords = 0;
+            double minTime = Double.POSITIVE_INFINITY;
+            double maxTime = Double.NEGATIVE_INFINITY;
+            for (Segment seg: segments)
+            {
+                numRecords += seg.numRecords;
+                minTime = Math.min(minTime, seg.getStartTime());
+                maxTime = Math.max(maxTime, seg.getEndTime());
+            }
+            
+            this.numRecords = numRecords;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+        }
+    }
+    
+    
+    /*
+     * Consistent view of the series used by readers
+     */
+    static class Snapshot
+    {
+        final List<Segment> segments;
+        final List<SeriesRecord> bufferedRecords;
+        
+        Snapshot(List<Segment> segments, List<SeriesRecord> bufferedRecords)
+        {
+            this.segments = segments;
+            this.bufferedRecords = bufferedRecords;
+        }
+    }
+    
+    
+    static final Comparator<Segment> SEGMENT_COMPARATOR = new Comparator<Segment>()
+    {
+        @Override
+        public int compare(Segment s1, Segment s2)
+        {
+            int comp = Long.compare(s1.partition, s2.partition);
+            if (comp != 0)
+                return comp;
+            return Long.compare(s1.seq, s2.seq);
+        }
+    };
+    
+    
+    /*
+     * Creates a new empty series
+     */
+    RecordSeries(ObsStore parentStore, File dir, DataComponent recordStruct, DataEncoding recommendedEncoding) throws IOException
+    {
+        this.parentStore = parentStore;
+        this.dir = dir;
+        this.name = recordStruct.getName();
+        this.recordStruct = recordStruct;
+        this.recommendedEncoding = recommendedEncoding;
+        this.codec = new RecordBlockCodec(recordStruct);
+        
+        dir.mkdirs();
+        writeInfo();
+    }
+    
+    
+    /*
+     * Loads an existing series from its directory
+     */
+    RecordSeries(ObsStore parentStore, File dir) throws IOException
+    {
+        this.parentStore = parentStore;
+        this.dir = dir;
+        
+        try
+        {
+            SWEUtils sweUtils = new SWEUtils(SWEUtils.V2_0);
+            DOMHelper dom = new DOMHelper("file://" + new File(dir, INFO_FILE).getAbsolutePath(), false);
+            this.name = dom.getAttributeValue(dom.getRootElement(), "name");
+            this.recordStruct = sweUtils.readComponent(dom, dom.getElement("elementType/*"));
+            this.recordStruct.setName(name);
+            this.recommendedEncoding = sweUtils.readEncoding(dom, dom.getElement("encoding/*"));
+            this.codec = new RecordBlockCodec(recordStruct);
+        }
+        catch (Exception e)
+        {
+            throw new IOException("Cannot read description of series " + dir.getName(), e);
+        }
+        
+        loadSegments();
+    }
+    
+    
+    private void writeInfo() throws IOException
+    {
+        File infoFile = new File(dir, INFO_FILE);
+        File tmpFile = new File(dir, INFO_FILE + Segment.TEMP_EXT);
+        
+        try (OutputStream os = new FileOutputStream(tmpFile))
+        {
+            SWEUtils sweUtils = new SWEUtils(SWEUtils.V2_0);
+            DOMHelper dom = new DOMHelper("series");
+            dom.setAttributeValue(dom.getRootElement(), "name", name);
+            Element structElt = dom.addElement("elementType");
+            structElt.appendChild(sweUtils.writeComponent(dom, recordStruct, false));
+            Element encElt = dom.addElement("encoding");
+            encElt.appendChild(sweUtils.writeEncoding(dom, recommendedEncoding));
+            dom.serialize(dom.getRootElement(), os, true);
+        }
+        catch (IOException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new IOException("Cannot write description of series " + name, e);
+        }
+        
+        Files.move(tmpFile.toPath(), infoFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    
+    private void loadSegments() throws IOException
+    {
+        Map<Long, Segment> segments = new HashMap<>();
+        Set<Long> replacedSeqs = new HashSet<>();
+        
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (File f: files)
+            {
+                if (f.getName().endsWith(Segment.TEMP_EXT))
+                {
+                    // leftover of an interrupted write
+                    f.delete();
+                }
+                else if (f.getName().endsWith(Segment.FILE_EXT))
+                {
+                    Segment seg = Segment.open(f);
+                    segments.put(seg.seq, seg);
+                    for (long seq: seg.replacedSeqs)
+                        replacedSeqs.add(seq);
+                    nextSeq = Math.max(nextSeq, seg.seq + 1);
+                }
+            }
+        }
+        
+        // delete segments that were merged or rewritten before
+        // the process could remove them
+        for (long seq: replacedSeqs)
+        {
+            Segment seg = segments.remove(seq);
+            if (seg != null)
+            {
+                parentStore.log.debug("Removing replaced segment {}", seg.file);
+                seg.file.delete();
+            }
+        }
+        
+        List<Segment> segmentList = new ArrayList<>(segments.values());
+        Collections.sort(segmentList, SEGMENT_COMPARATOR);
+        state = new SeriesState(segmentList);
+    }
+    
+    
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+
+    @Override
+    public DataComponent getRecordDescription()
+    {
+        return recordStruct;
+    }
+
+
+    @Override
+    public DataEncoding getRecommendedEncoding()
+    {
+        return recommendedEncoding;
+    }
+    
+    
+    void updateRecordStructure(DataComponent newDataStruct) throws IOException
+    {
+        // check that new structure is compatible with previous one
+        if (!DataComponentChecks.checkStructCompatible(recordStruct, newDataStruct))
+            throw new IllegalStateException("New data structure for record store " + getName() + 
+                    " is not compatible with the one already in storage");
+        
+        this.recordStruct = newDataStruct;
+        this.codec = new RecordBlockCodec(newDataStruct);
+        writeInfo();
+    }
+    
+    
+    protected Snapshot getSnapshot(double begin, double end)
+    {
+        lock.readLock().lock();
+        try
+        {
+            List<SeriesRecord> bufferedRecords = new ArrayList<>(buffer.subMap(begin, true, end, true).values());
+            return new Snapshot(state.segments, bufferedRecords);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    
+    int getNumRecords()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return (int)Math.min(state.numRecords + bufferCount.get(), Integer.MAX_VALUE);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    
+    double[] getDataTimeRange()
+    {
+        lock.readLock().lock();
+        try
+        {
+            double begin = state.minTime;
+            double end = state.maxTime;
+            
+            if (!buffer.isEmpty())
+            {
+                begin = Math.min(begin, buffer.firstKey());
+                end = Math.max(end, buffer.lastKey());
+            }
+            
+            if (Double.isInfinite(begin))
+                return new double[] {Double.NaN, Double.NaN};
+            return new double[] {begin, end};
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    
+    int[] getEstimatedRecordCounts(double[] timeStamps)
+    {
+        int numBins = timeStamps.length - 1;
+        double[] counts = new double[numBins];
+        Snapshot snapshot = getSnapshot(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        
+        // counts are computed from block index so we never read records
+        // block counts are prorated by the overlap between block and bin
+        for (Segment seg: snapshot.segments)
+        {
+            for (int b = 0; b < seg.blockCounts.length; b++)
+            {
+                double blockStart = seg.blockStartTimes[b];
+                double blockEnd = seg.blockEndTimes[b];
+                double blockDuration = blockEnd - blockStart;
+                
+                for (int i = 0; i < numBins; i++)
+                {
+                    double binStart = timeStamps[i];
+                    double binEnd = timeStamps[i+1];
+                    
+                    if (blockDuration <= 0)
+                    {
+                        if (blockStart >= binStart && blockStart < binEnd)
+                            counts[i] += seg.blockCounts[b];
+                    }
+                    else
+                    {
+                        double overlap = Math.min(binEnd, blockEnd) - Math.max(binStart, blockStart);
+                        if (overlap > 0)
+                            counts[i] += seg.blockCounts[b] * overlap / blockDuration;
+                    }
+                }
+            }
+        }
+        
+        // buffered records are counted exactly
+        for (SeriesRecord rec: snapshot.bufferedRecords)
+        {
+            int i = Arrays.binarySearch(timeStamps, rec.time);
+            if (i < 0)
+                i = -i - 2;
+            if (i >= 0 && i < numBins)
+                counts[i]++;
+        }
+        
+        int[] bins = new int[numBins];
+        for (int i = 0; i < numBins; i++)
+            bins[i] = (int)Math.min(Math.round(counts[i]), Integer.MAX_VALUE);
+        return bins;
+    }
+    
+    
+    DataBlock getDataBlock(DataKey key)
+    {
+        SeriesRecord rec = getRecord(key.timeStamp);
+        return rec != null ? rec.data : null;
+    }
+    
+    
+    protected SeriesRecord getRecord(double time)
+    {
+        while (true)
+        {
+            Snapshot snapshot = getSnapshot(time, time);
+            if (!snapshot.bufferedRecords.isEmpty())
+                return snapshot.bufferedRecords.get(0);
+            
+            try
+            {
+                return findCommittedRecord(snapshot.segments, time, true);
+            }
+            catch (SegmentRetiredException e)
+            {
+                // segment was replaced meanwhile, retry with new snapshot
+                continue;
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Error while reading record from series " + name, e);
+            }
+        }
+    }
+    
+    
+    /*
+     * Looks up a record with the exact time stamp in the given segments
+     */
+    protected SeriesRecord findCommittedRecord(List<Segment> segments, double time, boolean withData) throws IOException
+    {
+        for (Segment seg: segments)
+        {
+            if (time < seg.getStartTime() || time > seg.getEndTime())
+                continue;
+            
+            int b = seg.findFirstBlock(time);
+            if (b >= seg.blockCounts.length || seg.blockStartTimes[b] > time)
+                continue;
+            
+            // check time stamps first using cached block if possible
+            double[] times;
+            if (!withData && seg == lookupSegment && b == lookupBlock)
+            {
+                times = lookupTimes;
+            }
+            else
+            {
+                DecodedBlock block = seg.readBlock(b, codec, withData);
+                times = block.times;
+                
+                if (withData)
+                {
+                    int i = Arrays.binarySearch(times, time);
+                    if (i >= 0)
+                        return new SeriesRecord(name, parentStore.producerID, time, seg.getFoiID(block.foiIndexes[i]), block.data[i]);
+                    continue;
+                }
+                
+                lookupSegment = seg;
+                lookupBlock = b;
+                lookupTimes = times;
+            }
+            
+            int i = Arrays.binarySearch(times, time);
+            if (i >= 0)
+                return new SeriesRecord(name, parentStore.producerID, time, null, null);
+        }
+        
+        return null;
+    }
+    
+    
+    SeriesIterator getRecordIterator(IDataFilter filter, boolean withData)
+    {
+        double[] timeRange = filter.getTimeStampRange();
+        double begin = (timeRange == null) ? Double.NEGATIVE_INFINITY : timeRange[0];
+        double end = (timeRange == null) ? Double.POSITIVE_INFINITY : timeRange[1];
+        return new SeriesIterator(this, begin, end, getSelectedFois(filter), withData);
+    }
+    
+    
+    int getNumMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        return (int)Math.min(countMatchingRecords(filter, maxCount), Integer.MAX_VALUE);
+    }
+    
+    
+    /*
+     * Counts records matching the filter.
+     * The returned count is exact if it is less or equal to maxCount, but
+     * counting stops as soon as maxCount is exceeded.
+     */
+    long countMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        double[] timeRange = filter.getTimeStampRange();
+        double begin = (timeRange == null) ? Double.NEGATIVE_INFINITY : timeRange[0];
+        double end = (timeRange == null) ? Double.POSITIVE_INFINITY : timeRange[1];
+        Set<String> foiIDs = getSelectedFois(filter);
+        
+        while (true)
+        {
+            Snapshot snapshot = getSnapshot(begin, end);
+            long count = 0;
+            
+            try
+            {
+                for (Segment seg: snapshot.segments)
+                {
+                    if (seg.getEndTime() < begin || seg.getStartTime() > end)
+                        continue;
+                    if (foiIDs != null && Collections.disjoint(foiIDs, seg.foiIDs))
+                        continue;
+                    
+                    // block counts can also be used if all FOIs of segment are selected
+                    boolean allFoisSelected = (foiIDs == null || seg.allRecordsMatchFois(foiIDs));
+                    
+                    for (int b = seg.findFirstBlock(begin); b < seg.blockCounts.length; b++)
+                    {
+                        if (seg.blockStartTimes[b] > end)
+                            break;
+                        
+                        // use block index when block is fully included
+                        if (allFoisSelected && seg.blockStartTimes[b] >= begin && seg.blockEndTimes[b] <= end)
+                        {
+                            count += seg.blockCounts[b];
+                        }
+                        else
+                        {
+                            // otherwise decode only time stamps and FOIs
+                            DecodedBlock block = seg.readBlock(b, codec, false);
+                            for (int i = 0; i < block.numRecords; i++)
+                            {
+                                double t = block.times[i];
+                                if (t >= begin && t <= end && (foiIDs == null || foiIDs.contains(seg.getFoiID(block.foiIndexes[i]))))
+                                    count++;
+                            }
+                        }
+                        
+                        if (count > maxCount)
+                            return count;
+                    }
+                }
+            }
+            catch (SegmentRetiredException e)
+            {
+                // segment was replaced meanwhile, retry with new snapshot
+                continue;
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Error while counting records of series " + name, e);
+            }
+            
+            for (SeriesRecord rec: snapshot.bufferedRecords)
+            {
+                if (foiIDs == null || foiIDs.contains(rec.foiID))
+                    count++;
+            }
+            
+            return count;
+        }
+    }
+    
+    
+    /*
+     * Gets the set of FOI IDs selected by the filter.
+     * Returns null if all FOIs are selected, an empty set if none is.
+     */
+    protected Set<String> getSelectedFois(final IDataFilter filter)
+    {
+        if (!(filter instanceof IObsFilter))
+            return null;
+        
+        Set<String> foiIDs = ((IObsFilter)filter).getFoiIDs();
+        if (foiIDs != null && foiIDs.isEmpty())
+            foiIDs = null;
+        
+        // if using spatial filter, add IDs of FOIs in ROI
+        // this is an OR between FOI id list and ROI, like other storage implementations
+        final Polygon roi = ((IObsFilter)filter).getRoi();
+        if (roi != null)
+        {
+            Set<String> allFoiIDs = new HashSet<>();
+            if (foiIDs != null)
+                allFoiIDs.addAll(foiIDs);
+            
+            Iterator<String> it = parentStore.featureStore.getFeatureIDs(new FeatureFilter() {
+                @Override
+                public Polygon getRoi()
+                {
+                    return roi;
+                }
+            });
+            
+            while (it.hasNext())
+                allFoiIDs.add(it.next());
+            foiIDs = allFoiIDs;
+        }
+        
+        return foiIDs;
+    }
+    
+    
+    /*
+     * Computes FOI observation periods from FOI runs recorded in segments
+     * and from buffered records
+     */
+    List<ObsPeriod> getFoiTimePeriods(IObsFilter filter)
+    {
+        Snapshot snapshot = getSnapshot(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        Set<String> foiIDs = getSelectedFois(filter);
+        
+        // collect all runs
+        List<FoiRun> runs = new ArrayList<>();
+        for (Segment seg: snapshot.segments)
+            runs.addAll(seg.foiRuns);
+        
+        FoiRun currentRun = null;
+        for (SeriesRecord rec: snapshot.bufferedRecords)
+        {
+            if (rec.foiID == null)
+                continue;
+            
+            if (currentRun != null && rec.foiID.equals(currentRun.foiID))
+            {
+                currentRun = new FoiRun(rec.foiID, currentRun.start, rec.time, currentRun.count+1);
+            }
+            else
+            {
+                if (currentRun != null)
+                    runs.add(currentRun);
+                currentRun = new FoiRun(rec.foiID, rec.time, rec.time, 1);
+            }
+        }
+        if (currentRun != null)
+            runs.add(currentRun);
+        
+        // sort by start time and coalesce consecutive runs of the same FOI
+        Collections.sort(runs, new Comparator<FoiRun>() {
+            @Override
+            public int compare(FoiRun r1, FoiRun r2)
+            {
+                return Double.compare(r1.start, r2.start);
+            }
+        });
+        
+        List<ObsPeriod> periods = new ArrayList<>();
+        ObsPeriod lastPeriod = null;
+        for (FoiRun run: runs)
+        {
+            if (lastPeriod != null && lastPeriod.foiID.equals(run.foiID))
+            {
+                lastPeriod.end = Math.max(lastPeriod.end, run.stop);
+            }
+            else
+            {
+                lastPeriod = new ObsPeriod(run.foiID, run.start, run.stop);
+                periods.add(lastPeriod);
+            }
+        }
+        
+        // filter on FOI and trim periods to filter time range if specified
+        double[] timeRange = filter.getTimeStampRange();
+        Iterator<ObsPeriod> it = periods.iterator();
+        while (it.hasNext())
+        {
+            ObsPeriod p = it.next();
+            
+            if (foiIDs != null && !foiIDs.contains(p.foiID))
+            {
+                it.remove();
+                continue;
+            }
+            
+            if (timeRange != null)
+            {
+                p.begin = Math.max(p.begin, timeRange[0]);
+                p.end = Math.min(p.end, timeRange[1]);
+                if (p.begin > p.end)
+                    it.remove();
+            }
+        }
+        
+        return periods;
+    }
+    
+    
+    ////////////////////////////////////////////////////////////////////////
+    // Write methods, always called from within the storage module lock   //
+    ////////////////////////////////////////////////////////////////////////
+    
+    void store(DataKey key, DataBlock data) throws IOException
+    {
+        double time = key.timeStamp;
+        if (Double.isNaN(time) || Double.isInfinite(time))
+            throw new IllegalArgumentException("Invalid record time stamp: " + time);
+        
+        // first record stored with a given time stamp wins
+        SeriesState state = this.state;
+        if (state.numRecords > 0 && time >= state.minTime && time <= state.maxTime &&
+            findCommittedRecord(state.segments, time, false) != null)
+            return;
+        
+        String foiID = (key instanceof ObsKey) ? ((ObsKey)key).foiID : null;
+        SeriesRecord rec = new SeriesRecord(name, parentStore.producerID, time, foiID, data);
+        if (buffer.putIfAbsent(time, rec) == null)
+        {
+            // write buffer to disk if it gets too large
+            if (bufferCount.incrementAndGet() >= parentStore.config.maxBufferedRecords)
+                flush();
+        }
+    }
+    
+    
+    void update(DataKey key, final DataBlock data) throws IOException
+    {
+        final double time = key.timeStamp;
+        
+        // update in write buffer
+        SeriesRecord rec = buffer.get(time);
+        if (rec != null)
+        {
+            rec.data = data;
+            return;
+        }
+        
+        // or rewrite segment containing the record
+        Segment seg = findSegment(time);
+        if (seg != null)
+        {
+            rewriteSegment(seg, new RecordModifier() {
+                @Override
+                public SeriesRecord apply(SeriesRecord rec)
+                {
+                    if (rec.time == time)
+                        rec.data = data;
+                    return rec;
+                }
+            });
+        }
+        else
+            store(key, data);
+    }
+    
+    
+    boolean remove(DataKey key) throws IOException
+    {
+        final double time = key.timeStamp;
+        
+        // remove from write buffer
+        if (buffer.remove(time) != null)
+        {
+            bufferCount.decrementAndGet();
+            return true;
+        }
+        
+        // or rewrite segment containing the record
+        Segment seg = findSegment(time);
+        if (seg != null)
+        {
+            rewriteSegment(seg, new RecordModifier() {
+                @Override
+                public SeriesRecord apply(SeriesRecord rec)
+                {
+                    return rec.time == time ? null : rec;
+                }
+            });
+            return true;
+        }
+        
+        return false;
+    }
+    
+    
+    int remove(IDataFilter filter) throws IOException
+    {
+        double[] timeRange = filter.getTimeStampRange();
+        final double begin = (timeRange == null) ? Double.NEGATIVE_INFINITY : timeRange[0];
+        final double end = (timeRange == null) ? Double.POSITIVE_INFINITY : timeRange[1];
+        final Set<String> foiIDs = getSelectedFois(filter);
+        int count = 0;
+        
+        // remove from write buffer
+        Iterator<SeriesRecord> it = buffer.subMap(begin, true, end, true).values().iterator();
+        while (it.hasNext())
+        {
+            SeriesRecord rec = it.next();
+            if (foiIDs == null || foiIDs.contains(rec.foiID))
+            {
+                it.remove();
+                bufferCount.decrementAndGet();
+                count++;
+            }
+        }
+        
+        // remove from segments
+        final int[] segCount = new int[1];
+        for (Segment seg: state.segments)
+        {
+            if (seg.getEndTime() < begin || seg.getStartTime() > end)
+                continue;
+            if (foiIDs != null && Collections.disjoint(foiIDs, seg.foiIDs))
+                continue;
+            
+            // drop whole segment if fully included
+            if (foiIDs == null && seg.getStartTime() >= begin && seg.getEndTime() <= end)
+            {
+                replaceSegments(Arrays.asList(seg), null);
+                count += seg.numRecords;
+                continue;
+            }
+            
+            // otherwise rewrite it with remaining records
+            segCount[0] = 0;
+            rewriteSegment(seg, new RecordModifier() {
+                @Override
+                public SeriesRecord apply(SeriesRecord rec)
+                {
+                    if (rec.time >= begin && rec.time <= end && (foiIDs == null || foiIDs.contains(rec.foiID)))
+                    {
+                        segCount[0]++;
+                        return null;
+                    }
+                    return rec;
+                }
+            });
+            count += segCount[0];
+        }
+        
+        return count;
+    }
+    
+    
+    /*
+     * Finds the committed segment containing a record with the given time stamp
+     */
+    protected Segment findSegment(double time) throws IOException
+    {
+        for (Segment seg: state.segments)
+        {
+            if (findCommittedRecord(Arrays.asList(seg), time, false) != null)
+                return seg;
+        }
+        
+        return null;
+    }
+    
+    
+    /*
+     * Function applied to each record when rewriting a segment
+     * Returns the record to keep or null to remove it
+     */
+    static interface RecordModifier
+    {
+        SeriesRecord apply(SeriesRecord rec);
+    }
+    
+    
+    protected void rewriteSegment(Segment seg, final RecordModifier modifier) throws IOException
+    {
+        final Iterator<SeriesRecord> it = new SeriesIterator(this, Arrays.asList(seg));
+        Iterator<SeriesRecord> modifiedIt = new Iterator<SeriesRecord>() {
+            SeriesRecord next = fetchNext();
+            
+            SeriesRecord fetchNext()
+            {
+                while (it.hasNext())
+                {
+                    SeriesRecord rec = modifier.apply(it.next());
+                    if (rec != null)
+                        return rec;
+                }
+                
+                return null;
+            }
+            
+            @Override
+            public boolean hasNext()
+            {
+                return next != null;
+            }
+
+            @Override
+            public SeriesRecord next()
+            {
+                SeriesRecord rec = next;
+                next = fetchNext();
+                return rec;
+            }
+        };
+        
+        Segment newSeg = Segment.write(dir, seg.partition, nextSeq++, modifiedIt, codec, parentStore.config.blockSize, new long[] {seg.seq});
+        replaceSegments(Arrays.asList(seg), newSeg);
+    }
+    
+    
+    /*
+     * Atomically replaces some segments by a new one (or by nothing if newSeg is null)
+     * and deletes files of old segments
+     */
+    protected void replaceSegments(Collection<Segment> oldSegs, Segment newSeg)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            List<Segment> segments = new ArrayList<>(state.segments);
+            segments.removeAll(oldSegs);
+            if (newSeg != null)
+            {
+                segments.add(newSeg);
+                Collections.sort(segments, SEGMENT_COMPARATOR);
+            }
+            state = new SeriesState(segments);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        
+        for (Segment seg: oldSegs)
+        {
+            seg.retired = true;
+            if (seg == lookupSegment)
+                lookupSegment = null;
+            pendingDeletes.add(seg);
+        }
+        
+        deleteRetiredSegments();
+    }
+    
+    
+    /*
+     * Deletes files of retired segments.
+     * Deletion can fail on some OS if a reader still has the file open, so we
+     * just retry the next time.
+     */
+    protected void deleteRetiredSegments()
+    {
+        Iterator<Segment> it = pendingDeletes.iterator();
+        while (it.hasNext())
+        {
+            Segment seg = it.next();
+            if (seg.file.delete() || !seg.file.exists())
+                it.remove();
+        }
+    }
+    
+    
+    /**
+     * Writes all buffered records to new segments and compacts partitions
+     * that received new records
+     * @throws IOException
+     */
+    void flush() throws IOException
+    {
+        if (buffer.isEmpty())
+            return;
+        
+        // buffered records are already sorted by time
+        List<SeriesRecord> records = new ArrayList<>(buffer.values());
+        double partitionDuration = parentStore.config.partitionDuration;
+        int blockSize = parentStore.config.blockSize;
+        
+        // write one segment per partition
+        List<Segment> newSegments = new ArrayList<>();
+        Set<Long> partitions = new HashSet<>();
+        int i = 0;
+        while (i < records.size())
+        {
+            long partition = getPartition(records.get(i).time, partitionDuration);
+            int j = i + 1;
+            while (j < records.size() && getPartition(records.get(j).time, partitionDuration) == partition)
+                j++;
+            
+            Segment seg = Segment.write(dir, partition, nextSeq++, records.subList(i, j).iterator(), codec, blockSize, null);
+            newSegments.add(seg);
+            partitions.add(partition);
+            i = j;
+        }
+        
+        // publish new segments and remove records from buffer
+        lock.writeLock().lock();
+        try
+        {
+            List<Segment> segments = new ArrayList<>(state.segments);
+            segments.addAll(newSegments);
+            Collections.sort(segments, SEGMENT_COMPARATOR);
+            state = new SeriesState(segments);
+            
+            for (SeriesRecord rec: records)
+            {
+                if (buffer.remove(rec.time, rec))
+                    bufferCount.decrementAndGet();
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        
+        compact(partitions);
+    }
+    
+    
+    static long getPartition(double time, double partitionDuration)
+    {
+        return (long)Math.floor(time / partitionDuration);
+    }
+    
+    
+    /*
+     * Merges segments of partitions that received new records using the
+     * binary counter rule, and merges all segments of older partitions
+     * that didn't receive new records
+     */
+    protected void compact(Set<Long> updatedPartitions) throws IOException
+    {
+        long currentPartition = getPartition(state.maxTime, parentStore.config.partitionDuration);
+        
+        // group segments by partition
+        NavigableMap<Long, List<Segment>> partitions = new TreeMap<>();
+        for (Segment seg: state.segments)
+        {
+            List<Segment> partSegs = partitions.get(seg.partition);
+            if (partSegs == null)
+            {
+                partSegs = new ArrayList<>();
+                partitions.put(seg.partition, partSegs);
+            }
+            partSegs.add(seg);
+        }
+        
+        for (Map.Entry<Long, List<Segment>> entry: partitions.entrySet())
+        {
+            long partition = entry.getKey();
+            List<Segment> partSegs = entry.getValue();
+            
+            if (partition < currentPartition && !updatedPartitions.contains(partition))
+            {
+                // partition is not written to anymore, merge everything
+                if (partSegs.size() > 1)
+                    mergeSegments(partSegs);
+            }
+            else if (updatedPartitions.contains(partition))
+            {
+                // merge last two segments while the last one is at least as large
+                while (partSegs.size() > 1)
+                {
+                    int n = partSegs.size();
+                    Segment prev = partSegs.get(n-2);
+                    Segment last = partSegs.get(n-1);
+                    if (last.numRecords < prev.numRecords)
+                        break;
+                    
+                    Segment merged = mergeSegments(partSegs.subList(n-2, n));
+                    partSegs.remove(n-1);
+                    partSegs.set(n-2, merged);
+                }
+            }
+        }
+    }
+    
+    
+    protected Segment mergeSegments(List<Segment> segs) throws IOException
+    {
+        List<Segment> oldSegs = new ArrayList<>(segs);
+        long[] replacedSeqs = new long[oldSegs.size()];
+        for (int i = 0; i < replacedSeqs.length; i++)
+            replacedSeqs[i] = oldSegs.get(i).seq;
+        
+        Iterator<SeriesRecord> it = new SeriesIterator(this, oldSegs);
+        Segment newSeg = Segment.write(dir, oldSegs.get(0).partition, nextSeq++, it, codec, parentStore.config.blockSize, replacedSeqs);
+        parentStore.log.trace("Merged segments {} into {}", oldSegs, newSeg);
+        replaceSegments(oldSegs, newSeg);
+        return newSeg;
+    }
+    
+    
+    /**
+     * Discards all buffered records
+     */
+    void rollback()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            buffer.clear();
+            bufferCount.set(0);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    
+    void delete()
+    {
+        rollback();
+        replaceSegments(new ArrayList<>(state.segments), null);
+        new File(dir, INFO_FILE).delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,483 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.sensorhub.impl.persistence.columnar.RecordBlockCodec.DecodedBlock;
+import org.sensorhub.impl.persistence.columnar.RecordBlockCodec.FoiDictionary;
+
+
+/**
+ * <p>
+ * Immutable file containing a time sorted run of records of a single series,
+ * all falling in the same time partition.<br/>
+ * The file starts with the encoded blocks and ends with a footer holding
+ * the sparse block index (time range, record count and position of each
+ * block), the dictionary of FOI IDs and the FOI observation periods, so
+ * the footer alone is enough to answer count and time range queries.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+class Segment
+{
+    static final int MAGIC = 0x4F534843;
+    static final byte VERSION = 1;
+    static final String FILE_EXT = ".seg";
+    static final String TEMP_EXT = ".tmp";
+    static final Pattern FILE_NAME_PATTERN = Pattern.compile("p(-?\\d+)_(\\d+)\\" + FILE_EXT);
+    
+    final File file;
+    final long partition;
+    final long seq;
+    final int numRecords;
+    final double[] blockStartTimes;
+    final double[] blockEndTimes;
+    final int[] blockCounts;
+    final long[] blockOffsets;
+    final int[] blockLengths;
+    final List<String> foiIDs;
+    final List<FoiRun> foiRuns;
+    final long[] replacedSeqs;
+    volatile boolean retired;
+    
+    
+    /*
+     * Thrown when trying to read from a segment that was replaced by
+     * compaction or a rewrite since the reader took its snapshot
+     */
+    static class SegmentRetiredException extends IOException
+    {
+        private static final long serialVersionUID = 3403417587306263585L;
+
+        SegmentRetiredException(Segment seg)
+        {
+            super("Segment " + seg.file.getName() + " has been retired");
+        }
+    }
+    
+    
+    /*
+     * Period during which consecutive records of the segment were
+     * associated to the same FOI
+     */
+    static class FoiRun
+    {
+        final String foiID;
+        final double start;
+        final double stop;
+        final int count;
+        
+        FoiRun(String foiID, double start, double stop, int count)
+        {
+            this.foiID = foiID;
+            this.start = start;
+            this.stop = stop;
+            this.count = count;
+        }
+    }
+    
+    
+    private Segment(File file, long partition, long seq, int numRecords, double[] blockStartTimes, double[] blockEndTimes,
+                    int[] blockCounts, long[] blockOffsets, int[] blockLengths, List<String> foiIDs, List<FoiRun> foiRuns, long[] replacedSeqs)
+    {
+        this.file = file;
+        this.partition = partition;
+        this.seq = seq;
+        this.numRecords = numRecords;
+        this.blockStartTimes = blockStartTimes;
+        this.blockEndTimes = blockEndTimes;
+        this.blockCounts = blockCounts;
+        this.blockOffsets = blockOffsets;
+        this.blockLengths = blockLengths;
+        this.foiIDs = foiIDs;
+        this.foiRuns = foiRuns;
+        this.replacedSeqs = replacedSeqs;
+    }
+    
+    
+    static String getFileName(long partition, long seq)
+    {
+        return "p" + partition + "_" + seq + FILE_EXT;
+    }
+    
+    
+    /**
+     * Writes records to a new segment file.<br/>
+     * The file is first written with a temporary name and atomically renamed
+     * once complete, so a crash never leaves a partial segment behind.
+     * @param dir series directory
+     * @param partition time partition index
+     * @param seq segment sequence number, unique within the series
+     * @param records iterator on records, sorted by time stamp
+     * @param codec block codec for the series record structure
+     * @param blockSize maximum number of records per block
+     * @param replacedSeqs sequence numbers of segments that this segment
+     * replaces, so they can be cleaned up if the process stops before they
+     * are deleted
+     * @return the new segment or null if there was no record to write
+     * @throws IOException
+     */
+    static Segment write(File dir, long partition, long seq, Iterator<SeriesRecord> records, RecordBlockCodec codec, int blockSize, long[] replacedSeqs) throws IOException
+    {
+        File file = new File(dir, getFileName(partition, seq));
+        File tmpFile = new File(dir, file.getName() + TEMP_EXT);
+        
+        int numRecords = 0;
+        List<SeriesRecord> blockRecords = new ArrayList<>(blockSize);
+        List<long[]> blockPositions = new ArrayList<>();
+        List<double[]> blockTimes = new ArrayList<>();
+        FoiDictionary foiDict = new FoiDictionary();
+        List<FoiRun> foiRuns = new ArrayList<>();
+        
+        try (FileOutputStream fos = new FileOutputStream(tmpFile);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos, 64*1024)))
+        {
+            dos.writeInt(MAGIC);
+            dos.writeByte(VERSION);
+            
+            // FOI run state
+            // records without FOI don't interrupt the current run
+            String runFoi = null;
+            double runStart = Double.NaN, runStop = Double.NaN;
+            int runCount = 0;
+            
+            while (records.hasNext())
+            {
+                SeriesRecord rec = records.next();
+                blockRecords.add(rec);
+                numRecords++;
+                
+                if (rec.foiID != null)
+                {
+                    if (!rec.foiID.equals(runFoi))
+                    {
+                        if (runFoi != null)
+                            foiRuns.add(new FoiRun(runFoi, runStart, runStop, runCount));
+                        runFoi = rec.foiID;
+                        runStart = rec.time;
+                        runCount = 0;
+                    }
+                    
+                    runStop = rec.time;
+                    runCount++;
+                }
+                
+                // write block when full
+                if (blockRecords.size() == blockSize || !records.hasNext())
+                {
+                    byte[] block = codec.encode(blockRecords, 0, blockRecords.size(), foiDict);
+                    blockTimes.add(new double[] {blockRecords.get(0).time, blockRecords.get(blockRecords.size()-1).time});
+                    blockPositions.add(new long[] {blockRecords.size(), dos.size(), block.length});
+                    dos.write(block);
+                    blockRecords.clear();
+                }
+            }
+            
+            if (runFoi != null)
+                foiRuns.add(new FoiRun(runFoi, runStart, runStop, runCount));
+            
+            if (numRecords == 0)
+            {
+                dos.close();
+                tmpFile.delete();
+                return null;
+            }
+        }
+        catch (IOException e)
+        {
+            tmpFile.delete();
+            throw e;
+        }
+        
+        // build block index
+        int numBlocks = blockTimes.size();
+        double[] startTimes = new double[numBlocks];
+        double[] endTimes = new double[numBlocks];
+        int[] counts = new int[numBlocks];
+        long[] offsets = new long[numBlocks];
+        int[] lengths = new int[numBlocks];
+        for (int b = 0; b < numBlocks; b++)
+        {
+            startTimes[b] = blockTimes.get(b)[0];
+            endTimes[b] = blockTimes.get(b)[1];
+            counts[b] = (int)blockPositions.get(b)[0];
+            offsets[b] = blockPositions.get(b)[1];
+            lengths[b] = (int)blockPositions.get(b)[2];
+        }
+        
+        Segment seg = new Segment(file, partition, seq, numRecords, startTimes, endTimes, counts, offsets, lengths,
+                                  foiDict.ids, foiRuns, replacedSeqs == null ? new long[0] : replacedSeqs);
+        
+        // append footer and trailer
+        try (FileOutputStream fos = new FileOutputStream(tmpFile, true);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos, 8*1024)))
+        {
+            long footerOffset = tmpFile.length();
+            writeFooter(seg, dos);
+            dos.writeLong(footerOffset);
+            dos.writeInt(MAGIC);
+            dos.flush();
+            fos.getFD().sync();
+        }
+        catch (IOException e)
+        {
+            tmpFile.delete();
+            throw e;
+        }
+        
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return seg;
+    }
+    
+    
+    private static void writeFooter(Segment seg, DataOutputStream dos) throws IOException
+    {
+        dos.writeInt(seg.numRecords);
+        
+        int numBlocks = seg.blockCounts.length;
+        dos.writeInt(numBlocks);
+        for (int b = 0; b < numBlocks; b++)
+        {
+            dos.writeDouble(seg.blockStartTimes[b]);
+            dos.writeDouble(seg.blockEndTimes[b]);
+            dos.writeInt(seg.blockCounts[b]);
+            dos.writeLong(seg.blockOffsets[b]);
+            dos.writeInt(seg.blockLengths[b]);
+        }
+        
+        dos.writeInt(seg.foiIDs.size());
+        for (String foiID: seg.foiIDs)
+            dos.writeUTF(foiID);
+        
+        dos.writeInt(seg.foiRuns.size());
+        for (FoiRun run: seg.foiRuns)
+        {
+            dos.writeInt(seg.foiIDs.indexOf(run.foiID));
+            dos.writeDouble(run.start);
+            dos.writeDouble(run.stop);
+            dos.writeInt(run.count);
+        }
+        
+        dos.writeInt(seg.replacedSeqs.length);
+        for (long replacedSeq: seg.replacedSeqs)
+            dos.writeLong(replacedSeq);
+    }
+    
+    
+    /**
+     * Opens an existing segment file and loads its footer
+     * @param file segment file
+     * @return the segment
+     * @throws IOException if the file is not a valid segment
+     */
+    static Segment open(File file) throws IOException
+    {
+        Matcher m = FILE_NAME_PATTERN.matcher(file.getName());
+        if (!m.matches())
+            throw new IOException("Invalid segment file name: " + file);
+        long partition = Long.parseLong(m.group(1));
+        long seq = Long.parseLong(m.group(2));
+        
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            // read trailer
+            long fileSize = ch.size();
+            ByteBuffer trailer = ByteBuffer.allocate(12);
+            if (fileSize < 17 || readFully(ch, trailer, fileSize - 12) < 12)
+                throw new IOException("Truncated segment file: " + file);
+            trailer.flip();
+            long footerOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || footerOffset < 5 || footerOffset > fileSize - 12)
+                throw new IOException("Corrupted segment file: " + file);
+            
+            // read footer
+            ByteBuffer footer = ByteBuffer.allocate((int)(fileSize - 12 - footerOffset));
+            readFully(ch, footer, footerOffset);
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(footer.array()));
+            
+            int numRecords = dis.readInt();
+            int numBlocks = dis.readInt();
+            double[] startTimes = new double[numBlocks];
+            double[] endTimes = new double[numBlocks];
+            int[] counts = new int[numBlocks];
+            long[] offsets = new long[numBlocks];
+            int[] lengths = new int[numBlocks];
+            for (int b = 0; b < numBlocks; b++)
+            {
+                startTimes[b] = dis.readDouble();
+                endTimes[b] = dis.readDouble();
+                counts[b] = dis.readInt();
+                offsets[b] = dis.readLong();
+                lengths[b] = dis.readInt();
+            }
+            
+            int numFois = dis.readInt();
+            List<String> foiIDs = new ArrayList<>(numFois);
+            for (int i = 0; i < numFois; i++)
+                foiIDs.add(dis.readUTF());
+            
+            int numRuns = dis.readInt();
+            List<FoiRun> foiRuns = new ArrayList<>(numRuns);
+            for (int i = 0; i < numRuns; i++)
+            {
+                String foiID = foiIDs.get(dis.readInt());
+                foiRuns.add(new FoiRun(foiID, dis.readDouble(), dis.readDouble(), dis.readInt()));
+            }
+            
+            long[] replacedSeqs = new long[dis.readInt()];
+            for (int i = 0; i < replacedSeqs.length; i++)
+                replacedSeqs[i] = dis.readLong();
+            
+            return new Segment(file, partition, seq, numRecords, startTimes, endTimes, counts, offsets, lengths,
+                               foiIDs, foiRuns, replacedSeqs);
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            throw new IOException("Corrupted segment file: " + file, e);
+        }
+    }
+    
+    
+    private static int readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException
+    {
+        int total = 0;
+        while (buf.hasRemaining())
+        {
+            int n = ch.read(buf, position + total);
+            if (n < 0)
+                break;
+            total += n;
+        }
+        return total;
+    }
+    
+    
+    /**
+     * Reads and decodes one block of the segment.<br/>
+     * The file is opened for each read so that segments don't hold file
+     * descriptors while they are idle.
+     * @param index block index
+     * @param codec block codec for the series record structure
+     * @param withData true to decode record values, false to decode only
+     * time stamps and FOI references
+     * @return decoded block
+     * @throws SegmentRetiredException if the segment was retired meanwhile
+     * @throws IOException if the block cannot be read
+     */
+    DecodedBlock readBlock(int index, RecordBlockCodec codec, boolean withData) throws IOException
+    {
+        if (retired)
+            throw new SegmentRetiredException(this);
+        
+        byte[] bytes = new byte[blockLengths[index]];
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            if (readFully(ch, ByteBuffer.wrap(bytes), blockOffsets[index]) < bytes.length)
+                throw new IOException("Truncated block in segment file: " + file);
+        }
+        catch (NoSuchFileException | FileNotFoundException e)
+        {
+            if (retired || !file.exists())
+                throw new SegmentRetiredException(this);
+            throw e;
+        }
+        
+        return codec.decode(bytes, withData);
+    }
+    
+    
+    String getFoiID(int foiIndex)
+    {
+        return foiIndex < 0 ? null : foiIDs.get(foiIndex);
+    }
+    
+    
+    /*
+     * Checks if all records of this segment are associated to one of the
+     * given FOIs, using FOI runs so that no block needs to be decoded
+     */
+    boolean allRecordsMatchFois(Set<String> selectedFoiIDs)
+    {
+        long count = 0;
+        for (FoiRun run: foiRuns)
+        {
+            if (!selectedFoiIDs.contains(run.foiID))
+                return false;
+            count += run.count;
+        }
+        
+        // runs don't include records without FOI
+        return count == numRecords;
+    }
+    
+    
+    double getStartTime()
+    {
+        return blockStartTimes[0];
+    }
+    
+    
+    double getEndTime()
+    {
+        return blockEndTimes[blockEndTimes.length-1];
+    }
+    
+    
+    /**
+     * @return the index of the first block that may contain records at or
+     * after the given time, or the number of blocks if there is none
+     */
+    int findFirstBlock(double time)
+    {
+        int low = 0, high = blockEndTimes.length;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (blockEndTimes[mid] < time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+    
+    
+    @Override
+    public String toString()
+    {
+        return file.getName() + " (" + numRecords + " records)";
+    }
+}
@@ -0,0 +1,330 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import org.sensorhub.impl.persistence.columnar.RecordBlockCodec.DecodedBlock;
+import org.sensorhub.impl.persistence.columnar.RecordSeries.Snapshot;
+import org.sensorhub.impl.persistence.columnar.Segment.SegmentRetiredException;
+
+
+/**
+ * <p>
+ * Iterator merging records of several segments and of the write buffer
+ * of a series in time order.<br/>
+ * Segments are read one block at a time, and only blocks overlapping the
+ * requested time range are decoded. If a segment is retired by a concurrent
+ * compaction while iterating, the iterator reopens a fresh snapshot of the
+ * series and resumes after the last record it returned.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+class SeriesIterator implements Iterator<SeriesRecord>
+{
+    final RecordSeries series;
+    final RecordBlockCodec codec;
+    final double begin;
+    final double end;
+    final Set<String> foiIDs;
+    final boolean withData;
+    final List<Segment> fixedSegments;
+    PriorityQueue<Cursor> cursors;
+    double lastTime = Double.NEGATIVE_INFINITY;
+    SeriesRecord nextRecord;
+    
+    
+    static final Comparator<Cursor> CURSOR_COMPARATOR = new Comparator<Cursor>()
+    {
+        @Override
+        public int compare(Cursor c1, Cursor c2)
+        {
+            int comp = Double.compare(c1.current.time, c2.current.time);
+            if (comp != 0)
+                return comp;
+            return Integer.compare(c1.index, c2.index);
+        }
+    };
+    
+    
+    /* 
+     * Base class for cursors over a time sorted source of records
+     */
+    abstract static class Cursor
+    {
+        int index;
+        SeriesRecord current;
+        
+        /* moves to the next matching record, returns false when done */
+        abstract boolean advance() throws IOException;
+    }
+    
+    
+    /*
+     * Cursor over records of a segment
+     */
+    class SegmentCursor extends Cursor
+    {
+        final Segment seg;
+        int blockIndex;
+        DecodedBlock block;
+        int pos;
+        
+        SegmentCursor(Segment seg, double minTime)
+        {
+            this.seg = seg;
+            this.blockIndex = seg.findFirstBlock(minTime) - 1;
+        }
+        
+        @Override
+        boolean advance() throws IOException
+        {
+            while (true)
+            {
+                // load next block if needed
+                if (block == null || pos >= block.numRecords)
+                {
+                    blockIndex++;
+                    if (blockIndex >= seg.blockCounts.length || seg.blockStartTimes[blockIndex] > end)
+                        return false;
+                    
+                    block = seg.readBlock(blockIndex, codec, withData);
+                    pos = 0;
+                }
+                
+                int i = pos++;
+                double time = block.times[i];
+                if (time < begin || time <= lastTime)
+                    continue;
+                if (time > end)
+                    return false;
+                
+                String foiID = seg.getFoiID(block.foiIndexes[i]);
+                if (foiIDs != null && !foiIDs.contains(foiID))
+                    continue;
+                
+                current = new SeriesRecord(series.name, series.parentStore.producerID, time, foiID, withData ? block.data[i] : null);
+                return true;
+            }
+        }
+    }
+    
+    
+    /*
+     * Cursor over a copy of buffered records
+     */
+    class BufferCursor extends Cursor
+    {
+        final Iterator<SeriesRecord> it;
+        
+        BufferCursor(List<SeriesRecord> records)
+        {
+            this.it = records.iterator();
+        }
+        
+        @Override
+        boolean advance()
+        {
+            while (it.hasNext())
+            {
+                SeriesRecord rec = it.next();
+                if (rec.time <= lastTime)
+                    continue;
+                if (foiIDs != null && !foiIDs.contains(rec.foiID))
+                    continue;
+                
+                current = rec;
+                return true;
+            }
+            
+            return false;
+        }
+    }
+    
+    
+    /*
+     * Iterator on records of the series matching the given time range
+     * and FOI selection
+     */
+    SeriesIterator(RecordSeries series, double begin, double end, Set<String> foiIDs, boolean withData)
+    {
+        this.series = series;
+        this.codec = series.codec;
+        this.begin = begin;
+        this.end = end;
+        this.foiIDs = foiIDs;
+        this.withData = withData;
+        this.fixedSegments = null;
+        openAndFetch();
+    }
+    
+    
+    /*
+     * Iterator on all records of the given committed segments
+     * Used to merge and rewrite segments
+     */
+    SeriesIterator(RecordSeries series, List<Segment> segments)
+    {
+        this.series = series;
+        this.codec = series.codec;
+        this.begin = Double.NEGATIVE_INFINITY;
+        this.end = Double.POSITIVE_INFINITY;
+        this.foiIDs = null;
+        this.withData = true;
+        this.fixedSegments = segments;
+        openAndFetch();
+    }
+    
+    
+    private void openAndFetch()
+    {
+        while (true)
+        {
+            try
+            {
+                open();
+                fetchNext();
+                return;
+            }
+            catch (SegmentRetiredException e)
+            {
+                if (fixedSegments != null)
+                    throw new IllegalStateException(e);
+                
+                // segment was replaced by a merge, resume from a new snapshot
+                continue;
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Error while reading records of series " + series.name, e);
+            }
+        }
+    }
+    
+    
+    private void open() throws IOException
+    {
+        List<Segment> segments;
+        List<SeriesRecord> bufferedRecords;
+        double minTime = Math.max(begin, lastTime);
+        
+        if (fixedSegments != null)
+        {
+            segments = fixedSegments;
+            bufferedRecords = Collections.emptyList();
+        }
+        else
+        {
+            Snapshot snapshot = series.getSnapshot(minTime, end);
+            segments = snapshot.segments;
+            bufferedRecords = snapshot.bufferedRecords;
+        }
+        
+        cursors = new PriorityQueue<>(segments.size() + 1, CURSOR_COMPARATOR);
+        int index = 0;
+        for (Segment seg: segments)
+        {
+            // skip segments outside of time range or without any selected FOI
+            if (seg.getEndTime() < minTime || seg.getStartTime() > end)
+                continue;
+            if (foiIDs != null && Collections.disjoint(foiIDs, seg.foiIDs))
+                continue;
+            
+            Cursor cursor = new SegmentCursor(seg, minTime);
+            cursor.index = index++;
+            if (cursor.advance())
+                cursors.add(cursor);
+        }
+        
+        // buffer comes last so committed records win in case of duplicates
+        Cursor cursor = new BufferCursor(bufferedRecords);
+        cursor.index = index;
+        if (cursor.advance())
+            cursors.add(cursor);
+    }
+    
+    
+    private void fetchNext() throws IOException
+    {
+        nextRecord = null;
+        
+        Cursor cursor;
+        while ((cursor = cursors.poll()) != null)
+        {
+            SeriesRecord rec = cursor.current;
+            if (cursor.advance())
+                cursors.add(cursor);
+            
+            // skip duplicate time stamps
+            if (rec.time <= lastTime)
+                continue;
+            
+            lastTime = rec.time;
+            nextRecord = rec;
+            return;
+        }
+    }
+
+
+    @Override
+    public boolean hasNext()
+    {
+        return nextRecord != null;
+    }
+
+
+    @Override
+    public SeriesRecord next()
+    {
+        if (nextRecord == null)
+            throw new NoSuchElementException();
+        
+        SeriesRecord rec = nextRecord;
+        
+        try
+        {
+            fetchNext();
+        }
+        catch (SegmentRetiredException e)
+        {
+            if (fixedSegments != null)
+                throw new IllegalStateException(e);
+            
+            // segment was replaced by a merge, resume from a new snapshot
+            openAndFetch();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Error while reading records of series " + series.name, e);
+        }
+        
+        return rec;
+    }
+    
+    
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,63 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+import net.opengis.swe.v20.DataBlock;
+import org.sensorhub.api.persistence.DataKey;
+import org.sensorhub.api.persistence.IDataRecord;
+import org.sensorhub.api.persistence.ObsKey;
+
+
+/**
+ * <p>
+ * Record of a columnar time series, either waiting in the write buffer
+ * or decoded from a segment block
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+class SeriesRecord implements IDataRecord
+{
+    final String recordType;
+    final String producerID;
+    final double time;
+    final String foiID;
+    DataBlock data;
+    
+    
+    SeriesRecord(String recordType, String producerID, double time, String foiID, DataBlock data)
+    {
+        this.recordType = recordType;
+        this.producerID = producerID;
+        this.time = time;
+        this.foiID = foiID;
+        this.data = data;
+    }
+
+
+    @Override
+    public DataKey getKey()
+    {
+        return new ObsKey(recordType, producerID, foiID, time);
+    }
+
+
+    @Override
+    public DataBlock getData()
+    {
+        return data;
+    }
+}
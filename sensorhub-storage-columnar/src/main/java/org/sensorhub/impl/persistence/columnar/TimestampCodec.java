@@ -0,0 +1,181 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+
+/**
+ * <p>
+ * Delta-of-delta encoding of record time stamps.<br/>
+ * Time stamps are converted to integer microseconds and the difference
+ * between consecutive deltas is written using variable size bit buckets,
+ * so regularly sampled series cost about one bit per record. Since time
+ * stamps are doubles, the (usually null) XOR between the original value and
+ * the value reconstructed from microseconds is also stored so that time
+ * stamps are always restored exactly.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+final class TimestampCodec
+{
+    
+    private TimestampCodec()
+    {
+    }
+    
+    
+    static long toMicros(double time)
+    {
+        return Math.round(time * 1e6);
+    }
+    
+    
+    static double fromMicros(long micros)
+    {
+        return micros / 1e6;
+    }
+    
+    
+    static void encode(double[] times, int numValues, BitOutput out)
+    {
+        long prevMicros = 0;
+        long prevDelta = 0;
+        
+        for (int i = 0; i < numValues; i++)
+        {
+            double time = times[i];
+            long micros = toMicros(time);
+            
+            if (i == 0)
+            {
+                out.writeBits(micros, 64);
+            }
+            else
+            {
+                long delta = micros - prevMicros;
+                writeDeltaOfDelta(delta - prevDelta, out);
+                prevDelta = delta;
+            }
+            
+            prevMicros = micros;
+            writeResidual(Double.doubleToRawLongBits(time) ^ Double.doubleToRawLongBits(fromMicros(micros)), out);
+        }
+    }
+    
+    
+    static void decode(BitInput in, int numValues, double[] times)
+    {
+        long prevMicros = 0;
+        long prevDelta = 0;
+        
+        for (int i = 0; i < numValues; i++)
+        {
+            long micros;
+            
+            if (i == 0)
+            {
+                micros = in.readBits(64);
+            }
+            else
+            {
+                long delta = prevDelta + readDeltaOfDelta(in);
+                micros = prevMicros + delta;
+                prevDelta = delta;
+            }
+            
+            prevMicros = micros;
+            long residual = readResidual(in);
+            times[i] = Double.longBitsToDouble(Double.doubleToRawLongBits(fromMicros(micros)) ^ residual);
+        }
+    }
+    
+    
+    private static void writeDeltaOfDelta(long dod, BitOutput out)
+    {
+        if (dod == 0)
+            out.writeBits(0b0, 1);
+        else if (dod >= -63 && dod <= 64)
+        {
+            out.writeBits(0b10, 2);
+            out.writeBits(dod + 63, 7);
+        }
+        else if (dod >= -255 && dod <= 256)
+        {
+            out.writeBits(0b110, 3);
+            out.writeBits(dod + 255, 9);
+        }
+        else if (dod >= -2047 && dod <= 2048)
+        {
+            out.writeBits(0b1110, 4);
+            out.writeBits(dod + 2047, 12);
+        }
+        else if (dod >= -Integer.MAX_VALUE && dod <= (long)Integer.MAX_VALUE + 1)
+        {
+            out.writeBits(0b11110, 5);
+            out.writeBits(dod + Integer.MAX_VALUE, 32);
+        }
+        else
+        {
+            out.writeBits(0b11111, 5);
+            out.writeBits(dod, 64);
+        }
+    }
+    
+    
+    private static long readDeltaOfDelta(BitInput in)
+    {
+        if (!in.readBit())
+            return 0;
+        if (!in.readBit())
+            return in.readBits(7) - 63;
+        if (!in.readBit())
+            return in.readBits(9) - 255;
+        if (!in.readBit())
+            return in.readBits(12) - 2047;
+        if (!in.readBit())
+            return in.readBits(32) - Integer.MAX_VALUE;
+        return in.readBits(64);
+    }
+    
+    
+    private static void writeResidual(long residual, BitOutput out)
+    {
+        if (residual == 0)
+        {
+            out.writeBit(false);
+        }
+        else
+        {
+            int trailingZeros = Long.numberOfTrailingZeros(residual);
+            int numBits = 64 - Long.numberOfLeadingZeros(residual) - trailingZeros;
+            out.writeBit(true);
+            out.writeBits(trailingZeros, 6);
+            out.writeBits(numBits - 1, 6);
+            out.writeBits(residual >>> trailingZeros, numBits);
+        }
+    }
+    
+    
+    private static long readResidual(BitInput in)
+    {
+        if (!in.readBit())
+            return 0;
+        
+        int trailingZeros = (int)in.readBits(6);
+        int numBits = (int)in.readBits(6) + 1;
+        return in.readBits(numBits) << trailingZeros;
+    }
+}
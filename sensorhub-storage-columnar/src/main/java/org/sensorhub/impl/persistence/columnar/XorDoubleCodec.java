@@ -0,0 +1,125 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.columnar;
+
+
+/**
+ * <p>
+ * Gorilla style compression of floating point columns.<br/>
+ * Each value is XORed with the previous one and only the meaningful bits
+ * of the result are written, reusing the previous leading/trailing zeros
+ * window when possible. Slowly varying measurements typically compress to
+ * a few bits per value and constant values to a single bit.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+final class XorDoubleCodec
+{
+    
+    private XorDoubleCodec()
+    {
+    }
+    
+    
+    static void encode(double[] values, int numValues, BitOutput out)
+    {
+        long prevBits = 0;
+        int prevLeadingZeros = -1;
+        int prevTrailingZeros = 0;
+        
+        for (int i = 0; i < numValues; i++)
+        {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            
+            if (i == 0)
+            {
+                out.writeBits(bits, 64);
+                prevBits = bits;
+                continue;
+            }
+            
+            long xor = bits ^ prevBits;
+            if (xor == 0)
+            {
+                out.writeBit(false);
+            }
+            else
+            {
+                out.writeBit(true);
+                int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int trailingZeros = Long.numberOfTrailingZeros(xor);
+                
+                if (prevLeadingZeros >= 0 && leadingZeros >= prevLeadingZeros && trailingZeros >= prevTrailingZeros)
+                {
+                    // meaningful bits fit in previous window
+                    out.writeBit(false);
+                    out.writeBits(xor >>> prevTrailingZeros, 64 - prevLeadingZeros - prevTrailingZeros);
+                }
+                else
+                {
+                    int numBits = 64 - leadingZeros - trailingZeros;
+                    out.writeBit(true);
+                    out.writeBits(leadingZeros, 5);
+                    out.writeBits(numBits - 1, 6);
+                    out.writeBits(xor >>> trailingZeros, numBits);
+                    prevLeadingZeros = leadingZeros;
+                    prevTrailingZeros = trailingZeros;
+                }
+            }
+            
+            prevBits = bits;
+        }
+    }
+    
+    
+    static void decode(BitInput in, int numValues, double[] values)
+    {
+        long prevBits = 0;
+        int prevLeadingZeros = 0;
+        int prevTrailingZeros = 0;
+        
+        for (int i = 0; i < numValues; i++)
+        {
+            long bits;
+            
+            if (i == 0)
+            {
+                bits = in.readBits(64);
+            }
+            else if (!in.readBit())
+            {
+                bits = prevBits;
+            }
+            else
+            {
+                if (in.readBit())
+                {
+                    prevLeadingZeros = (int)in.readBits(5);
+                    int numBits = (int)in.readBits(6) + 1;
+                    prevTrailingZeros = 64 - prevLeadingZeros - numBits;
+                }
+                
+                int numBits = 64 - prevLeadingZeros - prevTrailingZeros;
+                long xor = in.readBits(numBits) << prevTrailingZeros;
+                bits = prevBits ^ xor;
+            }
+            
+            values[i] = Double.longBitsToDouble(bits);
+            prevBits = bits;
+        }
+    }
+}
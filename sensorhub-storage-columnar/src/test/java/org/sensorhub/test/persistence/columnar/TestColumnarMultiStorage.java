@@ -0,0 +1,76 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.persistence.columnar;
+
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.sensorhub.impl.persistence.columnar.ColumnarStorageConfig;
+import org.sensorhub.impl.persistence.columnar.ColumnarMultiObsStorageImpl;
+import org.sensorhub.test.persistence.AbstractTestMultiObsStorage;
+import org.sensorhub.utils.FileUtils;
+
+
+public class TestColumnarMultiStorage extends AbstractTestMultiObsStorage<ColumnarMultiObsStorageImpl>
+{
+    File dbDir;
+    
+    
+    @Before
+    public void init() throws Exception
+    {
+        ColumnarStorageConfig config = new ColumnarStorageConfig();
+        config.autoStart = true;
+        config.blockSize = 100;
+        dbDir = Files.createTempDirectory("testdb").toFile();
+        config.storagePath = dbDir.getAbsolutePath();
+        
+        storage = new ColumnarMultiObsStorageImpl();
+        storage.init(config);
+        storage.start();
+    }
+    
+
+    @Override
+    protected void forceReadBackFromStorage() throws Exception
+    {
+        storage.stop();
+        storage.start();
+    }
+    
+    
+    @After
+    public void cleanup() throws Exception
+    {
+        storage.stop();
+        System.out.println("DB folder size was " + getFolderSize(dbDir)/1024 + "KB");
+        FileUtils.deleteRecursively(dbDir);
+    }
+    
+    
+    private long getFolderSize(File dir)
+    {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (File f: files)
+                size += f.isDirectory() ? getFolderSize(f) : f.length();
+        }
+        return size;
+    }
+    
+}
@@ -41,6 +41,14 @@ public class BasicStorageConfig extends org.sensorhub.api.persistence.ObsStorage
     
     @DisplayInfo(desc="Size of LRU object cache size (this is the maximum number of objects that are pinned in memory and don't require reload from DB)")
     public int objectCacheSize = 100;
+    
+    
+    @DisplayInfo(desc="Set to map the database file in memory instead of reading it with system calls. This is faster for large databases that are mostly read")
+    public boolean memoryMapped = false;
+    
+    
+    @DisplayInfo(desc="Size of memory mapped file chunks in megabytes (only used if memoryMapped is set)")
+    public int mappedChunkSize = 256;
 
 
     @Override
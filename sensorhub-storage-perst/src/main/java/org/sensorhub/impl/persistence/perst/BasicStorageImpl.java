@@ -25,6 +25,7 @@ import net.opengis.sensorml.v20.AbstractProcess;
 import net.opengis.swe.v20.DataBlock;
 import net.opengis.swe.v20.DataComponent;
 import net.opengis.swe.v20.DataEncoding;
+import org.garret.perst.IFile;
 import org.garret.perst.Persistent;
 import org.garret.perst.Storage;
 import org.garret.perst.StorageFactory;
@@ -71,10 +72,13 @@ public class BasicStorageImpl extends AbstractModule<BasicStorageConfig> impleme
             if (parentFolder != null)
                 parentFolder.mkdirs();
             
-            // acquire file lock on DB filetra
-            // cannot use MappedFile because current implementation is limited to 2GB size
-            //MappedFile dbFile = new MappedFile(config.storagePath, 100*1024, false);
-            OSFile dbFile = new OSFile(config.storagePath, false, false);
+            // acquire file lock on DB file
+            // we don't use PERST MappedFile because its implementation is limited to 2GB size
+            IFile dbFile;
+            if (config.memoryMapped)
+                dbFile = new ChunkedMappedFile(config.storagePath, config.mappedChunkSize*1024L*1024L, false);
+            else
+                dbFile = new OSFile(config.storagePath, false, false);
             try
             {
                 if (!dbFile.tryLock(false))
@@ -303,6 +307,13 @@ public class BasicStorageImpl extends AbstractModule<BasicStorageConfig> impleme
     {
         return ((BasicStorageRoot)dbRoot).getNumMatchingRecords(filter, maxCount);
     }
+
+
+    @Override
+    public boolean hasMoreMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        return ((BasicStorageRoot)dbRoot).hasMoreMatchingRecords(filter, maxCount);
+    }
     
 
     @Override
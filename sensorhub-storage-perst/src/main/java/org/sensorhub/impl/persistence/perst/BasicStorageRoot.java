@@ -369,6 +369,22 @@ class BasicStorageRoot extends PersistentResource implements IBasicStorage
     {
         return getRecordStore(filter.getRecordType()).getNumMatchingRecords(filter, maxCount);
     }
+
+
+    @Override
+    public boolean hasMoreMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        return countMatchingRecords(filter, maxCount) > maxCount;
+    }
+    
+    
+    /*
+     * Bounded count of matching records (exact only up to maxCount)
+     */
+    long countMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        return getRecordStore(filter.getRecordType()).countMatchingRecords(filter, maxCount);
+    }
     
 
     @Override
@@ -0,0 +1,310 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.perst;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import org.garret.perst.IFile;
+import org.garret.perst.StorageError;
+
+
+/**
+ * <p>
+ * PERST file backend mapping the database file in memory with several
+ * fixed-size chunks, so it is not limited to 2GB like
+ * {@link org.garret.perst.MappedFile}.<br/>
+ * Pages are read directly from the OS page cache instead of going through
+ * a read() system call for each page. The file is extended by one chunk at
+ * a time when writing past its end and truncated to its actual size when
+ * closed.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+public class ChunkedMappedFile implements IFile
+{
+    public static final long DEFAULT_CHUNK_SIZE = 256*1024*1024L;
+    
+    protected RandomAccessFile file;
+    protected FileChannel channel;
+    protected FileLock lck;
+    protected final long chunkSize;
+    protected final boolean noFlush;
+    protected volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    protected boolean[] dirtyChunks = new boolean[0];
+    protected volatile long size;
+    
+    
+    /**
+     * Opens or creates a memory mapped file
+     * @param filePath path of database file
+     * @param chunkSize size of each mapped region in bytes (must be a multiple of the PERST page size)
+     * @param noFlush if true, modified pages are never explicitly flushed to disk
+     */
+    public ChunkedMappedFile(String filePath, long chunkSize, boolean noFlush)
+    {
+        if (chunkSize <= 0 || chunkSize > Integer.MAX_VALUE || chunkSize % 4096 != 0)
+            throw new IllegalArgumentException("Chunk size must be a multiple of 4096 and smaller than 2GB");
+        
+        this.chunkSize = chunkSize;
+        this.noFlush = noFlush;
+        
+        try
+        {
+            file = new RandomAccessFile(filePath, "rw");
+            channel = file.getChannel();
+            size = file.length();
+        }
+        catch (IOException e)
+        {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, e);
+        }
+    }
+    
+    
+    /*
+     * Gets chunk containing the given offset, optionally mapping it (and
+     * all chunks before it) if it doesn't exist yet
+     */
+    protected final MappedByteBuffer getChunk(int index, boolean create)
+    {
+        MappedByteBuffer[] chunks = this.chunks;
+        if (index < chunks.length)
+            return chunks[index];
+        
+        if (!create)
+            return null;
+        
+        synchronized (this)
+        {
+            chunks = this.chunks;
+            if (index < chunks.length)
+                return chunks[index];
+            
+            try
+            {
+                MappedByteBuffer[] newChunks = Arrays.copyOf(chunks, index + 1);
+                for (int i = chunks.length; i <= index; i++)
+                    newChunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * chunkSize, chunkSize);
+                dirtyChunks = Arrays.copyOf(dirtyChunks, newChunks.length);
+                this.chunks = newChunks;
+                return newChunks[index];
+            }
+            catch (IOException e)
+            {
+                throw new StorageError(StorageError.FILE_ACCESS_ERROR, e);
+            }
+        }
+    }
+    
+    
+    @Override
+    public void write(long pos, byte[] buf)
+    {
+        int offset = 0;
+        while (offset < buf.length)
+        {
+            int chunkIdx = (int)(pos / chunkSize);
+            int chunkPos = (int)(pos % chunkSize);
+            int len = (int)Math.min(buf.length - offset, chunkSize - chunkPos);
+            
+            ByteBuffer chunk = getChunk(chunkIdx, true).duplicate();
+            chunk.position(chunkPos);
+            chunk.put(buf, offset, len);
+            
+            synchronized (this)
+            {
+                dirtyChunks[chunkIdx] = true;
+                if (pos + len > size)
+                    size = pos + len;
+            }
+            
+            pos += len;
+            offset += len;
+        }
+    }
+    
+    
+    @Override
+    public int read(long pos, byte[] buf)
+    {
+        long size = this.size;
+        if (pos >= size)
+            return -1;
+        
+        int readLen = (int)Math.min(buf.length, size - pos);
+        int offset = 0;
+        while (offset < readLen)
+        {
+            int chunkIdx = (int)(pos / chunkSize);
+            int chunkPos = (int)(pos % chunkSize);
+            int len = (int)Math.min(readLen - offset, chunkSize - chunkPos);
+            
+            ByteBuffer chunk = getChunk(chunkIdx, true).duplicate();
+            chunk.position(chunkPos);
+            chunk.get(buf, offset, len);
+            
+            pos += len;
+            offset += len;
+        }
+        
+        return readLen;
+    }
+    
+    
+    @Override
+    public synchronized void sync()
+    {
+        if (noFlush)
+            return;
+        
+        MappedByteBuffer[] chunks = this.chunks;
+        for (int i = 0; i < chunks.length; i++)
+        {
+            if (dirtyChunks[i])
+            {
+                chunks[i].force();
+                dirtyChunks[i] = false;
+            }
+        }
+    }
+    
+    
+    @Override
+    public boolean tryLock(boolean shared)
+    {
+        try
+        {
+            lck = channel.tryLock(0, Long.MAX_VALUE, shared);
+            return lck != null;
+        }
+        catch (IOException e)
+        {
+            return true;
+        }
+    }
+    
+    
+    @Override
+    public void lock(boolean shared)
+    {
+        try
+        {
+            lck = channel.lock(0, Long.MAX_VALUE, shared);
+        }
+        catch (IOException e)
+        {
+            throw new StorageError(StorageError.LOCK_FAILED, e);
+        }
+    }
+    
+    
+    @Override
+    public void unlock()
+    {
+        try
+        {
+            lck.release();
+        }
+        catch (IOException e)
+        {
+            throw new StorageError(StorageError.LOCK_FAILED, e);
+        }
+    }
+    
+    
+    @Override
+    public synchronized void close()
+    {
+        try
+        {
+            sync();
+            
+            MappedByteBuffer[] chunks = this.chunks;
+            this.chunks = new MappedByteBuffer[0];
+            for (MappedByteBuffer chunk: chunks)
+                unmap(chunk);
+            
+            // remove unused space at the end of the last chunk
+            // this can fail on some platforms if the chunks couldn't be unmapped
+            try
+            {
+                channel.truncate(size);
+            }
+            catch (IOException e)
+            {
+            }
+            
+            file.close();
+        }
+        catch (IOException e)
+        {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, e);
+        }
+    }
+    
+    
+    @Override
+    public long length()
+    {
+        return size;
+    }
+    
+    
+    /*
+     * Try to release mapping immediately rather than waiting for GC.
+     * This uses internal JDK APIs so it is only done on a best effort basis.
+     */
+    protected static void unmap(MappedByteBuffer buf)
+    {
+        try
+        {
+            // JDK 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buf);
+        }
+        catch (NoSuchMethodException e)
+        {
+            try
+            {
+                // JDK 8
+                Method cleanerMethod = buf.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buf);
+                if (cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+            catch (Exception e1)
+            {
+                // mapping will be released when buffer is garbage collected
+            }
+        }
+        catch (Exception e)
+        {
+            // mapping will be released when buffer is garbage collected
+        }
+    }
+}
@@ -15,8 +15,10 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 package org.sensorhub.impl.persistence.perst;
 
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.PriorityQueue;
 import net.opengis.gml.v32.AbstractFeature;
 import net.opengis.swe.v20.DataBlock;
 import net.opengis.swe.v20.DataComponent;
@@ -49,29 +51,72 @@ class MultiEntityStorageRoot extends ObsStorageRoot implements IObsStorage, IMul
     IPersistentMap<String, ObsStorageRoot> obsStores;
     
     
-    /* to iterate through a list of producers records in parallel while sorting by time */
+    /* merge state of a single producer */
+    static final class ProducerCursor
+    {
+        final int index;
+        final ObsStorageRoot dataStore;
+        Iterator<DBRecord> iterator; // null until sub-iterator is opened
+        DBRecord nextRecord;
+        double nextTime; // lower bound of next record time until sub-iterator is opened
+        
+        ProducerCursor(int index, ObsStorageRoot dataStore, double minTime)
+        {
+            this.index = index;
+            this.dataStore = dataStore;
+            this.nextTime = minTime;
+        }
+    }
+    
+    
+    /* order cursors by next record time, then by producer index to keep ordering stable */
+    static final Comparator<ProducerCursor> CURSOR_COMPARATOR = new Comparator<ProducerCursor>()
+    {
+        @Override
+        public int compare(ProducerCursor c1, ProducerCursor c2)
+        {
+            int comp = Double.compare(c1.nextTime, c2.nextTime);
+            if (comp != 0)
+                return comp;
+            return Integer.compare(c1.index, c2.index);
+        }
+    };
+    
+    
+    /*
+     * To iterate through a list of producers records in parallel while sorting by time.
+     * This is a k-way merge using a priority queue of producer cursors. Producers
+     * whose data time range doesn't intersect the filter are skipped, and sub-iterators
+     * are only opened when a producer can contribute the next record (i.e. its cursor
+     * is initially keyed on the start of its data time range).
+     */
     abstract class MultiProducerTimeSortIterator<ObjectType> implements Iterator<ObjectType>
     {
-        int numProducers;
-        Iterator<DBRecord>[] iterators;
-        DBRecord[] nextRecords;
+        PriorityQueue<ProducerCursor> cursors;
         DBRecord nextRecord;
         
-        MultiProducerTimeSortIterator(Collection<String> producerIDs)
+        MultiProducerTimeSortIterator(Collection<String> producerIDs, IDataFilter filter)
         {
-            this.numProducers = producerIDs.size();
-            this.iterators = new Iterator[numProducers];
-            this.nextRecords = new DBRecord[numProducers];
+            this.cursors = new PriorityQueue<>(Math.max(1, producerIDs.size()), CURSOR_COMPARATOR);
+            
+            String recordType = filter.getRecordType();
+            double[] timeRange = filter.getTimeStampRange();
+            double begin = (timeRange == null) ? Double.NEGATIVE_INFINITY : timeRange[0];
+            double end = (timeRange == null) ? Double.POSITIVE_INFINITY : timeRange[1];
             
-            // get first matching record for each producer
+            // add a cursor for each producer with data in the requested time range
             int i = 0;
             for (String producerID: producerIDs)
             {
-                Iterator<DBRecord> it = getSubIterator(producerID);
-                iterators[i] = it;
-                if (it.hasNext())
-                    nextRecords[i] = it.next();
-                i++;
+                ObsStorageRoot dataStore = getEntityStorage(producerID);
+                if (!dataStore.getRecordStores().containsKey(recordType))
+                    continue;
+                
+                double[] dataTimeRange = dataStore.getRecordsTimeRange(recordType);
+                if (Double.isNaN(dataTimeRange[0]) || dataTimeRange[1] < begin || dataTimeRange[0] > end)
+                    continue;
+                
+                cursors.add(new ProducerCursor(i++, dataStore, Math.max(begin, dataTimeRange[0])));
             }
             
             // call it once to init things properly
@@ -87,43 +132,45 @@ class MultiEntityStorageRoot extends ObsStorageRoot implements IObsStorage, IMul
         public final DBRecord nextRecord()
         {
             DBRecord rec = nextRecord;
+            nextRecord = null;
             
-            int minTimeIndex = -1;
-            double minTime = Double.POSITIVE_INFINITY;
-            
-            // find record with earliest time stamp among producers
-            for (int i = 0; i < numProducers; i++)
+            ProducerCursor cursor;
+            while ((cursor = cursors.poll()) != null)
             {
-                DBRecord candidateRec = nextRecords[i];
-                if (candidateRec == null)
-                    continue;
-                
-                double nextTimeStamp = candidateRec.key.timeStamp;
-                if (nextTimeStamp < minTime)
+                // open sub-iterator when cursor reaches the head of the queue for the first time
+                // since its next record time was only a lower bound
+                if (cursor.iterator == null)
                 {
-                    minTime = nextTimeStamp;
-                    minTimeIndex = i;
+                    cursor.iterator = getSubIterator(cursor.dataStore);
+                    if (fetchNext(cursor))
+                        cursors.add(cursor);
+                    continue;
                 }
+                
+                // otherwise it holds the record with earliest time stamp among producers
+                nextRecord = cursor.nextRecord;
+                if (fetchNext(cursor))
+                    cursors.add(cursor);
+                break;
             }
             
-            // if a record was found, prepare for next iteration by fetching the next
-            // record on the corresponding iterator. Keep all the other ones
-            if (minTimeIndex >= 0)
+            return rec;
+        }
+        
+        private boolean fetchNext(ProducerCursor cursor)
+        {
+            if (!cursor.iterator.hasNext())
             {
-                nextRecord = nextRecords[minTimeIndex];
-                Iterator<DBRecord> recIt = iterators[minTimeIndex];
-                if (recIt.hasNext())
-                    nextRecords[minTimeIndex] = recIt.next();
-                else
-                    nextRecords[minTimeIndex] = null;
+                cursor.nextRecord = null;
+                return false;
             }
-            else
-                nextRecord = null;
             
-            return rec;
+            cursor.nextRecord = cursor.iterator.next();
+            cursor.nextTime = cursor.nextRecord.key.timeStamp;
+            return true;
         }
         
-        protected abstract Iterator<DBRecord> getSubIterator(String producerID);
+        protected abstract Iterator<DBRecord> getSubIterator(ObsStorageRoot dataStore);
     
         @Override
         public final void remove()
@@ -274,16 +321,16 @@ class MultiEntityStorageRoot extends ObsStorageRoot implements IObsStorage, IMul
         {
             obsStores.sharedLock();
             
-            return new MultiProducerTimeSortIterator<DataBlock>(producerIDs)
+            return new MultiProducerTimeSortIterator<DataBlock>(producerIDs, filter)
             {
                 public DataBlock next()
                 {
                     return nextRecord().value;
                 }
     
-                protected Iterator<DBRecord> getSubIterator(String producerID)
+                protected Iterator<DBRecord> getSubIterator(ObsStorageRoot dataStore)
                 {
-                    return (Iterator<DBRecord>)getEntityStorage(producerID).getRecordIterator(filter);
+                    return (Iterator<DBRecord>)dataStore.getRecordIterator(filter);
                 }
             };
         }
@@ -306,16 +353,16 @@ class MultiEntityStorageRoot extends ObsStorageRoot implements IObsStorage, IMul
         {
             obsStores.sharedLock();
             
-            return new MultiProducerTimeSortIterator<IDataRecord>(producerIDs)
+            return new MultiProducerTimeSortIterator<IDataRecord>(producerIDs, filter)
             {
                 public IDataRecord next()
                 {
                     return nextRecord();
                 }
 
-                protected Iterator<DBRecord> getSubIterator(String producerID)
+                protected Iterator<DBRecord> getSubIterator(ObsStorageRoot dataStore)
                 {
-                    return (Iterator<DBRecord>)getEntityStorage(producerID).getRecordIterator(filter);
+                    return (Iterator<DBRecord>)dataStore.getRecordIterator(filter);
                 }
             };
         }
@@ -346,6 +393,27 @@ class MultiEntityStorageRoot extends ObsStorageRoot implements IObsStorage, IMul
     }
 
 
+    @Override
+    long countMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        // use producer list from filter or use all producers
+        Collection<String> producerIDs = filter.getProducerIDs();
+        if (producerIDs == null || producerIDs.isEmpty())
+            producerIDs = this.getProducerIDs();
+        
+        // stop as soon as threshold is exceeded
+        long numRecords = 0;
+        for (String producerID: producerIDs)
+        {
+            numRecords += getEntityStorage(producerID).countMatchingRecords(filter, maxCount - numRecords);
+            if (numRecords > maxCount)
+                return numRecords;
+        }
+        
+        return numRecords;
+    }
+
+
     @Override
     public void storeRecord(DataKey key, DataBlock data)
     {
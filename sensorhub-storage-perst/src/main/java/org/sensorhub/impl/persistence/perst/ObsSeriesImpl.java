@@ -55,6 +55,7 @@ public class ObsSeriesImpl extends TimeSeriesImpl
         Iterator<FoiTimePeriod> periodIt; 
         Iterator<Entry<Object, DataBlock>> recordIt;
         Entry<Object,DataBlock> nextRecord;
+        Entry<Object,DataBlock> lastRecord;
         String currentFoiID;
         boolean preloadValue;
         
@@ -73,6 +74,7 @@ public class ObsSeriesImpl extends TimeSeriesImpl
         public final Entry<Object,DataBlock> next()
         {
             Entry<Object,DataBlock> rec = nextRecord;
+            lastRecord = rec;
             
             if ((recordIt == null || !recordIt.hasNext()) && periodIt.hasNext())
             {
@@ -93,7 +95,13 @@ public class ObsSeriesImpl extends TimeSeriesImpl
     
         public final void remove()
         {
-            recordIt.remove();
+            // records are prefetched so we cannot use recordIt.remove() here
+            // instead remove the last returned record by key (index iterators
+            // support concurrent modifications)
+            if (lastRecord == null)
+                throw new IllegalStateException();
+            ObsSeriesImpl.this.remove(new DataKey(recordDescription.getName(), (double)lastRecord.getKey()));
+            lastRecord = null;
         }
 
         public String getCurrentFoiID()
@@ -205,6 +213,8 @@ public class ObsSeriesImpl extends TimeSeriesImpl
         
         return new Iterator<DBRecord>()
         {
+            ObsKey lastKey;
+            
             public final boolean hasNext()
             {
                 return it.hasNext();
@@ -214,12 +224,13 @@ public class ObsSeriesImpl extends TimeSeriesImpl
             {
                 Entry<Object, DataBlock> entry = it.next();
                 String currentFoiID = it.getCurrentFoiID();
-                ObsKey key = new ObsKey(recordDescription.getName(), currentFoiID, (double)entry.getKey());
-                return new DBRecord(key, entry.getValue());
+                lastKey = new ObsKey(recordDescription.getName(), currentFoiID, (double)entry.getKey());
+                return new DBRecord(lastKey, entry.getValue());
             }
 
             public final void remove()
             {
+                // also updates summary index
                 it.remove();
             }
         };
@@ -254,6 +265,27 @@ public class ObsSeriesImpl extends TimeSeriesImpl
     }
 
 
+    @Override
+    long countMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        // get time periods for matching FOIs
+        Set<FoiTimePeriod> foiTimePeriods = getFoiTimePeriods(filter, false);
+        if (foiTimePeriods == null)
+            return super.countMatchingRecords(filter, maxCount);
+        
+        // count records in each period using summary index
+        long count = 0;
+        for (FoiTimePeriod period: foiTimePeriods)
+        {
+            count += countRecords(period.start, period.stop, maxCount - count);
+            if (count > maxCount)
+                break;
+        }
+        
+        return count;
+    }
+
+
     @Override
     void store(DataKey key, DataBlock data)
     {
@@ -25,7 +25,6 @@ import org.garret.perst.IterableIterator;
 import org.garret.perst.Key;
 import org.garret.perst.Persistent;
 import org.garret.perst.Storage;
-import org.sensorhub.api.persistence.DataFilter;
 import org.sensorhub.api.persistence.DataKey;
 import org.sensorhub.api.persistence.IDataFilter;
 import org.sensorhub.api.persistence.IDataRecord;
@@ -50,6 +49,7 @@ class TimeSeriesImpl extends Persistent implements IRecordStoreInfo
     DataComponent recordDescription;
     DataEncoding recommendedEncoding;
     Index<DataBlock> recordIndex;
+    TimeSeriesSummary summary;
     protected transient BasicStorageRoot parentStore;
     
     
@@ -131,6 +131,38 @@ class TimeSeriesImpl extends Persistent implements IRecordStoreInfo
         this.recordDescription = recordDescription;
         this.recommendedEncoding = recommendedEncoding;
         recordIndex = db.<DataBlock> createIndex(double.class, true);
+        summary = new TimeSeriesSummary(db);
+    }
+    
+    
+    /*
+     * Gets the summary index, building it from existing records if needed
+     * (i.e. for storage files created before the summary index was introduced)
+     */
+    protected TimeSeriesSummary getSummary()
+    {
+        if (summary == null)
+        {
+            try
+            {
+                recordIndex.exclusiveLock();
+                if (summary == null)
+                {
+                    TimeSeriesSummary newSummary = new TimeSeriesSummary(getStorage());
+                    Iterator<Entry<Object, DataBlock>> it = recordIndex.entryIterator(KEY_DATA_START_ALL_TIME, KEY_DATA_END_ALL_TIME, Index.ASCENT_ORDER);
+                    while (it.hasNext())
+                        newSummary.add((double)it.next().getKey());
+                    summary = newSummary;
+                    modify();
+                }
+            }
+            finally
+            {
+                recordIndex.unlock();
+            }
+        }
+        
+        return summary;
     }
 
 
@@ -189,6 +221,8 @@ class TimeSeriesImpl extends Persistent implements IRecordStoreInfo
         
         return new Iterator<DataBlock>()
         {
+            Entry<Object, DataBlock> lastEntry;
+            
             @Override
             public final boolean hasNext()
             {
@@ -198,25 +232,103 @@ class TimeSeriesImpl extends Persistent implements IRecordStoreInfo
             @Override
             public final DataBlock next()
             {
-                Entry<Object, DataBlock> entry = it.next();
-                return entry.getValue();
+                lastEntry = it.next();
+                return lastEntry.getValue();
             }
 
             @Override
             public final void remove()
             {
                 it.remove();
+                onRecordRemoved((double)lastEntry.getKey());
             }
         };
     }
 
 
     int getNumMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        return (int)Math.min(countMatchingRecords(filter, maxCount), Integer.MAX_VALUE);
+    }
+    
+    
+    boolean hasMoreMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        return countMatchingRecords(filter, maxCount) > maxCount;
+    }
+    
+    
+    /*
+     * Counts records matching the filter.
+     * The returned count is exact if it is less or equal to maxCount, but
+     * counting can stop at any value greater than maxCount.
+     */
+    long countMatchingRecords(IDataFilter filter, long maxCount)
+    {
+        double[] timeRange = filter.getTimeStampRange();
+        double begin = (timeRange == null) ? Double.NEGATIVE_INFINITY : timeRange[0];
+        double end = (timeRange == null) ? Double.POSITIVE_INFINITY : timeRange[1];
+        return countRecords(begin, end, maxCount);
+    }
+    
+    
+    /*
+     * Counts records within [begin, end], stopping as soon as maxCount is exceeded.
+     * Records in hours fully covered by the time range are counted using the
+     * summary index so only records of the first and last hours are scanned.
+     */
+    long countRecords(double begin, double end, long maxCount)
+    {
+        // make sure time range is known before computing counts
+        double[] dataTimeRange = getDataTimeRange();
+        TimeSeriesSummary summary = getSummary();
+        
+        try
+        {
+            recordIndex.sharedLock();
+            
+            // shortcut if all records are selected
+            if (begin <= dataTimeRange[0] && end >= dataTimeRange[1])
+                return recordIndex.size();
+            
+            // clamp to data time range
+            begin = Math.max(begin, dataTimeRange[0]);
+            end = Math.min(end, dataTimeRange[1]);
+            if (Double.isNaN(begin) || Double.isNaN(end) || end < begin)
+                return 0;
+            
+            long firstHour = TimeSeriesSummary.getHourIndex(begin);
+            long lastHour = TimeSeriesSummary.getHourIndex(end);
+            if (firstHour == lastHour)
+                return scanRecords(new Key(begin, true), new Key(end, true), maxCount);
+            
+            long count = summary.getFullHoursCount(firstHour + 1, lastHour);
+            if (count > maxCount)
+                return count;
+            
+            count += scanRecords(new Key(begin, true), new Key((firstHour + 1) * TimeSeriesSummary.HOUR, false), maxCount - count);
+            if (count > maxCount)
+                return count;
+            
+            count += scanRecords(new Key(lastHour * TimeSeriesSummary.HOUR, true), new Key(end, true), maxCount - count);
+            return count;
+        }
+        finally
+        {
+            recordIndex.unlock();
+        }
+    }
+    
+    
+    /*
+     * Scans index keys in the given range, stopping after maxCount+1 records
+     */
+    private long scanRecords(Key keyFirst, Key keyLast, long maxCount)
     {
         // use entry iterator so datablocks are not loaded during scan
-        Iterator<Entry<Object, DataBlock>> it = getEntryIterator(filter, false);
+        Iterator<Entry<Object, DataBlock>> it = recordIndex.entryIterator(keyFirst, keyLast, Index.ASCENT_ORDER);
         
-        int count = 0;
+        long count = 0;
         while (it.hasNext() && count <= maxCount)
         {
             it.next();
@@ -233,6 +345,8 @@ class TimeSeriesImpl extends Persistent implements IRecordStoreInfo
         
         return new Iterator<DBRecord>()
         {
+            DataKey lastKey;
+            
             @Override
             public final boolean hasNext()
             {
@@ -243,14 +357,15 @@ class TimeSeriesImpl extends Persistent implements IRecordStoreInfo
             public final DBRecord next()
             {
                 Entry<Object, DataBlock> entry = it.next();
-                DataKey key = new DataKey(recordDescription.getName(), (double)entry.getKey());
-                return new DBRecord(key, entry.getValue());
+                lastKey = new DataKey(recordDescription.getName(), (double)entry.getKey());
+                return new DBRecord(lastKey, entry.getValue());
             }
 
             @Override
             public final void remove()
             {
                 it.remove();
+                onRecordRemoved(lastKey.timeStamp);
             }
         };
     }
@@ -312,10 +427,13 @@ class TimeSeriesImpl extends Persistent implements IRecordStoreInfo
 
     void store(DataKey key, DataBlock data)
     {
+        TimeSeriesSummary summary = getSummary();
+        
         try
         {
             recordIndex.exclusiveLock();
-            recordIndex.put(new Key(key.timeStamp), data);
+            if (recordIndex.put(new Key(key.timeStamp), data))
+                summary.add(key.timeStamp);
         }
         finally
         {
@@ -342,10 +460,14 @@ class TimeSeriesImpl extends Persistent implements IRecordStoreInfo
 
     void remove(DataKey key)
     {
+        TimeSeriesSummary summary = getSummary();
+        
         try
         {
             recordIndex.exclusiveLock();
             DataBlock oldData = recordIndex.remove(new Key(key.timeStamp));
+            if (oldData != null)
+                summary.remove(key.timeStamp);
             getStorage().deallocate(oldData);
         }
         finally
@@ -357,6 +479,8 @@ class TimeSeriesImpl extends Persistent implements IRecordStoreInfo
 
     int remove(IDataFilter filter)
     {
+        TimeSeriesSummary summary = getSummary();
+        
         try
         {
             recordIndex.exclusiveLock();
@@ -371,6 +495,7 @@ class TimeSeriesImpl extends Persistent implements IRecordStoreInfo
             {
                 Entry<Object,DataBlock> oldData = it.next();
                 it.remove();
+                summary.remove((double)oldData.getKey());
                 getStorage().deallocate(oldData.getValue());
                 count++;
             }
@@ -384,22 +509,67 @@ class TimeSeriesImpl extends Persistent implements IRecordStoreInfo
     }
 
 
+    /*
+     * Called when a record is removed through one of the iterators
+     */
+    protected void onRecordRemoved(double timeStamp)
+    {
+        TimeSeriesSummary summary = getSummary();
+        
+        try
+        {
+            recordIndex.exclusiveLock();
+            summary.remove(timeStamp);
+        }
+        finally
+        {
+            recordIndex.unlock();
+        }
+    }
+
+
     double[] getDataTimeRange()
     {
+        TimeSeriesSummary summary = getSummary();
+        
+        // time range is usually maintained by summary index
+        try
+        {
+            recordIndex.sharedLock();
+            if (summary.hasValidTimeRange())
+                return summary.getTimeRange();
+        }
+        finally
+        {
+            recordIndex.unlock();
+        }
+        
+        // otherwise get it from first and last records and cache it in summary
+        // caching writes the persistent summary so it needs the exclusive lock
         try
         {
-            recordIndex.sharedLock();            
+            recordIndex.exclusiveLock();
+            if (summary.hasValidTimeRange())
+                return summary.getTimeRange();
+            
             IterableIterator<Entry<Object, DataBlock>> it;
+            double[] timeRange;
             
             it = recordIndex.entryIterator(KEY_DATA_START_ALL_TIME, KEY_DATA_END_ALL_TIME, Index.ASCENT_ORDER);
             if (!it.hasNext())
-                return new double[] { Double.NaN, Double.NaN };
-            Entry<Object, DataBlock> first = it.next();
-    
-            it = recordIndex.entryIterator(KEY_DATA_START_ALL_TIME, KEY_DATA_END_ALL_TIME, Index.DESCENT_ORDER);
-            Entry<Object, DataBlock> last = it.next();
-    
-            return new double[] { (double)first.getKey(), (double)last.getKey() };
+            {
+                timeRange = new double[] { Double.NaN, Double.NaN };
+            }
+            else
+            {
+                Entry<Object, DataBlock> first = it.next();
+                it = recordIndex.entryIterator(KEY_DATA_START_ALL_TIME, KEY_DATA_END_ALL_TIME, Index.DESCENT_ORDER);
+                Entry<Object, DataBlock> last = it.next();
+                timeRange = new double[] { (double)first.getKey(), (double)last.getKey() };
+            }
+            
+            summary.setTimeRange(timeRange[0], timeRange[1]);
+            return timeRange;
         }
         finally
         {
@@ -412,17 +582,24 @@ class TimeSeriesImpl extends Persistent implements IRecordStoreInfo
     {
         int[] bins = new int[timeStamps.length-1];
         
-        for (int i = 0; i < bins.length; i++)
+        // make sure time range is known before computing counts
+        getDataTimeRange();
+        TimeSeriesSummary summary = getSummary();
+        
+        try
         {
-            final double[] timeRange = new double[] {timeStamps[i], timeStamps[i+1]};
-            int count = this.getNumMatchingRecords(new DataFilter("") {
-                @Override
-                public double[] getTimeStampRange() {
-                    return timeRange;
-                }                
-            }, 1000);
+            recordIndex.sharedLock();
             
-            bins[i] = count;
+            // counts are computed from summary index so we never scan records
+            for (int i = 0; i < bins.length; i++)
+            {
+                double count = summary.getEstimatedCount(timeStamps[i], timeStamps[i+1]);
+                bins[i] = (int)Math.min(Math.round(count), Integer.MAX_VALUE);
+            }
+        }
+        finally
+        {
+            recordIndex.unlock();
         }
                 
         return bins;
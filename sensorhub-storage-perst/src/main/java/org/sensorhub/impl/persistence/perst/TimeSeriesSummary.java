@@ -0,0 +1,274 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+ 
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.impl.persistence.perst;
+
+import java.util.Iterator;
+import org.garret.perst.Index;
+import org.garret.perst.Key;
+import org.garret.perst.Persistent;
+import org.garret.perst.Storage;
+
+
+/**
+ * <p>
+ * PERST persistent summary of a time series, updated incrementally when
+ * records are added or removed.<br/>
+ * It keeps record counts aggregated in hourly and daily buckets, as well
+ * as the time stamps of the first and last records, so that time extents
+ * and histograms can be obtained without scanning the record index.
+ * </p>
+ *
+ * @author Alex Robin <alex.robin@sensiasoftware.com>
+ * @since Oct 16, 2026
+ */
+class TimeSeriesSummary extends Persistent
+{
+    static final double HOUR = 3600.;
+    static final long HOURS_PER_DAY = 24;
+    
+    
+    /*
+     * Number of records in a single time bucket
+     */
+    static class Bucket extends Persistent
+    {
+        long count;
+        
+        // default constructor needed for PERST on Android JVM
+        Bucket() {}
+    }
+    
+    
+    Index<Bucket> hourlyBuckets;
+    Index<Bucket> dailyBuckets;
+    double firstTime = Double.NaN;
+    double lastTime = Double.NaN;
+    boolean timeRangeValid;
+    
+    
+    // default constructor needed for PERST on Android JVM
+    TimeSeriesSummary() {}
+    
+    
+    TimeSeriesSummary(Storage db)
+    {
+        super(db);
+        hourlyBuckets = db.<Bucket>createIndex(long.class, true);
+        dailyBuckets = db.<Bucket>createIndex(long.class, true);
+        timeRangeValid = true; // empty time series
+    }
+    
+    
+    /*
+     * Updates summary after a record has been added with the given time stamp
+     */
+    void add(double time)
+    {
+        if (Double.isNaN(time) || Double.isInfinite(time))
+            return;
+        
+        long hour = getHourIndex(time);
+        addToBucket(hourlyBuckets, hour, 1);
+        addToBucket(dailyBuckets, Math.floorDiv(hour, HOURS_PER_DAY), 1);
+        
+        // we can only maintain time range incrementally if it is currently known
+        if (timeRangeValid)
+        {
+            if (Double.isNaN(firstTime) || time < firstTime)
+            {
+                firstTime = time;
+                modify();
+            }
+            
+            if (Double.isNaN(lastTime) || time > lastTime)
+            {
+                lastTime = time;
+                modify();
+            }
+        }
+    }
+    
+    
+    /*
+     * Updates summary after a record with the given time stamp has been removed
+     */
+    void remove(double time)
+    {
+        if (Double.isNaN(time) || Double.isInfinite(time))
+            return;
+        
+        long hour = getHourIndex(time);
+        addToBucket(hourlyBuckets, hour, -1);
+        addToBucket(dailyBuckets, Math.floorDiv(hour, HOURS_PER_DAY), -1);
+        
+        // time range has to be recomputed from record index if
+        // the first or last record was removed
+        if (timeRangeValid && (time <= firstTime || time >= lastTime))
+        {
+            timeRangeValid = false;
+            modify();
+        }
+    }
+    
+    
+    protected void addToBucket(Index<Bucket> buckets, long bucketIndex, int delta)
+    {
+        Key key = new Key(bucketIndex);
+        Bucket bucket = buckets.get(key);
+        
+        if (bucket == null)
+        {
+            if (delta <= 0)
+                return;
+            bucket = new Bucket();
+            bucket.count = delta;
+            buckets.put(key, bucket);
+        }
+        else
+        {
+            bucket.count += delta;
+            if (bucket.count > 0)
+                bucket.modify();
+            else
+            {
+                buckets.remove(key);
+                getStorage().deallocate(bucket);
+            }
+        }
+    }
+    
+    
+    boolean hasValidTimeRange()
+    {
+        return timeRangeValid;
+    }
+    
+    
+    double[] getTimeRange()
+    {
+        return new double[] {firstTime, lastTime};
+    }
+    
+    
+    void setTimeRange(double firstTime, double lastTime)
+    {
+        this.firstTime = firstTime;
+        this.lastTime = lastTime;
+        this.timeRangeValid = true;
+        modify();
+    }
+    
+    
+    /*
+     * Estimates the number of records within the given time range.
+     * Counts are exact for fully covered hours, and pro-rated according to
+     * the covered duration for hours that are only partially included.
+     * The time range of the data must be known.
+     */
+    double getEstimatedCount(double begin, double end)
+    {
+        if (Double.isNaN(firstTime))
+            return 0;
+        
+        // clamp to data time range
+        begin = Math.max(begin, firstTime);
+        end = Math.min(end, lastTime);
+        if (end < begin)
+            return 0;
+        
+        long firstHour = getHourIndex(begin);
+        long lastHour = getHourIndex(end);
+        if (firstHour == lastHour)
+            return getPartialHourCount(firstHour, begin, end);
+        
+        double count = 0.0;
+        count += getPartialHourCount(firstHour, begin, end);
+        count += getPartialHourCount(lastHour, begin, end);
+        count += getFullHoursCount(firstHour + 1, lastHour);
+        return count;
+    }
+    
+    
+    /*
+     * Pro-rates the count of the given hourly bucket according to the portion
+     * of the bucket (restricted to the data time range) covered by [begin, end]
+     */
+    protected double getPartialHourCount(long hour, double begin, double end)
+    {
+        long count = getBucketCount(hourlyBuckets, hour);
+        if (count == 0)
+            return 0;
+        
+        double bucketStart = Math.max(hour * HOUR, firstTime);
+        double bucketEnd = Math.min((hour + 1) * HOUR, lastTime);
+        double overlapStart = Math.max(begin, bucketStart);
+        double overlapEnd = Math.min(end, bucketEnd);
+        
+        if (overlapEnd < overlapStart)
+            return 0;
+        if (bucketEnd <= bucketStart || (overlapStart <= bucketStart && overlapEnd >= bucketEnd))
+            return count;
+        return count * (overlapEnd - overlapStart) / (bucketEnd - bucketStart);
+    }
+    
+    
+    /*
+     * Counts records in hours [startHour, stopHour[, using daily buckets
+     * for whole days
+     */
+    protected long getFullHoursCount(long startHour, long stopHour)
+    {
+        if (stopHour <= startHour)
+            return 0;
+        
+        long firstDay = -Math.floorDiv(-startHour, HOURS_PER_DAY); // ceil
+        long lastDay = Math.floorDiv(stopHour, HOURS_PER_DAY);
+        if (lastDay <= firstDay)
+            return sumBuckets(hourlyBuckets, startHour, stopHour);
+        
+        return sumBuckets(hourlyBuckets, startHour, firstDay * HOURS_PER_DAY) +
+               sumBuckets(dailyBuckets, firstDay, lastDay) +
+               sumBuckets(hourlyBuckets, lastDay * HOURS_PER_DAY, stopHour);
+    }
+    
+    
+    protected long getBucketCount(Index<Bucket> buckets, long bucketIndex)
+    {
+        Bucket bucket = buckets.get(new Key(bucketIndex));
+        return (bucket != null) ? bucket.count : 0;
+    }
+    
+    
+    /*
+     * Sums counts of buckets [startIndex, stopIndex[
+     */
+    protected long sumBuckets(Index<Bucket> buckets, long startIndex, long stopIndex)
+    {
+        if (stopIndex <= startIndex)
+            return 0;
+        
+        long count = 0;
+        Iterator<Bucket> it = buckets.iterator(new Key(startIndex, true), new Key(stopIndex, false), Index.ASCENT_ORDER);
+        while (it.hasNext())
+            count += it.next().count;
+        return count;
+    }
+    
+    
+    static long getHourIndex(double time)
+    {
+        return (long)Math.floor(time / HOUR);
+    }
+}
@@ -14,9 +14,15 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 
 package org.sensorhub.test.persistence.perst;
 
+import static org.junit.Assert.*;
 import java.io.File;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.api.persistence.DataFilter;
+import org.sensorhub.api.persistence.DataKey;
 import org.sensorhub.impl.persistence.perst.BasicStorageConfig;
 import org.sensorhub.impl.persistence.perst.BasicStorageImpl;
 import org.sensorhub.test.persistence.AbstractTestBasicStorage;
@@ -50,6 +56,56 @@ public class TestPerstBasicStorage extends AbstractTestBasicStorage<BasicStorage
     }
     
     
+    @Test
+    public void testGetTimeRangeAndCountsFromSummary() throws Exception
+    {
+        DataComponent recordDef = createDs2();
+        
+        // one record per minute during 2 days
+        final double t0 = 1500000000 - 1500000000 % 86400;
+        final int numRecords = 2*24*60;
+        for (int i = 0; i < numRecords; i++)
+        {
+            DataBlock data = recordDef.createDataBlock();
+            data.setDoubleValue(0, i);
+            storage.storeRecord(new DataKey(recordDef.getName(), t0 + i*60), data);
+        }
+        storage.commit();
+        forceReadBackFromStorage();
+        
+        double[] timeRange = storage.getRecordsTimeRange(recordDef.getName());
+        assertEquals(t0, timeRange[0], 0.0);
+        assertEquals(t0 + (numRecords-1)*60, timeRange[1], 0.0);
+        
+        // daily bins
+        int[] counts = storage.getEstimatedRecordCounts(recordDef.getName(), new double[] {t0, t0+86400-1e-3, t0+2*86400});
+        assertEquals(24*60, counts[0]);
+        assertEquals(24*60, counts[1]);
+        
+        // hourly bins
+        counts = storage.getEstimatedRecordCounts(recordDef.getName(), new double[] {t0+3600, t0+2*3600-1e-3, t0+26*3600-1e-3});
+        assertEquals(60, counts[0]);
+        assertEquals(24*60, counts[1]);
+        
+        // remove first day and check summary is updated
+        final double[] removeRange = new double[] {t0, t0+86400-1};
+        storage.removeRecords(new DataFilter(recordDef.getName()) {
+            @Override
+            public double[] getTimeStampRange()
+            {
+                return removeRange;
+            }
+        });
+        storage.commit();
+        forceReadBackFromStorage();
+        
+        timeRange = storage.getRecordsTimeRange(recordDef.getName());
+        assertEquals(t0 + 86400, timeRange[0], 0.0);
+        counts = storage.getEstimatedRecordCounts(recordDef.getName(), new double[] {Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY});
+        assertEquals(24*60, counts[0]);
+    }
+    
+    
     @After
     public void cleanup() throws Exception
     {
@@ -0,0 +1,115 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+The contents of this file are subject to the Mozilla Public License, v. 2.0.
+If a copy of the MPL was not distributed with this file, You can obtain one
+at http://mozilla.org/MPL/2.0/.
+
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+for the specific language governing rights and limitations under the License.
+
+Copyright (C) 2012-2021 Sensia Software LLC. All Rights Reserved.
+
+******************************* END LICENSE BLOCK ***************************/
+
+package org.sensorhub.test.persistence.perst;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.impl.persistence.perst.BasicStorageConfig;
+import org.sensorhub.impl.persistence.perst.ChunkedMappedFile;
+import org.sensorhub.impl.persistence.perst.ObsStorageImpl;
+import org.sensorhub.test.persistence.AbstractTestObsStorage;
+
+
+public class TestPerstMappedObsStorage extends AbstractTestObsStorage<ObsStorageImpl>
+{
+    File dbFile;
+    
+    
+    @Before
+    public void init() throws Exception
+    {
+        BasicStorageConfig config = new BasicStorageConfig();
+        config.autoStart = true;
+        config.memoryCacheSize = 1024;
+        config.memoryMapped = true;
+        config.mappedChunkSize = 1; // use small chunks so pages are spread over many of them
+        dbFile = File.createTempFile("testdb", ".dat");
+        dbFile.deleteOnExit();
+        config.storagePath = dbFile.getAbsolutePath();
+        
+        storage = new ObsStorageImpl();
+        storage.init(config);
+        storage.start();
+    }
+    
+
+    @Override
+    protected void forceReadBackFromStorage() throws Exception
+    {
+        storage.stop();
+        storage.start();
+    }
+    
+    
+    @Test
+    public void testReadWriteAcrossChunks() throws Exception
+    {
+        File testFile = File.createTempFile("testmap", ".dat");
+        testFile.deleteOnExit();
+        int chunkSize = 8192;
+        
+        ChunkedMappedFile file = new ChunkedMappedFile(testFile.getAbsolutePath(), chunkSize, false);
+        assertEquals(0, file.length());
+        assertEquals(-1, file.read(0, new byte[100]));
+        
+        // write buffer overlapping 3 chunks
+        byte[] data = new byte[chunkSize + 1000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte)i;
+        long pos = chunkSize - 500;
+        file.write(pos, data);
+        assertEquals(pos + data.length, file.length());
+        
+        byte[] readBuf = new byte[data.length];
+        assertEquals(data.length, file.read(pos, readBuf));
+        assertArrayEquals(data, readBuf);
+        
+        // read past end of file
+        readBuf = new byte[1000];
+        assertEquals(500, file.read(file.length() - 500, readBuf));
+        file.sync();
+        file.close();
+        
+        // check file was truncated to actual size and can be read back
+        assertEquals(pos + data.length, testFile.length());
+        file = new ChunkedMappedFile(testFile.getAbsolutePath(), chunkSize, false);
+        readBuf = new byte[data.length];
+        assertEquals(data.length, file.read(pos, readBuf));
+        assertArrayEquals(data, readBuf);
+        readBuf = new byte[100];
+        assertEquals(100, file.read(0, readBuf));
+        assertArrayEquals(new byte[100], readBuf);
+        file.close();
+        
+        byte[] fileContent = Files.readAllBytes(testFile.toPath());
+        assertArrayEquals(data, Arrays.copyOfRange(fileContent, (int)pos, (int)pos + data.length));
+        testFile.delete();
+    }
+    
+    
+    @After
+    public void cleanup() throws Exception
+    {
+        storage.stop();
+        System.out.println("DB file size was " + dbFile.length()/1024 + "KB");
+        dbFile.delete();
+    }
+    
+}
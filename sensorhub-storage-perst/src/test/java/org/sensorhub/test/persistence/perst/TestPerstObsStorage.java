@@ -14,9 +14,17 @@ Copyright (C) 2012-2015 Sensia Software LLC. All Rights Reserved.
 
 package org.sensorhub.test.persistence.perst;
 
+import static org.junit.Assert.*;
 import java.io.File;
-import org.junit.After;
-import org.junit.Before;
+import java.util.Iterator;
+import java.util.List;
+import net.opengis.swe.v20.DataBlock;
+import net.opengis.swe.v20.DataComponent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sensorhub.api.persistence.IDataRecord;
+import org.sensorhub.api.persistence.ObsFilter;
 import org.sensorhub.impl.persistence.perst.BasicStorageConfig;
 import org.sensorhub.impl.persistence.perst.ObsStorageImpl;
 import org.sensorhub.test.persistence.AbstractTestObsStorage;
@@ -51,6 +59,46 @@ public class TestPerstObsStorage extends AbstractTestObsStorage<ObsStorageImpl>
     }
     
     
+    @Test
+    public void testRemoveRecordsWithIterator() throws Exception
+    {
+        DataComponent recordDef = createDs2();
+        List<DataBlock> dataList = addObservationsWithFoiToStorage(recordDef);
+        
+        // remove every other record while iterating
+        Iterator<? extends IDataRecord> it = storage.getRecordIterator(new ObsFilter(recordDef.getName()));
+        int i = 0;
+        while (it.hasNext())
+        {
+            it.next();
+            if (i++ % 2 == 0)
+                it.remove();
+        }
+        storage.commit();
+        forceReadBackFromStorage();
+        
+        // check that removed records are the ones returned by the iterator
+        it = storage.getRecordIterator(new ObsFilter(recordDef.getName()));
+        i = 1;
+        while (it.hasNext())
+        {
+            IDataRecord rec = it.next();
+            assertEquals(i*0.1, rec.getKey().timeStamp, 1e-9);
+            i += 2;
+        }
+        assertEquals(dataList.size()+1, i);
+        
+        // check that summary index was updated accordingly
+        int numLeft = dataList.size()/2;
+        assertEquals(numLeft, storage.getNumRecords(recordDef.getName()));
+        int[] counts = storage.getEstimatedRecordCounts(recordDef.getName(), new double[] {Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY});
+        assertEquals(numLeft, counts[0]);
+        double[] timeRange = storage.getRecordsTimeRange(recordDef.getName());
+        assertEquals(0.1, timeRange[0], 1e-9);
+        assertEquals((dataList.size()-1)*0.1, timeRange[1], 1e-9);
+    }
+    
+    
     @After
     public void cleanup() throws Exception
     {